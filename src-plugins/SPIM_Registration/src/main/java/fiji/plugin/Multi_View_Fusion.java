@@ -76,7 +76,7 @@ public void run(String arg0)
 	}
 
 	//public static String allChannels = "0, 1";
-	public static String[] fusionMethodList = { "Fuse into a single image", "Create independent registered images" };	
+	public static String[] fusionMethodList = { "Fuse into a single image", "Create independent registered images", "Fuse into a single image block-wise (low memory)" };	
 	public static int defaultFusionMethod = 0;
 	public static int defaultParalellViews = 0;
 	public static boolean fusionUseBlendingStatic = true;
@@ -559,8 +559,13 @@ else if ( s.contains( ".registration.to_" ) )
 		conf.paralellFusion = false;
 		conf.sequentialFusion = false;
 		conf.multipleImageFusion = false;
+		conf.blockwiseFusion = false;
 
-		if ( defaultFusionMethod == 0 && defaultParalellViews == 0  )
+		if ( defaultFusionMethod == 2 )
+		{
+			conf.blockwiseFusion = true;
+		}
+		else if ( defaultFusionMethod == 0 && defaultParalellViews == 0  )
 		{
 			conf.paralellFusion = true;
 		}
@@ -54,6 +54,28 @@ else if ( conf.isDeconvolution )
 			fusion = new PreDeconvolutionFusion( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
 		else if (conf.multipleImageFusion)
 			fusion = new MappingFusionSequentialDifferentOutput( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories, conf.numParalellViews );
+		else if (conf.blockwiseFusion)
+		{
+			// if the fused image is not displayed, write it block by block instead of keeping it in memory
+			String outputDirectory = null;
+			
+			if ( !conf.showOutputImage && conf.writeOutputImage == 1 )
+			{
+				outputDirectory = conf.outputdirectory;
+			}
+			else if ( !conf.showOutputImage && conf.writeOutputImage == 2 )
+			{
+				final File dir = new File( conf.outputdirectory, "" + timePoint );
+				if ( !dir.exists() && !dir.mkdirs() )
+				{
+					IOFunctions.printErr("(" + new Date(System.currentTimeMillis()) + "): Cannot create directory '" + dir.getAbsolutePath() + "', quitting.");
+					return;
+				}
+				outputDirectory = dir.getAbsolutePath();
+			}
+			
+			fusion = new MappingFusionBlockwise( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories, conf.fusionBlockSize, outputDirectory, "img_tl" + timePoint );
+		}
 		else if (conf.paralellFusion)
 			fusion = new MappingFusionParalell( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories ); //TODO: Remove Max Weight
 		else
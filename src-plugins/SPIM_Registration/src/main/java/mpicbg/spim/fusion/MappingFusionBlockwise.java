@@ -0,0 +1,665 @@
+package mpicbg.spim.fusion;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.interpolation.Interpolator;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.imglib.util.Util;
+import mpicbg.models.AbstractAffineModel3D;
+import mpicbg.models.NoninvertibleModelException;
+import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.registration.ViewDataBeads;
+import mpicbg.spim.registration.ViewStructure;
+
+/**
+ * Fuses the views block by block. For every output block only the views whose
+ * transformed bounding box intersects the block are visited, and along each
+ * row of a block the source coordinates are stepped incrementally instead of
+ * applying the inverse model to every voxel.
+ *
+ * If an output directory is given, the fused image is never held in memory:
+ * the blocks of one z-slab are computed in paralell and the slab is then
+ * written as one tiff per slice, named like {@link SPIMImageFusion#saveAsTiffs}
+ * would name them. Otherwise the blocks are written into an in-memory image
+ * as with {@link MappingFusionParalell}.
+ */
+public class MappingFusionBlockwise extends SPIMImageFusion
+{
+	final Image<FloatType> fusedImage;
+	final int blockSize;
+	final String outputDirectory, outputName;
+
+	boolean writtenOk = true;
+
+	public MappingFusionBlockwise( final ViewStructure viewStructure, final ViewStructure referenceViewStructure,
+								   final ArrayList<IsolatedPixelWeightenerFactory<?>> isolatedWeightenerFactories,
+								   final ArrayList<CombinedPixelWeightenerFactory<?>> combinedWeightenerFactories,
+								   final int blockSize, final String outputDirectory, final String outputName )
+	{
+		super( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
+
+		this.blockSize = Math.max( 1, blockSize );
+		this.outputName = outputName;
+
+		if ( outputDirectory == null )
+		{
+			this.outputDirectory = null;
+
+			if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+				IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Reserving memory for fused image.");
+
+			final ImageFactory<FloatType> fusedImageFactory = new ImageFactory<FloatType>( new FloatType(), conf.outputImageFactory );
+			fusedImage = fusedImageFactory.createImage( new int[]{ imgW, imgH, imgD }, "Fused image");
+
+			if (fusedImage == null)
+			{
+				if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+					IOFunctions.println("MappingFusionBlockwise.constructor: Cannot create output image: " + conf.outputImageFactory.getErrorMessage());
+
+				return;
+			}
+		}
+		else
+		{
+			String dir = outputDirectory.replace( '\\', '/' ).trim();
+			if ( dir.length() > 0 && !dir.endsWith( "/" ) )
+				dir = dir + "/";
+
+			this.outputDirectory = dir;
+			this.fusedImage = null;
+
+			if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+				IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Fused image will be written block-wise to '" + dir + "', " +
+						Math.round( (4.0 * imgW * imgH * Math.min( this.blockSize, imgD ))/(1024 * 1024) ) + " MB of RAM per z-slab." );
+		}
+	}
+
+	@Override
+	public void fuseSPIMImages( final int channelIndex )
+	{
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("Loading source images (Channel " + channelIndex +  ").");
+
+		//
+		// update views so that only the current channel is being fused
+		//
+		final ArrayList<ViewDataBeads> views = new ArrayList<ViewDataBeads>();
+
+		for ( final ViewDataBeads view : viewStructure.getViews() )
+			if ( view.getChannelIndex() == channelIndex )
+				views.add( view );
+
+		final int numViews = views.size();
+
+		// load images
+		for ( final ViewDataBeads view : views )
+			view.getImage( false );
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN && isolatedWeightenerFactories.size() > 0 )
+		{
+			String methods = "(" + isolatedWeightenerFactories.get(0).getDescriptiveName();
+			for ( int i = 1; i < isolatedWeightenerFactories.size(); ++i )
+				methods += ", " + isolatedWeightenerFactories.get(i).getDescriptiveName();
+			methods += ")";
+
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Init isolated weighteners for all views " + methods );
+		}
+
+		// init isolated pixel weighteners
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = SimpleMultiThreading.newThreads(conf.numberOfThreads);
+		final int numThreads = threads.length;
+
+		// compute them all in paralell ( computation done while opening )
+		IsolatedPixelWeightener<?>[][] isoWinit = new IsolatedPixelWeightener<?>[ isolatedWeightenerFactories.size() ][ numViews ];
+		for (int j = 0; j < isoWinit.length; j++)
+		{
+			final int i = j;
+
+			final IsolatedPixelWeightener<?>[][] isoW = isoWinit;
+
+			ai.set( 0 );
+			for (int ithread = 0; ithread < threads.length; ++ithread)
+				threads[ithread] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final int myNumber = ai.getAndIncrement();
+
+						for (int view = 0; view < numViews; view++)
+							if ( view % numThreads == myNumber)
+							{
+								IOFunctions.println( "Computing " + isolatedWeightenerFactories.get( i ).getDescriptiveName() + " for " + views.get( view ) );
+								isoW[i][view] = isolatedWeightenerFactories.get(i).createInstance( views.get(view) );
+							}
+					}
+				});
+
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+
+		// test if the isolated weighteners were successfull...
+		try
+		{
+			boolean successful = true;
+			for ( final IsolatedPixelWeightener<?>[] iso : isoWinit )
+				for ( final IsolatedPixelWeightener<?> i : iso )
+					if ( i == null )
+						successful = false;
+
+			if ( !successful )
+			{
+				IOFunctions.println( "WARNING: Not enough memory for running the content-based fusion, running without it" );
+				isoWinit = new IsolatedPixelWeightener[ 0 ][ 0 ];
+			}
+		}
+		catch (final Exception e)
+		{
+			IOFunctions.println( "WARNING: Not enough memory for running the content-based fusion, running without it" );
+			isoWinit = new IsolatedPixelWeightener[ 0 ][ 0 ];
+		}
+
+		final IsolatedPixelWeightener<?>[][] isoW = isoWinit;
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Computing output image block-wise (Channel " + channelIndex +  ").");
+
+		// cache the views, imageSizes and the inverse transformations in output pixel coordinates
+		final boolean useView[] = new boolean[ numViews ];
+		final double[][] inverse = new double[ numViews ][];
+		final int[][] imageSizes = new int[ numViews ][];
+
+		for ( int i = 0; i < numViews; ++i )
+		{
+			useView[ i ] = Math.max( views.get( i ).getViewErrorStatistics().getNumConnectedViews(), views.get( i ).getTile().getConnectedTiles().size() ) > 0 || views.get( i ).getViewStructure().getNumViews() == 1;
+
+			// if a corresponding view that was used for registration is valid, this one is too
+			if ( views.get( i ).getUseForRegistration() == false )
+			{
+				final int angle = views.get( i ).getAcqusitionAngle();
+				final int timepoint = views.get( i ).getViewStructure().getTimePoint();
+
+				for ( final ViewDataBeads view2 : viewStructure.getViews() )
+					if ( view2.getAcqusitionAngle() == angle && timepoint == view2.getViewStructure().getTimePoint() && view2.getUseForRegistration() == true )
+						useView[ i ] = true;
+			}
+
+			imageSizes[ i ] = views.get( i ).getImageSize();
+
+			try
+			{
+				inverse[ i ] = getInverse( (AbstractAffineModel3D<?>)views.get( i ).getTile().getModel() );
+			}
+			catch ( final NoninvertibleModelException e )
+			{
+				if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+					IOFunctions.println( "MappingFusionBlockwise(): Model not invertible for " + views.get( i ) );
+				useView[ i ] = false;
+			}
+		}
+
+		final int numBlocksX = ( imgW + blockSize - 1 ) / blockSize;
+		final int numBlocksY = ( imgH + blockSize - 1 ) / blockSize;
+		final int numBlocksXY = numBlocksX * numBlocksY;
+
+		final String name = outputName + "_ch" + viewStructure.getChannelNum( channelIndex );
+		final int digitsZ = ( "" + ( imgD - 1 ) ).length();
+
+		final AtomicLong numBlocks = new AtomicLong( 0 );
+		final AtomicLong numBlockViews = new AtomicLong( 0 );
+
+		for ( int z0 = 0; z0 < imgD; z0 += blockSize )
+		{
+			final int slabZ = z0;
+			final int slabDepth = Math.min( blockSize, imgD - z0 );
+			final float[][] slab = outputDirectory == null ? null : new float[ slabDepth ][ imgW * imgH ];
+
+			ai.set( 0 );
+			threads = SimpleMultiThreading.newThreads( numThreads );
+
+			for (int ithread = 0; ithread < threads.length; ++ithread)
+				threads[ithread] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						// init combined pixel weighteners
+						final CombinedPixelWeightener<?>[] combW = new CombinedPixelWeightener<?>[combinedWeightenerFactories.size()];
+						for (int i = 0; i < combW.length; i++)
+							combW[i] = combinedWeightenerFactories.get(i).createInstance( views );
+
+						// get iterators for isolated weights
+						final LocalizableByDimCursor<FloatType> isoIterators[][] = new LocalizableByDimCursor[ isoW.length ][ numViews ];
+						for (int i = 0; i < isoW.length; i++)
+							for (int view = 0; view < isoW[i].length; view++)
+								isoIterators[i][view] = isoW[i][view].getResultIterator();
+
+						// create Interpolated Iterators for the input images (every thread need own ones!)
+						final Interpolator<FloatType>[] interpolators = new Interpolator[ numViews ];
+						for (int view = 0; view < numViews ; view++)
+							interpolators[ view ] = views.get( view ).getImage( false ).createInterpolator( conf.interpolatorFactorOutput );
+
+						final LocalizableByDimCursor<FloatType> out = fusedImage == null ? null : fusedImage.createLocalizableByDimCursor();
+
+						final BlockFuser fuser = new BlockFuser( numViews, useView, inverse, imageSizes, combW, isoIterators, interpolators );
+						final float[] row = new float[ blockSize ];
+						final int[] position = new int[ 3 ];
+
+						for ( int b = ai.getAndIncrement(); b < numBlocksXY; b = ai.getAndIncrement() )
+						{
+							final int x0 = ( b % numBlocksX ) * blockSize;
+							final int y0 = ( b / numBlocksX ) * blockSize;
+							final int w = Math.min( blockSize, imgW - x0 );
+							final int h = Math.min( blockSize, imgH - y0 );
+
+							final int numActive = fuser.selectViews( x0, y0, slabZ, w, h, slabDepth );
+
+							numBlocks.incrementAndGet();
+							numBlockViews.addAndGet( numActive );
+
+							for ( int z = slabZ; z < slabZ + slabDepth; ++z )
+								for ( int y = y0; y < y0 + h; ++y )
+								{
+									if ( numActive > 0 )
+										fuser.fuseRow( x0, y, z, w, row );
+									else
+										for ( int x = 0; x < w; ++x )
+											row[ x ] = 0;
+
+									if ( slab != null )
+									{
+										System.arraycopy( row, 0, slab[ z - slabZ ], y * imgW + x0, w );
+									}
+									else
+									{
+										position[ 0 ] = x0;
+										position[ 1 ] = y;
+										position[ 2 ] = z;
+										out.setPosition( position );
+
+										for ( int x = 0; x < w; ++x )
+										{
+											if ( x > 0 )
+												out.fwd( 0 );
+											out.getType().set( row[ x ] );
+										}
+									}
+								}
+						}
+
+						if ( out != null )
+							out.close();
+
+						for (int view = 0; view < numViews; view++)
+							interpolators[view].close();
+
+						// close combined pixel weighteners
+						for (int i = 0; i < combW.length; i++)
+							combW[i].close();
+
+						// close isolated iterators
+						for (int i = 0; i < isoW.length; i++)
+							for (int view = 0; view < isoW[i].length; view++)
+								isoIterators[i][view].close();
+					}
+				});
+
+			SimpleMultiThreading.startAndJoin( threads );
+
+			// write the finished slab
+			if ( slab != null )
+			{
+				for ( int z = 0; z < slabDepth; ++z )
+				{
+					String descZ = "" + ( slabZ + z );
+					while ( descZ.length() < digitsZ )
+						descZ = "0" + descZ;
+
+					final ImagePlus slice = new ImagePlus( name + "_z" + descZ + ".tif", new FloatProcessor( imgW, imgH, slab[ z ], null ) );
+					final FileSaver fs = new FileSaver( slice );
+					writtenOk = fs.saveAsTiff( outputDirectory + slice.getTitle() ) && writtenOk;
+					slice.close();
+				}
+
+				if ( !writtenOk && viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+					IOFunctions.println( "MappingFusionBlockwise(): Cannot write all slices to '" + outputDirectory + "'" );
+			}
+		}
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Fused " + numBlocks.get() + " blocks, on average " +
+					( numBlocks.get() == 0 ? 0 : Math.round( 100.0 * numBlockViews.get() / numBlocks.get() ) / 100.0 ) + " of " + numViews + " views per block.");
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Closing all input images (Channel " + channelIndex +  ").");
+
+		// unload images
+		for ( final ViewDataBeads view : views )
+			view.closeImage();
+
+		// close isolated pixel weighteners
+		try
+		{
+			for (int i = 0; i < isoW.length; i++)
+				for (int view = 0; view < numViews; view++)
+					isoW[i][view].close();
+		}
+		catch (final Exception e )
+		{
+			// this will fail if there was not enough memory...
+		}
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Done computing output image (Channel " + channelIndex +  ").");
+	}
+
+	/**
+	 * Returns the fused image, or null if it was written to disk block-wise.
+	 */
+	@Override
+	public Image<FloatType> getFusedImage() { return fusedImage; }
+
+	@Override
+	public boolean saveAsTiffs( final String dir, final String name, final int channelIndex )
+	{
+		// the slices have already been written while fusing
+		if ( fusedImage == null )
+			return writtenOk;
+
+		return super.saveAsTiffs( dir, name, channelIndex );
+	}
+
+	@Override
+	public void closeImages()
+	{
+		if ( fusedImage != null )
+			fusedImage.close();
+	}
+
+	/**
+	 * Computes the inverse of the model as a 3x4 matrix that maps output
+	 * pixel coordinates (before cropping) to source pixel coordinates, by
+	 * mapping the origin and the far ends of the three axes of the output
+	 * image.
+	 */
+	protected double[] getInverse( final AbstractAffineModel3D<?> model ) throws NoninvertibleModelException
+	{
+		final double[] o = inverseOf( model, 0, 0, 0 );
+		final double[] ex = inverseOf( model, imgW, 0, 0 );
+		final double[] ey = inverseOf( model, 0, imgH, 0 );
+		final double[] ez = inverseOf( model, 0, 0, imgD );
+
+		final double[] m = new double[ 12 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			m[ d * 4 ] = ( ex[ d ] - o[ d ] ) / imgW;
+			m[ d * 4 + 1 ] = ( ey[ d ] - o[ d ] ) / imgH;
+			m[ d * 4 + 2 ] = ( ez[ d ] - o[ d ] ) / imgD;
+			m[ d * 4 + 3 ] = o[ d ];
+		}
+
+		return m;
+	}
+
+	protected double[] inverseOf( final AbstractAffineModel3D<?> model, final int x, final int y, final int z ) throws NoninvertibleModelException
+	{
+		final float[] tmp = new float[ 3 ];
+
+		tmp[ 0 ] = (x + cropOffsetX) * scale + min.x;
+		tmp[ 1 ] = (y + cropOffsetY) * scale + min.y;
+		tmp[ 2 ] = (z + cropOffsetZ) * scale + min.z;
+
+		model.applyInverseInPlace( tmp );
+
+		return new double[]{ tmp[ 0 ], tmp[ 1 ], tmp[ 2 ] };
+	}
+
+	/**
+	 * Fuses the rows of one block, one instance per thread.
+	 */
+	protected static class BlockFuser
+	{
+		final int numViews;
+		final boolean[] useView;
+		final double[][] inverse;
+		final int[][] imageSizes;
+		final CombinedPixelWeightener<?>[] combW;
+		final LocalizableByDimCursor<FloatType>[][] isoIterators;
+		final Interpolator<FloatType>[] interpolators;
+
+		final int[] active;
+		int numActive;
+
+		final int[][] loc;
+		final float[][] locf;
+		final boolean[] use;
+		final double[][] position;
+		final int[] from, to;
+
+		public BlockFuser( final int numViews, final boolean[] useView, final double[][] inverse, final int[][] imageSizes,
+						   final CombinedPixelWeightener<?>[] combW, final LocalizableByDimCursor<FloatType>[][] isoIterators,
+						   final Interpolator<FloatType>[] interpolators )
+		{
+			this.numViews = numViews;
+			this.useView = useView;
+			this.inverse = inverse;
+			this.imageSizes = imageSizes;
+			this.combW = combW;
+			this.isoIterators = isoIterators;
+			this.interpolators = interpolators;
+
+			this.active = new int[ numViews ];
+			this.loc = new int[ numViews ][ 3 ];
+			this.locf = new float[ numViews ][ 3 ];
+			this.use = new boolean[ numViews ];
+			this.position = new double[ numViews ][ 3 ];
+			this.from = new int[ numViews ];
+			this.to = new int[ numViews ];
+		}
+
+		/**
+		 * Determines which views intersect the given block by transforming its
+		 * corners into each view.
+		 *
+		 * @return the number of views that intersect the block
+		 */
+		public int selectViews( final int x0, final int y0, final int z0, final int w, final int h, final int d )
+		{
+			numActive = 0;
+
+			for ( int i = 0; i < numViews; ++i )
+			{
+				use[ i ] = false;
+
+				if ( !useView[ i ] )
+					continue;
+
+				final double[] m = inverse[ i ];
+				boolean intersects = true;
+
+				for ( int dim = 0; dim < 3 && intersects; ++dim )
+				{
+					double lo = m[ dim * 4 + 3 ] + m[ dim * 4 ] * x0 + m[ dim * 4 + 1 ] * y0 + m[ dim * 4 + 2 ] * z0;
+					double hi = lo;
+
+					// extend by the contribution of each axis of the block
+					final double[] extent = new double[]{ m[ dim * 4 ] * ( w - 1 ), m[ dim * 4 + 1 ] * ( h - 1 ), m[ dim * 4 + 2 ] * ( d - 1 ) };
+					for ( final double e : extent )
+					{
+						if ( e < 0 )
+							lo += e;
+						else
+							hi += e;
+					}
+
+					// a source pixel is hit if its rounded coordinate is inside the image
+					if ( hi < -0.5 || lo >= imageSizes[ i ][ dim ] - 0.5 )
+						intersects = false;
+				}
+
+				if ( intersects )
+					active[ numActive++ ] = i;
+			}
+
+			return numActive;
+		}
+
+		/**
+		 * Fuses one row of the current block, starting at (x0, y, z).
+		 */
+		public void fuseRow( final int x0, final int y, final int z, final int w, final float[] row )
+		{
+			// the start of the row in each view and the range of x that can hit it
+			for ( int a = 0; a < numActive; ++a )
+			{
+				final int i = active[ a ];
+				final double[] m = inverse[ i ];
+
+				int first = 0;
+				int last = w - 1;
+
+				for ( int dim = 0; dim < 3; ++dim )
+				{
+					final double start = m[ dim * 4 + 3 ] + m[ dim * 4 ] * x0 + m[ dim * 4 + 1 ] * y + m[ dim * 4 + 2 ] * z;
+					final double step = m[ dim * 4 ];
+					final double lower = -0.5;
+					final double upper = imageSizes[ i ][ dim ] - 0.5;
+
+					position[ i ][ dim ] = start;
+
+					if ( step == 0 )
+					{
+						if ( start < lower || start >= upper )
+							last = -1;
+					}
+					else
+					{
+						final double t1 = ( lower - start ) / step;
+						final double t2 = ( upper - start ) / step;
+
+						// one pixel of tolerance, the exact test is done per voxel
+						first = Math.max( first, (int)Math.floor( Math.min( t1, t2 ) ) - 1 );
+						last = Math.min( last, (int)Math.ceil( Math.max( t1, t2 ) ) + 1 );
+					}
+				}
+
+				from[ i ] = first;
+				to[ i ] = last;
+
+				// step to the first pixel that can hit the view
+				if ( first > 0 && first <= last )
+					for ( int dim = 0; dim < 3; ++dim )
+						position[ i ][ dim ] += first * m[ dim * 4 ];
+			}
+
+			for ( int x = 0; x < w; ++x )
+			{
+				int num = 0;
+
+				for ( int a = 0; a < numActive; ++a )
+				{
+					final int i = active[ a ];
+
+					if ( x < from[ i ] || x > to[ i ] )
+					{
+						use[ i ] = false;
+						continue;
+					}
+
+					final double[] p = position[ i ];
+					final int[] l = loc[ i ];
+					final float[] lf = locf[ i ];
+					final int[] size = imageSizes[ i ];
+
+					lf[ 0 ] = (float)p[ 0 ];
+					lf[ 1 ] = (float)p[ 1 ];
+					lf[ 2 ] = (float)p[ 2 ];
+
+					l[ 0 ] = Util.round( lf[ 0 ] );
+					l[ 1 ] = Util.round( lf[ 1 ] );
+					l[ 2 ] = Util.round( lf[ 2 ] );
+
+					// do we hit the source image?
+					if ( l[ 0 ] >= 0 && l[ 1 ] >= 0 && l[ 2 ] >= 0 && l[ 0 ] < size[ 0 ] && l[ 1 ] < size[ 1 ] && l[ 2 ] < size[ 2 ] )
+					{
+						use[ i ] = true;
+						++num;
+					}
+					else
+					{
+						use[ i ] = false;
+					}
+
+					// incremental step along x
+					final double[] m = inverse[ i ];
+					p[ 0 ] += m[ 0 ];
+					p[ 1 ] += m[ 4 ];
+					p[ 2 ] += m[ 8 ];
+				}
+
+				if ( num == 0 )
+				{
+					row[ x ] = 0;
+					continue;
+				}
+
+				// update combined weighteners
+				if ( combW.length > 0 )
+					for ( final CombinedPixelWeightener<?> cw : combW )
+						cw.updateWeights( locf, use );
+
+				float sumWeights = 0;
+				float value = 0;
+
+				for ( int a = 0; a < numActive; ++a )
+				{
+					final int view = active[ a ];
+
+					if ( use[ view ] )
+					{
+						float weight = 1;
+
+						// multiplicate combined weights
+						if ( combW.length > 0 )
+							for ( final CombinedPixelWeightener<?> cw : combW )
+								weight *= cw.getWeight( view );
+
+						// multiplicate isolated weights
+						for ( int i = 0; i < isoIterators.length; i++ )
+						{
+							isoIterators[ i ][ view ].setPosition( loc[ view ] );
+							weight *= isoIterators[ i ][ view ].getType().get();
+						}
+
+						interpolators[ view ].setPosition( locf[ view ] );
+
+						value += weight * interpolators[ view ].getType().get();
+						sumWeights += weight;
+					}
+				}
+
+				if ( sumWeights > 0 )
+					row[ x ] = value / sumWeights;
+				else
+					row[ x ] = 0;
+			}
+
+			// views that were not stepped through must not be used by the next row
+			for ( int a = 0; a < numActive; ++a )
+				use[ active[ a ] ] = false;
+		}
+	}
+}
@@ -372,6 +372,7 @@ else if (words[1].startsWith("OutsideStrategyValueFactory"))
 		if (conf.paralellFusion) countTrue++;
 		if (conf.sequentialFusion) countTrue++;
 		if (conf.multipleImageFusion) countTrue++;
+		if (conf.blockwiseFusion) countTrue++;
 		
 		if (countTrue != 1)
 			throw new ConfigurationParserException("Error reading/parsing configuration file: Only one fusion method must be true!");
@@ -92,6 +92,8 @@ public enum SegmentationTypes { THRESHOLD, DOG, DOM };
     public boolean sequentialFusion = false;
     public int numParalellViews = 1;
     public boolean multipleImageFusion = false;
+    public boolean blockwiseFusion = false;
+    public int fusionBlockSize = 64;
     public boolean isDeconvolution = false;
     public boolean deconvolutionLoadSequentially = false;
     public boolean deconvolutionJustShowOverlap = false;
@@ -815,6 +817,8 @@ public void printProperties()
     	IOFunctions.println("paralellFusion: " + paralellFusion);
     	IOFunctions.println("sequentialFusion: " + sequentialFusion);
     	IOFunctions.println("multipleImageFusion: " + multipleImageFusion);
+    	IOFunctions.println("blockwiseFusion: " + blockwiseFusion);
+    	IOFunctions.println("fusionBlockSize: " + fusionBlockSize);
 
     	IOFunctions.println("registerOnly: " + registerOnly);
     	IOFunctions.println("readSegmentation: " + readSegmentation);
@@ -244,25 +244,47 @@ final private static void runIteration( final Image< FloatType> psi, final Array
 		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( psi.getNumPixels(), Runtime.getRuntime().availableProcessors() );
 		final int numThreads = threadChunks.size();
 		
+		// array-backed images are updated in single passes over their float[], otherwise with cursors
+		final float[] psiArray = LRUpdateKernels.getArray( psi );
+		
 		final Image< FloatType > lastIteration;
+		final float[] lastIterationArray;
 		
-		if ( collectStatistic )
+		if ( collectStatistic && psiArray != null )
+		{
+			lastIteration = null;
+			lastIterationArray = psiArray.clone();
+		}
+		else if ( collectStatistic )
+		{
 			lastIteration = psi.clone();
+			lastIterationArray = null;
+		}
 		else
+		{
 			lastIteration = null;
+			lastIterationArray = null;
+		}
 
+		// time spent in the convolutions and in the pixel-wise updates, and in the block steps of the convolutions
+		final long iterationStart = System.nanoTime();
+		long convolutionTime = 0;
+		final long[] blockTimes = new long[ 3 ];
+		
 		//int view = iteration % numViews;
 		for ( int view = 0; view < numViews; ++view )
 		{
 			final LRFFT processingData = data.get( view );
 						
-			long time = System.currentTimeMillis();
+			long time = System.nanoTime();
 			
 			// convolve psi (current guess of the image) with the PSF of the current view
 			final Image<FloatType> psiBlurred = processingData.convolve1( psi );
 			
-			//System.out.println( view + " 1: " + fftConvolution.getProcessingTime() + " ms." );
-			System.out.println( view + " a: " + (time - System.currentTimeMillis()) + " ms." );
+			convolutionTime += System.nanoTime() - time;
+			
+			final float[] imgArray = LRUpdateKernels.getArray( processingData.getImage() );
+			final float[] psiBlurredArray = LRUpdateKernels.getArray( psiBlurred );
 			
 			// size = 666, 363, 537
 			
@@ -280,7 +302,15 @@ public void run()
 	                	// get chunk of pixels to process
 	                	final Chunk myChunk = threadChunks.get( myNumber );
 	                	
-	            		computeQuotient( myChunk.getStartPosition(), myChunk.getLoopSize(), psiBlurred, processingData );                		
+	                	if ( imgArray != null && psiBlurredArray != null )
+	                	{
+	                		final int start = (int)myChunk.getStartPosition();
+	                		LRUpdateKernels.quotient( imgArray, psiBlurredArray, start, start + (int)myChunk.getLoopSize() );
+	                	}
+	                	else
+	                	{
+	                		computeQuotient( myChunk.getStartPosition(), myChunk.getLoopSize(), psiBlurred, processingData );
+	                	}
 	                }
 	            });
 	        
@@ -288,13 +318,20 @@ public void run()
 
 			//System.out.println( view + " b: " + (time - System.currentTimeMillis()) + " ms." );
 
-	        time = System.currentTimeMillis();
+	        time = System.nanoTime();
 	        
 			// blur the residuals image with the kernel
 	        final Image< FloatType > integral = processingData.convolve2( psiBlurred );
 
-			//System.out.println( view + " 2: " + invFFConvolution.getProcessingTime() + " ms." );
-			System.out.println( view + " b: " + (time - System.currentTimeMillis()) + " ms." );
+	        convolutionTime += System.nanoTime() - time;
+	        processingData.collectBlockTimes( blockTimes );
+
+	        final float[] integralArray = LRUpdateKernels.getArray( integral );
+	        final Image< FloatType > weight = processingData.getWeight();
+	        final boolean constantWeight = LRUpdateKernels.isConstant( weight );
+	        final float[] weightArray = constantWeight ? null : LRUpdateKernels.getArray( weight );
+	        final float weightValue = constantWeight ? LRUpdateKernels.getConstant( weight ) : 0;
+	        final boolean useKernels = psiArray != null && integralArray != null && ( constantWeight || weightArray != null );
 
 			ai.set( 0 );
 	        for ( int ithread = 0; ithread < threads.length; ++ithread )
@@ -308,7 +345,15 @@ public void run()
 	                	// get chunk of pixels to process
 	                	final Chunk myChunk = threadChunks.get( myNumber );
 	                	
-	            		computeFinalValues( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, integral, processingData.getWeight(), lambda );                		
+	                	if ( useKernels )
+	                	{
+	                		final int start = (int)myChunk.getStartPosition();
+	                		LRUpdateKernels.update( psiArray, integralArray, weightArray, weightValue, lambda, minValue, start, start + (int)myChunk.getLoopSize() );
+	                	}
+	                	else
+	                	{
+	                		computeFinalValues( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, integral, weight, lambda );
+	                	}
 	                }
 	            });
 	        
@@ -318,6 +363,8 @@ public void run()
 			//System.out.println( view + " d: " + (time - System.currentTimeMillis()) + " ms." );
 		}
 		
+		logTimes( iteration, System.nanoTime() - iterationStart, convolutionTime, blockTimes );
+		
 		if ( collectStatistic )
 		{
 			final AtomicInteger ai = new AtomicInteger(0);					
@@ -336,7 +383,15 @@ public void run()
 	                	// get chunk of pixels to process
 	                	final Chunk myChunk = threadChunks.get( myNumber );
 	                	
-	                	collectStatistics( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, lastIteration, sumMax[ myNumber ] );
+	                	if ( lastIterationArray != null )
+	                	{
+	                		final int start = (int)myChunk.getStartPosition();
+	                		LRUpdateKernels.change( psiArray, lastIterationArray, start, start + (int)myChunk.getLoopSize(), sumMax[ myNumber ] );
+	                	}
+	                	else
+	                	{
+	                		collectStatistics( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, lastIteration, sumMax[ myNumber ] );
+	                	}
 	                }
 	            });
 	        
@@ -358,7 +413,22 @@ public void run()
 		//System.out.println( "final: " + (time - System.currentTimeMillis()) + " ms." );
 	}
 	
-	private static final void collectStatistics( final long start, final long loopSize, final Image< FloatType > psi, final Image< FloatType > lastIteration, final double[] sumMax )
+	private static final void logTimes( final int iteration, final long iterationTime, final long convolutionTime, final long[] blockTimes )
+	{
+		String times = "iteration: " + iteration + " took " + iterationTime / 1000000 + " ms, convolutions " + convolutionTime / 1000000 + 
+				" ms, updates " + ( iterationTime - convolutionTime ) / 1000000 + " ms";
+		
+		// the share of the steps of the convolutions that ran block by block in parallel
+		final long blockTime = blockTimes[ 0 ] + blockTimes[ 1 ] + blockTimes[ 2 ];
+		
+		if ( blockTime > 0 )
+			times += " (blocks: FFT " + Math.round( 100.0 * blockTimes[ 1 ] / blockTime ) + "%, copy " + Math.round( 100.0 * blockTimes[ 0 ] / blockTime ) + 
+				"%, paste " + Math.round( 100.0 * blockTimes[ 2 ] / blockTime ) + "%)";
+		
+		IJ.log( times );
+	}
+	
+	static final void collectStatistics( final long start, final long loopSize, final Image< FloatType > psi, final Image< FloatType > lastIteration, final double[] sumMax )
 	{
 		double sumChange = 0;
 		double maxChange = -1;
@@ -384,7 +454,7 @@ private static final void collectStatistics( final long start, final long loopSi
 		sumMax[ 1 ] = maxChange;
 	}
 	
-	private static final void computeQuotient( final long start, final long loopSize, final Image< FloatType > psiBlurred, final LRFFT processingData )
+	static final void computeQuotient( final long start, final long loopSize, final Image< FloatType > psiBlurred, final LRFFT processingData )
 	{
 		final Cursor<FloatType> cursorImg = processingData.getImage().createCursor();
 		final Cursor<FloatType> cursorPsiBlurred = psiBlurred.createCursor();
@@ -408,7 +478,7 @@ private static final void computeQuotient( final long start, final long loopSize
 		
 	}
 	
-	private static final void computeFinalValues( final long start, final long loopSize, final Image< FloatType > psi, final Image<FloatType> integral, final Image<FloatType> weight, final double lambda )
+	static final void computeFinalValues( final long start, final long loopSize, final Image< FloatType > psi, final Image<FloatType> integral, final Image<FloatType> weight, final double lambda )
 	{
 		final Cursor< FloatType > cursorPsi = psi.createCursor();
 		final Cursor< FloatType > cursorIntegral = integral.createCursor();
@@ -112,6 +112,17 @@ public void run()
 
 	}
 
+	/**
+	 * Copies the block using only the calling thread, for callers that process several blocks at the same time
+	 */
+	public void copyBlockSingleThreaded( final Image< FloatType > source, final Image< FloatType > block )
+	{
+		if ( source.getNumDimensions() == 3 && Array.class.isInstance( block.getContainer() ) )
+			copy3d( 0, 1, source, block, offset, inside, factory );
+		else
+			copy( 0, numPixels( blockSize ), source, block, offset, inside, factory );
+	}
+
 	private static final void copy( final long start, final long loopSize, final Image< FloatType > source, final Image< FloatType > block, final int[] offset, final boolean inside, final OutOfBoundsStrategyFactory< FloatType > strategyFactory )
 	{
 		final int numDimensions = source.getNumDimensions();
@@ -206,6 +217,26 @@ public void run()
 
 	}
 
+	/**
+	 * Pastes the block using only the calling thread, for callers that process several blocks at the same time
+	 */
+	public void pasteBlockSingleThreaded( final Image< FloatType > target, final Image< FloatType > block )
+	{
+		if ( target.getNumDimensions() == 3 && Array.class.isInstance( target.getContainer() ) )
+			paste3d( 0, 1, target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
+		else
+			paste( 0, numPixels( effectiveSize ), target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
+	}
+
+	private static final long numPixels( final int[] size )
+	{
+		long n = size[ 0 ];
+		for ( int d = 1; d < size.length; ++d )
+			n *= size[ d ];
+		
+		return n;
+	}
+
 	private static final void paste( final long start, final long loopSize, final Image< FloatType > target, final Image< FloatType > block, 
 			final int[] effectiveOffset, final int[] effectiveSize, final int[] effectiveLocalOffset )
 	{
@@ -5,6 +5,7 @@
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import mpicbg.imglib.algorithm.fft.FFTService;
 import mpicbg.imglib.algorithm.fft.FourierConvolution;
 import mpicbg.imglib.algorithm.mirror.MirrorImage;
 import mpicbg.imglib.container.array.Array;
@@ -26,9 +27,16 @@ public static enum PSFTYPE { OPTIMIZATION_II, OPTIMIZATION_I, EFFICIENT_BAYESIAN
 	
 	public static CUDAConvolution cuda = null;
 	
+	/**
+	 * The number of blocks that are convolved at the same time when running on the CPU only,
+	 * 0 means the square root of the number of processors, 1 processes one block after the other
+	 */
+	public static int numBlockWorkers = 0;
+	
 	private Image<FloatType> image, weight, kernel1, kernel2;
 	Image<FloatType> viewContribution = null;
 	FourierConvolution<FloatType, FloatType> fftConvolution1, fftConvolution2;
+	PipelinedBlockConvolution pipeline1, pipeline2;
 	protected int numViews = 0;
 	
 	PSFTYPE iterationType;
@@ -249,6 +257,8 @@ else if ( iterationType == PSFTYPE.OPTIMIZATION_I )
 				this.fftConvolution2.setNumThreads();
 				//this.fftConvolution2.setExtendImageByKernelSize( false );
 				this.fftConvolution2.setKeepImgFFT( false );
+				
+				initPipelines();
 			}
 			else
 			{
@@ -268,6 +278,58 @@ else if ( iterationType == PSFTYPE.OPTIMIZATION_I )
 		}
 	}
 	
+	/**
+	 * Sets up the convolution of several blocks at the same time if we run on the CPU only
+	 * and there is more than one block
+	 */
+	protected void initPipelines()
+	{
+		if ( pipeline1 != null )
+			pipeline1.close();
+		
+		if ( pipeline2 != null )
+			pipeline2.close();
+		
+		pipeline1 = pipeline2 = null;
+		
+		int numWorkers = numBlockWorkers;
+		
+		if ( numWorkers <= 0 )
+			numWorkers = Math.max( 1, (int)Math.round( Math.sqrt( Runtime.getRuntime().availableProcessors() ) ) );
+		
+		if ( useCUDA || blocks.length < 2 || numWorkers < 2 )
+			return;
+		
+		// the kernel ffts of all views should fit into the cache so that the workers share them
+		long kernelFFTSize = 1;
+		for ( int d = 0; d < blockSize.length; ++d )
+			kernelFFTSize *= blockSize[ d ] + Math.max( kernel1.getDimension( d ), kernel2.getDimension( d ) );
+		
+		final long required = 2 * kernelFFTSize * ( views == null ? 1 : views.size() );
+		final FFTService fftService = FFTService.getInstance();
+		
+		if ( fftService.getMaxCachedKernelPixels() < required )
+			fftService.setMaxCachedKernelPixels( required );
+		
+		pipeline1 = new PipelinedBlockConvolution( blocks, blockSize, factory, kernel1, numWorkers );
+		pipeline2 = new PipelinedBlockConvolution( blocks, blockSize, factory, kernel2, numWorkers );
+	}
+	
+	/**
+	 * Adds the time spent copying, convolving and pasting blocks since the last call to the given array
+	 * and resets it. Only the convolution of several blocks at the same time measures these times.
+	 * 
+	 * @param times - copy, FFT convolution and paste time in nanoseconds
+	 */
+	public void collectBlockTimes( final long[] times )
+	{
+		if ( pipeline1 != null )
+			pipeline1.collectTimes( times );
+		
+		if ( pipeline2 != null )
+			pipeline2.collectTimes( times );
+	}
+	
 	public static Image<FloatType> computeExponentialKernel( final Image<FloatType> kernel, final int numViews )
 	{
 		final Image<FloatType> exponentialKernel = kernel.clone();
@@ -334,7 +396,11 @@ public Image< FloatType > convolve1( final Image< FloatType > image )
 	{
 		if ( useCPU && !useCUDA )
 		{
-			if ( useBlocks )
+			if ( useBlocks && pipeline1 != null )
+			{
+				return pipeline1.convolve( image );
+			}
+			else if ( useBlocks )
 			{
 				//IJ.log( "Using CPU only on blocks ... " );
 				
@@ -461,7 +527,11 @@ public Image< FloatType > convolve2( final Image< FloatType > image )
 	{
 		if ( useCPU && !useCUDA )
 		{
-			if ( useBlocks )
+			if ( useBlocks && pipeline2 != null )
+			{
+				return pipeline2.convolve( image );
+			}
+			else if ( useBlocks )
 			{
 				final Image< FloatType > result = image.createNewImage();
 				final Image< FloatType > block = factory.createImage( blockSize );
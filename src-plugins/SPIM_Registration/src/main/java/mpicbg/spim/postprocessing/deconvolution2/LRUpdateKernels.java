@@ -0,0 +1,134 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
+import mpicbg.imglib.container.constant.ConstantContainer;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+/**
+ * The pixel-wise steps of the Lucy-Richardson iteration as single passes over the float[]
+ * of array-backed images, instead of one {@link Cursor} per image and pixel. All methods
+ * process the pixels from start (inclusive) to end (exclusive), so that the threads can
+ * work on separate chunks.
+ */
+public class LRUpdateKernels
+{
+	/**
+	 * @param img - the image
+	 * @return the float[] backing the image, or null if it is not stored in a single {@link Array}
+	 */
+	public static float[] getArray( final Image< FloatType > img )
+	{
+		if ( !Array.class.isInstance( img.getContainer() ) )
+			return null;
+
+		final Object access = ((Array< ?, ? >)img.getContainer()).update( null );
+
+		if ( !FloatArray.class.isInstance( access ) )
+			return null;
+
+		return ((FloatArray)access).getCurrentStorageArray();
+	}
+
+	/**
+	 * @param img - the image
+	 * @return if the image has the same value everywhere, i.e. it is backed by a {@link ConstantContainer}
+	 */
+	public static boolean isConstant( final Image< FloatType > img )
+	{
+		return ConstantContainer.class.isInstance( img.getContainer() );
+	}
+
+	/**
+	 * @param img - an image backed by a {@link ConstantContainer}
+	 * @return its value
+	 */
+	public static float getConstant( final Image< FloatType > img )
+	{
+		final Cursor< FloatType > cursor = img.createCursor();
+		final float value = cursor.next().get();
+		cursor.close();
+
+		return value;
+	}
+
+	/**
+	 * Replaces the blurred estimate by the ratio of the image and the blurred estimate
+	 */
+	public static void quotient( final float[] image, final float[] psiBlurred, final int start, final int end )
+	{
+		for ( int i = start; i < end; ++i )
+			psiBlurred[ i ] = image[ i ] / psiBlurred[ i ];
+	}
+
+	/**
+	 * Multiplies the estimate with the blurred ratio, regularizes and clamps the result and applies
+	 * the weighted change to the estimate.
+	 *
+	 * @param psi - the estimate, updated in place
+	 * @param integral - the ratio blurred with the inverted kernel
+	 * @param weight - the weight of each pixel, or null to use constantWeight everywhere
+	 * @param constantWeight - the weight if there is no weight array
+	 * @param lambda - the Tikhonov regularization, not applied if 0
+	 * @param minValue - the smallest value the estimate may have
+	 */
+	public static void update( final float[] psi, final float[] integral, final float[] weight, final float constantWeight,
+			final double lambda, final float minValue, final int start, final int end )
+	{
+		for ( int i = start; i < end; ++i )
+		{
+			final float lastPsiValue = psi[ i ];
+
+			float value = lastPsiValue * integral[ i ];
+
+			if ( value > 0 )
+			{
+				// perform Tikhonov regularization if desired
+				if ( lambda > 0 )
+					value = (float)( ( Math.sqrt( 1.0 + 2.0 * lambda * value ) - 1.0 ) / lambda );
+			}
+			else
+			{
+				value = minValue;
+			}
+
+			final float nextPsiValue;
+
+			if ( Float.isNaN( value ) )
+				nextPsiValue = minValue;
+			else
+				nextPsiValue = Math.max( minValue, value );
+
+			// apply the apropriate amount of the change
+			final float w = weight == null ? constantWeight : weight[ i ];
+
+			psi[ i ] = lastPsiValue + ( nextPsiValue - lastPsiValue ) * w;
+		}
+	}
+
+	/**
+	 * Computes the sum and the maximum of the absolute change between two estimates.
+	 *
+	 * @param sumMax - receives the sum and the maximum
+	 */
+	public static void change( final float[] psi, final float[] last, final int start, final int end, final double[] sumMax )
+	{
+		double sumChange = 0;
+		float maxChange = -1;
+
+		for ( int i = start; i < end; ++i )
+		{
+			final float change = Math.abs( psi[ i ] - last[ i ] );
+
+			sumChange += change;
+
+			if ( change > maxChange )
+				maxChange = change;
+		}
+
+		sumMax[ 0 ] = sumChange;
+		sumMax[ 1 ] = maxChange;
+	}
+}
@@ -0,0 +1,163 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.imglib.algorithm.fft.FourierConvolution;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.SharedThreadPool;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+/**
+ * Convolves an image block-wise on the CPU with several blocks in flight. Each worker
+ * copies a block, convolves it and pastes it back on its own, so that the copying and
+ * pasting of one block overlaps with the FFTs of the others instead of every step
+ * waiting for all threads.
+ *
+ * Every worker keeps its block image and its {@link FourierConvolution} for all
+ * iterations. The FFT of the kernel is taken from the kernel cache of the FFTService,
+ * so it is computed once per kernel and block size and shared by all workers.
+ *
+ * The time spent copying, convolving and pasting is accumulated and can be collected
+ * with {@link #collectTimes(long[])}.
+ */
+public class PipelinedBlockConvolution
+{
+	final Block[] blocks;
+	final int numWorkers, threadsPerWorker;
+
+	final ArrayList< Image< FloatType > > workBlocks = new ArrayList< Image< FloatType > >();
+	final ArrayList< FourierConvolution< FloatType, FloatType > > convolutions = new ArrayList< FourierConvolution< FloatType, FloatType > >();
+
+	final AtomicLong copyTime = new AtomicLong( 0 );
+	final AtomicLong fftTime = new AtomicLong( 0 );
+	final AtomicLong pasteTime = new AtomicLong( 0 );
+
+	boolean kernelFFTComputed = false;
+
+	/**
+	 * @param blocks - the blocks covering the image
+	 * @param blockSize - the size of each block
+	 * @param factory - creates the block images, must be array-backed for the fast copy and paste
+	 * @param kernel - the kernel to convolve with
+	 * @param numWorkers - the number of blocks processed at the same time
+	 */
+	public PipelinedBlockConvolution( final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory, final Image< FloatType > kernel, final int numWorkers )
+	{
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+
+		this.blocks = blocks;
+		this.numWorkers = Math.max( 1, Math.min( numWorkers, blocks.length ) );
+		this.threadsPerWorker = Math.max( 1, numThreads / this.numWorkers );
+
+		for ( int w = 0; w < this.numWorkers; ++w )
+		{
+			final Image< FloatType > block = factory.createImage( blockSize );
+
+			final FourierConvolution< FloatType, FloatType > fftConvolution = new FourierConvolution< FloatType, FloatType >( block, kernel );
+			fftConvolution.setNumThreads( threadsPerWorker );
+			fftConvolution.setKeepImgFFT( false );
+			fftConvolution.setUseKernelFFTCache( true );
+
+			workBlocks.add( block );
+			convolutions.add( fftConvolution );
+		}
+	}
+
+	public int getNumWorkers() { return numWorkers; }
+
+	/**
+	 * Convolves the image with the kernel
+	 *
+	 * @param image - the image to convolve
+	 * @return the convolved image, with all blocks pasted
+	 */
+	public Image< FloatType > convolve( final Image< FloatType > image )
+	{
+		final Image< FloatType > result = image.createNewImage();
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		// the first block computes the kernel fft with all threads, the other workers then find it in the cache
+		if ( !kernelFFTComputed )
+		{
+			convolutions.get( 0 ).setNumThreads( threadsPerWorker * numWorkers );
+			convolveBlock( 0, ai.getAndIncrement(), image, result );
+			convolutions.get( 0 ).setNumThreads( threadsPerWorker );
+
+			kernelFFTComputed = true;
+		}
+
+		final Runnable[] workers = new Runnable[ numWorkers ];
+
+		for ( int w = 0; w < numWorkers; ++w )
+		{
+			final int worker = w;
+
+			workers[ w ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for ( int i = ai.getAndIncrement(); i < blocks.length; i = ai.getAndIncrement() )
+						convolveBlock( worker, i, image, result );
+				}
+			};
+		}
+
+		SharedThreadPool.getInstance().invokeAll( workers, numWorkers );
+
+		return result;
+	}
+
+	/**
+	 * Adds the time spent since the last call to the given array and resets it.
+	 *
+	 * @param times - copy, FFT convolution and paste time in nanoseconds
+	 */
+	public void collectTimes( final long[] times )
+	{
+		times[ 0 ] += copyTime.getAndSet( 0 );
+		times[ 1 ] += fftTime.getAndSet( 0 );
+		times[ 2 ] += pasteTime.getAndSet( 0 );
+	}
+
+	public void close()
+	{
+		for ( final FourierConvolution< FloatType, FloatType > fftConvolution : convolutions )
+			fftConvolution.close();
+
+		for ( final Image< FloatType > block : workBlocks )
+			block.close();
+
+		convolutions.clear();
+		workBlocks.clear();
+	}
+
+	protected void convolveBlock( final int worker, final int i, final Image< FloatType > image, final Image< FloatType > result )
+	{
+		final Image< FloatType > block = workBlocks.get( worker );
+		final FourierConvolution< FloatType, FloatType > fftConvolution = convolutions.get( worker );
+
+		long time = System.nanoTime();
+		blocks[ i ].copyBlockSingleThreaded( image, block );
+
+		long now = System.nanoTime();
+		copyTime.addAndGet( now - time );
+		time = now;
+
+		fftConvolution.replaceImage( block );
+
+		if ( !fftConvolution.process() )
+			throw new RuntimeException( "Convolution of block " + i + " failed: " + fftConvolution.getErrorMessage() );
+
+		now = System.nanoTime();
+		fftTime.addAndGet( now - time );
+		time = now;
+
+		blocks[ i ].pasteBlockSingleThreaded( result, fftConvolution.getResult() );
+
+		pasteTime.addAndGet( System.nanoTime() - time );
+	}
+}
@@ -0,0 +1,147 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.constant.ConstantContainer;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that the array passes of {@link LRUpdateKernels} give the same values as the cursor
+ * code of {@link BayesMVDeconvolution} that they replace for array-backed images.
+ */
+public class LRUpdateKernelsTest
+{
+	final static int[] imgSize = new int[] { 23, 17, 11 };
+	final static double[] lambdas = new double[] { 0, 0.006 };
+
+	final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), new ArrayContainerFactory() );
+
+	/**
+	 * Random values in [min, max), so that some products are not positive if min is negative
+	 */
+	protected Image< FloatType > createRandomImage( final float min, final float max, final long seed )
+	{
+		final Image< FloatType > img = factory.createImage( imgSize );
+		final Random random = new Random( seed );
+
+		for ( final FloatType t : img )
+			t.set( min + random.nextFloat() * ( max - min ) );
+
+		return img;
+	}
+
+	protected static void assertSameValues( final Image< FloatType > expected, final float[] actual )
+	{
+		final Cursor< FloatType > cursor = expected.createCursor();
+
+		for ( int i = 0; i < actual.length; ++i )
+			assertEquals( "pixel " + i, cursor.next().get(), actual[ i ], 0 );
+
+		cursor.close();
+	}
+
+	/**
+	 * Runs a pass in two chunks, as the threads of an iteration do
+	 */
+	protected static int[] chunks( final Image< FloatType > img )
+	{
+		final int numPixels = img.getNumPixels();
+		return new int[] { 0, numPixels / 3, numPixels };
+	}
+
+	protected void testUpdate( final Image< FloatType > weight, final double lambda )
+	{
+		final Image< FloatType > psi = createRandomImage( 0, 2, 1 );
+		final Image< FloatType > integral = createRandomImage( -0.5f, 2, 2 );
+		final float[] psiArray = LRUpdateKernels.getArray( psi ).clone();
+		final float[] integralArray = LRUpdateKernels.getArray( integral );
+
+		final boolean constantWeight = LRUpdateKernels.isConstant( weight );
+		final float[] weightArray = constantWeight ? null : LRUpdateKernels.getArray( weight );
+		final float weightValue = constantWeight ? LRUpdateKernels.getConstant( weight ) : 0;
+
+		final int[] chunks = chunks( psi );
+
+		for ( int c = 0; c < chunks.length - 1; ++c )
+		{
+			BayesMVDeconvolution.computeFinalValues( chunks[ c ], chunks[ c + 1 ] - chunks[ c ], psi, integral, weight, lambda );
+			LRUpdateKernels.update( psiArray, integralArray, weightArray, weightValue, lambda, BayesMVDeconvolution.minValue, chunks[ c ], chunks[ c + 1 ] );
+		}
+
+		assertSameValues( psi, psiArray );
+	}
+
+	@Test
+	public void testUpdateConstantWeight()
+	{
+		final Image< FloatType > weight = new Image< FloatType >( new ConstantContainer< FloatType >( imgSize, new FloatType( 0.7f ) ), new FloatType() );
+
+		assertTrue( LRUpdateKernels.isConstant( weight ) );
+		assertEquals( 0.7f, LRUpdateKernels.getConstant( weight ), 0 );
+
+		for ( final double lambda : lambdas )
+			testUpdate( weight, lambda );
+	}
+
+	@Test
+	public void testUpdatePerPixelWeight()
+	{
+		final Image< FloatType > weight = createRandomImage( 0, 1, 3 );
+
+		assertFalse( LRUpdateKernels.isConstant( weight ) );
+		assertNotNull( LRUpdateKernels.getArray( weight ) );
+
+		for ( final double lambda : lambdas )
+			testUpdate( weight, lambda );
+	}
+
+	@Test
+	public void testQuotient()
+	{
+		final Image< FloatType > image = createRandomImage( 0, 2, 4 );
+		final Image< FloatType > psiBlurred = createRandomImage( 0.1f, 2, 5 );
+		final float[] psiBlurredArray = LRUpdateKernels.getArray( psiBlurred ).clone();
+
+		final LRFFT processingData = new LRFFT( image, psiBlurred, null, new int[] { -1 }, false, null );
+		final int[] chunks = chunks( image );
+
+		for ( int c = 0; c < chunks.length - 1; ++c )
+		{
+			BayesMVDeconvolution.computeQuotient( chunks[ c ], chunks[ c + 1 ] - chunks[ c ], psiBlurred, processingData );
+			LRUpdateKernels.quotient( LRUpdateKernels.getArray( image ), psiBlurredArray, chunks[ c ], chunks[ c + 1 ] );
+		}
+
+		assertSameValues( psiBlurred, psiBlurredArray );
+	}
+
+	@Test
+	public void testChange()
+	{
+		final Image< FloatType > psi = createRandomImage( 0, 2, 6 );
+		final Image< FloatType > last = createRandomImage( 0, 2, 7 );
+		final int[] chunks = chunks( psi );
+
+		for ( int c = 0; c < chunks.length - 1; ++c )
+		{
+			final double[] expected = new double[ 2 ];
+			final double[] actual = new double[ 2 ];
+
+			BayesMVDeconvolution.collectStatistics( chunks[ c ], chunks[ c + 1 ] - chunks[ c ], psi, last, expected );
+			LRUpdateKernels.change( LRUpdateKernels.getArray( psi ), LRUpdateKernels.getArray( last ), chunks[ c ], chunks[ c + 1 ], actual );
+
+			assertEquals( expected[ 0 ], actual[ 0 ], 0 );
+			assertEquals( expected[ 1 ], actual[ 1 ], 0 );
+		}
+	}
+}
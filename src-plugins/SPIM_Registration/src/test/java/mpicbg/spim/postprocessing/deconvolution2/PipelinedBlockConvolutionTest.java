@@ -0,0 +1,102 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.algorithm.fft.FourierConvolution;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that convolving several blocks at the same time gives the same result as convolving
+ * them one after the other.
+ */
+public class PipelinedBlockConvolutionTest
+{
+	final static int[] imgSize = new int[] { 61, 47, 38 };
+	final static int[] kernelSize = new int[] { 7, 9, 5 };
+
+	protected static Image< FloatType > createRandomImage( final ImageFactory< FloatType > factory, final int[] size, final long seed )
+	{
+		final Image< FloatType > img = factory.createImage( size );
+		final Random random = new Random( seed );
+
+		for ( final FloatType t : img )
+			t.set( random.nextFloat() );
+
+		return img;
+	}
+
+	protected static Image< FloatType > convolveSequentially( final Image< FloatType > image, final Image< FloatType > kernel, final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory )
+	{
+		final Image< FloatType > result = image.createNewImage();
+		final Image< FloatType > block = factory.createImage( blockSize );
+		final FourierConvolution< FloatType, FloatType > fftConvolution = new FourierConvolution< FloatType, FloatType >( block, kernel );
+
+		for ( final Block b : blocks )
+		{
+			b.copyBlock( image, block );
+			fftConvolution.replaceImage( block );
+			assertTrue( fftConvolution.getErrorMessage(), fftConvolution.process() );
+			b.pasteBlock( result, fftConvolution.getResult() );
+		}
+
+		fftConvolution.close();
+		block.close();
+
+		return result;
+	}
+
+	@Test
+	public void testSameResultAsSequential()
+	{
+		final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), new ArrayContainerFactory() );
+		final Image< FloatType > image = createRandomImage( factory, imgSize, 1 );
+		final Image< FloatType > kernel = createRandomImage( factory, kernelSize, 2 );
+
+		final int[] blockSize = new int[] { 24, 24, 24 };
+		final Block[] blocks = Block.divideIntoBlocks( imgSize, blockSize, kernelSize );
+
+		final Image< FloatType > expected = convolveSequentially( image, kernel, blocks, blockSize, factory );
+		final PipelinedBlockConvolution pipeline = new PipelinedBlockConvolution( blocks, blockSize, factory, kernel, 4 );
+
+		// several rounds, a call returning before all blocks are pasted leaves zeros behind
+		for ( int round = 0; round < 5; ++round )
+		{
+			final Image< FloatType > result = pipeline.convolve( image );
+
+			final LocalizableCursor< FloatType > cursor = expected.createLocalizableCursor();
+			final LocalizableByDimCursor< FloatType > resultCursor = result.createLocalizableByDimCursor();
+
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				resultCursor.setPosition( cursor );
+				assertEquals( cursor.getType().get(), resultCursor.getType().get(), 1e-4f );
+			}
+
+			cursor.close();
+			resultCursor.close();
+			result.close();
+		}
+
+		final long[] times = new long[ 3 ];
+		pipeline.collectTimes( times );
+		pipeline.close();
+
+		for ( final long t : times )
+			assertTrue( t > 0 );
+
+		image.close();
+		kernel.close();
+		expected.close();
+	}
+}
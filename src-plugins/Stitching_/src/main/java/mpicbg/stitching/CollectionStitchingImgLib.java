@@ -5,18 +5,29 @@
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 
-import mpicbg.imglib.multithreading.SimpleMultiThreading;
-import mpicbg.imglib.util.Util;
 import mpicbg.models.TranslationModel2D;
 import mpicbg.models.TranslationModel3D;
+import mpicbg.stitching.PairWiseStitchingScheduler.PairTiming;
 
 public class CollectionStitchingImgLib 
 {
 
 	public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList< ImageCollectionElement > elements, final StitchingParameters params )
+	{
+		return stitchCollection( elements, params, null );
+	}
+
+	/**
+	 * @param elements - the tiles
+	 * @param params - the parameters
+	 * @param timings - if not null, the {@link PairTiming} of each pair that was computed is added to it
+	 *
+	 * @return the tiles with their final models, or null if the stitching failed
+	 */
+	public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList< ImageCollectionElement > elements, final StitchingParameters params, final List< PairTiming > timings )
 	{
 		// the result
 		final ArrayList< ImagePlusTimePoint > optimized;
@@ -34,59 +45,41 @@ public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList<
 			
 			// compute all compare pairs
 			// compute all matchings
-			final AtomicInteger ai = new AtomicInteger(0);
-			
 			final int numThreads;
+			final long cacheMemory;
 			
+			// when saving memory only a quarter of the cache budget is used, a single thread computes the pairs
+			// in an order where consecutive pairs share tiles so most of them are still reused
 			if ( params.cpuMemChoice == 0 )
+			{
 				numThreads = 1;
+				cacheMemory = StitchingParameters.tileCacheMemory / 4;
+			}
 			else
+			{
 				numThreads = Runtime.getRuntime().availableProcessors();
+				cacheMemory = StitchingParameters.tileCacheMemory;
+			}
+			
+			final TileCache cache = new TileCache( cacheMemory, StitchingParameters.pairwiseDownsampling );
+			final PairWiseStitchingScheduler scheduler = new PairWiseStitchingScheduler( pairs, params, numThreads, cache );
 			
-	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-	    	
-	        for ( int ithread = 0; ithread < threads.length; ++ithread )
-	            threads[ ithread ] = new Thread(new Runnable()
-	            {
-	                public void run()
-	                {		
-	                   	final int myNumber = ai.getAndIncrement();
-	                    
-	                    for ( int i = 0; i < pairs.size(); i++ )
-	                    {
-	                    	if ( i % numThreads == myNumber )
-	                    	{
-	                    		final ComparePair pair = pairs.get( i );
-	                    		
-	                    		long start = System.currentTimeMillis();			
-	                			
-	                    		// where do we approximately overlap?
-	                			final Roi roi1 = getROI( pair.getTile1().getElement(), pair.getTile2().getElement() );
-	                			final Roi roi2 = getROI( pair.getTile2().getElement(), pair.getTile1().getElement() );
-	                			
-	            				final PairWiseStitchingResult result = PairWiseStitchingImgLib.stitchPairwise( pair.getImagePlus1(), pair.getImagePlus2(), roi1, roi2, pair.getTimePoint1(), pair.getTimePoint2(), params );			
-	            				if ( result == null )
-	            				{
-	            					IJ.log( "Collection stitching failed" );
-	            					return;
-	            				}
-	
-	            				if ( params.dimensionality == 2 )
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
-	            				else
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
-	            				
-	            				pair.setCrossCorrelation( result.getCrossCorrelation() );
-	
-	            				IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " + 
-	            						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
-	                    	}
-	                    }
-	                }
-	            });
-	        
 	        final long time = System.currentTimeMillis();
-	        SimpleMultiThreading.startAndJoin( threads );
+	        
+	        final boolean success = scheduler.process();
+	        
+	        // also the pairs computed before a failure
+	        if ( timings != null )
+	        	timings.addAll( scheduler.getTimings() );
+	        
+	        if ( !success )
+	        {
+	        	IJ.log( "Collection stitching failed" );
+	        	return null;
+	        }
+	        
+	        IJ.log( "Computed " + scheduler.getTimings().size() + " pairs, tiles loaded " + cache.getNumMisses() + 
+	        		" times, reused " + cache.getNumHits() + " times." );
 	        
 	        // get the final positions of all tiles
 			optimized = GlobalOptimization.optimize( pairs, pairs.get( 0 ).getTile1(), params );
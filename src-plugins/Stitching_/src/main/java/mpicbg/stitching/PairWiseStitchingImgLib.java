@@ -5,6 +5,7 @@
 import ij.ImagePlus;
 import ij.gui.Roi;
 
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -174,6 +175,105 @@ else if ( imp2.getType() == ImagePlus.GRAY8 )
 		return result;
 	}
 
+	/**
+	 * Pairwise stitching of two tiles that were already converted, e.g. by the {@link TileCache}. The areas
+	 * given by the rois are copied out of the tiles, the shift is returned in pixels of the original tiles.
+	 * 
+	 * @param tile1 - the first tile
+	 * @param tile2 - the second tile
+	 * @param roi1 - where the first tile approximately overlaps (in pixels of the original tile), or null
+	 * @param roi2 - where the second tile approximately overlaps (in pixels of the original tile), or null
+	 * @param downsampling - by which factor the tiles were downsampled in x and y
+	 * @param params - the parameters
+	 * 
+	 * @return the shift of tile2 relative to tile1 or null if it failed
+	 */
+	public static PairWiseStitchingResult stitchPairwise( final Image< FloatType > tile1, final Image< FloatType > tile2, Roi roi1, Roi roi2, final int downsampling, final StitchingParameters params )
+	{
+		roi1 = getOnlyRectangularRoi( roi1 );
+		roi2 = getOnlyRectangularRoi( roi2 );
+		
+		final Rectangle r1 = roi1 == null ? null : scaleRectangle( roi1.getBounds(), downsampling, tile1 );
+		final Rectangle r2 = roi2 == null ? null : scaleRectangle( roi2.getBounds(), downsampling, tile2 );
+		
+		final Image< FloatType > image1 = r1 == null ? tile1 : crop( tile1, r1 );
+		final Image< FloatType > image2 = r2 == null ? tile2 : crop( tile2, r2 );
+		
+		final PairWiseStitchingResult result = performStitching( image1, image2, params );
+		
+		// the cached tiles stay, only the copies are closed
+		if ( image1 != tile1 )
+			image1.close();
+		
+		if ( image2 != tile2 )
+			image2.close();
+		
+		if ( result == null )
+		{
+			IJ.log( "Pairwise stitching failed." );
+			return null;
+		}
+		
+		// add the offset to the shift
+		if ( r2 != null )
+		{
+			result.offset[ 0 ] -= r2.x;
+			result.offset[ 1 ] -= r2.y;
+		}
+		
+		if ( r1 != null )
+		{
+			result.offset[ 0 ] += r1.x;
+			result.offset[ 1 ] += r1.y;
+		}
+		
+		// back to the pixels of the original tiles
+		result.offset[ 0 ] *= downsampling;
+		result.offset[ 1 ] *= downsampling;
+		
+		return result;
+	}
+	
+	/**
+	 * Scales a rectangle given in the pixels of the original tile to a tile that was downsampled
+	 * in x and y, it is enlarged to full pixels and limited to the tile.
+	 */
+	protected static Rectangle scaleRectangle( final Rectangle r, final int downsampling, final Image< ? > tile )
+	{
+		if ( downsampling == 1 )
+			return r;
+		
+		final int x0 = Math.max( 0, r.x / downsampling );
+		final int y0 = Math.max( 0, r.y / downsampling );
+		final int x1 = Math.min( tile.getDimension( 0 ), ( r.x + r.width + downsampling - 1 ) / downsampling );
+		final int y1 = Math.min( tile.getDimension( 1 ), ( r.y + r.height + downsampling - 1 ) / downsampling );
+		
+		return new Rectangle( x0, y0, Math.max( 1, x1 - x0 ), Math.max( 1, y1 - y0 ) );
+	}
+	
+	/**
+	 * Copies the area given by the rectangle in x and y out of the image, all other dimensions are copied completely.
+	 */
+	protected static Image< FloatType > crop( final Image< FloatType > image, final Rectangle r )
+	{
+		final int[] size = image.getDimensions();
+		final int[] offset = new int[ size.length ];
+		
+		size[ 0 ] = r.width;
+		size[ 1 ] = r.height;
+		offset[ 0 ] = r.x;
+		offset[ 1 ] = r.y;
+		
+		final Image< FloatType > target = image.createNewImage( size );
+		
+		final ArrayList< Image< FloatType > > sources = new ArrayList< Image< FloatType > >();
+		sources.add( image );
+		
+		averageAllChannels( target, sources, offset );
+		
+		return target;
+	}
+
 	public static < T extends RealType<T>, S extends RealType<S> > PairWiseStitchingResult performStitching( final Image<T> img1, final Image<S> img2, final StitchingParameters params )
 	{
 		if ( img1 == null )
@@ -0,0 +1,230 @@
+package mpicbg.stitching;
+
+import ij.IJ;
+import ij.gui.Roi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.imglib.util.Util;
+
+/**
+ * Computes the pairwise shifts of a collection of tiles. The pairs are sorted so that all pairs of a tile
+ * are computed one after the other, and the threads take the next pair from a common queue as soon as they
+ * are done with the previous one. The tiles are converted once and kept in a {@link TileCache}, so a tile
+ * overlapping with several neighbours is not loaded again for each pair as long as it fits into memory.
+ *
+ * For each pair the time spent getting the tiles and computing the phase correlation is kept as a
+ * {@link PairTiming}.
+ */
+public class PairWiseStitchingScheduler
+{
+	final List< ComparePair > pairs;
+	final StitchingParameters params;
+	final int numThreads;
+	final TileCache cache;
+
+	final ArrayList< PairTiming > timings = new ArrayList< PairTiming >();
+
+	/**
+	 * @param pairs - the pairs to compute, their shift and cross correlation are set
+	 * @param params - the parameters
+	 * @param numThreads - how many pairs are computed at the same time
+	 * @param cache - where the converted tiles are kept
+	 */
+	public PairWiseStitchingScheduler( final List< ComparePair > pairs, final StitchingParameters params, final int numThreads, final TileCache cache )
+	{
+		this.pairs = orderPairs( pairs );
+		this.params = params;
+		this.numThreads = Math.max( 1, numThreads );
+		this.cache = cache;
+	}
+
+	public PairWiseStitchingScheduler( final List< ComparePair > pairs, final StitchingParameters params, final int numThreads )
+	{
+		this( pairs, params, numThreads, new TileCache( StitchingParameters.tileCacheMemory, StitchingParameters.pairwiseDownsampling ) );
+	}
+
+	/**
+	 * @return the timings of all pairs that were computed, in the order they were finished
+	 */
+	public ArrayList< PairTiming > getTimings() { return timings; }
+	public TileCache getCache() { return cache; }
+
+	/**
+	 * Computes all pairs.
+	 *
+	 * @return true if all pairs could be computed, false otherwise
+	 */
+	public boolean process()
+	{
+		final AtomicInteger nextPair = new AtomicInteger( 0 );
+		final AtomicBoolean failed = new AtomicBoolean( false );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( numThreads, pairs.size() ) );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					for ( int i = nextPair.getAndIncrement(); i < pairs.size() && !failed.get(); i = nextPair.getAndIncrement() )
+					{
+						final PairTiming timing = computePair( pairs.get( i ) );
+
+						if ( timing == null )
+						{
+							failed.set( true );
+							return;
+						}
+
+						synchronized ( timings )
+						{
+							timings.add( timing );
+						}
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		cache.clear();
+
+		return !failed.get();
+	}
+
+	protected PairTiming computePair( final ComparePair pair )
+	{
+		final long start = System.currentTimeMillis();
+
+		// where do we approximately overlap?
+		final Roi roi1 = CollectionStitchingImgLib.getROI( pair.getTile1().getElement(), pair.getTile2().getElement() );
+		final Roi roi2 = CollectionStitchingImgLib.getROI( pair.getTile2().getElement(), pair.getTile1().getElement() );
+
+		// only release what was acquired, a tile that could not be loaded is not in the cache anymore
+		// and releasing it could drop a tile another thread is using
+		final Image< FloatType > tile1 = cache.acquire( pair.getTile1(), params.channel1 );
+
+		if ( tile1 == null )
+			return null;
+
+		try
+		{
+			final Image< FloatType > tile2 = cache.acquire( pair.getTile2(), params.channel2 );
+
+			if ( tile2 == null )
+				return null;
+
+			try
+			{
+				final long loaded = System.currentTimeMillis();
+
+				final PairWiseStitchingResult result = PairWiseStitchingImgLib.stitchPairwise( tile1, tile2, roi1, roi2, cache.getDownsampling(), params );
+
+				if ( result == null )
+					return null;
+
+				if ( params.dimensionality == 2 )
+					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
+				else
+					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
+
+				pair.setCrossCorrelation( result.getCrossCorrelation() );
+
+				final PairTiming timing = new PairTiming( pair, result, loaded - start, System.currentTimeMillis() - loaded );
+
+				IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " +
+						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + timing.getTotalTime() + " ms)");
+
+				return timing;
+			}
+			finally
+			{
+				cache.release( pair.getTile2(), params.channel2 );
+			}
+		}
+		finally
+		{
+			cache.release( pair.getTile1(), params.channel1 );
+		}
+	}
+
+	/**
+	 * Sorts the pairs by the tile that comes first, then by the second tile, so that consecutive pairs share tiles.
+	 * Tiles are numbered in the order they first appear in the list.
+	 */
+	protected static List< ComparePair > orderPairs( final List< ComparePair > pairs )
+	{
+		final IdentityHashMap< ImagePlusTimePoint, Integer > order = new IdentityHashMap< ImagePlusTimePoint, Integer >();
+
+		for ( final ComparePair pair : pairs )
+		{
+			if ( !order.containsKey( pair.getTile1() ) )
+				order.put( pair.getTile1(), order.size() );
+
+			if ( !order.containsKey( pair.getTile2() ) )
+				order.put( pair.getTile2(), order.size() );
+		}
+
+		final ArrayList< ComparePair > ordered = new ArrayList< ComparePair >( pairs );
+
+		Collections.sort( ordered, new Comparator< ComparePair >()
+		{
+			@Override
+			public int compare( final ComparePair p1, final ComparePair p2 )
+			{
+				final int a1 = order.get( p1.getTile1() ), b1 = order.get( p1.getTile2() );
+				final int a2 = order.get( p2.getTile1() ), b2 = order.get( p2.getTile2() );
+
+				final int first = Math.min( a1, b1 ) - Math.min( a2, b2 );
+
+				if ( first != 0 )
+					return first;
+				else
+					return Math.max( a1, b1 ) - Math.max( a2, b2 );
+			}
+		});
+
+		return ordered;
+	}
+
+	/**
+	 * How long the computation of one pair took.
+	 */
+	public static class PairTiming
+	{
+		final ComparePair pair;
+		final PairWiseStitchingResult result;
+		final long loadTime, computeTime;
+
+		public PairTiming( final ComparePair pair, final PairWiseStitchingResult result, final long loadTime, final long computeTime )
+		{
+			this.pair = pair;
+			this.result = result;
+			this.loadTime = loadTime;
+			this.computeTime = computeTime;
+		}
+
+		public ComparePair getPair() { return pair; }
+		public PairWiseStitchingResult getResult() { return result; }
+
+		/**
+		 * @return the time in ms spent getting both tiles, including waiting for another thread that loads them
+		 */
+		public long getLoadTime() { return loadTime; }
+
+		/**
+		 * @return the time in ms spent copying the overlapping areas and computing the phase correlation
+		 */
+		public long getComputeTime() { return computeTime; }
+		public long getTotalTime() { return loadTime + computeTime; }
+	}
+}
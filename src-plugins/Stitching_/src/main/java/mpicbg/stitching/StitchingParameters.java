@@ -15,6 +15,17 @@ public class StitchingParameters
 	 */
 	public static boolean alwaysCopy = false;
 	
+	/**
+	 * How much memory the converted tiles of a collection may occupy while computing the pairwise shifts (see {@link TileCache}),
+	 * a quarter of it when saving memory
+	 */
+	public static long tileCacheMemory = Runtime.getRuntime().maxMemory() / 4;
+	
+	/**
+	 * By which factor the tiles are downsampled in x and y for computing the pairwise shifts of a collection, 1 means no downsampling
+	 */
+	public static int pairwiseDownsampling = 1;
+	
 	public int dimensionality;
 	public int fusionMethod;
 	public String fusedName;
@@ -0,0 +1,265 @@
+package mpicbg.stitching;
+
+import ij.IJ;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+/**
+ * Keeps the tiles of a collection converted into {@link Image}s of {@link FloatType} so that a tile
+ * which overlaps with several others is loaded and converted only once. Tiles that are not in use
+ * are dropped in least-recently-used order as soon as the cache exceeds its memory budget, tiles that
+ * are in use are always kept.
+ *
+ * Every {@link #acquire(ImagePlusTimePoint, int)} has to be followed by a {@link #release(ImagePlusTimePoint, int)}.
+ */
+public class TileCache
+{
+	final long maxBytes;
+	final int downsampling;
+	final ImageFactory< FloatType > factory;
+
+	// in access order, the least recently used first
+	final LinkedHashMap< Key, Entry > entries = new LinkedHashMap< Key, Entry >( 16, 0.75f, true );
+
+	long usedBytes = 0;
+	int hits = 0, misses = 0;
+
+	/**
+	 * @param maxBytes - how much memory all cached tiles may occupy, tiles in use are kept even beyond it
+	 * @param downsampling - the factor by which the tiles are downsampled in x and y (1 means no downsampling)
+	 */
+	public TileCache( final long maxBytes, final int downsampling )
+	{
+		this.maxBytes = maxBytes;
+		this.downsampling = Math.max( 1, downsampling );
+		this.factory = new ImageFactory< FloatType >( new FloatType(), StitchingParameters.phaseCorrelationFactory );
+	}
+
+	public int getDownsampling() { return downsampling; }
+	public synchronized int getNumHits() { return hits; }
+	public synchronized int getNumMisses() { return misses; }
+
+	/**
+	 * Returns the converted tile, loads it if it is not cached.
+	 *
+	 * @param tile - the tile
+	 * @param channel - which channel (if channel=0 means average all channels)
+	 *
+	 * @return the {@link Image} or null if the tile could not be converted, in which case it must not be released
+	 */
+	public Image< FloatType > acquire( final ImagePlusTimePoint tile, final int channel )
+	{
+		final Key key = new Key( tile, channel );
+		final Entry entry;
+
+		synchronized ( this )
+		{
+			Entry e = entries.get( key );
+
+			if ( e == null )
+			{
+				e = new Entry();
+				entries.put( key, e );
+				++misses;
+			}
+			else
+			{
+				++hits;
+			}
+
+			++e.users;
+			entry = e;
+		}
+
+		// only the first thread asking for a tile loads it, the others wait for it
+		synchronized ( entry )
+		{
+			if ( !entry.loaded )
+			{
+				try
+				{
+					entry.image = load( tile, channel );
+				}
+				finally
+				{
+					entry.loaded = true;
+
+					// a tile that could not be loaded is forgotten, the users of this entry must not release it
+					synchronized ( this )
+					{
+						if ( entry.image == null )
+						{
+							entries.remove( key );
+						}
+						else
+						{
+							entry.bytes = entry.image.getNumPixels() * 4l;
+							usedBytes += entry.bytes;
+						}
+					}
+				}
+			}
+
+			return entry.image;
+		}
+	}
+
+	/**
+	 * Tells the cache that the tile is not used anymore by the caller, it might be dropped now.
+	 */
+	public synchronized void release( final ImagePlusTimePoint tile, final int channel )
+	{
+		final Entry entry = entries.get( new Key( tile, channel ) );
+
+		if ( entry != null )
+		{
+			--entry.users;
+			evict();
+		}
+	}
+
+	/**
+	 * Drops all tiles, must only be called when no tile is in use anymore.
+	 */
+	public synchronized void clear()
+	{
+		for ( final Entry entry : entries.values() )
+			if ( entry.image != null )
+				entry.image.close();
+
+		entries.clear();
+		usedBytes = 0;
+	}
+
+	protected void evict()
+	{
+		final Iterator< Map.Entry< Key, Entry > > i = entries.entrySet().iterator();
+
+		while ( usedBytes > maxBytes && i.hasNext() )
+		{
+			final Entry entry = i.next().getValue();
+
+			if ( entry.users == 0 && entry.loaded )
+			{
+				i.remove();
+				usedBytes -= entry.bytes;
+				entry.image.close();
+			}
+		}
+	}
+
+	protected Image< FloatType > load( final ImagePlusTimePoint tile, final int channel )
+	{
+		final Image< FloatType > image = PairWiseStitchingImgLib.getImage( tile.getImagePlus(), null, factory, channel, tile.getTimePoint() );
+
+		if ( image == null )
+		{
+			IJ.log( "Tile " + tile.getImagePlus().getTitle() + " could not be converted." );
+			return null;
+		}
+
+		if ( downsampling == 1 )
+			return image;
+
+		final Image< FloatType > downsampled = downsample( image, downsampling );
+		image.close();
+
+		return downsampled;
+	}
+
+	/**
+	 * Averages blocks of f x f pixels in x and y, the other dimensions are kept.
+	 */
+	protected Image< FloatType > downsample( final Image< FloatType > image, final int f )
+	{
+		final int numDimensions = image.getNumDimensions();
+		final int[] size = image.getDimensions();
+
+		size[ 0 ] = ( size[ 0 ] + f - 1 ) / f;
+		size[ 1 ] = ( size[ 1 ] + f - 1 ) / f;
+
+		final Image< FloatType > downsampled = factory.createImage( size );
+
+		final LocalizableCursor< FloatType > cursor = downsampled.createLocalizableCursor();
+		final LocalizableByDimCursor< FloatType > input = image.createLocalizableByDimCursor();
+
+		final int[] position = new int[ numDimensions ];
+		final int w = image.getDimension( 0 );
+		final int h = image.getDimension( 1 );
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+
+			final int x0 = position[ 0 ] * f;
+			final int y0 = position[ 1 ] * f;
+			final int x1 = Math.min( x0 + f, w );
+			final int y1 = Math.min( y0 + f, h );
+
+			float sum = 0;
+
+			for ( int y = y0; y < y1; ++y )
+			{
+				position[ 0 ] = x0;
+				position[ 1 ] = y;
+				input.setPosition( position );
+
+				for ( int x = x0; x < x1; ++x )
+				{
+					sum += input.getType().get();
+					input.fwd( 0 );
+				}
+			}
+
+			cursor.getType().set( sum / ( ( x1 - x0 ) * ( y1 - y0 ) ) );
+		}
+
+		cursor.close();
+		input.close();
+
+		return downsampled;
+	}
+
+	protected static class Entry
+	{
+		Image< FloatType > image;
+		long bytes;
+		int users = 0;
+		boolean loaded = false;
+	}
+
+	protected static class Key
+	{
+		final ImagePlusTimePoint tile;
+		final int channel;
+
+		public Key( final ImagePlusTimePoint tile, final int channel )
+		{
+			this.tile = tile;
+			this.channel = channel;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof Key ) )
+				return false;
+
+			final Key key = (Key)o;
+
+			return key.tile == tile && key.channel == channel;
+		}
+
+		@Override
+		public int hashCode() { return System.identityHashCode( tile ) * 31 + channel; }
+	}
+}
@@ -11,7 +11,7 @@
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.container.array.ArrayContainerFactory;
@@ -27,7 +27,6 @@
 import mpicbg.imglib.interpolation.InterpolatorFactory;
 import mpicbg.imglib.interpolation.linear.LinearInterpolatorFactory;
 import mpicbg.imglib.interpolation.nearestneighbor.NearestNeighborInterpolatorFactory;
-import mpicbg.imglib.multithreading.Chunk;
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
@@ -46,6 +45,11 @@
  */
 public class Fusion 
 {
+	/**
+	 * The output is fused in blocks of this size, each block only looks at the tiles that overlap with it (see {@link TileIndex})
+	 */
+	public static int blockSize = 64;
+	
 	/**
 	 * 
 	 * @param targetType
@@ -243,7 +247,6 @@ protected static <T extends RealType<T>> void fuseBlock( final Image<T> output,
 			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion )
 	{
 		final int numDimensions = output.getNumDimensions();
-		final int numImages = input.size();
 		long imageSize = output.getDimension( 0 );
 		
 		for ( int d = 1; d < output.getNumDimensions(); ++d )
@@ -257,39 +260,26 @@ protected static <T extends RealType<T>> void fuseBlock( final Image<T> output,
 		final int[] globalProgress = {0};
 		IJ.showProgress(0);
 
-		final int[][] max = new int[ numImages ][ numDimensions ];
-		for ( int i = 0; i < numImages; ++i )
-			for ( int d = 0; d < numDimensions; ++d )
-				max[ i ][ d ] = input.get( i ).getImage().getDimension( d ) - 1; 
+		// which tiles contribute to which part of the output image
+		final int[] size = output.getDimensions();
+		final TileIndex index = new TileIndex( getImageSizes( input, numDimensions ), transform, offset, size, blockSize );
+		final ArrayList< int[] > blocks = getBlocks( size, blockSize );
 		
-		// run multithreaded
+		// run multithreaded, each thread takes the next block
 		final AtomicInteger ai = new AtomicInteger(0);					
         final Thread[] threads = SimpleMultiThreading.newThreads();
 
-        final Vector<Chunk> threadChunks = SimpleMultiThreading.divideIntoChunks( imageSize, threads.length );
-        
         for (int ithread = 0; ithread < threads.length; ++ithread)
             threads[ithread] = new Thread(new Runnable()
             {
                 public void run()
                 {
-                	// Thread ID
-                	final int myNumber = ai.getAndIncrement();
-        
-                	// get chunk of pixels to process
-                	final Chunk myChunk = threadChunks.get( myNumber );
-                	final long startPos = myChunk.getStartPosition();
-                	final long loopSize = myChunk.getLoopSize();
-                	
-            		final LocalizableCursor<T> out = output.createLocalizableCursor();
-            		final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
-            		
-            		for ( int i = 0; i < numImages; ++i )
-            			in.add( input.get( i ).createInterpolator() );
-            		
-            		final float[][] tmp = new float[ numImages ][ output.getNumDimensions() ];
+            		final LocalizableByDimCursor<T> out = output.createLocalizableByDimCursor();
+            		final ArrayList<Interpolator<? extends RealType<?>>> in = createInterpolators( input );
             		final PixelFusion myFusion = fusion.copy();
             		
+            		final int[] blockMax = new int[ numDimensions ];
+            		
             		// tracks the progress [0-100/#threads] made by this thread
             		int[] localProgress = {0};
             		
@@ -298,60 +288,191 @@ public void run()
             		
             		try 
             		{
-                		// move to the starting position of the current thread
-            			out.fwd( startPos );
-            			
-                		// do as many pixels as wanted by this thread
-                        for ( long j = 0; j < loopSize; ++j )
-                        {
-            				out.fwd();
-            				stepsTaken++;
-            				
-            				// update status message if necessary
-            				updateStatus(globalProgress, localProgress, stepsTaken, steps, output);
+            			for ( int b = ai.getAndIncrement(); b < blocks.size(); b = ai.getAndIncrement() )
+            			{
+            				final int[] blockMin = blocks.get( b );
             				
-            				// get the current position in the output image
             				for ( int d = 0; d < numDimensions; ++d )
-            				{
-            					final float value = out.getPosition( d ) + offset[ d ];
-            					
-            					for ( int i = 0; i < numImages; ++i )
-            						tmp[ i ][ d ] = value;
-            				}
+            					blockMax[ d ] = Math.min( blockMin[ d ] + blockSize, size[ d ] ) - 1;
             				
-            				// transform and compute output value
-            				myFusion.clear();
+            				stepsTaken += fuseInterval( out, blockMin, blockMax, -1, index.getOverlappingTiles( blockMin, blockMax ), in, offset, transform, myFusion );
             				
-            				// loop over all images for this output location
-A:        					for ( int i = 0; i < numImages; ++i )
-        					{
-        						transform.get( i ).applyInverseInPlace( tmp[ i ] );
-            	
-        						// test if inside
-        						for ( int d = 0; d < numDimensions; ++d )
-        							if ( tmp[ i ][ d ] < 0 || tmp[ i ][ d ] > max[ i ][ d ] )
-        								continue A;
-        						
-        						in.get( i ).setPosition( tmp[ i ] );			
-        						myFusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp[ i ] );
-        					}
-            				
-            				// set value
-    						out.getType().setReal( myFusion.getValue() );
-                        }
+            				// update status message if necessary
+            				updateStatus(globalProgress, localProgress, stepsTaken, steps, output);
+            			}
             		} 
             		catch ( NoninvertibleModelException e ) 
             		{
             			IJ.log( "Cannot invert model, qutting." );
             			return;
             		}
-
                 }
             });
         
         SimpleMultiThreading.startAndJoin( threads );
 	}
 
+	/**
+	 * Fuses all pixels of one block of the output image, only the given tiles are considered.
+	 * 
+	 * @param out - a cursor on the output image
+	 * @param blockMin - the first pixel of the block
+	 * @param blockMax - the last pixel of the block (inclusive)
+	 * @param slice - the z-position in the fused volume if the output is a single slice of it, otherwise -1
+	 * @param tiles - the indices of the tiles that overlap with the block
+	 * @param in - the interpolators of all tiles
+	 * @param offset - the offset of the output image
+	 * @param transform - the transformation of all tiles
+	 * @param fusion - how to combine the values
+	 * 
+	 * @return the number of pixels fused
+	 */
+	protected static <T extends RealType<T>> long fuseInterval( final LocalizableByDimCursor<T> out, final int[] blockMin, final int[] blockMax, final int slice, 
+			final int[] tiles, final ArrayList<Interpolator<? extends RealType<?>>> in, final float[] offset, final ArrayList< InvertibleBoundable > transform,
+			final PixelFusion fusion ) throws NoninvertibleModelException
+	{
+		final int numOutputDimensions = blockMin.length;
+		final int numDimensions = offset.length;
+		final int numTiles = tiles.length;
+		
+		// the maximal dimensions of each tile
+		final int[][] max = new int[ numTiles ][ numDimensions ];
+		for ( int j = 0; j < numTiles; ++j )
+			for ( int d = 0; d < numDimensions; ++d )
+				max[ j ][ d ] = in.get( tiles[ j ] ).getImage().getDimension( d ) - 1;
+		
+		final float[][] tmp = new float[ numTiles ][ numDimensions ];
+		final int[] position = blockMin.clone();
+		final int width = blockMax[ 0 ] - blockMin[ 0 ] + 1;
+		long stepsTaken = 0;
+		
+		// one line in x after the other
+		do
+		{
+			out.setPosition( position );
+			
+			for ( int x = 0; x < width; ++x )
+			{
+				// get the current position in the output image
+				for ( int d = 0; d < numOutputDimensions; ++d )
+				{
+					final float value = ( d == 0 ? position[ 0 ] + x : position[ d ] ) + offset[ d ];
+					
+					for ( int j = 0; j < numTiles; ++j )
+						tmp[ j ][ d ] = value;
+				}
+				
+				// if the output is just one slice, use the slice index
+				if ( slice >= 0 )
+					for ( int j = 0; j < numTiles; ++j )
+						tmp[ j ][ 2 ] = slice + offset[ 2 ];
+				
+				// transform and compute output value
+				fusion.clear();
+				
+				// loop over all tiles that overlap with this block
+A:				for ( int j = 0; j < numTiles; ++j )
+				{
+					final int i = tiles[ j ];
+					
+					transform.get( i ).applyInverseInPlace( tmp[ j ] );
+	
+					// test if inside
+					for ( int d = 0; d < numDimensions; ++d )
+						if ( tmp[ j ][ d ] < 0 || tmp[ j ][ d ] > max[ j ][ d ] )
+							continue A;
+					
+					in.get( i ).setPosition( tmp[ j ] );			
+					fusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp[ j ] );
+				}
+				
+				// set value
+				out.getType().setReal( fusion.getValue() );
+				out.fwd( 0 );
+			}
+			
+			stepsTaken += width;
+		}
+		while ( nextLine( position, blockMin, blockMax ) );
+		
+		return stepsTaken;
+	}
+
+	/**
+	 * Moves to the next line in x within the block, returns false if there is none.
+	 */
+	private static boolean nextLine( final int[] position, final int[] blockMin, final int[] blockMax )
+	{
+		for ( int d = 1; d < position.length; ++d )
+		{
+			if ( position[ d ] < blockMax[ d ] )
+			{
+				++position[ d ];
+				return true;
+			}
+			
+			position[ d ] = blockMin[ d ];
+		}
+		
+		return false;
+	}
+
+	/**
+	 * Divides an image into blocks of the given size, the blocks at the border might be smaller.
+	 * 
+	 * @return the first pixel of each block
+	 */
+	protected static ArrayList< int[] > getBlocks( final int[] size, final int blockSize )
+	{
+		final ArrayList< int[] > blocks = new ArrayList< int[] >();
+		final int[] block = new int[ size.length ];
+		
+		for ( int d = 0; d < size.length; ++d )
+			if ( size[ d ] <= 0 )
+				return blocks;
+		
+		while ( true )
+		{
+			blocks.add( block.clone() );
+			
+			int d = 0;
+			
+			for ( ; d < size.length; ++d )
+			{
+				block[ d ] += blockSize;
+				
+				if ( block[ d ] < size[ d ] )
+					break;
+				
+				block[ d ] = 0;
+			}
+			
+			if ( d == size.length )
+				return blocks;
+		}
+	}
+
+	private static int[][] getImageSizes( final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final int numDimensions )
+	{
+		final int[][] imgSizes = new int[ input.size() ][ numDimensions ];
+		
+		for ( int i = 0; i < input.size(); ++i )
+			for ( int d = 0; d < numDimensions; ++d )
+				imgSizes[ i ][ d ] = input.get( i ).getImage().getDimension( d );
+		
+		return imgSizes;
+	}
+
+	private static ArrayList<Interpolator<? extends RealType<?>>> createInterpolators( final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input )
+	{
+		final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
+		
+		for ( int i = 0; i < input.size(); ++i )
+			in.add( input.get( i ).createInterpolator() );
+		
+		return in;
+	}
+
 	/**
 	 * Fuse one slice/volume (one channel)
 	 * 
@@ -441,27 +562,36 @@ protected static <T extends RealType<T>> void writeBlock( final Image<T> outputS
 			final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final float[] offset, 
 			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final String outputDirectory )
 	{
-		final int numImages = input.size();
 		final int numDimensions = offset.length;
 		long imageSize = outputSlice.getDimension( 0 );
 		
 		for ( int d = 1; d < outputSlice.getNumDimensions(); ++d )
 			imageSize *= outputSlice.getDimension( d );
-
-		// the maximal dimensions of each image
-		final int[][] max = new int[ numImages ][ numDimensions ];
-		for ( int i = 0; i < numImages; ++i )
-			for ( int d = 0; d < numDimensions; ++d )
-				max[ i ][ d ] = input.get( i ).getImage().getDimension( d ) - 1; 
-		
-		final LocalizableCursor<T> out = outputSlice.createLocalizableCursor();
-		final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
 		
-		for ( int i = 0; i < numImages; ++i )
-			in.add( input.get( i ).createInterpolator() );
-		
-		final float[][] tmp = new float[ numImages ][ numDimensions ];
-		final PixelFusion myFusion = fusion.copy();
+		final long steps = imageSize;
+
+		// which tiles contribute to which part of the fused volume
+		final int[] size = new int[ numDimensions ];
+		size[ 0 ] = outputSlice.getDimension( 0 );
+		size[ 1 ] = outputSlice.getDimension( 1 );
+		if ( numDimensions == 3 )
+			size[ 2 ] = numSlices;
+		
+		final TileIndex index = new TileIndex( getImageSizes( input, numDimensions ), transform, offset, size, blockSize );
+		final ArrayList< int[] > blocks = getBlocks( outputSlice.getDimensions(), blockSize );
+		
+		// every thread keeps its cursors for all slices
+		final Thread[] threads = SimpleMultiThreading.newThreads();
+		final ArrayList< LocalizableByDimCursor<T> > outs = new ArrayList< LocalizableByDimCursor<T> >();
+		final ArrayList< ArrayList<Interpolator<? extends RealType<?>>> > ins = new ArrayList< ArrayList<Interpolator<? extends RealType<?>>> >();
+		final ArrayList< PixelFusion > fusions = new ArrayList< PixelFusion >();
+		
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			outs.add( outputSlice.createLocalizableByDimCursor() );
+			ins.add( createInterpolators( input ) );
+			fusions.add( fusion.copy() );
+		}
 		
 		try 
 		{
@@ -470,60 +600,74 @@ protected static <T extends RealType<T>> void writeBlock( final Image<T> outputS
 				IJ.showStatus("Fusing time point: " + t + " of " + numTimePoints + ", " +
 						"channel: " + c + " of " + numChannels + ", slice: " + (slice + 1) + " of " +
 						numSlices + "...");
-				out.reset();
-				int stepsTaken = 0;
-				// Writing occurs on one thread only, so these can both be declared here.
-				int[] localProgress = {0};
-				int[] globalProgress = {0};
+				
+				final int currentSlice = slice;
+				final int z = numDimensions == 3 ? slice : -1;
+				
+				// global progress variable. See #fuseBlock
+				final int[] globalProgress = {0};
 				IJ.showProgress(0);
 				
-				// fill all pixels of the current slice
-				while ( out.hasNext() )
-				{
-					out.fwd();
-  				stepsTaken++;
-  				
-  				// update status message if necessary
-  				updateStatus(globalProgress, localProgress, stepsTaken, imageSize, outputSlice);
-					
-					// get the current position in the output image
-					for ( int d = 0; d < 2; ++d )
-					{
-						final float value = out.getPosition( d ) + offset[ d ];
-						
-						for ( int i = 0; i < numImages; ++i )
-							tmp[ i ][ d ] = value;
-					}
-					
-					// if there is a third dimension, use the slice index
-					if ( numDimensions == 3 )
-					{
-						final float value = slice + offset[ 2 ];
-						
-						for ( int i = 0; i < numImages; ++i )
-							tmp[ i ][ 2 ] = value;						
-					}
-					
-					// transform and compute output value
-					myFusion.clear();
-					
-					// loop over all images for this output location
-A:		        	for ( int i = 0; i < numImages; ++i )
-		        	{
-		        		transform.get( i ).applyInverseInPlace( tmp[ i ] );
-		            	
-		        		// test if inside
-						for ( int d = 0; d < numDimensions; ++d )
-							if ( tmp[ i ][ d ] < 0 || tmp[ i ][ d ] > max[ i ][ d ] )
-								continue A;
-						
-						in.get( i ).setPosition( tmp[ i ] );			
-						myFusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp[ i ] );
-					}
-					
-					// set value
-					out.getType().setReal( myFusion.getValue() );
-				}
+				// fill all blocks of the current slice multithreaded
+				final AtomicInteger ai = new AtomicInteger(0);
+				final AtomicInteger nextBlock = new AtomicInteger(0);
+				final AtomicBoolean failed = new AtomicBoolean( false );
+				
+		        for (int ithread = 0; ithread < threads.length; ++ithread)
+		            threads[ithread] = new Thread(new Runnable()
+		            {
+		                public void run()
+		                {
+		                	// Thread ID
+		                	final int myNumber = ai.getAndIncrement();
+		                	
+		                	final int[] blockMax = new int[ 2 ];
+		                	final int[] queryMin = new int[ numDimensions ];
+		                	final int[] queryMax = new int[ numDimensions ];
+		                	
+		            		// tracks the progress [0-100/#threads] made by this thread
+		            		int[] localProgress = {0};
+		            		
+		            		// number of pixels processed
+		            		long stepsTaken = 0;
+		            		
+		            		try
+		            		{
+		            			for ( int b = nextBlock.getAndIncrement(); b < blocks.size(); b = nextBlock.getAndIncrement() )
+		            			{
+		            				final int[] blockMin = blocks.get( b );
+		            				
+		            				for ( int d = 0; d < 2; ++d )
+		            				{
+		            					blockMax[ d ] = Math.min( blockMin[ d ] + blockSize, size[ d ] ) - 1;
+		            					queryMin[ d ] = blockMin[ d ];
+		            					queryMax[ d ] = blockMax[ d ];
+		            				}
+		            				
+		            				if ( numDimensions == 3 )
+		            					queryMin[ 2 ] = queryMax[ 2 ] = currentSlice;
+		            				
+		            				stepsTaken += fuseInterval( outs.get( myNumber ), blockMin, blockMax, z, index.getOverlappingTiles( queryMin, queryMax ), 
+		            						ins.get( myNumber ), offset, transform, fusions.get( myNumber ) );
+		            				
+		            				// update status message if necessary
+		            				updateStatus(globalProgress, localProgress, stepsTaken, steps, outputSlice);
+		            			}
+		            		}
+		            		catch ( NoninvertibleModelException e ) 
+		            		{
+		            			failed.set( true );
+		            		}
+		                }
+		            });
+		        
+		        SimpleMultiThreading.startAndJoin( threads );
+		        
+		        if ( failed.get() )
+		        {
+		        	IJ.log( "Cannot invert model, qutting." );
+		        	return;
+		        }
 				
 				// write the slice
 				final ImagePlus outImp = ((ImagePlusContainer<?,?>)outputSlice.getContainer()).getImagePlus();
@@ -531,11 +675,6 @@ protected static <T extends RealType<T>> void writeBlock( final Image<T> outputS
 				fs.saveAsTiff( new File( outputDirectory, "img_t" + lz( t, numTimePoints ) + "_z" + lz( slice+1, numSlices ) + "_c" + lz( c, numChannels ) ).getAbsolutePath() );
 			}
 		} 
-		catch ( NoninvertibleModelException e ) 
-		{
-			IJ.log( "Cannot invert model, qutting." );
-			return;
-		} 
 		catch ( ImgLibException e ) 
 		{
 			IJ.log( "Output image has no ImageJ type: " + e );
@@ -0,0 +1,184 @@
+package mpicbg.stitching.fusion;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import mpicbg.models.InvertibleBoundable;
+
+/**
+ * A regular grid over the output image of a fusion. Each cell knows which tiles might contribute to it, determined
+ * by the bounding box of each tile after transformation. A block of the output therefore only has to look at the
+ * tiles that overlap with it instead of testing every tile for every pixel.
+ */
+public class TileIndex
+{
+	final int numDimensions, cellSize;
+	final int[] gridSize;
+
+	// the bounding box of each tile in pixel coordinates of the output image (inclusive)
+	final int[][] min, max;
+
+	// the indices of the tiles per cell
+	final int[][] cells;
+
+	/**
+	 * @param imgSizes - the dimensions of all input images imgSizes[ image ][ x, y, (z) ]
+	 * @param transform - the model of each image
+	 * @param offset - the offset of the output image
+	 * @param size - the size of the output image
+	 * @param cellSize - the size of a grid cell in pixels
+	 */
+	public TileIndex( final int[][] imgSizes, final ArrayList< InvertibleBoundable > transform, final float[] offset, final int[] size, final int cellSize )
+	{
+		this.numDimensions = size.length;
+		this.cellSize = cellSize;
+		this.gridSize = new int[ numDimensions ];
+
+		final int numImages = imgSizes.length;
+
+		this.min = new int[ numImages ][ numDimensions ];
+		this.max = new int[ numImages ][ numDimensions ];
+
+		int numCells = 1;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			gridSize[ d ] = Math.max( 1, ( size[ d ] + cellSize - 1 ) / cellSize );
+			numCells *= gridSize[ d ];
+		}
+
+		final ArrayList< ArrayList< Integer > > lists = new ArrayList< ArrayList< Integer > >( numCells );
+
+		for ( int c = 0; c < numCells; ++c )
+			lists.add( new ArrayList< Integer >() );
+
+		final int[] cellMin = new int[ numDimensions ];
+		final int[] cellMax = new int[ numDimensions ];
+		final int[] cell = new int[ numDimensions ];
+
+		for ( int i = 0; i < numImages; ++i )
+		{
+			// the pixels that are inside an image go from 0 to size-1
+			final float[] tmpMin = new float[ numDimensions ];
+			final float[] tmpMax = new float[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				tmpMax[ d ] = imgSizes[ i ][ d ] - 1;
+
+			transform.get( i ).estimateBounds( tmpMin, tmpMax );
+
+			boolean overlapsOutput = true;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				// the image might be rotated so that min is actually max, add one pixel for rounding errors
+				min[ i ][ d ] = Math.max( 0, (int)Math.floor( Math.min( tmpMin[ d ], tmpMax[ d ] ) - offset[ d ] ) - 1 );
+				max[ i ][ d ] = Math.min( size[ d ] - 1, (int)Math.ceil( Math.max( tmpMin[ d ], tmpMax[ d ] ) - offset[ d ] ) + 1 );
+
+				if ( min[ i ][ d ] > max[ i ][ d ] )
+					overlapsOutput = false;
+
+				cellMin[ d ] = min[ i ][ d ] / cellSize;
+				cellMax[ d ] = max[ i ][ d ] / cellSize;
+			}
+
+			if ( !overlapsOutput )
+				continue;
+
+			// add the tile to all cells it covers
+			System.arraycopy( cellMin, 0, cell, 0, numDimensions );
+
+			do
+			{
+				lists.get( cellIndex( cell ) ).add( i );
+			}
+			while ( next( cell, cellMin, cellMax ) );
+		}
+
+		this.cells = new int[ numCells ][];
+
+		for ( int c = 0; c < numCells; ++c )
+		{
+			final ArrayList< Integer > list = lists.get( c );
+			cells[ c ] = new int[ list.size() ];
+
+			for ( int j = 0; j < list.size(); ++j )
+				cells[ c ][ j ] = list.get( j );
+		}
+	}
+
+	/**
+	 * @param blockMin - the first pixel of the block in the output image
+	 * @param blockMax - the last pixel of the block in the output image (inclusive)
+	 *
+	 * @return the indices of all tiles whose bounding box overlaps with the block, in ascending order
+	 */
+	public int[] getOverlappingTiles( final int[] blockMin, final int[] blockMax )
+	{
+		final int[] cellMin = new int[ numDimensions ];
+		final int[] cellMax = new int[ numDimensions ];
+		final int[] cell = new int[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			cellMin[ d ] = Math.max( 0, blockMin[ d ] / cellSize );
+			cellMax[ d ] = Math.min( gridSize[ d ] - 1, blockMax[ d ] / cellSize );
+
+			if ( cellMin[ d ] > cellMax[ d ] )
+				return new int[ 0 ];
+		}
+
+		final BitSet tiles = new BitSet();
+
+		System.arraycopy( cellMin, 0, cell, 0, numDimensions );
+
+		do
+		{
+A:			for ( final int i : cells[ cellIndex( cell ) ] )
+			{
+				for ( int d = 0; d < numDimensions; ++d )
+					if ( max[ i ][ d ] < blockMin[ d ] || min[ i ][ d ] > blockMax[ d ] )
+						continue A;
+
+				tiles.set( i );
+			}
+		}
+		while ( next( cell, cellMin, cellMax ) );
+
+		final int[] result = new int[ tiles.cardinality() ];
+
+		for ( int i = tiles.nextSetBit( 0 ), j = 0; i >= 0; i = tiles.nextSetBit( i + 1 ) )
+			result[ j++ ] = i;
+
+		return result;
+	}
+
+	protected int cellIndex( final int[] cell )
+	{
+		int index = cell[ numDimensions - 1 ];
+
+		for ( int d = numDimensions - 2; d >= 0; --d )
+			index = index * gridSize[ d ] + cell[ d ];
+
+		return index;
+	}
+
+	/**
+	 * Moves to the next position within [min, max], returns false if there is none.
+	 */
+	protected static boolean next( final int[] position, final int[] min, final int[] max )
+	{
+		for ( int d = 0; d < position.length; ++d )
+		{
+			if ( position[ d ] < max[ d ] )
+			{
+				++position[ d ];
+				return true;
+			}
+
+			position[ d ] = min[ d ];
+		}
+
+		return false;
+	}
+}
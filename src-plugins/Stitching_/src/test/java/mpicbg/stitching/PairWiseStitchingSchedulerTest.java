@@ -0,0 +1,82 @@
+package mpicbg.stitching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.models.TranslationModel2D;
+
+import org.junit.Test;
+
+/**
+ * Tests the order in which the {@link PairWiseStitchingScheduler} computes the pairs.
+ */
+public class PairWiseStitchingSchedulerTest
+{
+	protected static ArrayList< ImagePlusTimePoint > createTiles( final int numTiles )
+	{
+		final ArrayList< ImagePlusTimePoint > tiles = new ArrayList< ImagePlusTimePoint >();
+
+		for ( int i = 0; i < numTiles; ++i )
+			tiles.add( new ImagePlusTimePoint( null, i, 1, new TranslationModel2D(), null ) );
+
+		return tiles;
+	}
+
+	@Test
+	public void testOrderPairs()
+	{
+		// a 4x3 grid, every tile paired with its right and lower neighbour, in random order
+		final ArrayList< ImagePlusTimePoint > tiles = createTiles( 12 );
+		final ArrayList< ComparePair > pairs = new ArrayList< ComparePair >();
+
+		for ( int y = 0; y < 3; ++y )
+			for ( int x = 0; x < 4; ++x )
+			{
+				if ( x < 3 )
+					pairs.add( new ComparePair( tiles.get( y * 4 + x ), tiles.get( y * 4 + x + 1 ) ) );
+				if ( y < 2 )
+					pairs.add( new ComparePair( tiles.get( y * 4 + x ), tiles.get( ( y + 1 ) * 4 + x ) ) );
+			}
+
+		Collections.shuffle( pairs, new Random( 1 ) );
+
+		final List< ComparePair > ordered = PairWiseStitchingScheduler.orderPairs( pairs );
+
+		// the same pairs, nothing lost or duplicated
+		assertEquals( pairs.size(), ordered.size() );
+		assertEquals( new HashSet< ComparePair >( pairs ), new HashSet< ComparePair >( ordered ) );
+
+		// the input list is not modified
+		assertTrue( pairs != ordered );
+
+		// tiles are numbered by first appearance, pairs are sorted by their smaller then larger tile number
+		final ArrayList< ImagePlusTimePoint > order = new ArrayList< ImagePlusTimePoint >();
+
+		for ( final ComparePair pair : pairs )
+		{
+			if ( !order.contains( pair.getTile1() ) )
+				order.add( pair.getTile1() );
+			if ( !order.contains( pair.getTile2() ) )
+				order.add( pair.getTile2() );
+		}
+
+		for ( int i = 1; i < ordered.size(); ++i )
+		{
+			final int a1 = order.indexOf( ordered.get( i - 1 ).getTile1() ), b1 = order.indexOf( ordered.get( i - 1 ).getTile2() );
+			final int a2 = order.indexOf( ordered.get( i ).getTile1() ), b2 = order.indexOf( ordered.get( i ).getTile2() );
+
+			final int first1 = Math.min( a1, b1 ), first2 = Math.min( a2, b2 );
+
+			assertTrue( first1 <= first2 );
+
+			if ( first1 == first2 )
+				assertTrue( Math.max( a1, b1 ) <= Math.max( a2, b2 ) );
+		}
+	}
+}
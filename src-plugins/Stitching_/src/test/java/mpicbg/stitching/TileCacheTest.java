@@ -0,0 +1,145 @@
+package mpicbg.stitching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests the reference counting and the eviction of the {@link TileCache}, with tiles that are
+ * created in memory instead of being loaded from their {@link ij.ImagePlus}.
+ */
+public class TileCacheTest
+{
+	// 16x16 float pixels
+	final static int tileBytes = 16 * 16 * 4;
+
+	/**
+	 * Creates the tiles instead of loading them, and remembers which were loaded and closed.
+	 */
+	protected static class TestCache extends TileCache
+	{
+		final Set< ImagePlusTimePoint > failing = new HashSet< ImagePlusTimePoint >();
+		final ArrayList< Image< FloatType > > closed = new ArrayList< Image< FloatType > >();
+		int loads = 0;
+
+		public TestCache( final long maxBytes )
+		{
+			super( maxBytes, 1 );
+		}
+
+		@Override
+		protected Image< FloatType > load( final ImagePlusTimePoint tile, final int channel )
+		{
+			++loads;
+
+			if ( failing.contains( tile ) )
+				return null;
+
+			return new Image< FloatType >( factory.createImage( new int[] { 16, 16 } ).getContainer(), new FloatType() )
+			{
+				@Override
+				public void close()
+				{
+					closed.add( this );
+					super.close();
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testTilesInUseAreKept()
+	{
+		final ArrayList< ImagePlusTimePoint > tiles = PairWiseStitchingSchedulerTest.createTiles( 4 );
+
+		// room for two tiles
+		final TestCache cache = new TestCache( 2 * tileBytes );
+
+		final Image< FloatType > img0 = cache.acquire( tiles.get( 0 ), 0 );
+		final Image< FloatType > img1 = cache.acquire( tiles.get( 1 ), 0 );
+		final Image< FloatType > img2 = cache.acquire( tiles.get( 2 ), 0 );
+
+		// acquired twice, released once: still in use
+		assertSame( img0, cache.acquire( tiles.get( 0 ), 0 ) );
+		cache.release( tiles.get( 0 ), 0 );
+
+		// over budget, but all tiles are in use
+		assertEquals( 0, cache.closed.size() );
+
+		// the least recently used tile that is not in use is dropped
+		cache.release( tiles.get( 1 ), 0 );
+		cache.release( tiles.get( 2 ), 0 );
+
+		assertEquals( 1, cache.closed.size() );
+		assertSame( img1, cache.closed.get( 0 ) );
+
+		// still cached
+		assertSame( img2, cache.acquire( tiles.get( 2 ), 0 ) );
+		cache.release( tiles.get( 2 ), 0 );
+		assertEquals( 3, cache.loads );
+		assertEquals( 2, cache.getNumHits() );
+
+		// reloaded, which drops tile 2 as tile 0 is still in use
+		assertNotNull( cache.acquire( tiles.get( 1 ), 0 ) );
+		assertEquals( 4, cache.loads );
+		cache.release( tiles.get( 1 ), 0 );
+
+		assertTrue( cache.closed.contains( img2 ) );
+		assertTrue( !cache.closed.contains( img0 ) );
+
+		cache.release( tiles.get( 0 ), 0 );
+		cache.clear();
+		assertTrue( cache.closed.contains( img0 ) );
+	}
+
+	@Test
+	public void testMemoryIsBounded()
+	{
+		final ArrayList< ImagePlusTimePoint > tiles = PairWiseStitchingSchedulerTest.createTiles( 20 );
+		final TestCache cache = new TestCache( 3 * tileBytes );
+
+		for ( final ImagePlusTimePoint tile : tiles )
+		{
+			assertNotNull( cache.acquire( tile, 0 ) );
+			cache.release( tile, 0 );
+
+			assertTrue( cache.usedBytes <= 3 * tileBytes );
+		}
+
+		assertEquals( 17, cache.closed.size() );
+		cache.clear();
+		assertEquals( 20, cache.closed.size() );
+		assertEquals( 0, cache.usedBytes );
+	}
+
+	@Test
+	public void testFailedTileIsNotKept()
+	{
+		final ArrayList< ImagePlusTimePoint > tiles = PairWiseStitchingSchedulerTest.createTiles( 2 );
+		final TestCache cache = new TestCache( 0 );
+		cache.failing.add( tiles.get( 0 ) );
+
+		assertNull( cache.acquire( tiles.get( 0 ), 0 ) );
+		assertEquals( 0, cache.usedBytes );
+
+		// loaded again on the next request
+		cache.failing.clear();
+		final Image< FloatType > img = cache.acquire( tiles.get( 0 ), 0 );
+		assertNotNull( img );
+		assertEquals( 2, cache.loads );
+
+		cache.release( tiles.get( 0 ), 0 );
+		assertTrue( cache.closed.contains( img ) );
+	}
+}
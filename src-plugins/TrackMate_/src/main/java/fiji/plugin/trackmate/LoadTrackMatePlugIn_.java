@@ -25,6 +25,7 @@
 import fiji.plugin.trackmate.io.TmXmlReader;
 import fiji.plugin.trackmate.io.TmXmlReader_v12;
 import fiji.plugin.trackmate.io.TmXmlReader_v20;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
 import fiji.plugin.trackmate.providers.DetectorProvider;
 import fiji.plugin.trackmate.providers.EdgeAnalyzerProvider;
 import fiji.plugin.trackmate.providers.SpotAnalyzerProvider;
@@ -82,14 +83,17 @@ public void run(final String arg0) {
 		file = tmpFile;
 
 		// Read the file content
-		TmXmlReader reader = new TmXmlReader(file);
-		final Version version = new Version(reader.getVersion());
-		if (version.compareTo(new Version("2.0.0")) < 0) {
+		final String versionString = TmXmlStreamReader.readVersion(file);
+		final Version version = null == versionString ? null : new Version(versionString);
+		TmXmlReader reader;
+		if (null != version && version.compareTo(new Version("2.0.0")) < 0) {
 			logger.log("Detecting a file version " + version +". Using the right reader.\n", Logger.GREEN_COLOR);
 			reader = new TmXmlReader_v12(file);
-		} else if (version.compareTo(new Version("2.1.0")) < 0) {
+		} else if (null != version && version.compareTo(new Version("2.1.0")) < 0) {
 			logger.log("Detecting a file version " + version +". Using the right reader.\n", Logger.GREEN_COLOR);
 			reader = new TmXmlReader_v20(file);
+		} else {
+			reader = new TmXmlStreamReader(file, logger);
 		}
 		if (!reader.isReadingOk()) {
 			logger.error(reader.getErrorMessage());
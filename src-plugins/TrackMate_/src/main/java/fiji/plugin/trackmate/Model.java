@@ -338,6 +338,10 @@ public SpotCollection getSpots() {
 	 * @param spots  the {@link SpotCollection} to set.
 	 */
 	public void setSpots(SpotCollection spots, boolean doNotify) {
+		if (null != this.spots && this.spots != spots) {
+			// The spots of the previous collection may be kept in the new one
+			this.spots.disposeSpatialIndices();
+		}
 		this.spots = spots;
 		if (doNotify) {
 			final ModelChangeEvent event = new ModelChangeEvent(this, ModelChangeEvent.SPOTS_COMPUTED);
@@ -654,9 +658,13 @@ private void flushUpdate() {
 		// Do we have tracks to update?
 		HashSet<Integer> tracksToUpdate = new HashSet<Integer>(trackModel.tracksUpdated);
 
-		// We also want to update the tracks that have edges that were modified
+		// We also want to update the tracks that have edges that were modified,
+		// unless these edges were removed since.
 		for (DefaultWeightedEdge modifiedEdge : trackModel.edgesModified) {
-			tracksToUpdate.add(trackModel.trackIDOf(modifiedEdge));
+			Integer trackID = trackModel.trackIDOf(modifiedEdge);
+			if (null != trackID) {
+				tracksToUpdate.add(trackID);
+			}
 		}
 
 		// Deal with new or moved spots: we need to update their features.
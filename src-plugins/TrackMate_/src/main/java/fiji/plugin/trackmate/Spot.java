@@ -1,16 +1,22 @@
 package fiji.plugin.trackmate;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.AbstractEuclideanSpace;
 import net.imglib2.RealLocalizable;
 import net.imglib2.util.Util;
+import fiji.plugin.trackmate.SpotFeatureStore.Column;
 import fiji.plugin.trackmate.util.AlphanumComparator;
 
 /**
@@ -26,8 +32,13 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable {
 
 	public static AtomicInteger IDcounter = new AtomicInteger(-1);
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap<String, Double> features = new ConcurrentHashMap<String, Double>();
+	/** Stores the individual features, and their values, for all spots. */
+	private static final SpotFeatureStore STORE = SpotFeatureStore.getInstance();
+
+	/** The index of this spot in the feature columns of the {@link #STORE}. */
+	private final int index;
+	/** The {@link SpotSpatialIndex}es this spot is in, notified when it moves. */
+	private volatile SpotSpatialIndex[] indices = null;
 	/** A user-supplied name for this spot. */
 	private String name;
 	/** This spot ID */
@@ -48,8 +59,9 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable {
 	public Spot(double[] coordinates, String name) {
 		super(3);
 		this.ID = IDcounter.incrementAndGet();
+		this.index = STORE.register(this);
 		for (int i = 0; i < 3; i++)
-			putFeature(POSITION_FEATURES[i], coordinates[i]);
+			POSITION_COLUMNS[i].set(index, coordinates[i]);
 		if (null == name)
 			this.name = "ID"+ID;
 		else
@@ -68,6 +80,7 @@ public Spot(double[] coordinates) {
 	public Spot(int ID) {
 		super(3);
 		this.ID = ID;
+		this.index = STORE.register(this);
 		synchronized (IDcounter) {
 			if (IDcounter.get() < ID) {
 				IDcounter.set(ID);
@@ -142,7 +155,8 @@ public String echo() {
 		s.append("Position: "+Util.printCoordinates(coordinates)+"\n");
 
 		// Feature list
-		if (null == features || features.size() < 1)
+		final Map<String, Double> features = getFeatures();
+		if (features.size() < 1)
 			s.append("No features calculated\n");
 		else {
 			s.append("Feature list:\n");
@@ -165,10 +179,19 @@ public String echo() {
 	 */
 
 	/**
-	 * @return and exposes the storage Map of features for this spot.
+	 * @return a live Map view of the features of this spot, backed by the
+	 * {@link SpotFeatureStore}. Only the features set for this spot are
+	 * present in the map.
 	 */
 	public Map<String,Double> getFeatures() {
-		return features;
+		return new FeatureMap();
+	}
+
+	/**
+	 * @return the index of this spot in the columns of the {@link SpotFeatureStore}.
+	 */
+	public final int getStoreIndex() {
+		return index;
 	}
 
 	/**
@@ -177,14 +200,91 @@ public Map<String,Double> getFeatures() {
 	 * <code>null</code> if it has not been set.
 	 */
 	public final Double getFeature(final String feature) {
-		return features.get(feature);
+		final double val = getFeatureValue(feature);
+		if (SpotFeatureStore.isMissing(val))
+			return null;
+		return Double.valueOf(val);
+	}
+
+	/**
+	 * @return The value corresponding to the specified spot feature, without boxing.
+	 * @param feature The feature string to retrieve the stored value for.
+	 * {@link SpotFeatureStore#MISSING} if it has not been set.
+	 */
+	public final double getFeatureValue(final String feature) {
+		final Column column = STORE.getColumn(feature);
+		if (null == column)
+			return SpotFeatureStore.MISSING;
+		return column.get(index);
 	}
 
 	/**
 	 * Store the specified feature value for this spot.
 	 */
 	public final void putFeature(final String feature, final Double value) {
-		features.put(feature, value);
+		putFeature(feature, value.doubleValue());
+	}
+
+	/**
+	 * Store the specified feature value for this spot, without boxing.
+	 */
+	public final void putFeature(final String feature, final double value) {
+		final Column column = STORE.getOrCreateColumn(feature);
+		column.set(index, value);
+		notifyIndices(column);
+	}
+
+	/**
+	 * Registers a {@link SpotSpatialIndex} this spot was put in, so that it is
+	 * notified of the changes of the position and radius of this spot.
+	 */
+	final synchronized void addIndex(final SpotSpatialIndex spatialIndex) {
+		final SpotSpatialIndex[] current = indices;
+		if (null == current) {
+			indices = new SpotSpatialIndex[] { spatialIndex };
+			return;
+		}
+		for (final SpotSpatialIndex registered : current)
+			if (registered == spatialIndex)
+				return;
+		final SpotSpatialIndex[] added = Arrays.copyOf(current, current.length + 1);
+		added[current.length] = spatialIndex;
+		indices = added;
+	}
+
+	/**
+	 * Unregisters a {@link SpotSpatialIndex} this spot is not in anymore.
+	 */
+	final synchronized void removeIndex(final SpotSpatialIndex spatialIndex) {
+		final SpotSpatialIndex[] current = indices;
+		if (null == current)
+			return;
+		int i = 0;
+		while (i < current.length && current[i] != spatialIndex)
+			i++;
+		if (i == current.length)
+			return;
+		if (current.length == 1) {
+			indices = null;
+			return;
+		}
+		final SpotSpatialIndex[] removed = new SpotSpatialIndex[current.length - 1];
+		System.arraycopy(current, 0, removed, 0, i);
+		System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+		indices = removed;
+	}
+
+	private void notifyIndices(final Column column) {
+		final SpotSpatialIndex[] current = indices;
+		if (null == current)
+			return;
+		if (column == RADIUS_COLUMN) {
+			for (final SpotSpatialIndex spatialIndex : current)
+				spatialIndex.radiusChanged(this);
+		} else if (column == POSITION_COLUMNS[0] || column == POSITION_COLUMNS[1] || column == POSITION_COLUMNS[2]) {
+			for (final SpotSpatialIndex spatialIndex : current)
+				spatialIndex.moved(this);
+		}
 	}
 
 	/**
@@ -192,8 +292,9 @@ public final void putFeature(final String feature, final Double value) {
 	 * By construction, this operation is anti-symmetric (A.diffTo(B) = - B.diffTo(A)).
 	 */
 	public double diffTo(Spot s, String feature) {
-		double f1 = features.get(feature).doubleValue();
-		double f2 = s.getFeature(feature).doubleValue();
+		final Column column = STORE.getColumn(feature);
+		double f1 = column.get(index);
+		double f2 = column.get(s.index);
 		return f1 - f2;
 	}
 
@@ -207,8 +308,9 @@ public double diffTo(Spot s, String feature) {
 	 * By construction, this operation is symmetric (A.normalizeDiffTo(B) = B.normalizeDiffTo(A)).
 	 */
 	public double normalizeDiffTo(Spot s, String feature) {
-		final double a = features.get(feature).doubleValue();
-		final double b = s.getFeature(feature).doubleValue();
+		final Column column = STORE.getColumn(feature);
+		final double a = column.get(index);
+		final double b = column.get(s.index);
 		if (a == -b)
 			return 0d;
 		else
@@ -222,9 +324,9 @@ public double squareDistanceTo(Spot s) {
 		double sumSquared = 0d;
 		double thisVal, otherVal;
 
-		for (String f : POSITION_FEATURES) {
-			thisVal = features.get(f).doubleValue();
-			otherVal = s.getFeature(f).doubleValue();
+		for (Column column : POSITION_COLUMNS) {
+			thisVal = column.get(index);
+			otherVal = column.get(s.index);
 			sumSquared += ( otherVal - thisVal ) * ( otherVal - thisVal );
 		}
 		return sumSquared;
@@ -258,6 +360,11 @@ public double squareDistanceTo(Spot s) {
 
 	/** The position features. */
 	public final static String[] POSITION_FEATURES = new String[] { POSITION_X, POSITION_Y, POSITION_Z };
+	/** The columns of the position features, in the same order. */
+	private final static Column[] POSITION_COLUMNS = new Column[] {
+		STORE.getOrCreateColumn(POSITION_X), STORE.getOrCreateColumn(POSITION_Y), STORE.getOrCreateColumn(POSITION_Z) };
+	/** The column of the radius feature. */
+	private final static Column RADIUS_COLUMN = STORE.getOrCreateColumn(RADIUS);
 	/** The 7 privileged spot features that must be set by a spot detector: {@link #QUALITY},
 	 * {@link #POSITION_X}, {@link #POSITION_Y}, {@link #POSITION_Z}, {@link #POSITION_Z},
 	 * {@link #RADIUS}, {@link #FRAME}. */
@@ -328,8 +435,8 @@ public float getFloatPosition(final int d)
 	@Override
 	public double getDoublePosition(final int d)
 	{
-		assert ( d > 0 && d < n );
-		return getFeature( POSITION_FEATURES[ d ] );
+		assert ( d >= 0 && d < n );
+		return POSITION_COLUMNS[ d ].get( index );
 	}
 
 	/*
@@ -358,7 +465,7 @@ else if (diff < 0)
 		};
 		return comparator;
 	}
-	
+
 	/** A comparator used to sort spots by ascending time feature. */
 	public final static Comparator<Spot> timeComparator = featureComparator(POSITION_T);
 
@@ -375,4 +482,116 @@ public int compare(Spot o1, Spot o2) {
 		}
 	};
 
-}
\ No newline at end of file
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A Map view of the features set for this spot in the {@link SpotFeatureStore}.
+	 */
+	private final class FeatureMap extends AbstractMap<String, Double> {
+
+		@Override
+		public Double get(final Object key) {
+			if (!(key instanceof String))
+				return null;
+			return getFeature((String) key);
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return null != get(key);
+		}
+
+		@Override
+		public Double put(final String key, final Double value) {
+			final Double previous = getFeature(key);
+			putFeature(key, value);
+			return previous;
+		}
+
+		@Override
+		public Double remove(final Object key) {
+			final Double previous = get(key);
+			if (null != previous) {
+				final Column column = STORE.getColumn((String) key);
+				column.clear(index);
+				notifyIndices(column);
+			}
+			return previous;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<String,Double>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Double>> iterator() {
+					return new FeatureIterator();
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (Column column : STORE.getColumns())
+						if (!SpotFeatureStore.isMissing(column.get(index)))
+							size++;
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the features set for this spot.
+	 */
+	private final class FeatureIterator implements Iterator<Map.Entry<String, Double>> {
+
+		private final Iterator<Column> columns = STORE.getColumns().iterator();
+		private Map.Entry<String, Double> next;
+		private Column current;
+		private Column last;
+
+		private FeatureIterator() {
+			iterate();
+		}
+
+		private void iterate() {
+			next = null;
+			while (columns.hasNext()) {
+				final Column column = columns.next();
+				final double val = column.get(index);
+				if (!SpotFeatureStore.isMissing(val)) {
+					current = column;
+					next = new AbstractMap.SimpleImmutableEntry<String, Double>(column.getFeature(), Double.valueOf(val));
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return null != next;
+		}
+
+		@Override
+		public Map.Entry<String, Double> next() {
+			if (null == next)
+				throw new NoSuchElementException();
+			final Map.Entry<String, Double> toReturn = next;
+			last = current;
+			iterate();
+			return toReturn;
+		}
+
+		@Override
+		public void remove() {
+			if (null == last)
+				throw new IllegalStateException();
+			last.clear(index);
+			notifyIndices(last);
+			last = null;
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -9,7 +10,6 @@
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
@@ -17,6 +17,7 @@
 import java.util.concurrent.TimeUnit;
 
 import net.imglib2.algorithm.MultiThreaded;
+import fiji.plugin.trackmate.SpotFeatureStore.Column;
 import fiji.plugin.trackmate.features.FeatureFilter;
 
 /**
@@ -29,6 +30,13 @@
  * This class is {@link MultiThreaded}. There are a few processes that can
  * benefit from multithreaded computation ({@link #filter(Collection)},
  * {@link #filter(FeatureFilter)}
+ * <p>
+ * Each frame has a {@link SpotSpatialIndex}, built on demand and kept up to
+ * date by {@link #add(Spot, Integer)} and {@link #remove(Spot, Integer)}, that
+ * answers the spatial queries such as {@link #getClosestSpot(Spot, int, boolean)}.
+ * <p>
+ * Filtering and feature collection read the spot features directly from the
+ * primitive columns of the {@link SpotFeatureStore}, without boxing.
  * 
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  * 
@@ -40,6 +48,9 @@ public class SpotCollection implements MultiThreaded {
 
 	public static final String VISIBLITY = "VISIBILITY";
 
+	/** The column storing the {@link #VISIBLITY} of all spots. */
+	private static final Column VISIBILITY_COLUMN = SpotFeatureStore.getInstance().getOrCreateColumn(VISIBLITY);
+
 	/**
 	 * Time units for filtering and cropping operation timeouts. Filtering
 	 * should not take more than 1 minute.
@@ -53,6 +64,8 @@ public class SpotCollection implements MultiThreaded {
 
 	/** The frame by frame list of spot this object wrap. */
 	private ConcurrentSkipListMap<Integer, Set<Spot>> content = new ConcurrentSkipListMap<Integer, Set<Spot>>();
+	/** The spatial indices of the frames that were queried. */
+	private final ConcurrentHashMap<Integer, SpotSpatialIndex> spatialIndices = new ConcurrentHashMap<Integer, SpotSpatialIndex>();
 	private int numThreads;
 
 	/*
@@ -115,9 +128,14 @@ public void add(final Spot spot, final Integer frame) {
 			spots = new HashSet<Spot>();
 			content.put(frame, spots);
 		}
-		spots.add(spot);
-		spot.putFeature(Spot.FRAME, Double.valueOf(frame));
-		spot.putFeature(VISIBLITY, ONE);
+		if (spots.add(spot)) {
+			final SpotSpatialIndex index = spatialIndices.get(frame);
+			if (null != index) {
+				index.add(spot);
+			}
+		}
+		spot.putFeature(Spot.FRAME, frame.doubleValue());
+		VISIBILITY_COLUMN.set(spot.getStoreIndex(), 1d);
 	}
 
 	/**
@@ -132,7 +150,14 @@ public boolean remove(final Spot spot, final Integer frame) {
 		if (null == spots) {
 			return false;
 		}
-		return spots.remove(spot);
+		final boolean removed = spots.remove(spot);
+		if (removed) {
+			final SpotSpatialIndex index = spatialIndices.get(frame);
+			if (null != index) {
+				index.remove(spot);
+			}
+		}
+		return removed;
 	}
 
 	/**
@@ -142,7 +167,7 @@ public boolean remove(final Spot spot, final Integer frame) {
 	 *            if true, all spots will be marked as visible.
 	 */
 	public void setVisible(final boolean visible) {
-		final Double val = visible ? ONE : ZERO;
+		final double val = visible ? 1d : 0d;
 		final Collection<Integer> frames = content.keySet();
 
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
@@ -154,7 +179,7 @@ public void run() {
 
 					final Set<Spot> spots = content.get(frame);
 					for (final Spot spot : spots) {
-						spot.putFeature(VISIBLITY, val);
+						VISIBILITY_COLUMN.set(spot.getStoreIndex(), val);
 					}
 
 				}
@@ -175,6 +200,8 @@ public void run() {
 
 	public final void filter(final FeatureFilter featurefilter) {
 
+		final Column column = SpotFeatureStore.getInstance().getColumn(featurefilter.feature);
+		final double threshold = featurefilter.value.doubleValue();
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
 
@@ -184,33 +211,12 @@ public final void filter(final FeatureFilter featurefilter) {
 				@Override
 				public void run() {
 
-					Double val, tval;
-
-					final Set<Spot> spots = content.get(frame);
-					tval = featurefilter.value;
-
-					if (featurefilter.isAbove) {
-
-						for (final Spot spot : spots) {
-							val = spot.getFeature(featurefilter.feature);
-							if (val.compareTo(tval) < 0) {
-								spot.putFeature(VISIBLITY, ZERO);
-							} else {
-								spot.putFeature(VISIBLITY, ONE);
-							}
-						}
-
-					} else {
-
-						for (final Spot spot : spots) {
-							val = spot.getFeature(featurefilter.feature);
-							if (val.compareTo(tval) > 0) {
-								spot.putFeature(VISIBLITY, ZERO);
-							} else {
-								spot.putFeature(VISIBLITY, ONE);
-							}
-						}
-					}
+					final int[] indices = getStoreIndices(content.get(frame));
+					final double[] values = new double[indices.length];
+					final boolean[] hidden = new boolean[indices.length];
+					gather(column, indices, values);
+					scan(values, threshold, featurefilter.isAbove, hidden);
+					setVisibility(indices, hidden);
 				}
 			};
 			executors.execute(command);
@@ -229,6 +235,7 @@ public void run() {
 
 	public final void filter(final Collection<FeatureFilter> filters) {
 
+		final SpotFeatureStore store = SpotFeatureStore.getInstance();
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
 
@@ -236,32 +243,15 @@ public final void filter(final Collection<FeatureFilter> filters) {
 			final Runnable command = new Runnable() {
 				@Override
 				public void run() {
-					final Set<Spot> spots = content.get(frame);
-
-					Double val, tval;
-					boolean isAbove, shouldNotBeVisible;
-					for (final Spot spot : spots) {
-
-						shouldNotBeVisible = false;
-						for (final FeatureFilter featureFilter : filters) {
-
-							val = spot.getFeature(featureFilter.feature);
-							tval = featureFilter.value;
-							isAbove = featureFilter.isAbove;
-
-							if (isAbove && val.compareTo(tval) < 0 || !isAbove && val.compareTo(tval) > 0) {
-								shouldNotBeVisible = true;
-								break;
-							}
-						} // loop over filters
-
-						if (shouldNotBeVisible) {
-							spot.putFeature(VISIBLITY, ZERO);
-						} else {
-							spot.putFeature(VISIBLITY, ONE);
-						}
-					} // loop over spots
 
+					final int[] indices = getStoreIndices(content.get(frame));
+					final double[] values = new double[indices.length];
+					final boolean[] hidden = new boolean[indices.length];
+					for (final FeatureFilter featureFilter : filters) {
+						gather(store.getColumn(featureFilter.feature), indices, values);
+						scan(values, featureFilter.value.doubleValue(), featureFilter.isAbove, hidden);
+					} // loop over filters
+					setVisibility(indices, hidden);
 				}
 
 			};
@@ -295,26 +285,10 @@ public void run() {
 	 *         collection.
 	 */
 	public final Spot getClosestSpot(final Spot location, final int frame, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		if (null == spots)
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index)
 			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		Spot target = null;
-		for (final Spot s : spots) {
-
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
-			}
-
-			d2 = s.squareDistanceTo(location);
-			if (d2 < minDist) {
-				minDist = d2;
-				target = s;
-			}
-
-		}
-		return target;
+		return index.getNearest(getPosition(location), visibleSpotsOnly);
 	}
 
 	/**
@@ -335,29 +309,11 @@ public final Spot getClosestSpot(final Spot location, final int frame, final boo
 	 *         spots cannot be found.
 	 */
 	public final Spot getSpotAt(final Spot location, final int frame, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		if (null == spots || spots.isEmpty()) {
-			return null;
-		}
-
-		final TreeMap<Double, Spot> distanceToSpot = new TreeMap<Double, Spot>();
-		double d2;
-		for (final Spot s : spots) {
-
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
-			}
-
-			d2 = s.squareDistanceTo(location);
-			if (d2 < s.getFeature(Spot.RADIUS) * s.getFeature(Spot.RADIUS)) {
-				distanceToSpot.put(d2, s);
-			}
-		}
-		if (distanceToSpot.isEmpty()) {
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index) {
 			return null;
-		} else {
-			return distanceToSpot.firstEntry().getValue();
 		}
+		return index.getSpotAt(getPosition(location), visibleSpotsOnly);
 	}
 
 	/**
@@ -379,28 +335,83 @@ public final Spot getSpotAt(final Spot location, final int frame, final boolean
 	 * @return a new list, with of at most <code>n</code> spots, ordered by
 	 *         increasing distance from the specified location.
 	 */
-	public final List<Spot> getNClosestSpots(final Spot location, final int frame, int n, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		final TreeMap<Double, Spot> distanceToSpot = new TreeMap<Double, Spot>();
+	public final List<Spot> getNClosestSpots(final Spot location, final int frame, final int n, final boolean visibleSpotsOnly) {
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index) {
+			return new ArrayList<Spot>(0);
+		}
+		return index.getNearest(getPosition(location), n, visibleSpotsOnly);
+	}
 
-		double d2;
-		for (final Spot s : spots) {
+	/**
+	 * Returns the {@link Spot}s of the frame <code>frame</code> whose center is
+	 * within the specified distance of the given location (encoded as a Spot).
+	 * <p>
+	 * The list is ordered by increasing distance to the given location.
+	 * 
+	 * @param location
+	 *            the location to search for.
+	 * @param frame
+	 *            the frame to inspect.
+	 * @param radius
+	 *            the max distance to the location.
+	 * @param visibleSpotsOnly
+	 *            if true, will only search though visible spots. If false, will
+	 *            search through all spots.
+	 * @return a new list of spots, ordered by increasing distance from the
+	 *         specified location.
+	 */
+	public final List<Spot> getSpotsWithin(final Spot location, final int frame, final double radius, final boolean visibleSpotsOnly) {
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index) {
+			return new ArrayList<Spot>(0);
+		}
+		return index.getWithin(getPosition(location), radius, visibleSpotsOnly);
+	}
 
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
+	/**
+	 * Returns the spatial index of the specified frame, that can be used for
+	 * nearest neighbor and radius queries over its spots. The index is kept up
+	 * to date when spots are added or removed through this collection.
+	 * 
+	 * @param frame
+	 *            the frame to index.
+	 * @return the spatial index of the frame, or <code>null</code> if this
+	 *         frame does not exist in this collection.
+	 */
+	public SpotSpatialIndex getSpatialIndex(final int frame) {
+		final Set<Spot> spots = content.get(frame);
+		if (null == spots) {
+			return null;
+		}
+		SpotSpatialIndex index = spatialIndices.get(frame);
+		if (null == index || !index.isIndexing(spots)) {
+			if (null != index) {
+				index.dispose();
 			}
-
-			d2 = s.squareDistanceTo(location);
-			distanceToSpot.put(d2, s);
+			index = new SpotSpatialIndex(spots);
+			spatialIndices.put(frame, index);
 		}
+		return index;
+	}
 
-		final List<Spot> selectedSpots = new ArrayList<Spot>(n);
-		final Iterator<Double> it = distanceToSpot.keySet().iterator();
-		while (n > 0 && it.hasNext()) {
-			selectedSpots.add(distanceToSpot.get(it.next()));
-			n--;
+	/**
+	 * Releases the spatial indices of this collection, so that its spots stop
+	 * notifying them. Indices are built again on the next query. Call this
+	 * when this collection is discarded, as its spots may live on in another
+	 * collection.
+	 */
+	public void disposeSpatialIndices() {
+		for (final Iterator<SpotSpatialIndex> it = spatialIndices.values().iterator(); it.hasNext();) {
+			it.next().dispose();
+			it.remove();
 		}
-		return selectedSpots;
+	}
+
+	private static final double[] getPosition(final Spot location) {
+		final double[] position = new double[3];
+		location.localize(position);
+		return position;
 	}
 
 	/**
@@ -513,15 +524,95 @@ public void run() {
 	 * @return a new <code>double</code> array.
 	 */
 	public final double[] collectValues(final String feature, final boolean visibleOnly) {
-		final double[] values = new double[getNSpots(visibleOnly)];
+		final Column column = SpotFeatureStore.getInstance().getColumn(feature);
+		final double[] values = new double[getNSpots(false)];
 		int index = 0;
-		for (final Spot spot : iterable(visibleOnly)) {
-			values[index] = spot.getFeature(feature);
-			index++;
+		for (final Set<Spot> spots : content.values()) {
+			final int[] indices = getStoreIndices(spots);
+			final double[] frameValues = new double[indices.length];
+			gather(column, indices, frameValues);
+			if (visibleOnly) {
+				final double[] visibilities = new double[indices.length];
+				VISIBILITY_COLUMN.get(indices, visibilities);
+				for (int i = 0; i < indices.length; i++) {
+					if (visibilities[i] > 0) {
+						values[index++] = frameValues[i];
+					}
+				}
+			} else {
+				System.arraycopy(frameValues, 0, values, index, frameValues.length);
+				index += frameValues.length;
+			}
+		}
+		if (index < values.length) {
+			return Arrays.copyOf(values, index);
 		}
 		return values;
 	}
 
+	/*
+	 * COLUMN SCANS
+	 */
+
+	/**
+	 * Returns <code>true</code> if the specified spot is marked as visible.
+	 */
+	private static final boolean isVisible(final Spot spot) {
+		return VISIBILITY_COLUMN.get(spot.getStoreIndex()) > 0;
+	}
+
+	/**
+	 * Returns the {@link SpotFeatureStore} indices of the specified spots.
+	 */
+	private static final int[] getStoreIndices(final Set<Spot> spots) {
+		final int[] indices = new int[spots.size()];
+		int i = 0;
+		for (final Spot spot : spots) {
+			indices[i++] = spot.getStoreIndex();
+		}
+		return indices;
+	}
+
+	/**
+	 * Reads the values of a feature column at the specified indices. The
+	 * column may be <code>null</code> if the feature was never set, in which
+	 * case all the values are missing.
+	 */
+	private static final void gather(final Column column, final int[] indices, final double[] values) {
+		if (null == column) {
+			Arrays.fill(values, SpotFeatureStore.MISSING);
+		} else {
+			column.get(indices, values);
+		}
+	}
+
+	/**
+	 * Marks as hidden the values that do not pass a feature filter. Values
+	 * already marked as hidden are left untouched. As for
+	 * {@link Double#compareTo(Double)}, NaN and missing values are greater
+	 * than any threshold.
+	 */
+	private static final void scan(final double[] values, final double threshold, final boolean isAbove, final boolean[] hidden) {
+		if (isAbove) {
+			for (int i = 0; i < values.length; i++) {
+				hidden[i] |= values[i] < threshold;
+			}
+		} else {
+			for (int i = 0; i < values.length; i++) {
+				hidden[i] |= values[i] > threshold || values[i] != values[i];
+			}
+		}
+	}
+
+	/**
+	 * Writes the visibility of the spots at the specified indices.
+	 */
+	private static final void setVisibility(final int[] indices, final boolean[] hidden) {
+		for (int i = 0; i < indices.length; i++) {
+			VISIBILITY_COLUMN.set(indices[i], hidden[i] ? 0d : 1d);
+		}
+	}
+
 	/*
 	 * ITERABLE & co
 	 */
@@ -619,10 +710,14 @@ public Iterable<Spot> iterable(final int frame, final boolean visibleSpotsOnly)
 	public void put(final int frame, final Collection<Spot> spots) {
 		final Set<Spot> value = new HashSet<Spot>(spots);
 		for (final Spot spot : value) {
-			spot.putFeature(Spot.FRAME, Double.valueOf(frame));
-			spot.putFeature(VISIBLITY, ZERO);
+			spot.putFeature(Spot.FRAME, frame);
+			VISIBILITY_COLUMN.set(spot.getStoreIndex(), 0d);
 		}
 		content.put(frame, value);
+		final SpotSpatialIndex index = spatialIndices.remove(frame);
+		if (null != index) {
+			index.dispose();
+		}
 	}
 
 	/**
@@ -792,7 +887,7 @@ private void iterate() {
 				}
 				next = contentIterator.next();
 				// Is it visible? 
-				if (next.getFeature(VISIBLITY).compareTo(ZERO) > 0) {
+				if (isVisible(next)) {
 					// Yes! Be happy and return
 					return;
 				}
@@ -843,7 +938,7 @@ private void iterate() {
 				}
 				next = contentIterator.next();
 				// Is it visible? 
-				if (next.getFeature(VISIBLITY).compareTo(ZERO) > 0) {
+				if (isVisible(next)) {
 					// Yes. Be happy, and return.
 					return;
 				}
@@ -890,9 +985,9 @@ public void run() {
 					final Set<Spot> nfc = new HashSet<Spot>(getNSpots(frame, true));
 
 					for (final Spot spot : fc) {
-						if (spot.getFeature(VISIBLITY).compareTo(ZERO) > 0) {
+						if (isVisible(spot)) {
 							nfc.add(spot);
-							spot.putFeature(VISIBLITY, ZERO);
+							VISIBILITY_COLUMN.set(spot.getStoreIndex(), 0d);
 						}
 					}
 					ns.content.put(frame, nfc);
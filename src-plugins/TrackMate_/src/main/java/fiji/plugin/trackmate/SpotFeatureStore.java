@@ -0,0 +1,254 @@
+package fiji.plugin.trackmate;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columnar storage of the numerical features of all the {@link Spot}s.
+ * <p>
+ * Each feature is stored in one primitive <code>double</code> {@link Column},
+ * and each spot owns one dense index in all the columns, given at construction
+ * (see {@link Spot#getStoreIndex()}). Compared to a map of boxed
+ * {@link Double}s per spot, this saves the map entries and the boxing, and
+ * allows whole collections to be scanned over primitive arrays, for instance
+ * when filtering spots or collecting feature values.
+ * <p>
+ * Columns are made of fixed-size blocks that are allocated when first written
+ * to, and that are never moved. Values can therefore be written concurrently
+ * for different spots without locking. As for plain arrays, a value written by
+ * one thread is only guaranteed to be seen by another one after they
+ * synchronized, for instance at the termination of the executor in which it was
+ * written.
+ * <p>
+ * Values that were never set are stored as a specific NaN, that can be tested
+ * with {@link #isMissing(double)}. The indices of spots that were garbage
+ * collected are cleared and given to new spots.
+ */
+public class SpotFeatureStore {
+
+	private static final int BLOCK_BITS = 12;
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	/** The bits of the NaN used to mark missing values. It is a quiet NaN, distinct from {@link Double#NaN}. */
+	private static final long MISSING_BITS = 0x7ff80000000badL;
+	/** The value returned for a feature that was not set. */
+	public static final double MISSING = Double.longBitsToDouble(MISSING_BITS);
+
+	private static final SpotFeatureStore instance = new SpotFeatureStore();
+
+	/** The columns, per feature. */
+	private final ConcurrentHashMap<String, Column> columns = new ConcurrentHashMap<String, Column>();
+	/** Where the references of the collected spots are enqueued. */
+	private final ReferenceQueue<Spot> collected = new ReferenceQueue<Spot>();
+	/** Keep the references to the spots reachable, until they are enqueued. */
+	private IndexReference[] references = new IndexReference[BLOCK_SIZE];
+	/** The indices freed by collected spots. */
+	private int[] freeIndices = new int[16];
+	private int nFreeIndices = 0;
+	/** The next never used index. */
+	private int nextIndex = 0;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	private SpotFeatureStore() {}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the store shared by all the spots.
+	 */
+	public static SpotFeatureStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified value, read from a
+	 * {@link Column}, means that the feature was not set.
+	 */
+	public static final boolean isMissing(final double value) {
+		return Double.doubleToRawLongBits(value) == MISSING_BITS;
+	}
+
+	/**
+	 * Returns the column of the specified feature, or <code>null</code> if
+	 * this feature was never set for any spot.
+	 */
+	public Column getColumn(final String feature) {
+		return columns.get(feature);
+	}
+
+	/**
+	 * Returns the column of the specified feature, creating it if needed.
+	 */
+	public Column getOrCreateColumn(final String feature) {
+		Column column = columns.get(feature);
+		if (null == column) {
+			final Column newColumn = new Column(feature);
+			column = columns.putIfAbsent(feature, newColumn);
+			if (null == column) {
+				column = newColumn;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Returns a view of all the columns of this store.
+	 */
+	public Collection<Column> getColumns() {
+		return columns.values();
+	}
+
+	/**
+	 * Gives a new index to the specified spot, recycling the index of a
+	 * collected spot if there is one.
+	 */
+	synchronized int register(final Spot spot) {
+		expungeCollectedSpots();
+		final int index;
+		if (nFreeIndices > 0) {
+			index = freeIndices[--nFreeIndices];
+		} else {
+			index = nextIndex++;
+			if (index >= references.length) {
+				references = Arrays.copyOf(references, 2 * references.length);
+			}
+		}
+		references[index] = new IndexReference(spot, index, collected);
+		return index;
+	}
+
+	/**
+	 * Clears the values of the spots that were garbage collected, and makes
+	 * their indices available.
+	 */
+	private void expungeCollectedSpots() {
+		IndexReference reference;
+		while (null != (reference = (IndexReference) collected.poll())) {
+			final int index = reference.index;
+			references[index] = null;
+			for (final Column column : columns.values()) {
+				column.clear(index);
+			}
+			if (nFreeIndices == freeIndices.length) {
+				freeIndices = Arrays.copyOf(freeIndices, 2 * freeIndices.length);
+			}
+			freeIndices[nFreeIndices++] = index;
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The values of one feature for all the spots, addressed by their store
+	 * index.
+	 */
+	public static final class Column {
+
+		private final String feature;
+		private volatile double[][] blocks = new double[16][];
+
+		private Column(final String feature) {
+			this.feature = feature;
+		}
+
+		/**
+		 * Returns the feature stored in this column.
+		 */
+		public String getFeature() {
+			return feature;
+		}
+
+		/**
+		 * Returns the value stored at the specified index, or {@link #MISSING} if it was not set.
+		 */
+		public double get(final int index) {
+			final double[][] b = blocks;
+			final int blockIndex = index >>> BLOCK_BITS;
+			if (blockIndex >= b.length) {
+				return MISSING;
+			}
+			final double[] block = b[blockIndex];
+			if (null == block) {
+				return MISSING;
+			}
+			return block[index & BLOCK_MASK];
+		}
+
+		/**
+		 * Gathers the values stored at the specified indices in the specified
+		 * array, which must be at least as long as the index array.
+		 */
+		public void get(final int[] indices, final double[] values) {
+			final double[][] b = blocks;
+			for (int i = 0; i < indices.length; i++) {
+				final int blockIndex = indices[i] >>> BLOCK_BITS;
+				final double[] block = blockIndex < b.length ? b[blockIndex] : null;
+				values[i] = null == block ? MISSING : block[indices[i] & BLOCK_MASK];
+			}
+		}
+
+		/**
+		 * Stores the specified value at the specified index.
+		 */
+		public void set(final int index, final double value) {
+			getBlock(index >>> BLOCK_BITS)[index & BLOCK_MASK] = value;
+		}
+
+		/**
+		 * Marks the value at the specified index as missing.
+		 */
+		public void clear(final int index) {
+			final double[][] b = blocks;
+			final int blockIndex = index >>> BLOCK_BITS;
+			if (blockIndex < b.length && null != b[blockIndex]) {
+				b[blockIndex][index & BLOCK_MASK] = MISSING;
+			}
+		}
+
+		private double[] getBlock(final int blockIndex) {
+			double[][] b = blocks;
+			if (blockIndex < b.length && null != b[blockIndex]) {
+				return b[blockIndex];
+			}
+			synchronized (this) {
+				b = blocks;
+				if (blockIndex >= b.length) {
+					b = Arrays.copyOf(b, Math.max(2 * b.length, blockIndex + 1));
+				}
+				double[] block = b[blockIndex];
+				if (null == block) {
+					block = new double[BLOCK_SIZE];
+					Arrays.fill(block, MISSING);
+					b[blockIndex] = block;
+				}
+				// Publish the new block, and the new directory if it grew
+				blocks = b;
+				return block;
+			}
+		}
+	}
+
+	/**
+	 * Remembers the store index of a spot after it was collected.
+	 */
+	private static final class IndexReference extends PhantomReference<Spot> {
+
+		private final int index;
+
+		private IndexReference(final Spot spot, final int index, final ReferenceQueue<Spot> queue) {
+			super(spot, queue);
+			this.index = index;
+		}
+	}
+}
@@ -0,0 +1,613 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fiji.plugin.trackmate.SpotFeatureStore.Column;
+
+/**
+ * A spatial index over the spots of one frame of a {@link SpotCollection},
+ * answering nearest, k-nearest and radius queries in logarithmic time.
+ * <p>
+ * The index is a small forest of static KD-trees, whose sizes are kept in
+ * decreasing geometrical order: a spot added to the frame becomes a new
+ * tree of size 1, and trees of similar sizes are merged in a bigger one,
+ * as in a binary counter. There are therefore at most a logarithmic number of
+ * trees, and adding a spot costs a logarithmic amortized time. A spot removed
+ * from the frame is only marked dead in its tree, and all the trees are
+ * rebuilt from the frame content when half of their entries are dead ones.
+ * <p>
+ * Each tree keeps a copy of the positions of its spots. The spot positions
+ * and radii can be edited in place through their features, so the indexed
+ * spots notify the index of these changes: a spot that moved is marked dead
+ * at its old position and added again, and a radius change only updates the
+ * largest radius. Moving a spot therefore costs the same as adding one, and
+ * does not invalidate the indices of other frames.
+ * <p>
+ * Instances are obtained through
+ * {@link SpotCollection#getSpatialIndex(int)}, which keeps them up to date
+ * when spots are added to or removed from the collection. They are
+ * synchronized, so that concurrent queries are safe, but they are not meant
+ * to be used while the frame content is modified from another thread.
+ */
+public class SpotSpatialIndex {
+
+	/** The frame content this index is built on. */
+	private final Set<Spot> spots;
+	/** The trees, by decreasing size. */
+	private final List<Tree> trees = new ArrayList<Tree>();
+	/** Where the live entry of each indexed spot is in the trees. */
+	private final Map<Spot, Slot> slots = new HashMap<Spot, Slot>();
+	/** The total number of entries in the trees, dead ones included. */
+	private int size = 0;
+	/** The number of dead entries in the trees. */
+	private int numDead = 0;
+	/** The largest radius of the spots in the trees. */
+	private double maxRadius = 0d;
+	/** Whether the trees may be used, or must be rebuilt from the frame content. */
+	private boolean current = false;
+	/** The number of times the trees were rebuilt from the frame content. */
+	private int numRebuilds = 0;
+	/** The number of times a spot notified this index of a geometry change. */
+	private int numNotifications = 0;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates an index over the specified frame content. The index is built
+	 * on the first query.
+	 *
+	 * @param spots  the spots of the frame. The index must be notified of
+	 * their changes with {@link #add(Spot)} and {@link #remove(Spot)}.
+	 */
+	SpotSpatialIndex(final Set<Spot> spots) {
+		this.spots = spots;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if this index is built on the specified frame
+	 * content.
+	 */
+	boolean isIndexing(final Set<Spot> frameContent) {
+		return spots == frameContent;
+	}
+
+	/**
+	 * Notifies this index that the specified spot was added to its frame.
+	 */
+	synchronized void add(final Spot spot) {
+		if (!current) {
+			// Will be rebuilt anyway
+			return;
+		}
+		if (slots.containsKey(spot)) {
+			return;
+		}
+		spot.addIndex(this);
+		insert(spot);
+	}
+
+	/**
+	 * Notifies this index that the specified spot was removed from its frame.
+	 */
+	synchronized void remove(final Spot spot) {
+		spot.removeIndex(this);
+		if (!current) {
+			return;
+		}
+		kill(spot);
+	}
+
+	/**
+	 * Notifies this index that the position of the specified spot changed.
+	 */
+	synchronized void moved(final Spot spot) {
+		numNotifications++;
+		if (!current || !slots.containsKey(spot)) {
+			return;
+		}
+		kill(spot);
+		if (current && spots.contains(spot)) {
+			insert(spot);
+		}
+	}
+
+	/**
+	 * Notifies this index that the radius of the specified spot changed.
+	 */
+	synchronized void radiusChanged(final Spot spot) {
+		numNotifications++;
+		if (current && slots.containsKey(spot)) {
+			updateMaxRadius(spot);
+		}
+	}
+
+	/**
+	 * Unregisters this index from all its spots, when it is not used anymore.
+	 */
+	synchronized void dispose() {
+		for (final Spot spot : slots.keySet()) {
+			spot.removeIndex(this);
+		}
+		trees.clear();
+		slots.clear();
+		size = 0;
+		numDead = 0;
+		current = false;
+	}
+
+	/**
+	 * Returns the number of times this index was rebuilt from the frame
+	 * content.
+	 */
+	synchronized int getNumRebuilds() {
+		return numRebuilds;
+	}
+
+	/**
+	 * Returns the number of times a spot notified this index that it moved or
+	 * that its radius changed.
+	 */
+	synchronized int getNumNotifications() {
+		return numNotifications;
+	}
+
+	/**
+	 * Returns the spot closest to the specified position, or <code>null</code>
+	 * if there is no spot to search.
+	 *
+	 * @param position  the position to search around, as a 3 elements array.
+	 * @param visibleSpotsOnly  if true, only visible spots are searched for.
+	 */
+	public synchronized Spot getNearest(final double[] position, final boolean visibleSpotsOnly) {
+		final NeighborList neighbors = searchNearest(position, 1, visibleSpotsOnly);
+		return neighbors.size == 0 ? null : neighbors.spots[0];
+	}
+
+	/**
+	 * Returns the <code>n</code> spots closest to the specified position, by
+	 * increasing distance. If there are less than <code>n</code> spots to
+	 * search, a shorter list is returned.
+	 *
+	 * @param position  the position to search around, as a 3 elements array.
+	 * @param n  the number of spots to search for.
+	 * @param visibleSpotsOnly  if true, only visible spots are searched for.
+	 */
+	public synchronized List<Spot> getNearest(final double[] position, final int n, final boolean visibleSpotsOnly) {
+		if (n <= 0) {
+			return new ArrayList<Spot>(0);
+		}
+		return searchNearest(position, n, visibleSpotsOnly).toList();
+	}
+
+	/**
+	 * Returns the spots whose center is within the specified distance of the
+	 * specified position, by increasing distance.
+	 *
+	 * @param position  the position to search around, as a 3 elements array.
+	 * @param radius  the max distance to the position.
+	 * @param visibleSpotsOnly  if true, only visible spots are searched for.
+	 */
+	public synchronized List<Spot> getWithin(final double[] position, final double radius, final boolean visibleSpotsOnly) {
+		return searchWithin(position, radius, visibleSpotsOnly).toList();
+	}
+
+	/**
+	 * Returns the spot closest to the specified position among the spots whose
+	 * {@link Spot#RADIUS} contains this position, or <code>null</code> if there
+	 * is no such spot.
+	 *
+	 * @param position  the position to search around, as a 3 elements array.
+	 * @param visibleSpotsOnly  if true, only visible spots are searched for.
+	 */
+	public synchronized Spot getSpotAt(final double[] position, final boolean visibleSpotsOnly) {
+		final NeighborList neighbors = searchWithin(position, getMaxRadius(), visibleSpotsOnly);
+		final Column radii = SpotFeatureStore.getInstance().getColumn(Spot.RADIUS);
+		if (null == radii) {
+			return null;
+		}
+		for (int i = 0; i < neighbors.size; i++) {
+			final double radius = radii.get(neighbors.spots[i].getStoreIndex());
+			if (neighbors.squareDistances[i] < radius * radius) {
+				return neighbors.spots[i];
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private NeighborList searchNearest(final double[] position, final int n, final boolean visibleSpotsOnly) {
+		ensureCurrent();
+		final Search search = new Search(position, visibleSpotsOnly, n, Double.POSITIVE_INFINITY);
+		for (final Tree tree : trees) {
+			tree.search(search, 0, tree.size());
+		}
+		return search.neighbors;
+	}
+
+	private NeighborList searchWithin(final double[] position, final double radius, final boolean visibleSpotsOnly) {
+		ensureCurrent();
+		final Search search = new Search(position, visibleSpotsOnly, Integer.MAX_VALUE, radius * radius);
+		if (radius >= 0) {
+			for (final Tree tree : trees) {
+				tree.search(search, 0, tree.size());
+			}
+		}
+		search.neighbors.sort();
+		return search.neighbors;
+	}
+
+	/**
+	 * Returns the largest spot radius, once the index is current.
+	 */
+	private double getMaxRadius() {
+		ensureCurrent();
+		return maxRadius;
+	}
+
+	/**
+	 * Adds a tree for the specified spot, and merges the trees of similar
+	 * sizes.
+	 */
+	private void insert(final Spot spot) {
+		addTree(Collections.singletonList(spot));
+		size++;
+		updateMaxRadius(spot);
+		while (trees.size() > 1 && trees.get(trees.size() - 2).size() <= 2 * trees.get(trees.size() - 1).size()) {
+			final Tree last = trees.remove(trees.size() - 1);
+			final Tree previous = trees.remove(trees.size() - 1);
+			final List<Spot> merged = new ArrayList<Spot>(previous.size() + last.size());
+			previous.collect(merged);
+			last.collect(merged);
+			final int dropped = previous.size() + last.size() - merged.size();
+			size -= dropped;
+			numDead -= dropped;
+			addTree(merged);
+		}
+	}
+
+	/**
+	 * Marks the entry of the specified spot dead, and requests a rebuild if
+	 * half of the entries are dead.
+	 */
+	private void kill(final Spot spot) {
+		final Slot slot = slots.remove(spot);
+		if (null == slot) {
+			return;
+		}
+		slot.tree.dead[slot.i] = true;
+		numDead++;
+		if (2 * numDead > size) {
+			current = false;
+		}
+	}
+
+	private void addTree(final Collection<Spot> source) {
+		final Tree tree = new Tree(source);
+		for (int i = 0; i < tree.size(); i++) {
+			slots.put(tree.spots[i], new Slot(tree, i));
+		}
+		trees.add(tree);
+	}
+
+	/**
+	 * Rebuilds the index from the frame content if too many spots were
+	 * removed or moved, or if the frame content was modified without
+	 * notifying this index.
+	 */
+	private void ensureCurrent() {
+		if (current && size - numDead == spots.size()) {
+			return;
+		}
+		for (final Spot spot : slots.keySet()) {
+			if (!spots.contains(spot)) {
+				spot.removeIndex(this);
+			}
+		}
+		trees.clear();
+		slots.clear();
+		size = spots.size();
+		numDead = 0;
+		maxRadius = 0d;
+		if (size > 0) {
+			addTree(spots);
+		}
+		for (final Spot spot : spots) {
+			spot.addIndex(this);
+			updateMaxRadius(spot);
+		}
+		current = true;
+		numRebuilds++;
+	}
+
+	private void updateMaxRadius(final Spot spot) {
+		final double radius = spot.getFeatureValue(Spot.RADIUS);
+		if (radius > maxRadius) {
+			maxRadius = radius;
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A static KD-tree stored in arrays. The node of the index range
+	 * <code>[lo, hi[</code> is the spot at its middle, the left subtree is the
+	 * range below it, and the right subtree the range above it.
+	 */
+	private static final class Tree {
+
+		private final Spot[] spots;
+		/** The x, y, z positions of the spots, interleaved. */
+		private final double[] positions;
+		/** The dimension each node splits its range along. */
+		private final byte[] splitDimensions;
+		/** The entries of the spots that were removed or moved. */
+		private final boolean[] dead;
+
+		private Tree(final Collection<Spot> source) {
+			final int n = source.size();
+			this.spots = source.toArray(new Spot[n]);
+			this.positions = new double[3 * n];
+			this.splitDimensions = new byte[n];
+			this.dead = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				for (int d = 0; d < 3; d++) {
+					positions[3 * i + d] = spots[i].getDoublePosition(d);
+				}
+			}
+			build(0, n);
+		}
+
+		private int size() {
+			return spots.length;
+		}
+
+		/**
+		 * Adds the spots of the live entries of this tree to the specified
+		 * list.
+		 */
+		private void collect(final List<Spot> list) {
+			for (int i = 0; i < spots.length; i++) {
+				if (!dead[i]) {
+					list.add(spots[i]);
+				}
+			}
+		}
+
+		private void build(final int lo, final int hi) {
+			if (hi - lo <= 1) {
+				return;
+			}
+			// Split along the dimension of largest spread
+			final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+			final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+			for (int i = lo; i < hi; i++) {
+				for (int d = 0; d < 3; d++) {
+					final double val = positions[3 * i + d];
+					if (val < min[d]) {
+						min[d] = val;
+					}
+					if (val > max[d]) {
+						max[d] = val;
+					}
+				}
+			}
+			int dim = 0;
+			for (int d = 1; d < 3; d++) {
+				if (max[d] - min[d] > max[dim] - min[dim]) {
+					dim = d;
+				}
+			}
+			final int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, dim);
+			splitDimensions[mid] = (byte) dim;
+			build(lo, mid);
+			build(mid + 1, hi);
+		}
+
+		/**
+		 * Partially sorts the range <code>[left, right]</code> so that the
+		 * element at <code>k</code> is at its sorted position along the
+		 * specified dimension.
+		 */
+		private void select(int left, int right, final int k, final int dim) {
+			while (right > left) {
+				final double pivot = positions[3 * ((left + right) >>> 1) + dim];
+				int i = left;
+				int j = right;
+				while (i <= j) {
+					while (positions[3 * i + dim] < pivot) {
+						i++;
+					}
+					while (positions[3 * j + dim] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i, j);
+						i++;
+						j--;
+					}
+				}
+				if (k <= j) {
+					right = j;
+				} else if (k >= i) {
+					left = i;
+				} else {
+					return;
+				}
+			}
+		}
+
+		private void swap(final int i, final int j) {
+			final Spot spot = spots[i];
+			spots[i] = spots[j];
+			spots[j] = spot;
+			for (int d = 0; d < 3; d++) {
+				final double val = positions[3 * i + d];
+				positions[3 * i + d] = positions[3 * j + d];
+				positions[3 * j + d] = val;
+			}
+		}
+
+		private void search(final Search search, final int lo, final int hi) {
+			if (lo >= hi) {
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			final double[] q = search.position;
+			final double dx = positions[3 * mid] - q[0];
+			final double dy = positions[3 * mid + 1] - q[1];
+			final double dz = positions[3 * mid + 2] - q[2];
+			if (!dead[mid]) {
+				search.offer(spots[mid], dx * dx + dy * dy + dz * dz);
+			}
+
+			final int dim = splitDimensions[mid];
+			final double diff = q[dim] - positions[3 * mid + dim];
+			if (diff < 0) {
+				search(search, lo, mid);
+				if (diff * diff <= search.getMaxSquareDistance()) {
+					search(search, mid + 1, hi);
+				}
+			} else {
+				search(search, mid + 1, hi);
+				if (diff * diff <= search.getMaxSquareDistance()) {
+					search(search, lo, mid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The position of an entry in the trees.
+	 */
+	private static final class Slot {
+
+		private final Tree tree;
+		private final int i;
+
+		private Slot(final Tree tree, final int i) {
+			this.tree = tree;
+			this.i = i;
+		}
+	}
+
+	/**
+	 * The state of a query over all the trees.
+	 */
+	private final class Search {
+
+		private final double[] position;
+		private final Column visibility;
+		private final int maxNeighbors;
+		private final double maxSquareDistance;
+		private final NeighborList neighbors = new NeighborList();
+
+		private Search(final double[] position, final boolean visibleSpotsOnly, final int maxNeighbors, final double maxSquareDistance) {
+			this.position = position;
+			this.visibility = visibleSpotsOnly ? SpotFeatureStore.getInstance().getOrCreateColumn(SpotCollection.VISIBLITY) : null;
+			this.maxNeighbors = maxNeighbors;
+			this.maxSquareDistance = maxSquareDistance;
+		}
+
+		/**
+		 * Returns the square distance beyond which spots cannot be neighbors.
+		 */
+		private double getMaxSquareDistance() {
+			if (neighbors.size < maxNeighbors) {
+				return maxSquareDistance;
+			}
+			return neighbors.squareDistances[neighbors.size - 1];
+		}
+
+		private void offer(final Spot spot, final double squareDistance) {
+			if (squareDistance > getMaxSquareDistance()) {
+				return;
+			}
+			if (null != visibility && !(visibility.get(spot.getStoreIndex()) > 0)) {
+				return;
+			}
+			neighbors.insert(spot, squareDistance, maxNeighbors);
+		}
+	}
+
+	/**
+	 * Spots sorted by increasing square distance. When their number is not
+	 * bounded, they are simply appended, and must be sorted once the search
+	 * is done.
+	 */
+	private static final class NeighborList {
+
+		private Spot[] spots = new Spot[4];
+		private double[] squareDistances = new double[4];
+		private int size = 0;
+
+		private void insert(final Spot spot, final double squareDistance, final int maxSize) {
+			if (size == maxSize) {
+				size--;
+			} else if (size == spots.length) {
+				spots = Arrays.copyOf(spots, 2 * size);
+				squareDistances = Arrays.copyOf(squareDistances, 2 * size);
+			}
+			if (maxSize == Integer.MAX_VALUE) {
+				spots[size] = spot;
+				squareDistances[size] = squareDistance;
+				size++;
+				return;
+			}
+			int i = size;
+			while (i > 0 && squareDistances[i - 1] > squareDistance) {
+				spots[i] = spots[i - 1];
+				squareDistances[i] = squareDistances[i - 1];
+				i--;
+			}
+			spots[i] = spot;
+			squareDistances[i] = squareDistance;
+			size++;
+		}
+
+		private void sort() {
+			final Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			final double[] distances = squareDistances;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer i1, final Integer i2) {
+					return Double.compare(distances[i1], distances[i2]);
+				}
+			});
+			final Spot[] sortedSpots = new Spot[spots.length];
+			final double[] sortedDistances = new double[spots.length];
+			for (int i = 0; i < size; i++) {
+				sortedSpots[i] = spots[order[i]];
+				sortedDistances[i] = distances[order[i]];
+			}
+			spots = sortedSpots;
+			squareDistances = sortedDistances;
+		}
+
+		private List<Spot> toList() {
+			return new ArrayList<Spot>(Arrays.asList(spots).subList(0, size));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package fiji.plugin.trackmate;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -8,9 +9,11 @@
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 
 import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
 import org.jgrapht.UndirectedGraph;
 import org.jgrapht.VertexFactory;
 import org.jgrapht.alg.DijkstraShortestPath;
@@ -749,8 +752,7 @@ public void vertexRemoved(final GraphVertexChangeEvent<Spot> event) {
 			}
 
 			final Spot v = event.getVertex();
-			vertexToID.remove(v);
-			final Integer id = vertexToID.get(v);
+			final Integer id = vertexToID.remove(v);
 			if (id != null) {
 				final Set<Spot> set = connectedVertexSets.get(id);
 				if (null == set) {
@@ -763,6 +765,7 @@ public void vertexRemoved(final GraphVertexChangeEvent<Spot> event) {
 					connectedVertexSets.remove(id);
 					names.remove(id);
 					visibility.remove(id);
+					tracksUpdated.remove(id);
 				}
 			}
 		}
@@ -798,52 +801,41 @@ public void edgeAdded(final GraphEdgeChangeEvent<Spot, DefaultWeightedEdge> even
 					final Set<DefaultWeightedEdge> ses = connectedEdgeSets.get(sid);
 					ses.add(e);
 					edgeToID.put(e, sid);
+					// Transaction: we mark the mother track as updated
+					tracksUpdated.add(sid);
 
 				} else {
-					// They come from different sets.
-
-					// Edges:
-					final Set<DefaultWeightedEdge> ses = connectedEdgeSets.get(sid);
-					final Set<DefaultWeightedEdge> tes = connectedEdgeSets.get(tid);
-					final HashSet<DefaultWeightedEdge> nes = new HashSet<DefaultWeightedEdge>(ses.size() + tes.size() + 1);
-					nes.addAll(ses);
-					nes.addAll(tes);
-					nes.add(e);
-
-					// Vertices:
-					final Set<Spot> svs = connectedVertexSets.get(sid);
-					final Set<Spot> tvs = connectedVertexSets.get(tid);
-					final HashSet<Spot> nvs = new HashSet<Spot>(ses.size() + tes.size());
-					nvs.addAll(svs);
-					nvs.addAll(tvs);
-
-					Integer nid, rid;
-					if (nvs.size() > tvs.size()) {
+					/*
+					 * They come from different sets. The smallest one (in
+					 * vertices) is merged into the largest one, so that only
+					 * the spots and edges of the smallest one change their ID:
+					 * the cost of the merge is the size of the smallest track.
+					 */
+					final Integer nid, rid;
+					if (connectedVertexSets.get(sid).size() >= connectedVertexSets.get(tid).size()) {
 						nid = sid;
 						rid = tid;
-						for (final Spot v : tvs) {
-							// Vertices of target set change id
-							vertexToID.put(v, nid);
-						}
-						for (final DefaultWeightedEdge te : tes) {
-							edgeToID.put(te, nid);
-						}
 					} else {
 						nid = tid;
 						rid = sid;
-						for (final Spot v : svs) {
-							// Vertices of source set change id
-							vertexToID.put(v, nid);
-						}
-						for (final DefaultWeightedEdge se : ses) {
-							edgeToID.put(se, nid);
-						}
 					}
+
+					// Vertices:
+					final Set<Spot> rvs = connectedVertexSets.remove(rid);
+					for (final Spot v : rvs) {
+						vertexToID.put(v, nid);
+					}
+					connectedVertexSets.get(nid).addAll(rvs);
+
+					// Edges:
+					final Set<DefaultWeightedEdge> res = connectedEdgeSets.remove(rid);
+					for (final DefaultWeightedEdge re : res) {
+						edgeToID.put(re, nid);
+					}
+					final Set<DefaultWeightedEdge> nes = connectedEdgeSets.get(nid);
+					nes.addAll(res);
+					nes.add(e);
 					edgeToID.put(e, nid);
-					connectedVertexSets.put(nid, nvs);
-					connectedVertexSets.remove(rid);
-					connectedEdgeSets.put(nid, nes);
-					connectedEdgeSets.remove(rid);
 
 					// Transaction: we signal that the large id is to be updated, and forget about the small one
 					tracksUpdated.add(nid);
@@ -961,132 +953,121 @@ public void edgeRemoved(final GraphEdgeChangeEvent<Spot, DefaultWeightedEdge> ev
 				tracksUpdated.remove(id);
 
 			} else {
-				// So there are some edges remaining in the set.
-				// Look at the connected component of its source and target.
-				// Source 
-				final HashSet<Spot> sourceVCS = new HashSet<Spot>();
-				final HashSet<DefaultWeightedEdge> sourceECS = new HashSet<DefaultWeightedEdge>();
-				{
-					final Spot source = graph.getEdgeSource(e);
-					// Get its connected set
-					final BreadthFirstIterator<Spot, DefaultWeightedEdge> i = new BreadthFirstIterator<Spot, DefaultWeightedEdge>(graph, source);
-					while (i.hasNext()) {
-						final Spot sv = i.next();
-						sourceVCS.add(sv);
-						sourceECS.addAll(graph.edgesOf(sv));
-					}
-				}
-				// Target
-				final HashSet<Spot> targetVCS = new HashSet<Spot>();
-				final HashSet<DefaultWeightedEdge> targetECS = new HashSet<DefaultWeightedEdge>();
-				{
-					final Spot target = graph.getEdgeTarget(e);
-					// Get its connected set
-					final BreadthFirstIterator<Spot, DefaultWeightedEdge> i = new BreadthFirstIterator<Spot, DefaultWeightedEdge>(graph, target);
-					while (i.hasNext()) {
-						final Spot sv = i.next();
-						targetVCS.add(sv);
-						targetECS.addAll(graph.edgesOf(sv));
-					}
-				}
-
 				/*
-				 * If the two connected components are the same, it means that
-				 * the edge was an "internal" edge: Because there is another
-				 * path that connect its source and target, removing it did NOT
-				 * split the track in 2. We therefore need not to re-attribute
-				 * it.
+				 * So there are some edges remaining in the set. If the edge
+				 * was "internal", there is another path that connects its
+				 * source and target, and removing it did NOT split the track
+				 * in 2. Otherwise we split the smallest part off the track. We
+				 * only need to explore it, and not the whole track, to find it.
 				 */
-				if (targetVCS.equals(sourceVCS)) {
-					tracksUpdated.add(id);
-					connectedEdgeSets.get(id).remove(e);
+				tracksUpdated.add(id);
+				final Set<Spot> splitVCS = smallestComponent(graph.getEdgeSource(e), graph.getEdgeTarget(e));
+				if (null == splitVCS) {
 					return;
 				}
 
-				/*
-				 * Re-attribute the found connected sets to the model. The
-				 * largest one (in vertices) gets the original id, the other
-				 * gets a new id. As for names: the largest one keeps its name,
-				 * the small one gets a new name.
-				 */
-
-				if (targetVCS.size() > sourceVCS.size()) {
-
-					connectedEdgeSets.put(id, targetECS);
-					connectedVertexSets.put(id, targetVCS); // they already have the right id in #vertexToId
-					tracksUpdated.add(id); // old track has changed
-
-					if (sourceECS.size() > 0) {
-						// the smaller part is still a track
-						final int newid = IDcounter++;
-						connectedEdgeSets.put(newid, sourceECS); // otherwise forget it
-						for (final DefaultWeightedEdge te : sourceECS) {
-							edgeToID.put(te, newid);
-						}
-						connectedVertexSets.put(newid, sourceVCS);
-						for (final Spot tv : sourceVCS) {
-							vertexToID.put(tv, newid);
-						}
-						final Boolean targetVisibility = visibility.get(id);
-						visibility.put(newid, targetVisibility);
-						names.put(newid, nameGenerator.next());
-						// Transaction: both children tracks are marked for update.
-						tracksUpdated.add(newid);
+				final Set<Spot> vertexSet = connectedVertexSets.get(id);
+				final Set<DefaultWeightedEdge> splitECS = new HashSet<DefaultWeightedEdge>();
+				for (final Spot spot : splitVCS) {
+					vertexSet.remove(spot);
+					splitECS.addAll(graph.edgesOf(spot));
+				}
+				for (final DefaultWeightedEdge se : splitECS) {
+					set.remove(se);
+				}
 
-					} else {
-						/*
-						 * Nothing remains from the smallest part. The remaining
-						 * solitary vertex has no right to be called a track.
-						 */
-						final Spot solitary = sourceVCS.iterator().next();
+				if (set.isEmpty()) {
+					/*
+					 * Nothing remains from the largest part but a solitary
+					 * vertex. The split part keeps the track ID, name and
+					 * visibility.
+					 */
+					for (final Spot solitary : vertexSet) {
+						vertexToID.remove(solitary);
+					}
+					connectedVertexSets.put(id, splitVCS);
+					connectedEdgeSets.put(id, splitECS);
+
+				} else if (splitECS.isEmpty()) {
+					/*
+					 * Nothing remains from the smallest part. The remaining
+					 * solitary vertex has no right to be called a track.
+					 */
+					for (final Spot solitary : splitVCS) {
 						vertexToID.remove(solitary);
 					}
 
 				} else {
-
-					if (sourceECS.size() > 0) {
-						// There are still some pieces left. It is worth noting it.
-						connectedEdgeSets.put(id, sourceECS);
-						connectedVertexSets.put(id, sourceVCS);
-						tracksUpdated.add(id);
-
-						if (targetECS.size() > 0) {
-							// the small part is still a track
-							final int newid = IDcounter++;
-							connectedEdgeSets.put(newid, targetECS);
-							for (final DefaultWeightedEdge te : targetECS) {
-								edgeToID.put(te, newid);
-							}
-							connectedVertexSets.put(newid, targetVCS);
-							for (final Spot v : targetVCS) {
-								vertexToID.put(v, newid);
-							}
-							final Boolean targetVisibility = visibility.get(id);
-							visibility.put(newid, targetVisibility);
-							names.put(newid, nameGenerator.next());
-							// Transaction: both children tracks are marked for update.
-							tracksUpdated.add(newid);
-						} else {
-							/*
-							 * Nothing remains from the smallest part. The
-							 * remaining solitary vertex has no right to be
-							 * called a track.
-							 */
-							final Spot solitary = targetVCS.iterator().next();
-							vertexToID.remove(solitary);
-						}
-
-					} else {
-						// Nothing remains (maybe a solitary vertex) -> forget about it all.
-						connectedEdgeSets.remove(id);
-						connectedVertexSets.remove(id);
-						names.remove(id);
-						visibility.remove(id);
-						tracksUpdated.remove(id);
+					// The smallest part is still a track, with a new ID.
+					final int newid = IDcounter++;
+					connectedEdgeSets.put(newid, splitECS);
+					for (final DefaultWeightedEdge se : splitECS) {
+						edgeToID.put(se, newid);
+					}
+					connectedVertexSets.put(newid, splitVCS);
+					for (final Spot sv : splitVCS) {
+						vertexToID.put(sv, newid);
 					}
+					visibility.put(newid, visibility.get(id));
+					names.put(newid, nameGenerator.next());
+					// Transaction: both children tracks are marked for update.
+					tracksUpdated.add(newid);
+				}
+			}
+		}
 
+		/**
+		 * Explores the connected components of the two specified spots at the
+		 * same pace, and stops as soon as the two explorations meet or one of
+		 * them is exhausted.
+		 * 
+		 * @return the spots of the exhausted component, or <code>null</code>
+		 *         if the two spots are connected.
+		 */
+		private Set<Spot> smallestComponent(final Spot source, final Spot target) {
+			final Set<Spot> sourceVCS = new HashSet<Spot>();
+			final Set<Spot> targetVCS = new HashSet<Spot>();
+			final Queue<Spot> sourceQueue = new ArrayDeque<Spot>();
+			final Queue<Spot> targetQueue = new ArrayDeque<Spot>();
+			sourceVCS.add(source);
+			sourceQueue.add(source);
+			targetVCS.add(target);
+			targetQueue.add(target);
+
+			while (true) {
+				if (expand(sourceQueue, sourceVCS, targetVCS)) {
+					return null;
+				}
+				if (sourceQueue.isEmpty()) {
+					return sourceVCS;
+				}
+				if (expand(targetQueue, targetVCS, sourceVCS)) {
+					return null;
+				}
+				if (targetQueue.isEmpty()) {
+					return targetVCS;
+				}
+			}
+		}
+
+		/**
+		 * Visits the neighbors of the next spot of the specified queue.
+		 * 
+		 * @return <code>true</code> if one of them belongs to the other
+		 *         component.
+		 */
+		private boolean expand(final Queue<Spot> queue, final Set<Spot> visited, final Set<Spot> other) {
+			final Spot spot = queue.remove();
+			for (final DefaultWeightedEdge edge : graph.edgesOf(spot)) {
+				final Spot neighbor = Graphs.getOppositeVertex(graph, edge, spot);
+				if (other.contains(neighbor)) {
+					return true;
+				}
+				if (visited.add(neighbor)) {
+					queue.add(neighbor);
 				}
 			}
+			return false;
 		}
 
 	}
@@ -7,7 +7,6 @@
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.fft.FourierConvolution;
 import net.imglib2.algorithm.math.PickImagePeaks;
-import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImgFactory;
@@ -19,6 +18,7 @@
 import fiji.plugin.trackmate.detection.subpixel.QuadraticSubpixelLocalization;
 import fiji.plugin.trackmate.detection.subpixel.SubPixelLocalization;
 import fiji.plugin.trackmate.detection.subpixel.SubPixelLocalization.LocationType;
+import fiji.plugin.trackmate.detection.util.FFTConvolver;
 import fiji.plugin.trackmate.detection.util.MedianFilter3x3;
 import fiji.plugin.trackmate.util.TMUtils;
 
@@ -41,6 +41,8 @@ public class LogDetector <T extends RealType<T>  & NativeType<T>> implements Spo
 	protected List<Spot> spots = new ArrayList<Spot>(); // because this implementation is fast to add elements at the end of the list
 	/** The processing time in ms. */
 	protected long processingTime;
+	/** The convolver applying the LoG filter, possibly shared with other detectors. */
+	protected FFTConvolver convolver;
 	private int numThreads;
 
 	/*
@@ -57,6 +59,17 @@ public LogDetector(final ImgPlus<T> img, final double radius, final double thres
 		setNumThreads();
 	}
 
+	/**
+	 * Creates a detector that uses the specified convolver to apply the LoG
+	 * filter. The convolver must have been created by
+	 * {@link #createConvolver(ImgPlus, double)} with the same radius. It is
+	 * replaced by a new one if it does not accept the image dimensions.
+	 */
+	public LogDetector(final ImgPlus<T> img, final double radius, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter, final FFTConvolver convolver) {
+		this(img, radius, threshold, doSubPixelLocalization, doMedianFilter);
+		this.convolver = convolver;
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -89,48 +102,14 @@ public boolean process() {
 			}
 		}
 
-		double sigma = radius / Math.sqrt(img.numDimensions()); // optimal sigma for LoG approach and dimensionality
-		// Turn it in pixel coordinates
-		final double[] calibration = TMUtils.getSpatialCalibration(img);
-		double[] sigmas = new double[img.numDimensions()];
-		for (int i = 0; i < sigmas.length; i++) {
-			sigmas[i] = sigma / calibration[i];
-		}
-		
-		ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
-		Img<FloatType> gaussianKernel = FourierConvolution.createGaussianKernel(factory, sigmas);
-		FourierConvolution<T, FloatType> fConvGauss;
-		try {
-			fConvGauss = new FourierConvolution<T, FloatType>(intermediateImage, gaussianKernel);
-		} catch (IncompatibleTypeException e) {
-			errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
-			return false;
-		}
-
-		fConvGauss.setNumThreads(numThreads);
-		if (!fConvGauss.checkInput() || !fConvGauss.process()) {
-			errorMessage = baseErrorMessage + "Fourier convolution with Gaussian failed:\n" + fConvGauss.getErrorMessage() ;
-			return false;
-		}
-		intermediateImage = fConvGauss.getResult();
-
-		Img<FloatType> laplacianKernel = createLaplacianKernel();
-		FourierConvolution<T, FloatType> fConvLaplacian;
-		try {
-			fConvLaplacian = new FourierConvolution<T, FloatType>(intermediateImage, laplacianKernel);
-		} catch (IncompatibleTypeException e) {
-			errorMessage = baseErrorMessage + "Fourier convolution failed: "+e.getMessage();
-			return false;
-		}
-		
-		fConvLaplacian.setNumThreads(numThreads);
-		if (!fConvLaplacian.checkInput() || !fConvLaplacian.process()) {
-			errorMessage = baseErrorMessage + "Fourier Convolution with Laplacian failed:\n" + fConvLaplacian.getErrorMessage() ;
-			return false;
+		// The LoG kernel spectrum is computed once, and shared by all the frames of a movie
+		if (null == convolver || !convolver.accepts(intermediateImage)) {
+			convolver = createConvolver(img, radius);
 		}
-		intermediateImage = fConvLaplacian.getResult();	
+		final Img<FloatType> filtered = convolver.convolve(intermediateImage, numThreads);
 
-		PickImagePeaks<T> peakPicker = new PickImagePeaks<T>(intermediateImage);
+		final double[] calibration = TMUtils.getSpatialCalibration(img);
+		PickImagePeaks<FloatType> peakPicker = new PickImagePeaks<FloatType>(filtered);
 		double[] suppressionRadiuses = new double[img.numDimensions()];
 		for (int i = 0; i < img.numDimensions(); i++) 
 			suppressionRadiuses[i] = radius / calibration [i];
@@ -150,19 +129,19 @@ public boolean process() {
 
 		// Get peaks location and values
 		final ArrayList<long[]> centers = peakPicker.getPeakList();
-		final RandomAccess<T> cursor = intermediateImage.randomAccess();
+		final RandomAccess<FloatType> cursor = filtered.randomAccess();
 		// Prune values lower than threshold
-		List<SubPixelLocalization<T>> peaks = new ArrayList<SubPixelLocalization<T>>();
-		final List<T> pruned_values = new ArrayList<T>();
+		List<SubPixelLocalization<FloatType>> peaks = new ArrayList<SubPixelLocalization<FloatType>>();
+		final List<FloatType> pruned_values = new ArrayList<FloatType>();
 		final LocationType specialPoint = LocationType.MAX;
 		for (int i = 0; i < centers.size(); i++) {
 			long[] center = centers.get(i);
 			cursor.setPosition(center);
-			T value = cursor.get().copy();
+			FloatType value = cursor.get().copy();
 			if (value.getRealDouble() < threshold) {
 				break; // because peaks are sorted, we can exit loop here
 			}
-			SubPixelLocalization<T> peak = new SubPixelLocalization<T>(center, value, specialPoint);
+			SubPixelLocalization<FloatType> peak = new SubPixelLocalization<FloatType>(center, value, specialPoint);
 			peaks.add(peak);
 			pruned_values.add(value);
 		}
@@ -170,7 +149,7 @@ public boolean process() {
 		// Do sub-pixel localization
 		if (doSubPixelLocalization && !peaks.isEmpty()) {
 			// Create localizer and apply it to the list. The list object will be updated
-			final QuadraticSubpixelLocalization<T> locator = new QuadraticSubpixelLocalization<T>(intermediateImage, peaks);
+			final QuadraticSubpixelLocalization<FloatType> locator = new QuadraticSubpixelLocalization<FloatType>(filtered, peaks);
 			locator.setNumThreads(numThreads);
 			locator.setCanMoveOutside(true);
 			if ( !locator.checkInput() || !locator.process() )	{
@@ -183,7 +162,7 @@ public boolean process() {
 		spots.clear();
 		for (int j = 0; j < peaks.size(); j++) {
 
-			SubPixelLocalization<T> peak = peaks.get(j); 
+			SubPixelLocalization<FloatType> peak = peaks.get(j); 
 			double[] coords = new double[3];
 			for (int i = 0; i < img.numDimensions(); i++) {
 				coords[i] = peak.getDoublePosition(i) * calibration[i];
@@ -206,9 +185,8 @@ public boolean process() {
 	 */
 
 
-	private Img<FloatType> createLaplacianKernel() {
+	private static Img<FloatType> createLaplacianKernel(final int numDim) {
 		final ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
-		int numDim = img.numDimensions();
 		Img<FloatType> laplacianKernel = null;
 		if (numDim == 3) {
 			final float laplacianArray[][][] = new float[][][]{ { {0,-1/18,0},{-1/18,-1/18,-1/18},{0,-1/18,0} }, { {-1/18,-1/18,-1/18}, {-1/18,1,-1/18}, {-1/18,-1/18,-1/18} }, { {0,-1/18,0},{-1/18,-1/18,-1/18},{0,-1/18,0} } }; // laplace kernel found here: http://en.wikipedia.org/wiki/Discrete_Laplace_operator
@@ -238,6 +216,37 @@ protected Img<T> applyMedianFilter(final Img<T> image) {
 	 * STATIC METHODS
 	 */
 
+	/**
+	 * Creates a convolver that applies the LoG filter tuned for the specified
+	 * radius to images with the dimensions and calibration of the specified
+	 * image.
+	 * <p>
+	 * The Gaussian and the Laplacian kernels are composed in real space, so
+	 * that the LoG filter takes a single multiplication in Fourier space. The
+	 * convolver can be shared by the detectors of all the frames of a movie.
+	 *
+	 * @param img
+	 *            the image to take dimensions and calibration from.
+	 * @param radius
+	 *            the expected blob radius, in physical units.
+	 * @return a new convolver.
+	 */
+	public static FFTConvolver createConvolver(final ImgPlus<?> img, final double radius) {
+		final double sigma = radius / Math.sqrt(img.numDimensions()); // optimal sigma for LoG approach and dimensionality
+		// Turn it in pixel coordinates
+		final double[] calibration = TMUtils.getSpatialCalibration(img);
+		final double[] sigmas = new double[img.numDimensions()];
+		for (int i = 0; i < sigmas.length; i++) {
+			sigmas[i] = sigma / calibration[i];
+		}
+
+		final ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
+		final Img<FloatType> gaussianKernel = FourierConvolution.createGaussianKernel(factory, sigmas);
+		final Img<FloatType> laplacianKernel = createLaplacianKernel(img.numDimensions());
+		final Img<FloatType> logKernel = FFTConvolver.compose(gaussianKernel, laplacianKernel);
+		return new FFTConvolver(logKernel, img);
+	}
+
 
 	private static void quickKernel2D(float[][] vals, Img<FloatType> kern)	{
 		final RandomAccess<FloatType> cursor = kern.randomAccess();
@@ -16,6 +16,7 @@
 import net.imglib2.meta.view.HyperSliceImgPlus;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.detection.util.FFTConvolver;
 
 public class LogDetectorFactory<T extends RealType<T> & NativeType<T>>  implements SpotDetectorFactory<T> {
 
@@ -45,6 +46,10 @@
 	protected ImgPlus<T> img;
 	protected Map<String, Object> settings;
 	protected String errorMessage;
+	/** The LoG convolver shared by the detectors of all frames, created on first use. */
+	private FFTConvolver convolver;
+	/** The radius the shared convolver was created for. */
+	private double convolverRadius;
 
 	/*
 	 * METHODS
@@ -54,6 +59,7 @@
 	public void setTarget(ImgPlus<T> img, Map<String, Object> settings) {
 		this.img = img;
 		this.settings = settings;
+		this.convolver = null;
 	}
 
 	@Override
@@ -65,11 +71,24 @@ public SpotDetector<T> getDetector(final int frame) {
 		final double threshold = (Double) settings.get(KEY_THRESHOLD);
 		final boolean doMedian = (Boolean) settings.get(KEY_DO_MEDIAN_FILTERING);
 		final boolean doSubpixel = (Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION);
-		LogDetector<T> detector = new LogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
+		LogDetector<T> detector = new LogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian, getConvolver(imgT, radius));
 		detector.setNumThreads(1); // in TrackMate context, we use 1 thread per detector but multiple detectors
 		return detector;
 	}
 
+	/**
+	 * Returns the LoG convolver for the frames of the target image, so that
+	 * the kernel spectrum is computed once per movie rather than once per
+	 * frame.
+	 */
+	protected synchronized FFTConvolver getConvolver(final ImgPlus<T> frame, final double radius) {
+		if (null == convolver || convolverRadius != radius || !convolver.accepts(frame)) {
+			convolver = LogDetector.createConvolver(frame, radius);
+			convolverRadius = radius;
+		}
+		return convolver;
+	}
+
 	@Override
 	public String getKey() {
 		return DETECTOR_KEY;
@@ -0,0 +1,538 @@
+package fiji.plugin.trackmate.detection.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import fiji.plugin.trackmate.util.SharedThreadPool;
+
+/**
+ * Convolves images of a fixed size with a fixed kernel, in Fourier space.
+ * <p>
+ * The kernel spectrum is computed once, when this convolver is created, and
+ * is reused for all the images it convolves afterwards. A single instance can
+ * therefore serve all the frames of a movie. Each thread gets its own FFT work
+ * buffers, that are reused from one convolution to the next: tiles are
+ * processed by the calling thread and by the threads of the
+ * {@link SharedThreadPool}, which persist across frames and bound the total
+ * number of threads when several frames are convolved at once.
+ * <p>
+ * Images whose padded size exceeds the maximal block size are processed in
+ * tiles, with the overlap-save method: each tile is transformed together with
+ * a margin the size of the kernel, and only the part of the result that is not
+ * corrupted by the wrap-around of the circular convolution is kept. Tiles can
+ * be processed in parallel. Pixels out of the image bounds are taken by
+ * mirroring the image.
+ */
+public class FFTConvolver {
+
+	/*
+	 * CONSTANTS
+	 */
+
+	/** The default maximal number of pixels in a FFT block, 2M pixels. */
+	public static final int DEFAULT_MAX_BLOCK_SIZE = 1 << 21;
+
+	/*
+	 * FIELDS
+	 */
+
+	/** The dimensions of the images this convolver accepts. */
+	private final long[] dims;
+	/** The size of the FFT blocks. */
+	private final int[] blockDims;
+	/** The size of the part of each block that is kept in the output. */
+	private final int[] tileDims;
+	/** The number of tiles along each dimension. */
+	private final int[] nTiles;
+	/** The number of pixels to read before the first kept pixel of a block. */
+	private final int[] margin;
+	/** The number of pixels in a block. */
+	private final int blockSize;
+	/** The number of complex values in the spectrum of a block. */
+	private final int nComplex;
+	/** The spectrum of the kernel, interleaved real and imaginary parts. */
+	private final float[] kernelFFT;
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a convolver for the specified kernel, that accepts images with
+	 * the dimensions of the specified interval.
+	 * <p>
+	 * The kernel is centered on its middle pixel, or on the pixel just after the
+	 * middle along dimensions where its size is even.
+	 *
+	 * @param kernel
+	 *            the kernel. Its values are copied.
+	 * @param interval
+	 *            the dimensions of the images to convolve.
+	 * @param maxBlockSize
+	 *            the maximal number of pixels in a FFT block. Images bigger
+	 *            than this once padded are processed in tiles.
+	 */
+	public FFTConvolver(final RandomAccessibleInterval<FloatType> kernel, final Interval interval, final int maxBlockSize) {
+		final int n = interval.numDimensions();
+		if (kernel.numDimensions() != n) {
+			throw new IllegalArgumentException("Kernel and image must have the same dimensionality, got " + kernel.numDimensions() + " and " + n + ".");
+		}
+
+		this.dims = new long[n];
+		interval.dimensions(dims);
+		final int[] kernelDims = new int[n];
+		for (int d = 0; d < n; d++) {
+			kernelDims[d] = (int) kernel.dimension(d);
+		}
+
+		/*
+		 * Start with a single block covering the whole image, then halve the
+		 * tiles along the dimension with the largest block until blocks are
+		 * small enough. Tiles are never made smaller than the kernel, so that
+		 * no more than half of each block is spent on margins.
+		 */
+		this.blockDims = new int[n];
+		this.tileDims = new int[n];
+		for (int d = 0; d < n; d++) {
+			tileDims[d] = (int) dims[d];
+			blockDims[d] = blockDimension(d, tileDims[d] + kernelDims[d] - 1);
+		}
+		while (size(blockDims) > maxBlockSize) {
+			int largest = -1;
+			for (int d = 0; d < n; d++) {
+				if (tileDims[d] > kernelDims[d] && (largest < 0 || blockDims[d] > blockDims[largest])) {
+					largest = d;
+				}
+			}
+			if (largest < 0) {
+				break;
+			}
+			tileDims[largest] = Math.max(kernelDims[largest], (tileDims[largest] + 1) / 2);
+			blockDims[largest] = blockDimension(largest, tileDims[largest] + kernelDims[largest] - 1);
+		}
+
+		this.nTiles = new int[n];
+		this.margin = new int[n];
+		for (int d = 0; d < n; d++) {
+			// Use all of the block that the padding to a fast FFT size left us
+			tileDims[d] = blockDims[d] - kernelDims[d] + 1;
+			nTiles[d] = (int) ((dims[d] + tileDims[d] - 1) / tileDims[d]);
+			margin[d] = kernelDims[d] - 1 - kernelDims[d] / 2;
+		}
+		this.blockSize = (int) size(blockDims);
+		this.nComplex = blockSize / blockDims[0] * (blockDims[0] / 2 + 1);
+
+		/*
+		 * Kernel spectrum: we wrap the kernel around so that its center sits
+		 * at the origin of the block.
+		 */
+		final Workspace workspace = new Workspace();
+		final float[] values = new float[(int) size(kernelDims)];
+		final long[] kernelMin = new long[n];
+		kernel.min(kernelMin);
+		read(kernel.randomAccess(), kernelMin, kernelDims, values);
+
+		final int[] position = new int[n];
+		for (int i = 0; i < values.length; i++) {
+			int index = 0;
+			for (int d = n - 1; d >= 0; d--) {
+				final int p = (position[d] - kernelDims[d] / 2 + blockDims[d]) % blockDims[d];
+				index = index * blockDims[d] + p;
+			}
+			workspace.real[index] = values[i];
+			increment(position, kernelDims);
+		}
+		forward(workspace);
+		this.kernelFFT = workspace.complex;
+	}
+
+	/**
+	 * Creates a convolver for the specified kernel, that accepts images with
+	 * the dimensions of the specified interval, using the
+	 * {@link #DEFAULT_MAX_BLOCK_SIZE default maximal block size}.
+	 */
+	public FFTConvolver(final RandomAccessibleInterval<FloatType> kernel, final Interval interval) {
+		this(kernel, interval, DEFAULT_MAX_BLOCK_SIZE);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if this convolver can process images with the
+	 * dimensions of the specified interval.
+	 */
+	public boolean accepts(final Interval interval) {
+		if (interval.numDimensions() != dims.length) {
+			return false;
+		}
+		for (int d = 0; d < dims.length; d++) {
+			if (interval.dimension(d) != dims[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of tiles the images are split in.
+	 */
+	public int getNTiles() {
+		return (int) size(nTiles);
+	}
+
+	/**
+	 * Convolves the specified image and returns the result in a new float
+	 * image.
+	 *
+	 * @param source
+	 *            the image to convolve. Is not modified.
+	 * @param numThreads
+	 *            the number of threads to use. Threads process distinct
+	 *            tiles, so there is no benefit in using more threads than there
+	 *            are tiles.
+	 * @return a new image, with the same dimensions as the source.
+	 */
+	public <T extends RealType<T>> Img<FloatType> convolve(final RandomAccessibleInterval<T> source, final int numThreads) {
+		final Img<FloatType> target = ArrayImgs.floats(dims.clone());
+		convolve(source, target, numThreads);
+		return target;
+	}
+
+	/**
+	 * Convolves the specified image and writes the result in the specified
+	 * target. Source and target may not be the same image.
+	 *
+	 * @param source
+	 *            the image to convolve. Is not modified.
+	 * @param target
+	 *            the image to write the result to. Must have the same
+	 *            dimensions as the source.
+	 * @param numThreads
+	 *            the maximal number of threads to use, including the calling
+	 *            thread.
+	 */
+	public <T extends RealType<T>> void convolve(final RandomAccessibleInterval<T> source, final RandomAccessibleInterval<FloatType> target, final int numThreads) {
+		if (!accepts(source) || !accepts(target)) {
+			throw new IllegalArgumentException("Source and target must have the dimensions this convolver was created for.");
+		}
+
+		final int totalTiles = getNTiles();
+		final int nThreads = Math.max(1, Math.min(numThreads, totalTiles));
+		if (nThreads == 1) {
+			final TileProcessor<T> processor = new TileProcessor<T>(source, target);
+			for (int tile = 0; tile < totalTiles; tile++) {
+				processor.process(tile);
+			}
+			return;
+		}
+
+		final List<Runnable> tasks = new ArrayList<Runnable>(totalTiles);
+		for (int tile = 0; tile < totalTiles; tile++) {
+			final int tileIndex = tile;
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					new TileProcessor<T>(source, target).process(tileIndex);
+				}
+			});
+		}
+		SharedThreadPool.getInstance().invokeAll(tasks, nThreads);
+	}
+
+	/**
+	 * Returns the full linear convolution of two small kernels, computed in
+	 * real space. Its size is the sum of the kernel sizes minus one, and its
+	 * center is at the sum of their centers.
+	 */
+	public static Img<FloatType> compose(final RandomAccessibleInterval<FloatType> k1, final RandomAccessibleInterval<FloatType> k2) {
+		final int n = k1.numDimensions();
+		final int[] dims1 = new int[n];
+		final int[] dims2 = new int[n];
+		final long[] dims = new long[n];
+		for (int d = 0; d < n; d++) {
+			dims1[d] = (int) k1.dimension(d);
+			dims2[d] = (int) k2.dimension(d);
+			dims[d] = dims1[d] + dims2[d] - 1;
+		}
+		final float[] values1 = new float[(int) size(dims1)];
+		final float[] values2 = new float[(int) size(dims2)];
+		final long[] min = new long[n];
+		k1.min(min);
+		read(k1.randomAccess(), min, dims1, values1);
+		k2.min(min);
+		read(k2.randomAccess(), min, dims2, values2);
+
+		final float[] values = new float[(int) size(dims)];
+		final int[] p1 = new int[n];
+		for (int i1 = 0; i1 < values1.length; i1++) {
+			if (values1[i1] != 0) {
+				final int[] p2 = new int[n];
+				for (int i2 = 0; i2 < values2.length; i2++) {
+					int index = 0;
+					for (int d = n - 1; d >= 0; d--) {
+						index = index * (int) dims[d] + p1[d] + p2[d];
+					}
+					values[index] += values1[i1] * values2[i2];
+					increment(p2, dims2);
+				}
+			}
+			increment(p1, dims1);
+		}
+		return ArrayImgs.floats(values, dims);
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns the smallest size larger than the specified one for which the
+	 * FFT along the specified dimension is fast.
+	 */
+	private static int blockDimension(final int d, final int size) {
+		return d == 0 ? FftReal.nfftFast(size) : FftComplex.nfftFast(size);
+	}
+
+	private static long size(final int[] dims) {
+		long size = 1;
+		for (final int dim : dims) {
+			size *= dim;
+		}
+		return size;
+	}
+
+	private static long size(final long[] dims) {
+		long size = 1;
+		for (final long dim : dims) {
+			size *= dim;
+		}
+		return size;
+	}
+
+	private static void increment(final int[] position, final int[] dims) {
+		for (int d = 0; d < dims.length && ++position[d] == dims[d]; d++) {
+			position[d] = 0;
+		}
+	}
+
+	/**
+	 * Copies the box of the specified size starting at the specified origin to
+	 * a flat array, X varying fastest.
+	 */
+	private static <T extends RealType<T>> void read(final RandomAccess<T> ra, final long[] origin, final int[] size, final float[] data) {
+		final int n = size.length;
+		final int[] position = new int[n];
+		final int nLines = data.length / size[0];
+		int index = 0;
+		for (int line = 0; line < nLines; line++) {
+			ra.setPosition(origin[0], 0);
+			for (int d = 1; d < n; d++) {
+				ra.setPosition(origin[d] + position[d], d);
+			}
+			for (int x = 0; x < size[0]; x++) {
+				data[index++] = ra.get().getRealFloat();
+				ra.fwd(0);
+			}
+			for (int d = 1; d < n && ++position[d] == size[d]; d++) {
+				position[d] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Forward FFT of the real block of the specified workspace, into its
+	 * complex block.
+	 */
+	private void forward(final Workspace ws) {
+		final int b0 = blockDims[0];
+		final int h2 = 2 * (b0 / 2 + 1);
+		final int nLines = blockSize / b0;
+		for (int line = 0; line < nLines; line++) {
+			System.arraycopy(ws.real, line * b0, ws.lineIn, 0, b0);
+			ws.fftReal.realToComplex(-1, ws.lineIn, ws.lineOut);
+			System.arraycopy(ws.lineOut, 0, ws.complex, line * h2, h2);
+		}
+		for (int d = 1; d < blockDims.length; d++) {
+			transform(ws, d, -1);
+		}
+	}
+
+	/**
+	 * Inverse FFT of the complex block of the specified workspace, into its
+	 * real block, scaled.
+	 */
+	private void inverse(final Workspace ws) {
+		for (int d = blockDims.length - 1; d > 0; d--) {
+			transform(ws, d, 1);
+		}
+		final int b0 = blockDims[0];
+		final int h2 = 2 * (b0 / 2 + 1);
+		final int nLines = blockSize / b0;
+		final float scale = 1f / blockSize;
+		for (int line = 0; line < nLines; line++) {
+			System.arraycopy(ws.complex, line * h2, ws.lineIn, 0, h2);
+			ws.fftReal.complexToReal(1, ws.lineIn, ws.lineOut);
+			final int offset = line * b0;
+			for (int x = 0; x < b0; x++) {
+				ws.real[offset + x] = scale * ws.lineOut[x];
+			}
+		}
+	}
+
+	/**
+	 * Complex FFT along the specified dimension, d &gt; 0, of the complex block
+	 * of the specified workspace.
+	 */
+	private void transform(final Workspace ws, final int d, final int sign) {
+		final int length = blockDims[d];
+		int stride = blockDims[0] / 2 + 1;
+		for (int k = 1; k < d; k++) {
+			stride *= blockDims[k];
+		}
+		final int nOuter = nComplex / (stride * length);
+		final float[] complex = ws.complex;
+		final float[] lineIn = ws.lineIn;
+		final float[] lineOut = ws.lineOut;
+		for (int outer = 0; outer < nOuter; outer++) {
+			for (int inner = 0; inner < stride; inner++) {
+				final int start = 2 * (outer * stride * length + inner);
+				for (int i = 0, index = start; i < length; i++, index += 2 * stride) {
+					lineIn[2 * i] = complex[index];
+					lineIn[2 * i + 1] = complex[index + 1];
+				}
+				ws.fftComplex[d].complexToComplex(sign, lineIn, lineOut);
+				for (int i = 0, index = start; i < length; i++, index += 2 * stride) {
+					complex[index] = lineOut[2 * i];
+					complex[index + 1] = lineOut[2 * i + 1];
+				}
+			}
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The FFT objects and work buffers of one thread.
+	 */
+	private final class Workspace {
+
+		private final float[] real;
+		private final float[] complex;
+		private final float[] lineIn;
+		private final float[] lineOut;
+		private final FftReal fftReal;
+		private final FftComplex[] fftComplex;
+
+		private Workspace() {
+			int lineLength = 2 * (blockDims[0] / 2 + 1);
+			fftComplex = new FftComplex[blockDims.length];
+			for (int d = 1; d < blockDims.length; d++) {
+				fftComplex[d] = new FftComplex(blockDims[d]);
+				lineLength = Math.max(lineLength, 2 * blockDims[d]);
+			}
+			fftReal = new FftReal(blockDims[0]);
+			real = new float[blockSize];
+			complex = new float[2 * nComplex];
+			lineIn = new float[lineLength];
+			lineOut = new float[lineLength];
+		}
+	}
+
+	/**
+	 * Convolves the tiles of one image, in one thread.
+	 */
+	private final class TileProcessor<T extends RealType<T>> {
+
+		private final RandomAccess<T> in;
+		private final RandomAccess<FloatType> out;
+		private final long[] sourceMin;
+		private final long[] targetMin;
+		private final long[] origin;
+		private final int[] tile;
+
+		private TileProcessor(final RandomAccessibleInterval<T> source, final RandomAccessibleInterval<FloatType> target) {
+			final int n = dims.length;
+			this.in = Views.extendMirrorSingle(source).randomAccess();
+			this.out = target.randomAccess();
+			this.sourceMin = new long[n];
+			source.min(sourceMin);
+			this.targetMin = new long[n];
+			target.min(targetMin);
+			this.origin = new long[n];
+			this.tile = new int[n];
+		}
+
+		private void process(final int tileIndex) {
+			final int n = dims.length;
+			final Workspace ws = workspaces.get();
+
+			// Read the tile and its margins
+			int remainder = tileIndex;
+			for (int d = 0; d < n; d++) {
+				tile[d] = remainder % nTiles[d];
+				remainder /= nTiles[d];
+				origin[d] = sourceMin[d] + (long) tile[d] * tileDims[d] - margin[d];
+			}
+			read(in, origin, blockDims, ws.real);
+
+			// Convolve
+			forward(ws);
+			final float[] complex = ws.complex;
+			for (int i = 0; i < 2 * nComplex; i += 2) {
+				final float re = complex[i];
+				final float im = complex[i + 1];
+				final float kre = kernelFFT[i];
+				final float kim = kernelFFT[i + 1];
+				complex[i] = re * kre - im * kim;
+				complex[i + 1] = re * kim + im * kre;
+			}
+			inverse(ws);
+
+			// Write the part of the block not corrupted by wrap-around
+			final int[] size = new int[n];
+			int nLines = 1;
+			for (int d = 0; d < n; d++) {
+				final long start = (long) tile[d] * tileDims[d];
+				size[d] = (int) Math.min(tileDims[d], dims[d] - start);
+				if (d > 0) {
+					nLines *= size[d];
+				}
+			}
+			final int[] position = new int[n];
+			for (int line = 0; line < nLines; line++) {
+				int index = 0;
+				for (int d = n - 1; d >= 0; d--) {
+					index = index * blockDims[d] + margin[d] + position[d];
+					out.setPosition(targetMin[d] + (long) tile[d] * tileDims[d] + position[d], d);
+				}
+				for (int x = 0; x < size[0]; x++) {
+					out.get().set(ws.real[index++]);
+					out.fwd(0);
+				}
+				for (int d = 1; d < n && ++position[d] == size[d]; d++) {
+					position[d] = 0;
+				}
+			}
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package fiji.plugin.trackmate.features;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -12,7 +16,9 @@
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.util.SharedThreadPool;
 
 /**
  * A class dedicated to centralizing the calculation of the numerical features of spots,
@@ -23,8 +29,14 @@
 public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm {
 
 	private static final String BASE_ERROR_MSG = "[EdgeFeatureCalculator] ";
+	/**
+	 * Below this number of edges, analyzers use a single thread: starting 
+	 * threads would cost more than it saves.
+	 */
+	private static final int SMALL_BATCH_SIZE = 1000;
 	private final Settings settings;
 	private final Model model;
+	private final Map<String, Long> processingTimes = new LinkedHashMap<String, Long>();
 
 	public EdgeFeatureCalculator(final Model model, final Settings settings) {
 		this.settings = settings;
@@ -80,31 +92,97 @@ public boolean process() {
 
 	/**
 	 * Calculates all the edge features configured in the {@link Settings} object 
-	 * for the specified edges. 
+	 * for the specified edges. Analyzers that are not local process all the 
+	 * edges of the tracks the specified edges belong to.
+	 */
+	public void computeEdgeFeatures(final Collection<DefaultWeightedEdge> edges, boolean doLogIt) {
+		List<EdgeAnalyzer> edgeFeatureAnalyzers = settings.getEdgeAnalyzers();
+		computeEdgeFeaturesAgent(edges, edgeFeatureAnalyzers, doLogIt);
+	}
+
+	/**
+	 * @deprecated use {@link #computeEdgeFeatures(Collection, boolean)}.
 	 */
+	@Deprecated
 	public void computeSpotFeatures(final Collection<DefaultWeightedEdge> edges, boolean doLogIt) {
-		List<EdgeAnalyzer> spotFeatureAnalyzers = settings.getEdgeAnalyzers();
-		computeEdgeFeaturesAgent(edges, spotFeatureAnalyzers, doLogIt);
+		computeEdgeFeatures(edges, doLogIt);
+	}
+
+	/**
+	 * Returns the processing time of each analyzer during the last calculation,
+	 * in ms, keyed by analyzer key.
+	 */
+	public Map<String, Long> getProcessingTimes() {
+		return new LinkedHashMap<String, Long>(processingTimes);
 	}
-	
-	
 
 	/*
 	 * PRIVATE METHODS
 	 */
 	
+	/**
+	 * Edge analyzers do not depend on each other, so they run side by side on 
+	 * the {@link SharedThreadPool}, and share the threads allowed to this calculator.
+	 */
 	private void computeEdgeFeaturesAgent(final Collection<DefaultWeightedEdge> edges, final List<EdgeAnalyzer> analyzers, boolean doLogIt) {
 		final Logger logger = model.getLogger();
 		if (doLogIt) {
 			logger.log("Computing edge features:\n", Logger.BLUE_COLOR);		
 		}
+		processingTimes.clear();
+		if (edges.isEmpty() || analyzers.isEmpty()) {
+			return;
+		}
 		
+		// Non-local analyzers need the whole tracks
+		Collection<DefaultWeightedEdge> trackEdges = null;
 		for (EdgeAnalyzer analyzer : analyzers) {
-			analyzer.setNumThreads(numThreads);
-			analyzer.process(edges);
+			if (!analyzer.isLocal()) {
+				trackEdges = edgesOfTracks(edges);
+				break;
+			}
+		}
+		
+		final int threadsPerAnalyzer = Math.max(1, numThreads / analyzers.size());
+		final List<EdgeAnalyzer> running = new ArrayList<EdgeAnalyzer>(analyzers.size());
+		final List<Runnable> tasks = new ArrayList<Runnable>(analyzers.size());
+		for (final EdgeAnalyzer analyzer : analyzers) {
+			final Collection<DefaultWeightedEdge> target = analyzer.isLocal() ? edges : trackEdges;
+			if (target.isEmpty()) {
+				continue;
+			}
+			analyzer.setNumThreads(target.size() < SMALL_BATCH_SIZE ? 1 : threadsPerAnalyzer);
+			running.add(analyzer);
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					analyzer.process(target);
+				}
+			});
+		}
+		SharedThreadPool.getInstance().invokeAll(tasks, numThreads);
+		
+		for (EdgeAnalyzer analyzer : running) {
+			processingTimes.put(analyzer.getKey(), analyzer.getProcessingTime());
 			if (doLogIt)
 				logger.log("  - " + analyzer.getKey() + " in " + analyzer.getProcessingTime() + " ms.\n");
 		}
 	}
 
+	/**
+	 * Returns all the edges of the tracks the specified edges belong to.
+	 */
+	private Collection<DefaultWeightedEdge> edgesOfTracks(final Collection<DefaultWeightedEdge> edges) {
+		final TrackModel trackModel = model.getTrackModel();
+		final Set<Integer> trackIDs = new HashSet<Integer>();
+		final Set<DefaultWeightedEdge> trackEdges = new HashSet<DefaultWeightedEdge>(edges);
+		for (DefaultWeightedEdge edge : edges) {
+			final Integer trackID = trackModel.trackIDOf(edge);
+			if (null != trackID && trackIDs.add(trackID)) {
+				trackEdges.addAll(trackModel.trackEdges(trackID));
+			}
+		}
+		return trackEdges;
+	}
+
 }
@@ -1,6 +1,10 @@
 package fiji.plugin.trackmate.features;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -10,6 +14,7 @@
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.TrackModel;
 
 /**
  * A utility class that listens to the change occurring in a model, and updates
@@ -24,6 +29,7 @@ public class ModelFeatureUpdater implements ModelChangeListener {
 	private final EdgeFeatureCalculator edgeFeatureCalculator;
 	private final TrackFeatureCalculator trackFeatureCalculator;
 	private final Model model;
+	private final Map<String, Long> processingTimes = new LinkedHashMap<String, Long>();
 
 	/**
 	 * Constructs and activate a {@link ModelFeatureUpdater}. The new instance is 
@@ -44,12 +50,25 @@ public ModelFeatureUpdater(Model model, Settings settings) {
 	 * Updates the model features against the change notified here.
 	 * If the event is not a {@link ModelChangeEvent#MODEL_MODIFIED},
 	 * does nothing.
+	 * <p>
+	 * Only the features that depend on the change are recomputed, in
+	 * dependency order: 
+	 * <ol>
+	 * 	<li> the features of the spots that were added, moved or modified;
+	 * 	<li> the features of the edges that were added or modified, and of the 
+	 * edges of the spots above, since they depend on the spot positions;
+	 * 	<li> the features of the tracks the model reported as updated, and of
+	 * the tracks that contain the edges above.
+	 * </ol>
+	 * Each level is computed in one batch, with its analyzers scheduled on the
+	 * {@link fiji.plugin.trackmate.util.SharedThreadPool}.
 	 */
 	@Override
 	public void modelChanged(ModelChangeEvent event) {
 		if (event.getEventID() != ModelChangeEvent.MODEL_MODIFIED) {
 			return;
 		}
+		final TrackModel trackModel = model.getTrackModel();
 
 		// Build spot list
 		ArrayList<Spot> spots = new ArrayList<Spot>(event.getSpots().size());
@@ -61,21 +80,56 @@ public void modelChanged(ModelChangeEvent event) {
 		SpotCollection sc = SpotCollection.fromCollection(spots);
 		
 		// Build edge list
-		ArrayList<DefaultWeightedEdge> edges = new ArrayList<DefaultWeightedEdge>(event.getEdges().size());
+		Set<DefaultWeightedEdge> edges = new HashSet<DefaultWeightedEdge>(event.getEdges().size());
 		for (DefaultWeightedEdge edge : event.getEdges()) {
 			if (event.getEdgeFlag(edge) != ModelChangeEvent.FLAG_EDGE_REMOVED) {
 				edges.add(edge);
 			}
 		}
+		for (Spot spot : spots) {
+			edges.addAll(trackModel.edgesOf(spot));
+		}
+		
+		// Build track list
+		Set<Integer> trackIDs = new HashSet<Integer>();
+		if (null != event.getTrackUpdated()) {
+			trackIDs.addAll(event.getTrackUpdated());
+		}
+		for (DefaultWeightedEdge edge : edges) {
+			Integer trackID = trackModel.trackIDOf(edge);
+			if (null != trackID) {
+				trackIDs.add(trackID);
+			}
+		}
+
+		processingTimes.clear();
 
 		// Update spot features
-		spotFeatureCalculator.computeSpotFeatures(sc, false);
+		if (!spots.isEmpty()) {
+			spotFeatureCalculator.computeSpotFeatures(sc, false);
+			processingTimes.putAll(spotFeatureCalculator.getProcessingTimes());
+		}
 		
 		// Update edge features
-		edgeFeatureCalculator.computeSpotFeatures(edges, false);
+		if (!edges.isEmpty()) {
+			edgeFeatureCalculator.computeEdgeFeatures(edges, false);
+			processingTimes.putAll(edgeFeatureCalculator.getProcessingTimes());
+		}
 		
-		// Update track features
-		trackFeatureCalculator.computeTrackFeatures(event.getTrackUpdated(), false);
+		// Update track features. Non-local analyzers must run whenever the graph changed.
+		if (!trackIDs.isEmpty() || !event.getEdges().isEmpty()) {
+			trackFeatureCalculator.computeTrackFeatures(trackIDs, false);
+			processingTimes.putAll(trackFeatureCalculator.getProcessingTimes());
+		}
+	}
+
+	/**
+	 * Returns the processing time of each analyzer during the last update, in
+	 * ms, keyed by analyzer key. Analyzers that were not needed by the last
+	 * update are not listed.
+	 */
+	public Map<String, Long> getProcessingTimes() {
+		return new LinkedHashMap<String, Long>(processingTimes);
 	}
 	
 	/**
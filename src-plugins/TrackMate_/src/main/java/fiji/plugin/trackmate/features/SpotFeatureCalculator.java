@@ -4,19 +4,24 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.spot.IndependentSpotFeatureAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
+import fiji.plugin.trackmate.util.SharedThreadPool;
 
 /**
  * A class dedicated to centralizing the calculation of the numerical features of spots,
@@ -29,6 +34,7 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm {
 	private static final String BASE_ERROR_MSG = "[SpotFeatureCalculator] ";
 	private final Settings settings;
 	private final Model model;
+	private final Map<String, Long> processingTimes = new LinkedHashMap<String, Long>();
 
 	public SpotFeatureCalculator(final Model model, final Settings settings) {
 		this.settings = settings;
@@ -85,16 +91,31 @@ public boolean process() {
 	 * Calculates all the spot features configured in the {@link Settings} object 
 	 * for the specified spot collection. 
 	 * Features are calculated for each spot, using their location, and the raw
-	 * image. 
+	 * image. Only the spots of the collection are processed, unless an analyzer
+	 * cannot compute spots independently, in which case it processes all the
+	 * spots of the frames present in the collection.
 	 */
 	public void computeSpotFeatures(final SpotCollection toCompute, boolean doLogIt) {
 		List<SpotAnalyzerFactory<?>> spotFeatureAnalyzers = settings.getSpotAnalyzerFactories();
 		computeSpotFeaturesAgent(toCompute, spotFeatureAnalyzers, doLogIt);
 	}
 
+	/**
+	 * Returns the time spent in each analyzer during the last calculation, in
+	 * ms, summed over all the threads, keyed by analyzer factory key.
+	 */
+	public Map<String, Long> getProcessingTimes() {
+		return new LinkedHashMap<String, Long>(processingTimes);
+	}
+
 	/**
 	 * The method in charge of computing spot features with the given {@link SpotAnalyzer}s, for the
 	 * given {@link SpotCollection}.
+	 * <p>
+	 * Frames are processed in parallel on the {@link SharedThreadPool}. Within a frame, analyzers
+	 * are run in order, since some of them use the features computed by the previous ones. 
+	 * Analyzers that compute each spot independently only process the spots of the given collection,
+	 * the others process the whole frame.
 	 * @param toCompute
 	 * @param analyzers
 	 */
@@ -115,10 +136,7 @@ private void computeSpotFeaturesAgent(final SpotCollection toCompute, final List
 		// Do it.
 		final List<Integer> frameSet = new ArrayList<Integer>(toCompute.keySet());
 		final int numFrames = frameSet.size();
-
-		final AtomicInteger ai = new AtomicInteger(0);
 		final AtomicInteger progress = new AtomicInteger(0);
-		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
 
 		int tc = 0;
 		if (settings != null && settings.detectorSettings != null) {
@@ -131,31 +149,43 @@ private void computeSpotFeaturesAgent(final SpotCollection toCompute, final List
 		}
 		final int targetChannel = tc;
 
-		// Prepare the thread array
-		for (int ithread = 0; ithread < threads.length; ithread++) {
-
-			threads[ithread] = new Thread("TrackMate spot feature calculating thread " + (1 + ithread) + "/" + threads.length) {
+		final Map<String, AtomicLong> times = new LinkedHashMap<String, AtomicLong>(analyzerFactories.size());
+		for (SpotAnalyzerFactory<?> factory : analyzerFactories) {
+			times.put(factory.getKey(), new AtomicLong(0));
+		}
 
+		// One task per frame
+		final List<Runnable> tasks = new ArrayList<Runnable>(numFrames);
+		for (final Integer frame : frameSet) {
+			tasks.add(new Runnable() {
+				@Override
 				public void run() {
-
-					for (int index = ai.getAndIncrement(); index < numFrames; index = ai.getAndIncrement()) {
-
-						int frame = frameSet.get(index);
-						for (SpotAnalyzerFactory<?> factory : analyzerFactories) {
-							SpotAnalyzer<?> analyzer = factory.getAnalyzer(frame, targetChannel);
+					for (SpotAnalyzerFactory<?> factory : analyzerFactories) {
+						final long start = System.currentTimeMillis();
+						final SpotAnalyzer<?> analyzer = factory.getAnalyzer(frame, targetChannel);
+						if (analyzer instanceof IndependentSpotFeatureAnalyzer) {
+							final IndependentSpotFeatureAnalyzer<?> independentAnalyzer = (IndependentSpotFeatureAnalyzer<?>) analyzer;
+							for (Iterator<Spot> it = toCompute.iterator(frame, false); it.hasNext();) {
+								independentAnalyzer.process(it.next());
+							}
+						} else {
 							analyzer.process();
 						}
-
-						logger.setProgress(progress.incrementAndGet() / (float) numFrames);
-					} // Finished looping over frames
+						times.get(factory.getKey()).addAndGet(System.currentTimeMillis() - start);
+					}
+					logger.setProgress(progress.incrementAndGet() / (float) numFrames);
 				}
-			};
+			});
 		}
 		logger.setStatus("Calculating " + toCompute.getNSpots(false) + " spots features...");
 		logger.setProgress(0);
 
-		SimpleMultiThreading.startAndJoin(threads);
+		SharedThreadPool.getInstance().invokeAll(tasks, numThreads);
 
+		processingTimes.clear();
+		for (String key : times.keySet()) {
+			processingTimes.put(key, times.get(key).get());
+		}
 		logger.setProgress(1);
 		logger.setStatus("");
 	}
@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate.features;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,6 +12,7 @@
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.util.SharedThreadPool;
 
 /**
  * A class dedicated to centralizing the calculation of the numerical features of tracks,
@@ -20,8 +23,14 @@
 public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm {
 
 	private static final String BASE_ERROR_MSG = "[TrackFeatureCalculator] ";
+	/**
+	 * Below this number of tracks, analyzers use a single thread: starting 
+	 * threads would cost more than it saves.
+	 */
+	private static final int SMALL_BATCH_SIZE = 100;
 	private final Settings settings;
 	private final Model model;
+	private final Map<String, Long> processingTimes = new LinkedHashMap<String, Long>();
 
 	public TrackFeatureCalculator(final Model model, final Settings settings) {
 		this.settings = settings;
@@ -82,26 +91,56 @@ public void computeTrackFeatures(final Collection<Integer> trackIDs, boolean doL
 		computeTrackFeaturesAgent(trackIDs, trackFeatureAnalyzers, doLogIt);
 	}
 
+	/**
+	 * Returns the processing time of each analyzer during the last calculation,
+	 * in ms, keyed by analyzer key.
+	 */
+	public Map<String, Long> getProcessingTimes() {
+		return new LinkedHashMap<String, Long>(processingTimes);
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
 
 	/**
 	 * Calculate all features for the tracks with the given IDs.
+	 * <p>
+	 * Track analyzers do not depend on each other, so they run side by side on 
+	 * the {@link SharedThreadPool}, and share the threads allowed to this calculator.
 	 */
 	private void computeTrackFeaturesAgent(final Collection<Integer> trackIDs, final List<TrackAnalyzer> analyzers, boolean doLogIt) {
 		final Logger logger = model.getLogger();
 		if (doLogIt) {
 			logger.log("Computing track features:\n", Logger.BLUE_COLOR);		
 		}
+		processingTimes.clear();
+		if (analyzers.isEmpty()) {
+			return;
+		}
 		
-		for (TrackAnalyzer analyzer : analyzers) {
-			analyzer.setNumThreads(numThreads);
-			if (analyzer.isLocal()) {
-				analyzer.process(trackIDs);
-			} else {
-				analyzer.process(model.getTrackModel().trackIDs(false));
+		final Collection<Integer> allTrackIDs = model.getTrackModel().trackIDs(false);
+		final int threadsPerAnalyzer = Math.max(1, numThreads / analyzers.size());
+		final List<TrackAnalyzer> running = new ArrayList<TrackAnalyzer>(analyzers.size());
+		final List<Runnable> tasks = new ArrayList<Runnable>(analyzers.size());
+		for (final TrackAnalyzer analyzer : analyzers) {
+			final Collection<Integer> target = analyzer.isLocal() ? trackIDs : allTrackIDs;
+			if (target.isEmpty()) {
+				continue;
 			}
+			analyzer.setNumThreads(target.size() < SMALL_BATCH_SIZE ? 1 : threadsPerAnalyzer);
+			running.add(analyzer);
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					analyzer.process(target);
+				}
+			});
+		}
+		SharedThreadPool.getInstance().invokeAll(tasks, numThreads);
+		
+		for (TrackAnalyzer analyzer : running) {
+			processingTimes.put(analyzer.getKey(), analyzer.getProcessingTime());
 			if (doLogIt)
 				logger.log("  - " + analyzer.getKey() + " in " + analyzer.getProcessingTime() + " ms.\n");
 		}
@@ -8,8 +8,7 @@
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.type.numeric.RealType;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
-import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+import fiji.plugin.trackmate.util.SpotNeighborhoodStatistics;
 
 /**
  * This {@link FeatureAnalyzer} computes both the 
@@ -23,8 +22,9 @@
  * The spots's SNR is computed a <code>(I_in - I_out) / std_in</code> where <code>std_in</code> is the standard
  * deviation computed within the spot.
  * <p>
- * <u>Important</u>: this analyzer relies on some results provided by the {@link SpotIntensityAnalyzer}
- * analyzer. Thus, it <b>must</b> be run after it.
+ * <u>Important</u>: this analyzer uses the mean intensity and standard deviation provided by the 
+ * {@link SpotIntensityAnalyzer} analyzer if it was run before. Otherwise it computes them, but 
+ * does not store them in the spot.
  *  
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> 2011 - 2012
  */
@@ -32,6 +32,8 @@
 
 	
 	protected static final double RAD_PERCENTAGE = 1f;
+
+	private final SpotNeighborhoodStatistics<T> statistics;
 	  
 	/*
 	 * CONSTRUCTOR
@@ -39,6 +41,7 @@
 	
 	public SpotContrastAndSNRAnalyzer(final ImgPlus<T> img, final Iterator<Spot> spots) {
 		super(img, spots);
+		this.statistics = new SpotNeighborhoodStatistics<T>(img);
 	}
 	
 	/*
@@ -56,30 +59,30 @@ public final void process(final Spot spot) {
 	
 	/**
 	 * Compute the contrast for the given spot.
+	 * <p>
+	 * If the spot already has its mean intensity and standard deviation, only 
+	 * the pixels of the outer ring are read. Otherwise, they are all computed 
+	 * together in one pass.
 	 */
 	private final double[] getContrastAndSNR(final Spot spot) {
 		
-		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+		final Double meanFeature = spot.getFeature(SpotIntensityAnalyzerFactory.MEAN_INTENSITY);
+		final Double stdFeature = spot.getFeature(SpotIntensityAnalyzerFactory.STANDARD_DEVIATION);
 
-		final double radius = spot.getFeature(Spot.RADIUS);
-		double radius2 = radius * radius;
-		int n_out = 0; // inner number of pixels
-		double dist2;
-		double sum_out = 0;
-		
-		// Compute mean in the outer ring
-		SpotNeighborhoodCursor<T> cursor = neighborhood.cursor();
-		while(cursor.hasNext()) {
-			cursor.fwd();
-			dist2 = cursor.getDistanceSquared();
-			if (dist2 > radius2) {
-				n_out++;
-				sum_out += cursor.get().getRealFloat();				
-			} 
+		final double mean_in;
+		final double std_in;
+		final double mean_out;
+		if (null == meanFeature || null == stdFeature) {
+			statistics.process(spot);
+			mean_in = statistics.getMean();
+			std_in = statistics.getStandardDeviation();
+			mean_out = statistics.getOuterMean();
+		} else {
+			final double radius = spot.getFeature(Spot.RADIUS);
+			mean_in = meanFeature.doubleValue();
+			std_in = stdFeature.doubleValue();
+			mean_out = statistics.getShellMean(spot, radius * radius, Double.POSITIVE_INFINITY);
 		}
-		double mean_out = sum_out / n_out;
-		double mean_in = spot.getFeature(SpotIntensityAnalyzerFactory.MEAN_INTENSITY);
-		double std_in  = spot.getFeature(SpotIntensityAnalyzerFactory.STANDARD_DEVIATION);
 
 		// Compute contrast
 		double contrast = (mean_in - mean_out) / (mean_in + mean_out);
@@ -7,8 +7,16 @@
 import java.awt.FileDialog;
 import java.awt.Frame;
 import java.awt.HeadlessException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -26,6 +34,10 @@
  *
  */
 public class IOUtils {
+
+	/** The extension of compressed TrackMate files. */
+	public static final String GZIP_EXTENSION = ".gz";
+	private static final int BUFFER_SIZE = 64 * 1024;
 	
 
 
@@ -49,7 +61,7 @@ public static File askForFileForSaving(File file, Frame parent, Logger logger) {
 			FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(File dir, String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(".xml" + GZIP_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -59,7 +71,7 @@ public boolean accept(File dir, String name) {
 				logger.log("Save data aborted.\n");
 				return null;
 			}
-			if (!selectedFile.endsWith(".xml"))
+			if (!selectedFile.endsWith(".xml") && !selectedFile.endsWith(".xml" + GZIP_EXTENSION))
 				selectedFile += ".xml";
 			file = new File(dialog.getDirectory(), selectedFile);
 		} else {
@@ -73,7 +85,7 @@ protected JDialog createDialog( Component parent ) throws HeadlessException {
 			    }
 			};
 			fileChooser.setSelectedFile(file);
-			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml", "gz");
 			fileChooser.setFileFilter(filter);
 
 			int returnVal = fileChooser.showSaveDialog(parent);
@@ -107,7 +119,7 @@ public static File askForFileForLoading(File file, String title, Frame parent, L
 			FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(File dir, String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(".xml" + GZIP_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -117,7 +129,7 @@ public boolean accept(File dir, String name) {
 				logger.log("Load data aborted.\n");
 				return null;
 			}
-			if (!selectedFile.endsWith(".xml"))
+			if (!selectedFile.endsWith(".xml") && !selectedFile.endsWith(".xml" + GZIP_EXTENSION))
 				selectedFile += ".xml";
 			file = new File(dialog.getDirectory(), selectedFile);
 		} else {
@@ -132,7 +144,7 @@ protected JDialog createDialog( Component parent ) throws HeadlessException {
 			};
 			fileChooser.setName(title);
 			fileChooser.setSelectedFile(file);
-			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml", "gz");
 			fileChooser.setFileFilter(filter);
 
 			int returnVal = fileChooser.showOpenDialog(parent);
@@ -149,6 +161,34 @@ protected JDialog createDialog( Component parent ) throws HeadlessException {
 
 
 
+	/**
+	 * Wraps the specified raw stream in a buffered stream, that is decompressed
+	 * on the fly if it starts with the gzip magic number. Plain and compressed
+	 * TrackMate files can therefore be read the same way, whatever their name.
+	 */
+	public static InputStream openInputStream(final InputStream rawStream) throws IOException {
+		final BufferedInputStream is = new BufferedInputStream(rawStream, BUFFER_SIZE);
+		is.mark(2);
+		final int magic = is.read() | (is.read() << 8);
+		is.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC) {
+			return new BufferedInputStream(new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE);
+		}
+		return is;
+	}
+
+	/**
+	 * Opens a buffered stream to write to the specified file, compressed with
+	 * gzip if the file name ends with {@value #GZIP_EXTENSION}.
+	 */
+	public static OutputStream openOutputStream(final File file) throws IOException {
+		final OutputStream os = new FileOutputStream(file);
+		if (file.getName().endsWith(GZIP_EXTENSION)) {
+			return new BufferedOutputStream(new GZIPOutputStream(os, BUFFER_SIZE), BUFFER_SIZE);
+		}
+		return new BufferedOutputStream(os, BUFFER_SIZE);
+	}
+
 	/** 
 	 * Read and return an integer attribute from a JDom {@link Element}, and substitute a default value of 0
 	 * if the attribute is not found or of the wrong type.
@@ -0,0 +1,532 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryWriter.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.VERSION;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger.StringBuilderLogger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotFeatureStore;
+
+/**
+ * Reads the TrackMate binary files written by a {@link TmBinaryWriter}.
+ * <p>
+ * Only the header of the file is read in the constructor. The model, or the
+ * part of it that lies in a time window, is read when requested, by mapping
+ * the frame chunks in memory, so only the chunks of the requested frames are
+ * read from the file.
+ * <p>
+ * When a time window cuts a track, only its edges within the window are
+ * loaded. If they make several connected components, the first one keeps the
+ * track ID, and the others get new IDs. All of them get the name, visibility
+ * and feature values of the track stored in the file. These values describe
+ * the whole track, so the track features must be computed again if they are
+ * to describe the tracks cut by the window.
+ */
+public class TmBinaryReader {
+
+	/*
+	 * FIELDS
+	 */
+
+	private final File file;
+	private final StringBuilderLogger logger = new StringBuilderLogger();
+	private boolean ok = true;
+
+	private String spaceUnits;
+	private String timeUnits;
+	private final Map<String, FeatureDeclaration> spotDeclarations = new LinkedHashMap<String, FeatureDeclaration>();
+	private final Map<String, FeatureDeclaration> edgeDeclarations = new LinkedHashMap<String, FeatureDeclaration>();
+	private final Map<String, FeatureDeclaration> trackDeclarations = new LinkedHashMap<String, FeatureDeclaration>();
+	/** The frame of each chunk, in increasing order. */
+	private int[] frames = new int[0];
+	/** The index of the first spot of each chunk, and the total number of spots. */
+	private int[] firstIndices = new int[1];
+	private long[] chunkOffsets = new long[0];
+	private long[] chunkLengths = new long[0];
+	private long trackOffset;
+	private long trackLength;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Reads the header of the specified file.
+	 */
+	public TmBinaryReader(final File file) {
+		this.file = file;
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				readHeader(raf.getChannel());
+			} finally {
+				raf.close();
+			}
+		} catch (final IOException e) {
+			ok = false;
+			logger.error("Problem reading " + file.getName() + ", it is not a valid TrackMate binary file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+		}
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns the frames stored in the file, in increasing order.
+	 */
+	public int[] getFrames() {
+		return frames.clone();
+	}
+
+	/**
+	 * Returns the number of spots stored in the file.
+	 */
+	public int getNSpots() {
+		return firstIndices[firstIndices.length - 1];
+	}
+
+	/**
+	 * Reads the whole model stored in the file.
+	 *
+	 * @return a new model, or <code>null</code> if it could not be read.
+	 */
+	public Model getModel() {
+		return getModel(Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the spots of the specified frames, and the edges and tracks
+	 * between them. Only the chunks of these frames are read from the file.
+	 *
+	 * @param minFrame the first frame to read, inclusive.
+	 * @param maxFrame the last frame to read, inclusive.
+	 * @return a new model, or <code>null</code> if it could not be read.
+	 */
+	public Model getModel(final int minFrame, final int maxFrame) {
+		if (!ok) {
+			return null;
+		}
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				return readModel(raf.getChannel(), minFrame, maxFrame);
+			} finally {
+				raf.close();
+			}
+		} catch (final IOException e) {
+			ok = false;
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			return null;
+		}
+	}
+
+	/**
+	 * @return  a string containing a log of what went wrong while reading.
+	 */
+	public String getErrorMessage() {
+		return logger.toString();
+	}
+
+	/**
+	 * @return <code>true</code> if reading was ok.
+	 */
+	public boolean isReadingOk() {
+		return ok;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void readHeader(final FileChannel channel) throws IOException {
+		final long size = channel.size();
+		if (size < 20) {
+			throw new IOException("File is too short.");
+		}
+		final ByteBuffer start = map(channel, 0, 8);
+		if (start.getInt() != MAGIC) {
+			throw new IOException("Not a TrackMate binary file.");
+		}
+		final int version = start.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported format version: " + version + ".");
+		}
+		final ByteBuffer end = map(channel, size - 12, 12);
+		final long headerOffset = end.getLong();
+		if (end.getInt() != MAGIC || headerOffset < 8 || headerOffset > size - 12) {
+			throw new IOException("File is truncated.");
+		}
+
+		final ByteBuffer header = map(channel, headerOffset, size - 12 - headerOffset);
+		spaceUnits = readString(header);
+		timeUnits = readString(header);
+		readDeclarations(header, spotDeclarations);
+		readDeclarations(header, edgeDeclarations);
+		readDeclarations(header, trackDeclarations);
+
+		final int nFrames = header.getInt();
+		frames = new int[nFrames];
+		firstIndices = new int[nFrames + 1];
+		chunkOffsets = new long[nFrames];
+		chunkLengths = new long[nFrames];
+		for (int f = 0; f < nFrames; f++) {
+			frames[f] = header.getInt();
+			firstIndices[f + 1] = firstIndices[f] + header.getInt();
+			chunkOffsets[f] = header.getLong();
+			chunkLengths[f] = header.getLong();
+		}
+		trackOffset = header.getLong();
+		trackLength = header.getLong();
+	}
+
+	private Model readModel(final FileChannel channel, final int minFrame, final int maxFrame) throws IOException {
+		final Model model = new Model();
+		model.setPhysicalUnits(spaceUnits, timeUnits);
+		final FeatureModel fm = model.getFeatureModel();
+		try {
+			fm.declareSpotFeatures(spotDeclarations.keySet(), names(spotDeclarations), shortNames(spotDeclarations), dimensions(spotDeclarations));
+			fm.declareEdgeFeatures(edgeDeclarations.keySet(), names(edgeDeclarations), shortNames(edgeDeclarations), dimensions(edgeDeclarations));
+			fm.declareTrackFeatures(trackDeclarations.keySet(), names(trackDeclarations), shortNames(trackDeclarations), dimensions(trackDeclarations));
+		} catch (final IllegalArgumentException iae) {
+			ok = false;
+			logger.error("Problem declaring the features: " + iae.getMessage() + '\n');
+		}
+
+		// The chunks in the window
+		int first = 0;
+		while (first < frames.length && frames[first] < minFrame) {
+			first++;
+		}
+		int last = first;
+		while (last < frames.length && frames[last] <= maxFrame) {
+			last++;
+		}
+		final int lowIndex = firstIndices[first];
+		final int highIndex = firstIndices[last];
+		final Spot[] spots = new Spot[highIndex - lowIndex];
+
+		/*
+		 * Spots. The buffers are kept positioned on the edges, to read them
+		 * once all the spots are created.
+		 */
+
+		final Map<Integer, Set<Spot>> content = new HashMap<Integer, Set<Spot>>(last - first);
+		final List<ByteBuffer> edgeBuffers = new ArrayList<ByteBuffer>(last - first);
+		for (int f = first; f < last; f++) {
+			final ByteBuffer buffer = map(channel, chunkOffsets[f], chunkLengths[f]);
+			final int n = buffer.getInt();
+			final int[] ids = readInts(buffer, n);
+			final String[] spotNames = readStrings(buffer, n);
+			final int offset = firstIndices[f] - lowIndex;
+			for (int i = 0; i < n; i++) {
+				final Spot spot = new Spot(ids[i]);
+				spot.setName(spotNames[i].length() == 0 ? "ID" + ids[i] : spotNames[i]);
+				spots[offset + i] = spot;
+			}
+			final int nColumns = buffer.getInt();
+			for (int c = 0; c < nColumns; c++) {
+				final String feature = readString(buffer);
+				final double[] values = readDoubles(buffer, n);
+				for (int i = 0; i < n; i++) {
+					if (!SpotFeatureStore.isMissing(values[i])) {
+						spots[offset + i].putFeature(feature, values[i]);
+					}
+				}
+			}
+			final Set<Spot> frameSpots = new HashSet<Spot>(n);
+			for (int i = 0; i < n; i++) {
+				frameSpots.add(spots[offset + i]);
+			}
+			content.put(frames[f], frameSpots);
+			edgeBuffers.add(buffer);
+		}
+		model.setSpots(SpotCollection.fromMap(content), false);
+
+		/*
+		 * Edges, keeping only the ones within the window.
+		 */
+
+		final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		final Map<Integer, List<DefaultWeightedEdge>> trackEdges = new HashMap<Integer, List<DefaultWeightedEdge>>();
+		final UnionFind components = new UnionFind(spots.length);
+		final Map<DefaultWeightedEdge, Integer> edgeSources = new HashMap<DefaultWeightedEdge, Integer>();
+		for (final ByteBuffer buffer : edgeBuffers) {
+			final int nEdges = buffer.getInt();
+			final int[] sources = readInts(buffer, nEdges);
+			final int[] targets = readInts(buffer, nEdges);
+			final double[] weights = readDoubles(buffer, nEdges);
+			final DefaultWeightedEdge[] edges = new DefaultWeightedEdge[nEdges];
+			for (int i = 0; i < nEdges; i++) {
+				final int source = sources[i] - lowIndex;
+				final int target = targets[i] - lowIndex;
+				if (source < 0 || target < 0 || source >= spots.length || target >= spots.length) {
+					continue;
+				}
+				graph.addVertex(spots[source]);
+				graph.addVertex(spots[target]);
+				final DefaultWeightedEdge edge = graph.addEdge(spots[source], spots[target]);
+				if (null == edge) {
+					ok = false;
+					logger.error("Bad edge found between spots " + spots[source].ID() + " and " + spots[target].ID() + ".\n");
+					continue;
+				}
+				graph.setEdgeWeight(edge, weights[i]);
+				components.union(source, target);
+				edgeSources.put(edge, source);
+				edges[i] = edge;
+			}
+
+			final int nColumns = buffer.getInt();
+			for (int c = 0; c < nColumns; c++) {
+				final String feature = readString(buffer);
+				final double[] values = readDoubles(buffer, nEdges);
+				for (int i = 0; i < nEdges; i++) {
+					if (null != edges[i] && !SpotFeatureStore.isMissing(values[i])) {
+						fm.putEdgeFeature(edges[i], feature, values[i]);
+					}
+				}
+			}
+
+			final int nRuns = buffer.getInt();
+			final int[] runTracks = readInts(buffer, nRuns);
+			final int[] runOffsets = readInts(buffer, nRuns + 1);
+			for (int r = 0; r < nRuns; r++) {
+				List<DefaultWeightedEdge> list = trackEdges.get(runTracks[r]);
+				for (int i = runOffsets[r]; i < runOffsets[r + 1]; i++) {
+					if (null == edges[i]) {
+						continue;
+					}
+					if (null == list) {
+						list = new ArrayList<DefaultWeightedEdge>();
+						trackEdges.put(runTracks[r], list);
+					}
+					list.add(edges[i]);
+				}
+			}
+		}
+
+		/*
+		 * Tracks.
+		 */
+
+		final ByteBuffer buffer = map(channel, trackOffset, trackLength);
+		final int nTracks = buffer.getInt();
+		final int[] ids = readInts(buffer, nTracks);
+		final boolean[] visible = new boolean[nTracks];
+		for (int t = 0; t < nTracks; t++) {
+			visible[t] = buffer.get() != 0;
+		}
+		final String[] trackNames = readStrings(buffer, nTracks);
+
+		int nextID = 0;
+		for (final int id : ids) {
+			nextID = Math.max(nextID, id + 1);
+		}
+		final Map<Integer, Set<Spot>> connectedVertexSet = new HashMap<Integer, Set<Spot>>();
+		final Map<Integer, Set<DefaultWeightedEdge>> connectedEdgeSet = new HashMap<Integer, Set<DefaultWeightedEdge>>();
+		final Map<Integer, Boolean> visibility = new HashMap<Integer, Boolean>();
+		final Map<Integer, String> names = new HashMap<Integer, String>();
+		final Map<Integer, List<Integer>> trackComponents = new HashMap<Integer, List<Integer>>();
+		for (int t = 0; t < nTracks; t++) {
+			final List<DefaultWeightedEdge> edges = trackEdges.get(t);
+			if (null == edges) {
+				continue;
+			}
+			// Split the track in connected components
+			final Map<Integer, Integer> componentIDs = new HashMap<Integer, Integer>();
+			for (final DefaultWeightedEdge edge : edges) {
+				final int root = components.find(edgeSources.get(edge));
+				Integer id = componentIDs.get(root);
+				if (null == id) {
+					id = componentIDs.isEmpty() ? ids[t] : nextID++;
+					componentIDs.put(root, id);
+					connectedVertexSet.put(id, new HashSet<Spot>());
+					connectedEdgeSet.put(id, new HashSet<DefaultWeightedEdge>());
+					visibility.put(id, visible[t]);
+					names.put(id, trackNames[t]);
+				}
+				connectedEdgeSet.get(id).add(edge);
+				connectedVertexSet.get(id).add(graph.getEdgeSource(edge));
+				connectedVertexSet.get(id).add(graph.getEdgeTarget(edge));
+			}
+			trackComponents.put(t, new ArrayList<Integer>(componentIDs.values()));
+		}
+		model.getTrackModel().from(graph, connectedVertexSet, connectedEdgeSet, visibility, names);
+
+		final int nColumns = buffer.getInt();
+		for (int c = 0; c < nColumns; c++) {
+			final String feature = readString(buffer);
+			final double[] values = readDoubles(buffer, nTracks);
+			for (final int t : trackComponents.keySet()) {
+				if (SpotFeatureStore.isMissing(values[t])) {
+					continue;
+				}
+				for (final Integer id : trackComponents.get(t)) {
+					fm.putTrackFeature(id, feature, values[t]);
+				}
+			}
+		}
+		return model;
+	}
+
+	private static final ByteBuffer map(final FileChannel channel, final long position, final long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Section of " + size + " bytes is too large to be mapped.");
+		}
+		if (position < 0 || position + size > channel.size()) {
+			throw new IOException("File is truncated.");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+	private static final int[] readInts(final ByteBuffer buffer, final int n) {
+		final int[] values = new int[n];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * n);
+		return values;
+	}
+
+	private static final double[] readDoubles(final ByteBuffer buffer, final int n) {
+		final double[] values = new double[n];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * n);
+		return values;
+	}
+
+	private static final String readString(final ByteBuffer buffer) throws UnsupportedEncodingException {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static final String[] readStrings(final ByteBuffer buffer, final int n) throws UnsupportedEncodingException {
+		final int[] offsets = readInts(buffer, n + 1);
+		final byte[] bytes = new byte[offsets[n]];
+		buffer.get(bytes);
+		final String[] strings = new String[n];
+		for (int i = 0; i < n; i++) {
+			strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], "UTF-8");
+		}
+		return strings;
+	}
+
+	private void readDeclarations(final ByteBuffer buffer, final Map<String, FeatureDeclaration> declarations) throws IOException {
+		final int n = buffer.getInt();
+		for (int i = 0; i < n; i++) {
+			final String feature = readString(buffer);
+			final String name = readString(buffer);
+			final String shortName = readString(buffer);
+			final String dimension = readString(buffer);
+			Dimension dim = null;
+			if (null != dimension) {
+				try {
+					dim = Dimension.valueOf(dimension);
+				} catch (final IllegalArgumentException iae) {
+					logger.error("Unknown dimension " + dimension + " for feature " + feature + ".\n");
+					ok = false;
+				}
+			}
+			declarations.put(feature, new FeatureDeclaration(name, shortName, dim));
+		}
+	}
+
+	private static final Map<String, String> names(final Map<String, FeatureDeclaration> declarations) {
+		final Map<String, String> map = new HashMap<String, String>(declarations.size());
+		for (final String feature : declarations.keySet()) {
+			map.put(feature, declarations.get(feature).name);
+		}
+		return map;
+	}
+
+	private static final Map<String, String> shortNames(final Map<String, FeatureDeclaration> declarations) {
+		final Map<String, String> map = new HashMap<String, String>(declarations.size());
+		for (final String feature : declarations.keySet()) {
+			map.put(feature, declarations.get(feature).shortName);
+		}
+		return map;
+	}
+
+	private static final Map<String, Dimension> dimensions(final Map<String, FeatureDeclaration> declarations) {
+		final Map<String, Dimension> map = new HashMap<String, Dimension>(declarations.size());
+		for (final String feature : declarations.keySet()) {
+			map.put(feature, declarations.get(feature).dimension);
+		}
+		return map;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class FeatureDeclaration {
+
+		private final String name;
+		private final String shortName;
+		private final Dimension dimension;
+
+		private FeatureDeclaration(final String name, final String shortName, final Dimension dimension) {
+			this.name = name;
+			this.shortName = shortName;
+			this.dimension = dimension;
+		}
+	}
+
+	/**
+	 * A disjoint-set forest over the spot indices, to find the connected
+	 * components of the tracks cut by a time window.
+	 */
+	private static final class UnionFind {
+
+		private final int[] parents;
+
+		private UnionFind(final int size) {
+			parents = new int[size];
+			for (int i = 0; i < size; i++) {
+				parents[i] = i;
+			}
+		}
+
+		private int find(int i) {
+			while (parents[i] != i) {
+				parents[i] = parents[parents[i]];
+				i = parents[i];
+			}
+			return i;
+		}
+
+		private void union(final int i, final int j) {
+			final int ri = find(i);
+			final int rj = find(j);
+			if (ri != rj) {
+				parents[ri] = rj;
+			}
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotFeatureStore;
+import fiji.plugin.trackmate.SpotFeatureStore.Column;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Writes a TrackMate {@link Model} to a compact binary file, meant to be read
+ * back with a {@link TmBinaryReader} by analysis pipelines, without parsing
+ * XML. Unlike the XML files, these files do not store the settings nor the GUI
+ * state.
+ * <p>
+ * The file is made of one chunk per frame, followed by the track section and
+ * the header, that ends with its own offset in the file:
+ * <ul>
+ * <li>A frame chunk stores the IDs and names of the spots of the frame, then
+ * one column of <code>double</code>s per feature set for at least one spot of
+ * the frame. It then stores the edges whose earliest spot belongs to the
+ * frame, as arrays of source and target spot indices, weights and feature
+ * columns. Edges are grouped by track, and the track of each group is given by
+ * an offset list.
+ * <li>The track section stores the ID, name, visibility and feature values of
+ * each track.
+ * <li>The header stores the physical units, the feature declarations and the
+ * frame table, that gives the position of each chunk in the file.
+ * </ul>
+ * Spots are numbered in the order they are written, frame by frame, so that
+ * the spots of a time window have contiguous indices. Missing feature values
+ * are stored as {@link SpotFeatureStore#MISSING}. All values are big-endian.
+ */
+public class TmBinaryWriter {
+
+	/** The 4 bytes that start and end a TrackMate binary file: "TMBN". */
+	public static final int MAGIC = 0x544d424e;
+	/** The version of the format written by this class. */
+	public static final int VERSION = 1;
+	/** The file extension of TrackMate binary files. */
+	public static final String EXTENSION = ".tmb";
+
+	/*
+	 * FIELDS
+	 */
+
+	private final File file;
+	private final Logger logger;
+	private Model model;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter(final File file) {
+		this(file, Logger.VOID_LOGGER);
+	}
+
+	/**
+	 * Creates a new binary file writer for TrackMate, that reports its
+	 * progress to the specified logger.
+	 *
+	 * @param file the file to write to, will be overwritten.
+	 * @param logger the {@link Logger} to report progress to.
+	 */
+	public TmBinaryWriter(final File file, final Logger logger) {
+		this.file = file;
+		this.logger = logger;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Sets the model to write. The model is only read when the file is
+	 * written, and must not be modified in between.
+	 *
+	 * @param model the {@link Model} to write.
+	 */
+	public void appendModel(final Model model) {
+		this.model = model;
+	}
+
+	/**
+	 * Writes the model to the file. A model must be appended first.
+	 */
+	public void writeToFile() throws IOException {
+		if (null == model) {
+			throw new IllegalStateException("No model was appended.");
+		}
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			write(out, fos.getChannel());
+			out.flush();
+		} finally {
+			fos.close();
+			logger.setProgress(0);
+			logger.setStatus("");
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void write(final DataOutputStream out, final FileChannel channel) throws IOException {
+		final SpotCollection spots = model.getSpots();
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		/*
+		 * Number the spots, frame by frame.
+		 */
+
+		final int nFrames = spots.keySet().size();
+		final int[] frames = new int[nFrames];
+		final int[] firstIndices = new int[nFrames + 1];
+		final List<int[]> storeIndices = new ArrayList<int[]>(nFrames);
+		final List<Spot[]> frameSpots = new ArrayList<Spot[]>(nFrames);
+		int maxStoreIndex = -1;
+		int f = 0;
+		for (final Integer frame : spots.keySet()) {
+			final Spot[] content = new Spot[spots.getNSpots(frame, false)];
+			final int[] indices = new int[content.length];
+			int n = 0;
+			for (final Iterator<Spot> it = spots.iterator(frame, false); it.hasNext() && n < content.length;) {
+				final Spot spot = it.next();
+				content[n] = spot;
+				indices[n] = spot.getStoreIndex();
+				maxStoreIndex = Math.max(maxStoreIndex, indices[n]);
+				n++;
+			}
+			frames[f] = frame;
+			firstIndices[f + 1] = firstIndices[f] + n;
+			frameSpots.add(n == content.length ? content : Arrays.copyOf(content, n));
+			storeIndices.add(n == content.length ? indices : Arrays.copyOf(indices, n));
+			f++;
+		}
+		final int[] spotIndices = new int[maxStoreIndex + 1];
+		Arrays.fill(spotIndices, -1);
+		for (f = 0; f < nFrames; f++) {
+			final int[] indices = storeIndices.get(f);
+			for (int i = 0; i < indices.length; i++) {
+				spotIndices[indices[i]] = firstIndices[f] + i;
+			}
+		}
+
+		/*
+		 * Dispatch the edges to the chunk of their earliest spot, track by
+		 * track.
+		 */
+
+		final List<Integer> trackIDs = new ArrayList<Integer>(trackModel.trackIDs(false));
+		final int nTracks = trackIDs.size();
+		final List<List<DefaultWeightedEdge>> chunkEdges = new ArrayList<List<DefaultWeightedEdge>>(nFrames);
+		final List<IntList> chunkEdgeTracks = new ArrayList<IntList>(nFrames);
+		for (f = 0; f < nFrames; f++) {
+			chunkEdges.add(new ArrayList<DefaultWeightedEdge>());
+			chunkEdgeTracks.add(new IntList());
+		}
+		for (int t = 0; t < nTracks; t++) {
+			for (final DefaultWeightedEdge edge : trackModel.trackEdges(trackIDs.get(t))) {
+				final int source = indexOf(trackModel.getEdgeSource(edge), spotIndices);
+				final int target = indexOf(trackModel.getEdgeTarget(edge), spotIndices);
+				if (source < 0 || target < 0) {
+					continue;
+				}
+				final int chunk = chunkOf(Math.min(source, target), firstIndices);
+				chunkEdges.get(chunk).add(edge);
+				chunkEdgeTracks.get(chunk).add(t);
+			}
+		}
+
+		/*
+		 * Frame chunks.
+		 */
+
+		final long[] chunkOffsets = new long[nFrames];
+		final long[] chunkLengths = new long[nFrames];
+		final Collection<String> edgeFeatures = fm.getEdgeFeatures();
+		logger.setStatus("Writing frames...");
+		for (f = 0; f < nFrames; f++) {
+			chunkOffsets[f] = position(out, channel);
+
+			// Spots
+			final Spot[] content = frameSpots.get(f);
+			final int n = content.length;
+			out.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				out.writeInt(content[i].ID());
+			}
+			final String[] names = new String[n];
+			for (int i = 0; i < n; i++) {
+				names[i] = content[i].getName();
+			}
+			writeStrings(out, names);
+
+			final int[] indices = storeIndices.get(f);
+			final double[] values = new double[n];
+			final List<Column> columns = new ArrayList<Column>();
+			for (final Column column : SpotFeatureStore.getInstance().getColumns()) {
+				column.get(indices, values);
+				if (!allMissing(values)) {
+					columns.add(column);
+				}
+			}
+			out.writeInt(columns.size());
+			for (final Column column : columns) {
+				writeString(out, column.getFeature());
+				column.get(indices, values);
+				writeDoubles(out, values);
+			}
+
+			// Edges
+			final List<DefaultWeightedEdge> edges = chunkEdges.get(f);
+			final int[] edgeTracks = chunkEdgeTracks.get(f).toArray();
+			final int nEdges = edges.size();
+			out.writeInt(nEdges);
+			for (final DefaultWeightedEdge edge : edges) {
+				out.writeInt(indexOf(trackModel.getEdgeSource(edge), spotIndices));
+			}
+			for (final DefaultWeightedEdge edge : edges) {
+				out.writeInt(indexOf(trackModel.getEdgeTarget(edge), spotIndices));
+			}
+			final double[] edgeValues = new double[nEdges];
+			for (int i = 0; i < nEdges; i++) {
+				edgeValues[i] = trackModel.getEdgeWeight(edges.get(i));
+			}
+			writeDoubles(out, edgeValues);
+			out.writeInt(edgeFeatures.size());
+			for (final String feature : edgeFeatures) {
+				writeString(out, feature);
+				for (int i = 0; i < nEdges; i++) {
+					final Double val = fm.getEdgeFeature(edges.get(i), feature);
+					edgeValues[i] = null == val ? SpotFeatureStore.MISSING : val.doubleValue();
+				}
+				writeDoubles(out, edgeValues);
+			}
+
+			// Track offset list
+			final IntList runTracks = new IntList();
+			final IntList runOffsets = new IntList();
+			for (int i = 0; i < nEdges; i++) {
+				if (i == 0 || edgeTracks[i] != edgeTracks[i - 1]) {
+					runTracks.add(edgeTracks[i]);
+					runOffsets.add(i);
+				}
+			}
+			runOffsets.add(nEdges);
+			out.writeInt(runTracks.size());
+			writeInts(out, runTracks.toArray());
+			writeInts(out, runOffsets.toArray());
+
+			chunkLengths[f] = position(out, channel) - chunkOffsets[f];
+			logger.setProgress((double) (f + 1) / (nFrames + 1));
+		}
+
+		/*
+		 * Track section.
+		 */
+
+		logger.setStatus("Writing tracks...");
+		final long trackOffset = position(out, channel);
+		out.writeInt(nTracks);
+		final int[] ids = new int[nTracks];
+		final String[] trackNames = new String[nTracks];
+		for (int t = 0; t < nTracks; t++) {
+			ids[t] = trackIDs.get(t);
+			trackNames[t] = trackModel.name(ids[t]);
+		}
+		writeInts(out, ids);
+		for (int t = 0; t < nTracks; t++) {
+			out.writeBoolean(trackModel.isVisible(ids[t]));
+		}
+		writeStrings(out, trackNames);
+		final Collection<String> trackFeatures = fm.getTrackFeatures();
+		final double[] trackValues = new double[nTracks];
+		out.writeInt(trackFeatures.size());
+		for (final String feature : trackFeatures) {
+			writeString(out, feature);
+			for (int t = 0; t < nTracks; t++) {
+				final Double val = fm.getTrackFeature(ids[t], feature);
+				trackValues[t] = null == val ? SpotFeatureStore.MISSING : val.doubleValue();
+			}
+			writeDoubles(out, trackValues);
+		}
+		final long trackLength = position(out, channel) - trackOffset;
+
+		/*
+		 * Header.
+		 */
+
+		final long headerOffset = position(out, channel);
+		writeString(out, model.getSpaceUnits());
+		writeString(out, model.getTimeUnits());
+		writeDeclarations(out, fm.getSpotFeatures(), fm.getSpotFeatureNames(), fm.getSpotFeatureShortNames(), fm.getSpotFeatureDimensions());
+		writeDeclarations(out, fm.getEdgeFeatures(), fm.getEdgeFeatureNames(), fm.getEdgeFeatureShortNames(), fm.getEdgeFeatureDimensions());
+		writeDeclarations(out, fm.getTrackFeatures(), fm.getTrackFeatureNames(), fm.getTrackFeatureShortNames(), fm.getTrackFeatureDimensions());
+		out.writeInt(nFrames);
+		for (f = 0; f < nFrames; f++) {
+			out.writeInt(frames[f]);
+			out.writeInt(firstIndices[f + 1] - firstIndices[f]);
+			out.writeLong(chunkOffsets[f]);
+			out.writeLong(chunkLengths[f]);
+		}
+		out.writeLong(trackOffset);
+		out.writeLong(trackLength);
+
+		out.writeLong(headerOffset);
+		out.writeInt(MAGIC);
+		logger.setProgress(1);
+	}
+
+	/**
+	 * Returns the position in the file of the next byte to be written.
+	 */
+	private static final long position(final DataOutputStream out, final FileChannel channel) throws IOException {
+		out.flush();
+		return channel.position();
+	}
+
+	private static final int indexOf(final Spot spot, final int[] spotIndices) {
+		final int storeIndex = spot.getStoreIndex();
+		return storeIndex < spotIndices.length ? spotIndices[storeIndex] : -1;
+	}
+
+	/**
+	 * Returns the frame chunk that holds the spot with the specified index.
+	 */
+	private static final int chunkOf(final int spotIndex, final int[] firstIndices) {
+		int low = 0;
+		int high = firstIndices.length - 2;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (firstIndices[mid] <= spotIndex) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private static final boolean allMissing(final double[] values) {
+		for (final double val : values) {
+			if (!SpotFeatureStore.isMissing(val)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+		for (final int val : values) {
+			out.writeInt(val);
+		}
+	}
+
+	/**
+	 * Writes the raw bits of the values, so that {@link SpotFeatureStore#MISSING}
+	 * is not replaced by the canonical NaN.
+	 */
+	private static final void writeDoubles(final DataOutputStream out, final double[] values) throws IOException {
+		for (final double val : values) {
+			out.writeLong(Double.doubleToRawLongBits(val));
+		}
+	}
+
+	/**
+	 * Writes a string as its UTF-8 byte length followed by its bytes. A
+	 * <code>null</code> string is written with a length of -1.
+	 */
+	private static final void writeString(final DataOutputStream out, final String str) throws IOException {
+		if (null == str) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes a column of strings as the offsets of each string in a block of
+	 * UTF-8 bytes, followed by the block. <code>null</code> strings are
+	 * written as empty strings.
+	 */
+	private static final void writeStrings(final DataOutputStream out, final String[] strings) throws IOException {
+		final byte[][] bytes = new byte[strings.length][];
+		final int[] offsets = new int[strings.length + 1];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = null == strings[i] ? new byte[0] : strings[i].getBytes("UTF-8");
+			offsets[i + 1] = offsets[i] + bytes[i].length;
+		}
+		writeInts(out, offsets);
+		for (final byte[] b : bytes) {
+			out.write(b);
+		}
+	}
+
+	private static final void writeDeclarations(final DataOutputStream out, final Collection<String> features, final Map<String, String> names, final Map<String, String> shortNames, final Map<String, Dimension> dimensions) throws IOException {
+		out.writeInt(features.size());
+		for (final String feature : features) {
+			writeString(out, feature);
+			writeString(out, names.get(feature));
+			writeString(out, shortNames.get(feature));
+			final Dimension dimension = dimensions.get(feature);
+			writeString(out, null == dimension ? null : dimension.name());
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A growable list of primitive ints.
+	 */
+	private static final class IntList {
+
+		private int[] data = new int[16];
+		private int size = 0;
+
+		private void add(final int val) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, 2 * size);
+			}
+			data[size++] = val;
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+}
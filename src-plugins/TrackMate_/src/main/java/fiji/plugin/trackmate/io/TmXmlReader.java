@@ -169,6 +169,15 @@ public TmXmlReader(final File file) {
 		this.root = r;
 	}
 
+	/**
+	 * Initializes this reader on an already parsed root element, for subclasses
+	 * that parse the file themselves.
+	 */
+	protected TmXmlReader(final File file, final Element root) {
+		this.file = file;
+		this.root = root;
+	}
+
 	/*
 	 * PUBLIC METHODS
 	 */
@@ -882,7 +891,7 @@ private Spot createSpotFrom(final Element spotEl) {
 		return spot;
 	}
 
-	private void readFeatureDeclarations(final Element modelElement, final Model model) {
+	protected void readFeatureDeclarations(final Element modelElement, final Model model) {
 
 		final FeatureModel fm = model.getFeatureModel();
 		final Element featuresElement = modelElement.getChild(FEATURE_DECLARATIONS_ELEMENT_KEY);
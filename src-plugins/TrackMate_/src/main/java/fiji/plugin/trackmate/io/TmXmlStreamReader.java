@@ -0,0 +1,628 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlReader} that streams the file instead of building its whole
+ * document in memory.
+ * <p>
+ * The model is built while the file is read: spots are added to their frame as
+ * they are met, and the track graph and the feature values are filled from the
+ * edge and track elements. The other sections of the file are small, and are
+ * loaded as JDOM elements so that the {@link TmXmlReader} methods can read
+ * them.
+ * <p>
+ * The file is read in the constructor. It can be compressed with gzip,
+ * whatever its name is. This reader can only read files of the current format;
+ * use {@link #readVersion(File)} to pick the right reader for older files.
+ */
+public class TmXmlStreamReader extends TmXmlReader {
+
+	/** Report progress every so many spots. */
+	private static final int PROGRESS_STEP = 10000;
+
+	/** The logger to report progress to. */
+	private final Logger progressLogger;
+	/** The model read from the file, or <code>null</code> if there is none. */
+	private Model model;
+	/** Counts the bytes read from the file, to report progress. */
+	private CountingInputStream counter;
+	private long fileLength;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Reads the specified file.
+	 */
+	public TmXmlStreamReader(final File file) {
+		this(file, Logger.VOID_LOGGER);
+	}
+
+	/**
+	 * Reads the specified file, reporting progress to the specified logger.
+	 */
+	public TmXmlStreamReader(final File file, final Logger progressLogger) {
+		super(file, new Element(ROOT_ELEMENT_KEY));
+		this.progressLogger = progressLogger;
+		read();
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns the version of TrackMate that wrote the specified file, reading
+	 * only its root element.
+	 *
+	 * @return the version string, or <code>null</code> if the file cannot be
+	 * read or is not a TrackMate file.
+	 */
+	public static String readVersion(final File file) {
+		try {
+			final InputStream is = IOUtils.openInputStream(new FileInputStream(file));
+			try {
+				final XMLStreamReader xml = createXMLInputFactory().createXMLStreamReader(is);
+				xml.nextTag();
+				if (!ROOT_ELEMENT_KEY.equals(xml.getLocalName())) {
+					return null;
+				}
+				return xml.getAttributeValue(null, PLUGIN_VERSION_ATTRIBUTE_NAME);
+			} finally {
+				is.close();
+			}
+		} catch (final XMLStreamException e) {
+			return null;
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the model read from the file. Unlike for the {@link TmXmlReader},
+	 * the same instance is returned on every call.
+	 *
+	 * @return the model, or <code>null</code> if the file has no model section.
+	 */
+	@Override
+	public Model getModel() {
+		return model;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static XMLInputFactory createXMLInputFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		return factory;
+	}
+
+	private void read() {
+		InputStream is = null;
+		try {
+			fileLength = file.length();
+			counter = new CountingInputStream(new FileInputStream(file));
+			is = IOUtils.openInputStream(counter);
+			final XMLStreamReader xml = createXMLInputFactory().createXMLStreamReader(is);
+
+			xml.nextTag();
+			if (!ROOT_ELEMENT_KEY.equals(xml.getLocalName())) {
+				throw new XMLStreamException("Unexpected root element: " + xml.getLocalName() + ".", xml.getLocation());
+			}
+			copyAttributes(xml, root);
+
+			while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (MODEL_ELEMENT_KEY.equals(xml.getLocalName())) {
+					readModel(xml);
+				} else {
+					root.addContent(readElement(xml));
+				}
+			}
+			xml.close();
+
+		} catch (final XMLStreamException e) {
+			ok = false;
+			logger.error("Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+		} catch (final IOException e) {
+			ok = false;
+			logger.error("Problem reading " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+		} finally {
+			if (null != is) {
+				try {
+					is.close();
+				} catch (final IOException e) {
+					// Nothing left to read.
+				}
+			}
+			progressLogger.setProgress(0);
+			progressLogger.setStatus("");
+		}
+	}
+
+	/**
+	 * Reads the model element the reader is on, and all its content.
+	 */
+	private void readModel(final XMLStreamReader xml) throws XMLStreamException {
+		model = new Model();
+		model.setPhysicalUnits(xml.getAttributeValue(null, SPATIAL_UNITS_ATTRIBUTE_NAME), xml.getAttributeValue(null, TIME_UNITS_ATTRIBUTE_NAME));
+
+		final TrackReader tracks = new TrackReader();
+		Set<Integer> filteredTrackIDs = null;
+		boolean foundDeclarations = false;
+		boolean foundSpots = false;
+
+		while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			final String name = xml.getLocalName();
+
+			if (FEATURE_DECLARATIONS_ELEMENT_KEY.equals(name)) {
+				final Element modelElement = new Element(MODEL_ELEMENT_KEY);
+				modelElement.addContent(readElement(xml));
+				readFeatureDeclarations(modelElement, model);
+				foundDeclarations = true;
+
+			} else if (SPOT_COLLECTION_ELEMENT_KEY.equals(name)) {
+				model.setSpots(readSpots(xml), false);
+				foundSpots = true;
+
+			} else if (TRACK_COLLECTION_ELEMENT_KEY.equals(name)) {
+				tracks.read(xml);
+
+			} else if (FILTERED_TRACK_ELEMENT_KEY.equals(name)) {
+				filteredTrackIDs = readFilteredTrackIDs(xml);
+
+			} else {
+				skipElement(xml);
+			}
+		}
+
+		if (!foundDeclarations) {
+			logger.error("Could not find feature declarations in file.\n");
+			ok = false;
+		}
+		if (!foundSpots) {
+			logger.error("Could not find the spot collection in file.\n");
+			ok = false;
+			model.setSpots(new SpotCollection(), false);
+		}
+		if (null == filteredTrackIDs) {
+			logger.error("Could not find the filtered track IDs in file.\n");
+			ok = false;
+			filteredTrackIDs = new HashSet<Integer>();
+		}
+		tracks.passToModel(filteredTrackIDs);
+	}
+
+	/**
+	 * Reads the spot collection element the reader is on, frame by frame.
+	 */
+	private SpotCollection readSpots(final XMLStreamReader xml) throws XMLStreamException {
+		progressLogger.setStatus("Reading spots...");
+		int nSpots = 16;
+		try {
+			nSpots = Integer.parseInt(xml.getAttributeValue(null, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME));
+		} catch (final NumberFormatException nfe) {
+			// Only used to size the cache.
+		}
+		cache = new ConcurrentHashMap<Integer, Spot>(nSpots);
+		final Map<Integer, Set<Spot>> content = new HashMap<Integer, Set<Spot>>();
+
+		int nRead = 0;
+		while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals(xml.getLocalName())) {
+				skipElement(xml);
+				continue;
+			}
+
+			final int frame;
+			try {
+				frame = Integer.parseInt(xml.getAttributeValue(null, FRAME_ATTRIBUTE_NAME));
+			} catch (final NumberFormatException nfe) {
+				logger.error("Cannot read the frame of the element " + xml.getLocalName() + ", skipping its spots.\n");
+				ok = false;
+				skipElement(xml);
+				continue;
+			}
+
+			final Set<Spot> spots = new HashSet<Spot>();
+			while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (SPOT_ELEMENT_KEY.equals(xml.getLocalName())) {
+					final Spot spot = createSpot(xml);
+					if (null != spot) {
+						spots.add(spot);
+						cache.put(spot.ID(), spot);
+					}
+					if (++nRead % PROGRESS_STEP == 0) {
+						reportProgress();
+					}
+				}
+				skipElement(xml);
+			}
+			content.put(frame, spots);
+		}
+		return SpotCollection.fromMap(content);
+	}
+
+	/**
+	 * Creates a spot from the attributes of the spot element the reader is on.
+	 */
+	private Spot createSpot(final XMLStreamReader xml) {
+		final int ID;
+		try {
+			ID = Integer.parseInt(xml.getAttributeValue(null, SPOT_ID_ATTRIBUTE_NAME));
+		} catch (final NumberFormatException nfe) {
+			logger.error("Found a spot with an invalid ID at line " + xml.getLocation().getLineNumber() + ". Skipping.\n");
+			ok = false;
+			return null;
+		}
+		final Spot spot = new Spot(ID);
+
+		String name = xml.getAttributeValue(null, SPOT_NAME_ATTRIBUTE_NAME);
+		if (null == name || name.equals("")) {
+			name = "ID" + ID;
+		}
+		spot.setName(name);
+
+		for (int i = 0; i < xml.getAttributeCount(); i++) {
+			final String feature = xml.getAttributeLocalName(i);
+			if (feature.equals(SPOT_NAME_ATTRIBUTE_NAME) || feature.equals(SPOT_ID_ATTRIBUTE_NAME)) {
+				continue;
+			}
+			try {
+				spot.putFeature(feature, Double.parseDouble(xml.getAttributeValue(i)));
+			} catch (final NumberFormatException nfe) {
+				logger.error("Cannot read the feature " + feature + " of the spot " + ID + ".\n");
+				ok = false;
+			}
+		}
+		return spot;
+	}
+
+	/**
+	 * Reads the filtered track IDs element the reader is on.
+	 */
+	private Set<Integer> readFilteredTrackIDs(final XMLStreamReader xml) throws XMLStreamException {
+		final Set<Integer> trackIDs = new HashSet<Integer>();
+		while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (TRACK_ID_ELEMENT_KEY.equals(xml.getLocalName())) {
+				final String value = xml.getAttributeValue(null, TrackIndexAnalyzer.TRACK_ID);
+				try {
+					trackIDs.add(Integer.valueOf(value));
+				} catch (final NumberFormatException nfe) {
+					logger.error("Cannot read the filtered track ID " + value + ".\n");
+					ok = false;
+				}
+			}
+			skipElement(xml);
+		}
+		return trackIDs;
+	}
+
+	private void reportProgress() {
+		if (fileLength > 0) {
+			progressLogger.setProgress((double) counter.count / fileLength);
+		}
+	}
+
+	/**
+	 * Reads the element the reader is on, and all its content, as a JDOM
+	 * element. The reader is left on the end of the element.
+	 */
+	private static Element readElement(final XMLStreamReader xml) throws XMLStreamException {
+		final Element element = new Element(xml.getLocalName());
+		copyAttributes(xml, element);
+		final StringBuilder text = new StringBuilder();
+		while (true) {
+			final int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				element.addContent(readElement(xml));
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				text.append(xml.getText());
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+		if (text.toString().trim().length() > 0) {
+			element.addContent(text.toString());
+		}
+		return element;
+	}
+
+	private static void copyAttributes(final XMLStreamReader xml, final Element element) {
+		for (int i = 0; i < xml.getAttributeCount(); i++) {
+			element.setAttribute(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+		}
+	}
+
+	/**
+	 * Skips the content of the element the reader is on, leaving the reader on
+	 * the end of the element.
+	 */
+	private static void skipElement(final XMLStreamReader xml) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			final int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Builds the track graph and the edge and track features from the track
+	 * collection element, and passes them to the model once the filtered track
+	 * IDs are known.
+	 */
+	private final class TrackReader {
+
+		private final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		private final Map<Integer, Set<Spot>> connectedVertexSet = new HashMap<Integer, Set<Spot>>();
+		private final Map<Integer, Set<DefaultWeightedEdge>> connectedEdgeSet = new HashMap<Integer, Set<DefaultWeightedEdge>>();
+		private final Map<Integer, String> savedTrackNames = new HashMap<Integer, String>();
+		private final Map<Integer, Map<String, Double>> trackFeatures = new HashMap<Integer, Map<String, Double>>();
+		/** If <code>false</code>, the tracks are inconsistent and are not passed to the model. */
+		private boolean valid = true;
+		private boolean found = false;
+
+		/**
+		 * Reads the track collection element the reader is on.
+		 */
+		private void read(final XMLStreamReader xml) throws XMLStreamException {
+			found = true;
+			progressLogger.setStatus("Reading tracks...");
+			final List<String> edgeFeatures = new ArrayList<String>(model.getFeatureModel().getEdgeFeatures());
+
+			while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!valid || !TRACK_ELEMENT_KEY.equals(xml.getLocalName())) {
+					skipElement(xml);
+					continue;
+				}
+				readTrack(xml, edgeFeatures);
+			}
+		}
+
+		private void readTrack(final XMLStreamReader xml, final List<String> edgeFeatures) throws XMLStreamException {
+			final int trackID;
+			try {
+				trackID = Integer.parseInt(xml.getAttributeValue(null, TrackIndexAnalyzer.TRACK_ID));
+			} catch (final NumberFormatException nfe) {
+				logger.error("Found a track with an invalid trackID at line " + xml.getLocation().getLineNumber() + ". Skipping.\n");
+				ok = false;
+				skipElement(xml);
+				return;
+			}
+
+			String trackName = xml.getAttributeValue(null, TRACK_NAME_ATTRIBUTE_NAME);
+			if (null == trackName) {
+				trackName = "Unnamed";
+			}
+
+			final Map<String, Double> features = new HashMap<String, Double>();
+			for (int i = 0; i < xml.getAttributeCount(); i++) {
+				final String feature = xml.getAttributeLocalName(i);
+				if (feature.equals(TRACK_NAME_ATTRIBUTE_NAME)) {
+					continue;
+				}
+				try {
+					features.put(feature, Double.valueOf(xml.getAttributeValue(i)));
+				} catch (final NumberFormatException nfe) {
+					logger.error("Cannot read the feature " + feature + " of the track " + trackID + ".\n");
+					ok = false;
+				}
+			}
+
+			final Set<DefaultWeightedEdge> edges = new HashSet<DefaultWeightedEdge>();
+			final Set<Spot> spots = new HashSet<Spot>();
+			final FeatureModel fm = model.getFeatureModel();
+
+			while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!valid || !TRACK_EDGE_ELEMENT_KEY.equals(xml.getLocalName())) {
+					skipElement(xml);
+					continue;
+				}
+
+				final int sourceID = readIntAttribute(xml, EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+				final int targetID = readIntAttribute(xml, EdgeTargetAnalyzer.SPOT_TARGET_ID);
+				final Spot sourceSpot = null == cache ? null : cache.get(sourceID);
+				final Spot targetSpot = null == cache ? null : cache.get(targetID);
+
+				// Error check
+				if (null == sourceSpot) {
+					invalidate("Unknown spot ID: " + sourceID + "\n");
+				} else if (null == targetSpot) {
+					invalidate("Unknown spot ID: " + targetID + "\n");
+				} else if (sourceSpot.equals(targetSpot)) {
+					invalidate("Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n");
+				} else {
+					spots.add(sourceSpot);
+					spots.add(targetSpot);
+					graph.addVertex(sourceSpot);
+					graph.addVertex(targetSpot);
+					final DefaultWeightedEdge edge = graph.addEdge(sourceSpot, targetSpot);
+					if (null == edge) {
+						invalidate("Bad edge found for track " + trackID + "\n");
+					} else {
+						if (null != xml.getAttributeValue(null, EdgeTargetAnalyzer.EDGE_COST)) {
+							graph.setEdgeWeight(edge, readDoubleAttribute(xml, EdgeTargetAnalyzer.EDGE_COST));
+						} else {
+							graph.setEdgeWeight(edge, 0);
+						}
+						for (final String feature : edgeFeatures) {
+							fm.putEdgeFeature(edge, feature, readDoubleAttribute(xml, feature));
+						}
+						edges.add(edge);
+					}
+				}
+				skipElement(xml);
+			}
+
+			connectedVertexSet.put(trackID, spots);
+			connectedEdgeSet.put(trackID, edges);
+			savedTrackNames.put(trackID, trackName);
+			trackFeatures.put(trackID, features);
+			reportProgress();
+		}
+
+		/**
+		 * Passes the tracks read to the model, if they are valid.
+		 */
+		private void passToModel(final Set<Integer> filteredTrackIDs) {
+			if (!found) {
+				logger.error("Could not find the track collection in file.\n");
+				ok = false;
+				return;
+			}
+			if (!valid) {
+				return;
+			}
+
+			final Map<Integer, Boolean> visibility = new HashMap<Integer, Boolean>(connectedEdgeSet.size());
+			for (final Integer id : connectedEdgeSet.keySet()) {
+				visibility.put(id, Boolean.FALSE);
+			}
+			for (final Integer id : filteredTrackIDs) {
+				if (!connectedEdgeSet.containsKey(id)) {
+					logger.error("Invalid filtered track index: " + id + ". Track ID does not exist.\n");
+					ok = false;
+				} else {
+					visibility.put(id, Boolean.TRUE);
+				}
+			}
+
+			model.getTrackModel().from(graph, connectedVertexSet, connectedEdgeSet, visibility, savedTrackNames);
+
+			final FeatureModel fm = model.getFeatureModel();
+			for (final Integer trackID : trackFeatures.keySet()) {
+				final Map<String, Double> features = trackFeatures.get(trackID);
+				for (final String feature : features.keySet()) {
+					fm.putTrackFeature(trackID, feature, features.get(feature));
+				}
+			}
+		}
+
+		private void invalidate(final String message) {
+			logger.error(message);
+			ok = false;
+			valid = false;
+		}
+
+		private int readIntAttribute(final XMLStreamReader xml, final String name) {
+			return (int) readDoubleAttribute(xml, name);
+		}
+
+		/**
+		 * Reads a numerical attribute of the element the reader is on, and
+		 * substitutes 0 if it is not found or of the wrong type.
+		 */
+		private double readDoubleAttribute(final XMLStreamReader xml, final String name) {
+			final String value = xml.getAttributeValue(null, name);
+			if (null == value) {
+				logger.error("Could not find attribute " + name + " for element " + xml.getLocalName() + ", substituting default value: 0.\n");
+				return 0;
+			}
+			try {
+				return Double.parseDouble(value);
+			} catch (final NumberFormatException nfe) {
+				logger.error("Cannot read the attribute " + name + " of the element " + xml.getLocalName() + ", substituting default value: 0.\n");
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a stream.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		private CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Attribute;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Text;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlWriter} that streams the model to the file instead of building
+ * its whole document in memory.
+ * <p>
+ * The spots and tracks of the model are written frame by frame and track by
+ * track, directly from the {@link Model}, when {@link #writeToFile()} is
+ * called. The other sections of the file are small and are still built as
+ * JDOM elements by the {@link TmXmlWriter} methods, so that the providers can
+ * marshall their settings to them. The file written is the same as with a
+ * {@link TmXmlWriter}, and can be read by all the TrackMate readers.
+ * <p>
+ * If the name of the target file ends with {@value IOUtils#GZIP_EXTENSION},
+ * the file is compressed with gzip.
+ */
+public class TmXmlStreamWriter extends TmXmlWriter {
+
+	private static final String INDENT = "  ";
+
+	/** The logger to report progress to. */
+	private final Logger progressLogger;
+	/** The model to write, if it was appended. */
+	private Model model;
+	/** The empty element standing for the model in the root element, and
+	 * marking where it must be written. */
+	private Element modelPlaceholder;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate.
+	 *
+	 * @param file the xml file to write to, will be overwritten.
+	 */
+	public TmXmlStreamWriter(final File file) {
+		this(file, Logger.VOID_LOGGER);
+	}
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate, that reports its
+	 * progress to the specified logger.
+	 *
+	 * @param file the xml file to write to, will be overwritten.
+	 * @param progressLogger the {@link Logger} to report progress to.
+	 */
+	public TmXmlStreamWriter(final File file, final Logger progressLogger) {
+		super(file);
+		this.progressLogger = progressLogger;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Appends the content of a {@link Model} to the file generated by this
+	 * writer. The model is only read when the file is written, and must not be
+	 * modified in between.
+	 *
+	 * @param model the {@link Model} to write.
+	 */
+	@Override
+	public void appendModel(final Model model) {
+		this.model = model;
+		this.modelPlaceholder = new Element(MODEL_ELEMENT_KEY);
+		root.addContent(modelPlaceholder);
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException {
+		logger.log("  Writing to file.\n");
+		final OutputStream os = IOUtils.openOutputStream(file);
+		try {
+			final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			xml.writeStartDocument("UTF-8", "1.0");
+			write(xml);
+			xml.writeEndDocument();
+			xml.close();
+		} catch (final XMLStreamException e) {
+			throw new IOException("Problem writing " + file.getName() + ": " + e.getMessage(), e);
+		} finally {
+			os.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringWriter writer = new StringWriter();
+		try {
+			final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+			xml.writeStartDocument();
+			write(xml);
+			xml.writeEndDocument();
+			xml.close();
+		} catch (final XMLStreamException e) {
+			e.printStackTrace();
+		}
+		return writer.toString();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void write(final XMLStreamWriter xml) throws XMLStreamException {
+		newLine(xml, 0);
+		xml.writeStartElement(root.getName());
+		writeAttributes(xml, root);
+		for (final Element child : root.getChildren()) {
+			if (child == modelPlaceholder) {
+				writeModel(xml, 1);
+			} else {
+				writeElement(xml, child, 1);
+			}
+		}
+		newLine(xml, 0);
+		xml.writeEndElement();
+		newLine(xml, 0);
+	}
+
+	private void writeModel(final XMLStreamWriter xml, final int depth) throws XMLStreamException {
+		newLine(xml, depth);
+		xml.writeStartElement(MODEL_ELEMENT_KEY);
+		writeAttribute(xml, SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits());
+		writeAttribute(xml, TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits());
+
+		writeElement(xml, echoFeaturesDeclaration(model), depth + 1);
+		writeSpots(xml, depth + 1);
+		writeTracks(xml, depth + 1);
+		writeElement(xml, echoFilteredTracks(model), depth + 1);
+
+		newLine(xml, depth);
+		xml.writeEndElement();
+	}
+
+	private void writeSpots(final XMLStreamWriter xml, final int depth) throws XMLStreamException {
+		final SpotCollection spots = model.getSpots();
+		final int nSpots = spots.getNSpots(false);
+		progressLogger.setStatus("Writing spots...");
+
+		newLine(xml, depth);
+		xml.writeStartElement(SPOT_COLLECTION_ELEMENT_KEY);
+		xml.writeAttribute(SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + nSpots);
+
+		int nWritten = 0;
+		for (final int frame : spots.keySet()) {
+
+			newLine(xml, depth + 1);
+			xml.writeStartElement(SPOT_FRAME_COLLECTION_ELEMENT_KEY);
+			xml.writeAttribute(FRAME_ATTRIBUTE_NAME, "" + frame);
+
+			for (final Iterator<Spot> it = spots.iterator(frame, false); it.hasNext();) {
+				final Spot spot = it.next();
+				newLine(xml, depth + 2);
+				xml.writeEmptyElement(SPOT_ELEMENT_KEY);
+				xml.writeAttribute(SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID());
+				writeAttribute(xml, SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
+				for (final Map.Entry<String, Double> feature : spot.getFeatures().entrySet()) {
+					xml.writeAttribute(feature.getKey(), feature.getValue().toString());
+				}
+				nWritten++;
+			}
+
+			newLine(xml, depth + 1);
+			xml.writeEndElement();
+			if (nSpots > 0) {
+				progressLogger.setProgress(0.9 * nWritten / nSpots);
+			}
+		}
+
+		newLine(xml, depth);
+		xml.writeEndElement();
+		logger.log("  Added " + nSpots + " spots.\n");
+	}
+
+	private void writeTracks(final XMLStreamWriter xml, final int depth) throws XMLStreamException {
+		final FeatureModel fm = model.getFeatureModel();
+		progressLogger.setStatus("Writing tracks...");
+
+		// Prepare track features for writing: we separate ints from doubles
+		final List<String> trackIntFeatures = new ArrayList<String>();
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_ID);
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_INDEX);
+		final List<String> trackDoubleFeatures = new ArrayList<String>(fm.getTrackFeatures());
+		trackDoubleFeatures.removeAll(trackIntFeatures);
+
+		// Same thing for edge features
+		final List<String> edgeIntFeatures = new ArrayList<String>();
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+		final List<String> edgeDoubleFeatures = new ArrayList<String>(fm.getEdgeFeatures());
+		edgeDoubleFeatures.removeAll(edgeIntFeatures);
+
+		newLine(xml, depth);
+		xml.writeStartElement(TRACK_COLLECTION_ELEMENT_KEY);
+
+		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(false);
+		int nWritten = 0;
+		for (final int trackID : trackIDs) {
+			nWritten++;
+			final Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
+			if (track.size() == 0) {
+				// A track without edges should not exist; we skip it, as the
+				// DOM writer does.
+				continue;
+			}
+
+			newLine(xml, depth + 1);
+			xml.writeStartElement(TRACK_ELEMENT_KEY);
+			writeAttribute(xml, TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name(trackID));
+			for (final String feature : trackDoubleFeatures) {
+				xml.writeAttribute(feature, fm.getTrackFeature(trackID, feature).toString());
+			}
+			for (final String feature : trackIntFeatures) {
+				xml.writeAttribute(feature, "" + fm.getTrackFeature(trackID, feature).intValue());
+			}
+
+			for (final DefaultWeightedEdge edge : track) {
+				newLine(xml, depth + 2);
+				xml.writeEmptyElement(TRACK_EDGE_ELEMENT_KEY);
+				for (final String feature : edgeDoubleFeatures) {
+					xml.writeAttribute(feature, fm.getEdgeFeature(edge, feature).toString());
+				}
+				for (final String feature : edgeIntFeatures) {
+					xml.writeAttribute(feature, "" + fm.getEdgeFeature(edge, feature).intValue());
+				}
+			}
+
+			newLine(xml, depth + 1);
+			xml.writeEndElement();
+			progressLogger.setProgress(0.9 + 0.1 * nWritten / trackIDs.size());
+		}
+
+		newLine(xml, depth);
+		xml.writeEndElement();
+		logger.log("  Added tracks.\n");
+		progressLogger.setProgress(0);
+		progressLogger.setStatus("");
+	}
+
+	/**
+	 * Writes a JDOM element and all its content.
+	 */
+	private static void writeElement(final XMLStreamWriter xml, final Element element, final int depth) throws XMLStreamException {
+		newLine(xml, depth);
+		final List<Content> content = element.getContent();
+		if (content.isEmpty()) {
+			xml.writeEmptyElement(element.getName());
+			writeAttributes(xml, element);
+			return;
+		}
+
+		xml.writeStartElement(element.getName());
+		writeAttributes(xml, element);
+		boolean hasChildren = false;
+		for (final Content c : content) {
+			if (c instanceof Element) {
+				writeElement(xml, (Element) c, depth + 1);
+				hasChildren = true;
+			} else if (c instanceof Text) {
+				xml.writeCharacters(((Text) c).getText());
+			}
+		}
+		if (hasChildren) {
+			newLine(xml, depth);
+		}
+		xml.writeEndElement();
+	}
+
+	private static void writeAttributes(final XMLStreamWriter xml, final Element element) throws XMLStreamException {
+		for (final Attribute attribute : element.getAttributes()) {
+			xml.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+	}
+
+	/**
+	 * Writes an attribute, skipping it if its value is <code>null</code>, as
+	 * JDOM would refuse it.
+	 */
+	private static void writeAttribute(final XMLStreamWriter xml, final String name, final String value) throws XMLStreamException {
+		if (null != value) {
+			xml.writeAttribute(name, value);
+		}
+	}
+
+	private static void newLine(final XMLStreamWriter xml, final int depth) throws XMLStreamException {
+		xml.writeCharacters("\n");
+		for (int i = 0; i < depth; i++) {
+			xml.writeCharacters(INDENT);
+		}
+	}
+}
@@ -112,7 +112,7 @@ public class TmXmlWriter {
 
 	protected final Element root;
 	protected final Logger logger;
-	private final File file;
+	protected final File file;
 
 	/*
 	 * CONSTRUCTORS
@@ -380,7 +380,7 @@ private Element echoTracks(Model model) {
 		return allTracksElement;
 	}
 
-	private Element echoFilteredTracks(Model model) {
+	protected Element echoFilteredTracks(Model model) {
 		Element filteredTracksElement = new Element(FILTERED_TRACK_ELEMENT_KEY);
 		Set<Integer> filteredTrackKeys = model.getTrackModel().trackIDs(true);
 		for (int trackID : filteredTrackKeys) {
@@ -430,7 +430,7 @@ private Element echoSpots(Model model) {
 		return spotCollectionElement;
 	}
 	
-	private Element echoFeaturesDeclaration(Model model) {
+	protected Element echoFeaturesDeclaration(Model model) {
 		
 		FeatureModel fm = model.getFeatureModel();
 		Element featuresElement = new Element(FEATURE_DECLARATIONS_ELEMENT_KEY);
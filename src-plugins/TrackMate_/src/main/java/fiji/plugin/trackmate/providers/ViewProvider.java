@@ -16,7 +16,9 @@
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer;
 import fiji.plugin.trackmate.visualization.threedviewer.SpotDisplayer3D;
+import fiji.plugin.trackmate.visualization.trackscheme.SpotImageUpdater;
 import fiji.plugin.trackmate.visualization.trackscheme.TrackScheme;
+import fiji.plugin.trackmate.visualization.trackscheme.TrackSchemeOverview;
 
 public class ViewProvider {
 
@@ -57,9 +59,10 @@ public ViewProvider(Model model, Settings settings, SelectionModel selectionMode
 	 */
 	protected void registerViews() { // We do not put TrackScheme here. It has its own launcher in the last panel
 		// Names
-		names = new ArrayList<String>(2);
+		names = new ArrayList<String>(3);
 		names.add(HyperStackDisplayer.NAME);
 		names.add(SpotDisplayer3D.NAME);
+		names.add(TrackSchemeOverview.NAME);
 	}
 
 	/**
@@ -91,6 +94,14 @@ public TrackMateModelView getView(String key) {
 			return new TrackScheme(model, selectionModel);
 			
 
+		} else if (key.equals(TrackSchemeOverview.NAME)) {
+
+			TrackSchemeOverview overview = new TrackSchemeOverview(model, selectionModel);
+			if (null != settings.imp) {
+				overview.setSpotImageUpdater(new SpotImageUpdater(settings));
+			}
+			return overview;
+
 		} else {
 			return null;
 		}
@@ -122,6 +133,10 @@ public String getInfoText(String key) {
 
 			return TrackScheme.INFO_TEXT;
 
+		} else if (key.equals(TrackSchemeOverview.NAME)) {
+
+			return TrackSchemeOverview.INFO_TEXT;
+
 		} else {
 			return null;
 		}
@@ -0,0 +1,146 @@
+package fiji.plugin.trackmate.tests;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.FastLAPTracker;
+import fiji.plugin.trackmate.tracking.LAPTracker;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.costmatrix.LinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseCostMatrix;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.hungarian.AssignmentProblem;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.MunkresKuhnAlgorithm;
+
+/**
+ * Compares the dense and sparse frame to frame linking for 1k, 10k and 100k spots per frame,
+ * then runs the sparse {@link FastLAPTracker} with gap closing over a few frames.
+ * <p>
+ * Spots are spread at constant density, and move by a few pixels from frame to frame, so
+ * that each spot has a handful of candidates within the max linking distance. The dense
+ * matrices are 2n x 2n doubles, which is 3.2 GB for 10k spots, so the dense path is only
+ * run for the smallest size.
+ */
+public class SparseLAPTrackerPerf_TestDrive {
+
+	private static final int[] N_SPOTS = new int[] { 1000, 10000, 100000 };
+	private static final int MAX_DENSE_SPOTS = 2000;
+	private static final int N_FRAMES = 5;
+	/** Mean distance between spots. */
+	private static final double SPACING = 10;
+	private static final double DISPLACEMENT = 2;
+
+	public static void main(final String[] args) {
+
+		final Map<String, Object> settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put(KEY_LINKING_MAX_DISTANCE, 6d);
+		settings.put(KEY_ALLOW_GAP_CLOSING, true);
+		settings.put(KEY_GAP_CLOSING_MAX_DISTANCE, 8d);
+
+		final Random ran = new Random(1l);
+		for (final int nSpots : N_SPOTS) {
+			System.out.println("\n" + nSpots + " spots per frame");
+			final List<List<Spot>> frames = createFrames(nSpots, ran);
+			final List<Spot> t0 = frames.get(0);
+			final List<Spot> t1 = frames.get(1);
+
+			// Sparse frame to frame linking
+			long start = System.currentTimeMillis();
+			final SparseLinkingCostMatrixCreator sparseCreator = new SparseLinkingCostMatrixCreator(t0, t1, settings);
+			if (!sparseCreator.checkInput() || !sparseCreator.process()) {
+				System.out.println(sparseCreator.getErrorMessage());
+				return;
+			}
+			final SparseCostMatrix sparseCosts = sparseCreator.getResult();
+			final long sparseCreation = System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			final int[][] sparseSolutions = new JonkerVolgenantAlgorithm().computeAssignments(sparseCosts);
+			final long sparseSolving = System.currentTimeMillis() - start;
+			System.out.println(String.format("  Sparse: %d entries, created in %d ms, solved in %d ms, %d links.",
+					sparseCosts.getNEntries(), sparseCreation, sparseSolving, countLinks(sparseSolutions, t0.size(), t1.size())));
+
+			// Dense frame to frame linking
+			if (nSpots <= MAX_DENSE_SPOTS) {
+				start = System.currentTimeMillis();
+				final LinkingCostMatrixCreator denseCreator = new LinkingCostMatrixCreator(t0, t1, settings);
+				if (!denseCreator.checkInput() || !denseCreator.process()) {
+					System.out.println(denseCreator.getErrorMessage());
+					return;
+				}
+				final double[][] denseCosts = denseCreator.getResult();
+				final long denseCreation = System.currentTimeMillis() - start;
+				start = System.currentTimeMillis();
+				final int[][] denseSolutions = new AssignmentProblem(denseCosts).solve(new MunkresKuhnAlgorithm());
+				final long denseSolving = System.currentTimeMillis() - start;
+				System.out.println(String.format("  Dense:  %d entries, created in %d ms, solved in %d ms, %d links.",
+						denseCosts.length * denseCosts.length, denseCreation, denseSolving, countLinks(denseSolutions, t0.size(), t1.size())));
+			} else {
+				System.out.println("  Dense:  skipped, the cost matrix would need " + (8l * 4 * nSpots * nSpots >> 20) + " MB.");
+			}
+
+			// Complete sparse tracking with gap closing
+			final SpotCollection spots = new SpotCollection();
+			for (int frame = 0; frame < frames.size(); frame++) {
+				spots.put(frame, frames.get(frame));
+			}
+			spots.setVisible(true);
+			final LAPTracker tracker = new FastLAPTracker();
+			tracker.setUseSparseSolver(true);
+			tracker.setTarget(spots, settings);
+			start = System.currentTimeMillis();
+			if (!tracker.checkInput() || !tracker.process()) {
+				System.out.println(tracker.getErrorMessage());
+				return;
+			}
+			System.out.println(String.format("  Sparse tracking of %d frames with gap closing in %d ms, %d edges.",
+					N_FRAMES, System.currentTimeMillis() - start, tracker.getResult().edgeSet().size()));
+		}
+	}
+
+	/**
+	 * Creates spots moving randomly, with 5% of them missing in each frame.
+	 */
+	private static List<List<Spot>> createFrames(final int nSpots, final Random ran) {
+		final double size = SPACING * Math.sqrt(nSpots);
+		final double[][] positions = new double[nSpots][];
+		for (int i = 0; i < nSpots; i++) {
+			positions[i] = new double[] { size * ran.nextDouble(), size * ran.nextDouble(), 0 };
+		}
+		final List<List<Spot>> frames = new ArrayList<List<Spot>>(N_FRAMES);
+		for (int frame = 0; frame < N_FRAMES; frame++) {
+			final List<Spot> spots = new ArrayList<Spot>(nSpots);
+			for (int i = 0; i < nSpots; i++) {
+				positions[i][0] += DISPLACEMENT * ran.nextGaussian();
+				positions[i][1] += DISPLACEMENT * ran.nextGaussian();
+				if (ran.nextDouble() < 0.05) {
+					continue;
+				}
+				final Spot spot = new Spot(positions[i].clone());
+				spot.putFeature(Spot.POSITION_T, Double.valueOf(frame));
+				spot.putFeature(Spot.FRAME, Double.valueOf(frame));
+				spots.add(spot);
+			}
+			frames.add(spots);
+		}
+		return frames;
+	}
+
+	private static int countLinks(final int[][] solutions, final int n0, final int n1) {
+		int nLinks = 0;
+		for (final int[] solution : solutions) {
+			if (solution.length > 0 && solution[0] < n0 && solution[1] < n1) {
+				nLinks++;
+			}
+		}
+		return nLinks;
+	}
+}
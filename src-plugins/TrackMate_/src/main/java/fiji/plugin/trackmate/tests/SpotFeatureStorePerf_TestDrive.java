@@ -0,0 +1,84 @@
+package fiji.plugin.trackmate.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.FeatureFilter;
+
+/**
+ * Measures the heap used by one million spots carrying 10 features each, and the time
+ * taken to filter them and to collect their feature values, as done when moving the
+ * filter sliders of the GUI.
+ */
+public class SpotFeatureStorePerf_TestDrive {
+
+	private static final int N_FRAMES = 100;
+	private static final int N_SPOTS_PER_FRAME = 10000;
+	private static final String[] EXTRA_FEATURES = new String[] { "MEAN_INTENSITY", "MEDIAN_INTENSITY", "MIN_INTENSITY" };
+	private static final int N_FILTER_ROUNDS = 20;
+
+	public static void main(final String[] args) {
+
+		final long before = usedMemory();
+
+		final Random ran = new Random(1l);
+		final SpotCollection spots = new SpotCollection();
+		long start = System.currentTimeMillis();
+		for (int frame = 0; frame < N_FRAMES; frame++) {
+			final List<Spot> frameSpots = new ArrayList<Spot>(N_SPOTS_PER_FRAME);
+			for (int i = 0; i < N_SPOTS_PER_FRAME; i++) {
+				final Spot spot = new Spot(new double[] { 1000 * ran.nextDouble(), 1000 * ran.nextDouble(), 0 });
+				spot.putFeature(Spot.POSITION_T, Double.valueOf(frame));
+				spot.putFeature(Spot.QUALITY, ran.nextDouble());
+				spot.putFeature(Spot.RADIUS, 2 + ran.nextDouble());
+				for (final String feature : EXTRA_FEATURES) {
+					spot.putFeature(feature, 255 * ran.nextDouble());
+				}
+				frameSpots.add(spot);
+			}
+			spots.put(frame, frameSpots);
+		}
+		final long creation = System.currentTimeMillis() - start;
+
+		final long after = usedMemory();
+		final int nSpots = spots.getNSpots(false);
+		System.out.println(String.format("Created %d spots in %d ms, using %.1f MB of heap, %d bytes per spot.",
+				nSpots, creation, (after - before) / 1024d / 1024d, (after - before) / nSpots));
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < N_FILTER_ROUNDS; i++) {
+			spots.filter(new FeatureFilter(Spot.QUALITY, Double.valueOf(i / (double) N_FILTER_ROUNDS), true));
+		}
+		System.out.println(String.format("Filtered on one feature in %.1f ms on average; %d spots visible.",
+				(System.currentTimeMillis() - start) / (double) N_FILTER_ROUNDS, spots.getNSpots(true)));
+
+		final List<FeatureFilter> filters = new ArrayList<FeatureFilter>(2);
+		start = System.currentTimeMillis();
+		for (int i = 0; i < N_FILTER_ROUNDS; i++) {
+			filters.clear();
+			filters.add(new FeatureFilter(Spot.QUALITY, Double.valueOf(0.1), true));
+			filters.add(new FeatureFilter(EXTRA_FEATURES[0], Double.valueOf(255d * i / N_FILTER_ROUNDS), false));
+			spots.filter(filters);
+		}
+		System.out.println(String.format("Filtered on two features in %.1f ms on average; %d spots visible.",
+				(System.currentTimeMillis() - start) / (double) N_FILTER_ROUNDS, spots.getNSpots(true)));
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < N_FILTER_ROUNDS; i++) {
+			spots.collectValues(EXTRA_FEATURES[0], true);
+		}
+		System.out.println(String.format("Collected the values of visible spots in %.1f ms on average.",
+				(System.currentTimeMillis() - start) / (double) N_FILTER_ROUNDS));
+	}
+
+	private static long usedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
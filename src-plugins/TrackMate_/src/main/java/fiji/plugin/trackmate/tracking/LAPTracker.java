@@ -25,10 +25,14 @@
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.costmatrix.LinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseCostMatrix;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseTrackSegmentCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.costmatrix.TrackSegmentCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentProblem;
 import fiji.plugin.trackmate.tracking.hungarian.HungarianAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
 
 /**
  *
@@ -113,6 +117,14 @@
  * 	<li>Run {@link #linkTrackSegmentsToFinalTracks(ArrayList)} to compute the final tracks.</li>
  * </ol>
  *
+ * <h2>Sparse solver</h2>
+ *
+ * <p>Dense cost matrices take O(n^2) memory, and the dense solvers O(n^3) time or more, which
+ * does not scale to tens of thousands of spots per frame. Calling {@link #setUseSparseSolver(boolean)}
+ * makes both steps build {@link SparseCostMatrix} instances that only hold the assignments allowed
+ * by the max distances, and solve them with the {@link JonkerVolgenantAlgorithm}. The
+ * {@link #createAssignmentProblemSolver()} hook is then not used.
+ *
  * @author Nicholas Perry
  */
 public class LAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker {
@@ -135,6 +147,10 @@ public class LAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotT
 
 	/** The cost matrix for linking individual track segments (step 2). */
 	protected double[][] segmentCosts = null;
+	/** The cost matrix for linking individual track segments (step 2), when the sparse solver is used. */
+	protected SparseCostMatrix sparseSegmentCosts = null;
+	/** If true, the cost matrices are built sparse and solved with the Jonker-Volgenant algorithm. */
+	protected boolean useSparseSolver = false;
 	/** Stores the objects to track as a list of Spots per frame.  */
 
 	/** Stores whether the default cost matrices from the paper should be used,
@@ -241,6 +257,40 @@ public double[][] getSegmentCosts() {
 		return segmentCosts;
 	}
 
+	/**
+	 * Set the sparse cost matrix used for step 2 when the sparse solver is used.
+	 * @param sparseSegmentCosts The cost matrix, with structure matching figure 1c in the paper.
+	 */
+	public void setSparseSegmentCosts(final SparseCostMatrix sparseSegmentCosts) {
+		this.sparseSegmentCosts = sparseSegmentCosts;
+	}
+
+	/**
+	 * Get the sparse cost matrix used for step 2 when the sparse solver is used.
+	 * @return The cost matrix.
+	 */
+	public SparseCostMatrix getSparseSegmentCosts() {
+		return sparseSegmentCosts;
+	}
+
+	/**
+	 * Sets whether this tracker builds sparse cost matrices and solves them with the
+	 * {@link JonkerVolgenantAlgorithm}, instead of the dense matrices and the solver returned
+	 * by {@link #createAssignmentProblemSolver()}. Use it for large numbers of spots.
+	 * False by default.
+	 */
+	public void setUseSparseSolver(final boolean useSparseSolver) {
+		this.useSparseSolver = useSparseSolver;
+	}
+
+	/**
+	 * @return true if this tracker uses sparse cost matrices.
+	 * @see #setUseSparseSolver(boolean)
+	 */
+	public boolean isUseSparseSolver() {
+		return useSparseSolver;
+	}
+
 	/**
 	 * Returns the track segments computed from step (1).
 	 * @return Returns a reference to the track segments, or null if {@link #computeTrackSegments()}
@@ -364,6 +414,19 @@ public boolean process() {
 	 * @return True if executes successfully, false otherwise.
 	 */
 	public boolean createTrackSegmentCostMatrix() {
+		if (useSparseSolver) {
+			final SparseTrackSegmentCostMatrixCreator segCosts = new SparseTrackSegmentCostMatrixCreator(trackSegments, settings);
+			segCosts.setLogger(logger);
+			if (!segCosts.checkInput() || !segCosts.process()) {
+				errorMessage = BASE_ERROR_MESSAGE + segCosts.getErrorMessage();
+				return false;
+			}
+			sparseSegmentCosts = segCosts.getResult();
+			splittingMiddlePoints = segCosts.getSplittingMiddlePoints();
+			mergingMiddlePoints = segCosts.getMergingMiddlePoints();
+			return true;
+		}
+
 		final TrackSegmentCostMatrixCreator segCosts = new TrackSegmentCostMatrixCreator(trackSegments, settings);
 		segCosts.setLogger(logger);
 		if (!segCosts.checkInput() || !segCosts.process()) {
@@ -411,7 +474,7 @@ public boolean linkTrackSegmentsToFinalTracks() {
 		}
 
 		// Check that the cost matrix for this step exists.
-		if (null == segmentCosts) {
+		if (useSparseSolver ? null == sparseSegmentCosts : null == segmentCosts) {
 			errorMessage = "The segment cost matrix (step 2) does not exists.";
 			return false;
 		}
@@ -420,7 +483,9 @@ public boolean linkTrackSegmentsToFinalTracks() {
 		final int[][] finalTrackSolutions = solveLAPForFinalTracks();
 
 		if (DEBUG) {
-			if (trackSegments.size() > 100) {
+			if (useSparseSolver) {
+				System.out.println("Final cost matrix is " + sparseSegmentCosts + ".");
+			} else if (trackSegments.size() > 100) {
 				System.out.println("Final cost matrix is "+segmentCosts.length+" x " + segmentCosts[0].length+".\n" +
 						"Too big to display.");
 			} else {
@@ -488,29 +553,51 @@ public void run() {
 							t1.add(iterator.next());
 						}
 
-						// Create cost matrix
-						final double[][] costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
-
-						// Special case: top-left corner of the cost matrix is all blocked: we do nothing for this pair
-						// We handle this special case here, because some solvers might hang with this.
-						boolean allBlocked = true;
-						for (int j = 0; j < t0.size(); j++) {
-							for (int k = 0; k < t1.size(); k++) {
-								if (costMatrix[j][k] != blockingValue) {
-									allBlocked = false;
-									break;
+						final int[][] solutions;
+						final double[][] costMatrix;
+						final SparseCostMatrix sparseCostMatrix;
+						if (useSparseSolver) {
+
+							// Create sparse cost matrix. It is empty if no link is possible.
+							costMatrix = null;
+							sparseCostMatrix = createFrameToFrameSparseLinkingCostMatrix(t0, t1, settings);
+							if (null == sparseCostMatrix || sparseCostMatrix.getNRows() == 0) {
+								solutions = null;
+							} else {
+								solutions = new JonkerVolgenantAlgorithm(blockingValue).computeAssignments(sparseCostMatrix);
+							}
+
+						} else {
+
+							// Create cost matrix
+							sparseCostMatrix = null;
+							costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
+
+							// Special case: top-left corner of the cost matrix is all blocked: we do nothing for this pair
+							// We handle this special case here, because some solvers might hang with this.
+							boolean allBlocked = true;
+							for (int j = 0; j < t0.size(); j++) {
+								for (int k = 0; k < t1.size(); k++) {
+									if (costMatrix[j][k] != blockingValue) {
+										allBlocked = false;
+										break;
+									}
+									if (!allBlocked)
+										break;
 								}
-								if (!allBlocked)
-									break;
 							}
-						}
 
-						if (!allBlocked) {
-							// Find solution
-							final AssignmentProblem problem = new AssignmentProblem(costMatrix);
-							final AssignmentAlgorithm solver = createAssignmentProblemSolver();
-							final int[][] solutions = problem.solve(solver);
+							if (allBlocked) {
+								solutions = null;
+							} else {
+								// Find solution
+								final AssignmentProblem problem = new AssignmentProblem(costMatrix);
+								final AssignmentAlgorithm solver = createAssignmentProblemSolver();
+								solutions = problem.solve(solver);
+							}
+						}
 
+						if (null != solutions) {
 							// Extend track segments using solutions: we update the graph edges
 							for (int j = 0; j < solutions.length; j++) {
 								if (solutions[j].length == 0)
@@ -524,7 +611,7 @@ public void run() {
 									final Spot s1 = t1.get(i1);
 									// We set the edge weight to be the linking cost, for future reference.
 									// This is NOT used in further tracking steps
-									final double weight = costMatrix[i0][i1];
+									final double weight = useSparseSolver ? sparseCostMatrix.get(i0, i1, blockingValue) : costMatrix[i0][i1];
 									synchronized (graph) { // To avoid concurrent access, sad but true
 										final DefaultWeightedEdge edge = graph.addEdge(s0, s1);
 										graph.setEdgeWeight(edge, weight);
@@ -568,6 +655,26 @@ protected double[][] createFrameToFrameLinkingCostMatrix(final List<Spot> t0, fi
 		return objCosts.getResult();
 	}
 
+	/**
+	 * Hook for subclassers.
+	 * <p>
+	 * Create the sparse cost matrix required in the frame to frame linking, when the
+	 * sparse solver is used.
+	 *
+	 * @param t0  the list of spots in the first frame
+	 * @param t1  the list of spots in the second frame
+	 * @param settings  the tracker settings that specifies how this cost should be created
+	 * @return  the sparse cost matrix, empty if no link is possible
+	 */
+	protected SparseCostMatrix createFrameToFrameSparseLinkingCostMatrix(final List<Spot> t0, final List<Spot> t1, final Map<String, Object> settings) {
+		final SparseLinkingCostMatrixCreator objCosts = new SparseLinkingCostMatrixCreator(t0, t1, settings);
+		if (!objCosts.checkInput() || !objCosts.process()) {
+			errorMessage = BASE_ERROR_MESSAGE + objCosts.getErrorMessage();
+			return null;
+		}
+		return objCosts.getResult();
+	}
+
 
 
 
@@ -579,6 +686,10 @@ protected double[][] createFrameToFrameLinkingCostMatrix(final List<Spot> t0, fi
 	public int[][] solveLAPForFinalTracks() {
 		// Solve the LAP using the Hungarian Algorithm
 		logger.setStatus("Solving for final tracks...");
+		if (useSparseSolver) {
+			final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+			return new JonkerVolgenantAlgorithm(blockingValue).computeAssignments(sparseSegmentCosts);
+		}
 		final AssignmentProblem problem = new AssignmentProblem(segmentCosts);
 		final AssignmentAlgorithm solver = createAssignmentProblemSolver();
 		final int[][] solutions = problem.solve(solver);
@@ -640,7 +751,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentStart = trackSegments.get(j);
 					final Spot end = segmentEnd.last();
 					final Spot start = segmentStart.first();
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(end, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -653,7 +764,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentEnd = trackSegments.get(i);
 					final Spot end =  segmentEnd.last();
 					final Spot middle = mergingMiddlePoints.get(j - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(end, middle);
 					graph.setEdgeWeight(edge, weight);
 
@@ -684,7 +795,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentStart = trackSegments.get(j);
 					final Spot start = segmentStart.first();
 					final Spot mother = splittingMiddlePoints.get(i - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(mother, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -712,6 +823,16 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 
 	}
 
+	/**
+	 * Returns the cost of the assignment (i, j) in the step 2 cost matrix, whether it is sparse or not.
+	 */
+	private double getSegmentCost(final int i, final int j) {
+		if (useSparseSolver) {
+			return sparseSegmentCosts.get(i, j, (Double) settings.get(KEY_BLOCKING_VALUE));
+		}
+		return segmentCosts[i][j];
+	}
+
 	@Override
 	public String toString() {
 		return NAME;
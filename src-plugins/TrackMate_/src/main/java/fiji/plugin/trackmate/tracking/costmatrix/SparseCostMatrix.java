@@ -0,0 +1,273 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+
+/**
+ * A cost matrix in compressed sparse row (CSR) form, that only stores the
+ * assignments that are allowed. Every pair that is absent from the matrix is
+ * blocked.
+ * <p>
+ * The columns of row <code>i</code> are found at the indices
+ * <code>rowStart[i]</code> to <code>rowStart[i+1] - 1</code> of the
+ * <code>columns</code> and <code>costs</code> arrays, in increasing order.
+ * <p>
+ * Instances are built with a {@link Builder}, and solved with the
+ * {@link JonkerVolgenantAlgorithm}.
+ */
+public class SparseCostMatrix {
+
+	private final int nRows;
+	private final int nCols;
+	private final int[] rowStart;
+	private final int[] columns;
+	private final double[] costs;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a sparse cost matrix from CSR arrays, which are not copied.
+	 *
+	 * @param nRows  the number of rows.
+	 * @param nCols  the number of columns.
+	 * @param rowStart  the index of the first entry of each row, plus the total number of entries, so
+	 * that it has <code>nRows + 1</code> elements.
+	 * @param columns  the column of each entry, increasing within a row.
+	 * @param costs  the cost of each entry.
+	 */
+	public SparseCostMatrix(final int nRows, final int nCols, final int[] rowStart, final int[] columns, final double[] costs) {
+		if (rowStart.length != nRows + 1) {
+			throw new IllegalArgumentException("Row start array must have " + (nRows + 1) + " elements, but has " + rowStart.length + ".");
+		}
+		if (columns.length < rowStart[nRows] || costs.length < rowStart[nRows]) {
+			throw new IllegalArgumentException("Column and cost arrays must hold at least " + rowStart[nRows] + " entries.");
+		}
+		for (int i = 0; i < nRows; i++) {
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				if (columns[k] < 0 || columns[k] >= nCols || (k > rowStart[i] && columns[k] <= columns[k - 1])) {
+					throw new IllegalArgumentException("Columns of row " + i + " are not strictly increasing or out of bounds.");
+				}
+			}
+		}
+		this.nRows = nRows;
+		this.nCols = nCols;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.costs = costs;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public int getNRows() {
+		return nRows;
+	}
+
+	public int getNCols() {
+		return nCols;
+	}
+
+	/**
+	 * @return the number of allowed assignments stored in this matrix.
+	 */
+	public int getNEntries() {
+		return rowStart[nRows];
+	}
+
+	/**
+	 * @return the CSR row start array. It is not a copy and must not be modified.
+	 */
+	public int[] getRowStart() {
+		return rowStart;
+	}
+
+	/**
+	 * @return the CSR column array. It is not a copy and must not be modified.
+	 */
+	public int[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return the CSR cost array. It is not a copy and must not be modified.
+	 */
+	public double[] getCosts() {
+		return costs;
+	}
+
+	/**
+	 * Returns the cost of assigning row <code>i</code> to column <code>j</code>.
+	 *
+	 * @param i  the row.
+	 * @param j  the column.
+	 * @param blockingValue  the value to return if this assignment is not stored in the matrix.
+	 * @return the cost, or the blocking value.
+	 */
+	public double get(final int i, final int j, final double blockingValue) {
+		final int k = Arrays.binarySearch(columns, rowStart[i], rowStart[i + 1], j);
+		if (k < 0) {
+			return blockingValue;
+		}
+		return costs[k];
+	}
+
+	/**
+	 * Returns this matrix as a dense <code>double[][]</code> array, for display and debugging.
+	 *
+	 * @param blockingValue  the value to put for assignments that are not stored in this matrix.
+	 */
+	public double[][] toDense(final double blockingValue) {
+		final double[][] m = new double[nRows][nCols];
+		for (int i = 0; i < nRows; i++) {
+			Arrays.fill(m[i], blockingValue);
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				m[i][columns[k]] = costs[k];
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Creates a sparse cost matrix from a dense one, keeping all the entries that are strictly
+	 * smaller than the blocking value.
+	 */
+	public static SparseCostMatrix fromDense(final double[][] m, final double blockingValue) {
+		final int nRows = m.length;
+		final int nCols = nRows == 0 ? 0 : m[0].length;
+		final Builder builder = new Builder(nRows, nCols);
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (m[i][j] < blockingValue) {
+					builder.add(i, j, m[i][j]);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ": " + nRows + " x " + nCols + " with " + getNEntries() + " entries";
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * Collects the entries of a {@link SparseCostMatrix} in any order, then sorts them into CSR
+	 * form. Each pair must be added at most once.
+	 */
+	public static class Builder {
+
+		private final int nRows;
+		private final int nCols;
+		private int[] rows;
+		private int[] cols;
+		private double[] vals;
+		private int size = 0;
+
+		public Builder(final int nRows, final int nCols) {
+			this(nRows, nCols, Math.max(16, nRows));
+		}
+
+		public Builder(final int nRows, final int nCols, final int initialCapacity) {
+			this.nRows = nRows;
+			this.nCols = nCols;
+			final int capacity = Math.max(1, initialCapacity);
+			this.rows = new int[capacity];
+			this.cols = new int[capacity];
+			this.vals = new double[capacity];
+		}
+
+		/**
+		 * Adds the cost of assigning row <code>i</code> to column <code>j</code>.
+		 */
+		public void add(final int i, final int j, final double cost) {
+			if (i < 0 || i >= nRows || j < 0 || j >= nCols) {
+				throw new IndexOutOfBoundsException("Entry (" + i + ", " + j + ") is out of a " + nRows + " x " + nCols + " matrix.");
+			}
+			if (size == rows.length) {
+				final int capacity = 2 * size;
+				rows = Arrays.copyOf(rows, capacity);
+				cols = Arrays.copyOf(cols, capacity);
+				vals = Arrays.copyOf(vals, capacity);
+			}
+			rows[size] = i;
+			cols[size] = j;
+			vals[size] = cost;
+			size++;
+		}
+
+		/**
+		 * @return the number of entries added so far.
+		 */
+		public int size() {
+			return size;
+		}
+
+		public SparseCostMatrix build() {
+			// Count entries per row, then scatter them
+			final int[] rowStart = new int[nRows + 1];
+			for (int k = 0; k < size; k++) {
+				rowStart[rows[k] + 1]++;
+			}
+			for (int i = 0; i < nRows; i++) {
+				rowStart[i + 1] += rowStart[i];
+			}
+			final int[] next = Arrays.copyOf(rowStart, nRows);
+			final int[] columns = new int[size];
+			final double[] costs = new double[size];
+			for (int k = 0; k < size; k++) {
+				final int index = next[rows[k]]++;
+				columns[index] = cols[k];
+				costs[index] = vals[k];
+			}
+
+			// Sort each row by column
+			for (int i = 0; i < nRows; i++) {
+				final int length = rowStart[i + 1] - rowStart[i];
+				if (length < 32) {
+					insertionSort(columns, costs, rowStart[i], rowStart[i + 1]);
+				} else {
+					sortLongRow(columns, costs, rowStart[i], rowStart[i + 1]);
+				}
+			}
+			return new SparseCostMatrix(nRows, nCols, rowStart, columns, costs);
+		}
+
+		private static void insertionSort(final int[] columns, final double[] costs, final int from, final int to) {
+			for (int k = from + 1; k < to; k++) {
+				final int col = columns[k];
+				final double cost = costs[k];
+				int l = k - 1;
+				while (l >= from && columns[l] > col) {
+					columns[l + 1] = columns[l];
+					costs[l + 1] = costs[l];
+					l--;
+				}
+				columns[l + 1] = col;
+				costs[l + 1] = cost;
+			}
+		}
+
+		private static void sortLongRow(final int[] columns, final double[] costs, final int from, final int to) {
+			// Sort the columns together with their original position, then permute the costs
+			final long[] keys = new long[to - from];
+			for (int k = from; k < to; k++) {
+				keys[k - from] = ((long) columns[k] << 32) | (k - from);
+			}
+			Arrays.sort(keys);
+			final double[] sortedCosts = new double[to - from];
+			for (int k = 0; k < keys.length; k++) {
+				columns[from + k] = (int) (keys[k] >>> 32);
+				sortedCosts[k] = costs[from + (int) (keys[k] & 0xffffffffL)];
+			}
+			System.arraycopy(sortedCosts, 0, costs, from, sortedCosts.length);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import java.util.Map;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.algorithm.OutputAlgorithm;
+import fiji.plugin.trackmate.tracking.LAPTracker;
+
+/**
+ * Contains the mutually shared fields and functions used by the two sparse
+ * cost matrix classes {@link SparseLinkingCostMatrixCreator} and {@link SparseTrackSegmentCostMatrixCreator}
+ * that are used with the {@link LAPTracker} class, when it uses its sparse solver.
+ */
+public abstract class SparseLAPTrackerCostMatrixCreator extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm<SparseCostMatrix> {
+
+	/** The cost matrix created by the class. */
+	protected SparseCostMatrix costs;
+	/** The settings to comply to create a cost matrix. */
+	protected final Map<String, Object> settings;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	protected SparseLAPTrackerCostMatrixCreator(final Map<String, Object> settings) {
+		this.settings = settings;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the cost matrix created by this class.
+	 */
+	@Override
+	public SparseCostMatrix getResult() {
+		return costs;
+	}
+
+	/**
+	 * Builds the complete LAP cost matrix from its top left quadrant, the same way
+	 * {@link LAPTrackerCostMatrixCreator} does for dense matrices:
+	 * <ul>
+	 * <li>the top right and bottom left quadrants hold the cutoff along their diagonal;</li>
+	 * <li>the bottom right quadrant is the transpose of the top left one, where every allowed
+	 * assignment has the cutoff as cost.</li>
+	 * </ul>
+	 * Blocked assignments are simply not stored.
+	 */
+	protected SparseCostMatrix getLAPMatrix(final SparseCostMatrix topLeft, final double cutoff) {
+		final int nRows = topLeft.getNRows();
+		final int nCols = topLeft.getNCols();
+		final int n = nRows + nCols;
+		final int[] rowStart = topLeft.getRowStart();
+		final int[] columns = topLeft.getColumns();
+		final double[] tlCosts = topLeft.getCosts();
+
+		final SparseCostMatrix.Builder builder = new SparseCostMatrix.Builder(n, n, 2 * topLeft.getNEntries() + n);
+		for (int i = 0; i < nRows; i++) {
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				final int j = columns[k];
+				builder.add(i, j, tlCosts[k]);
+				builder.add(nRows + j, nCols + i, cutoff);
+			}
+			builder.add(i, nCols + i, cutoff);
+		}
+		for (int j = 0; j < nCols; j++) {
+			builder.add(nRows + j, j, cutoff);
+		}
+		return builder.build();
+	}
+}
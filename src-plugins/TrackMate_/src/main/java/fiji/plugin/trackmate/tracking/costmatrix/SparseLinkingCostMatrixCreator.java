@@ -0,0 +1,107 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
+
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+
+/**
+ * <p>Creates the frame to frame linking cost matrix of {@link LinkingCostMatrixCreator}
+ * as a {@link SparseCostMatrix}.
+ *
+ * <p>The matrix has the same four quadrants, but only the pairs of spots closer than the
+ * max linking distance are visited, using a grid of that size, and only the allowed
+ * assignments are stored. Memory and time are then proportional to the number of
+ * candidate links instead of to the square number of spots.
+ *
+ * <p>If no link is possible between the two frames, an empty 0 x 0 matrix is created,
+ * so that there is nothing to solve.
+ */
+public class SparseLinkingCostMatrixCreator extends SparseLAPTrackerCostMatrixCreator {
+
+	/** The Spots belonging to time frame t. */
+	protected final List<Spot> t0;
+	/** The Spots belonging to time frame t+1. */
+	protected final List<Spot> t1;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SparseLinkingCostMatrixCreator(final List<Spot> t0, final List<Spot> t1, final Map<String, Object> settings) {
+		super(settings);
+		this.t0 = t0;
+		this.t1 = t1;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public boolean checkInput() {
+		boolean ok = true;
+		StringBuilder errorHolder = new StringBuilder();
+		ok = ok & checkParameter(settings, KEY_LINKING_MAX_DISTANCE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_LINKING_FEATURE_PENALTIES, Map.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_BLOCKING_VALUE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_CUTOFF_PERCENTILE, Double.class, errorHolder);
+		if (!ok) {
+			errorMessage = errorHolder.toString();
+		}
+		return ok;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean process() {
+
+		long start = System.currentTimeMillis();
+
+		final double maxDist = (Double) settings.get(KEY_LINKING_MAX_DISTANCE);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final double alternativeObjectLinkingCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+		final Map<String, Double> featurePenalties = (Map<String, Double>) settings.get(KEY_LINKING_FEATURE_PENALTIES);
+
+		// 1 - Collect the links of the top left quadrant
+		final SparseCostMatrix.Builder links = new SparseCostMatrix.Builder(t0.size(), t1.size());
+		double maxCost = Double.NEGATIVE_INFINITY;
+		if (t0.size() > 0 && t1.size() > 0) {
+			final SpotCellIndex index = new SpotCellIndex(t1, maxDist);
+			for (int i = 0; i < t0.size(); i++) {
+				final Spot s0 = t0.get(i);
+				for (final int j : index.getCandidates(s0)) {
+					final double cost = LAPUtils.computeLinkingCostFor(s0, t1.get(j), maxDist, blockingValue, featurePenalties);
+					if (cost < blockingValue) {
+						links.add(i, j, cost);
+						if (cost > maxCost) {
+							maxCost = cost;
+						}
+					}
+				}
+			}
+		}
+
+		if (links.size() == 0) {
+			// No link possible -> nothing to solve
+			costs = new SparseCostMatrix(0, 0, new int[1], new int[0], new double[0]);
+		} else {
+			// 2 - Complete the cost matrix by quadrant
+			final double cutoff = alternativeObjectLinkingCostFactor * maxCost;
+			costs = getLAPMatrix(links.build(), cutoff);
+		}
+
+		long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+}
@@ -0,0 +1,326 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * <p>Creates the track segment cost matrix of {@link TrackSegmentCostMatrixCreator}
+ * as a {@link SparseCostMatrix}.
+ *
+ * <p>The quadrants, the pruning of the middle points that cannot merge or split, and the
+ * cutoff are the same. But instead of testing all pairs of segments and middle points,
+ * the segment starts and the middle points are indexed by frame and by position, so that
+ * only the candidates within the frame and distance limits are visited. Memory and time
+ * are then proportional to the number of candidate events instead of to the square
+ * number of segments.
+ */
+public class SparseTrackSegmentCostMatrixCreator extends SparseLAPTrackerCostMatrixCreator {
+
+	/** The track segments. */
+	protected final List<SortedSet<Spot>> trackSegments;
+	/** The list of middle Spots which can participate in merge events. */
+	protected List<Spot> mergingMiddlePoints;
+	/** The list of middle Spots which can participate in splitting events. */
+	protected List<Spot> splittingMiddlePoints;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SparseTrackSegmentCostMatrixCreator(final List<SortedSet<Spot>> trackSegments, final Map<String, Object> settings) {
+		super(settings);
+		this.trackSegments = trackSegments;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public void setLogger(final Logger logger) {
+		this.logger = logger;
+	}
+
+	@Override
+	public boolean checkInput() {
+		if (trackSegments.isEmpty()) {
+			errorMessage = "There are no track segments.";
+			return false;
+		}
+		StringBuilder errorHolder = new StringBuilder();
+		if (!LAPUtils.checkSettingsValidity(settings, errorHolder)) {
+			errorMessage = errorHolder.toString();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the middle points that can participate in splitting events, in the order of
+	 * the splitting rows of the cost matrix.
+	 */
+	public List<Spot> getSplittingMiddlePoints() {
+		return splittingMiddlePoints;
+	}
+
+	/**
+	 * Returns the middle points that can participate in merging events, in the order of
+	 * the merging columns of the cost matrix.
+	 */
+	public List<Spot> getMergingMiddlePoints() {
+		return mergingMiddlePoints;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean process() {
+
+		long start = System.currentTimeMillis();
+
+		// 1 - Get parameter values
+		final boolean allowGapClosing = (Boolean) settings.get(KEY_ALLOW_GAP_CLOSING);
+		final boolean allowSplitting = (Boolean) settings.get(KEY_ALLOW_TRACK_SPLITTING);
+		final boolean allowMerging = (Boolean) settings.get(KEY_ALLOW_TRACK_MERGING);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final double cutoffPercentile = (Double) settings.get(KEY_CUTOFF_PERCENTILE);
+		final double alternativeLinkingCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+		final int frameCutoff = (Integer) settings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
+		final double gapClosingMaxDist = (Double) settings.get(KEY_GAP_CLOSING_MAX_DISTANCE);
+		final double mergingMaxDist = (Double) settings.get(KEY_MERGING_MAX_DISTANCE);
+		final double splittingMaxDist = (Double) settings.get(KEY_SPLITTING_MAX_DISTANCE);
+		final Map<String, Double> gapClosingPenalties = (Map<String, Double>) settings.get(KEY_GAP_CLOSING_FEATURE_PENALTIES);
+		final Map<String, Double> mergingPenalties = (Map<String, Double>) settings.get(KEY_MERGING_FEATURE_PENALTIES);
+		final Map<String, Double> splittingPenalties = (Map<String, Double>) settings.get(KEY_SPLITTING_FEATURE_PENALTIES);
+
+		try {
+			final int n = trackSegments.size();
+
+			// 2 - Collect segment starts, and middle points with the segment they belong to
+			final List<Spot> starts = new ArrayList<Spot>(n);
+			final List<Spot> middlePoints = new ArrayList<Spot>();
+			final List<Integer> middlePointSegments = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++) {
+				final SortedSet<Spot> segment = trackSegments.get(i);
+				starts.add(segment.first());
+				if ((allowMerging || allowSplitting) && segment.size() > 1) {
+					for (final Spot spot : segment) {
+						middlePoints.add(spot);
+						middlePointSegments.add(i);
+					}
+				}
+			}
+			final int nMiddle = middlePoints.size();
+
+			// 3 - Visit candidate events
+			logger.setStatus("Computing gap-closing costs...");
+			logger.setProgress(0.55f);
+			final SparseCostMatrix.Builder gapClosing = new SparseCostMatrix.Builder(n, n);
+			if (allowGapClosing) {
+				final Map<Integer, FrameIndex> startIndex = indexByFrame(starts, gapClosingMaxDist);
+				for (int i = 0; i < n; i++) {
+					final Spot end = trackSegments.get(i).last();
+					final int endFrame = end.getFeature(Spot.FRAME).intValue();
+					// A frame cutoff of 1 means a gap of 1 frame: we look up to 2 frames later.
+					for (int frame = endFrame + 1; frame <= endFrame + frameCutoff + 1; frame++) {
+						final FrameIndex fi = startIndex.get(frame);
+						if (null == fi) {
+							continue;
+						}
+						for (final int k : fi.index.getCandidates(end)) {
+							final int j = fi.ids[k];
+							if (i == j) {
+								continue;
+							}
+							final double cost = LAPUtils.computeLinkingCostFor(end, starts.get(j), gapClosingMaxDist, blockingValue, gapClosingPenalties);
+							if (cost < blockingValue) {
+								gapClosing.add(i, j, cost);
+							}
+						}
+					}
+				}
+			}
+
+			// Merging: segment end i -> middle point m, one frame later
+			logger.setStatus("Computing merging costs...");
+			logger.setProgress(0.6f);
+			final List<int[]> mergingPairs = new ArrayList<int[]>();
+			final List<Double> mergingCosts = new ArrayList<Double>();
+			final int[] mergingColumn = new int[nMiddle];
+			if (allowMerging && nMiddle > 0) {
+				final Map<Integer, FrameIndex> middleIndex = indexByFrame(middlePoints, mergingMaxDist);
+				for (int i = 0; i < n; i++) {
+					final Spot end = trackSegments.get(i).last();
+					final FrameIndex fi = middleIndex.get(end.getFeature(Spot.FRAME).intValue() + 1);
+					if (null == fi) {
+						continue;
+					}
+					for (final int k : fi.index.getCandidates(end)) {
+						final int m = fi.ids[k];
+						final double cost = LAPUtils.computeLinkingCostFor(end, middlePoints.get(m), mergingMaxDist, blockingValue, mergingPenalties);
+						if (cost < blockingValue) {
+							mergingPairs.add(new int[] { i, m });
+							mergingCosts.add(cost);
+							mergingColumn[m] = 1;
+						}
+					}
+				}
+			}
+			// Prune middle points that cannot merge
+			mergingMiddlePoints = new ArrayList<Spot>();
+			for (int m = 0; m < nMiddle; m++) {
+				if (mergingColumn[m] > 0) {
+					mergingColumn[m] = n + mergingMiddlePoints.size();
+					mergingMiddlePoints.add(middlePoints.get(m));
+				}
+			}
+
+			// Splitting: middle point m -> segment start j, one frame later
+			logger.setStatus("Computing splitting costs...");
+			logger.setProgress(0.65f);
+			final List<int[]> splittingPairs = new ArrayList<int[]>();
+			final List<Double> splittingCosts = new ArrayList<Double>();
+			final int[] splittingRow = new int[nMiddle];
+			if (allowSplitting && nMiddle > 0) {
+				final Map<Integer, FrameIndex> startIndex = indexByFrame(starts, splittingMaxDist);
+				for (int m = 0; m < nMiddle; m++) {
+					final Spot middle = middlePoints.get(m);
+					final FrameIndex fi = startIndex.get(middle.getFeature(Spot.FRAME).intValue() + 1);
+					if (null == fi) {
+						continue;
+					}
+					for (final int k : fi.index.getCandidates(middle)) {
+						final int j = fi.ids[k];
+						if (j == middlePointSegments.get(m)) {
+							continue;
+						}
+						final double cost = LAPUtils.computeLinkingCostFor(starts.get(j), middle, splittingMaxDist, blockingValue, splittingPenalties);
+						if (cost < blockingValue) {
+							splittingPairs.add(new int[] { m, j });
+							splittingCosts.add(cost);
+							splittingRow[m] = 1;
+						}
+					}
+				}
+			}
+			// Prune middle points that cannot split
+			splittingMiddlePoints = new ArrayList<Spot>();
+			for (int m = 0; m < nMiddle; m++) {
+				if (splittingRow[m] > 0) {
+					splittingRow[m] = n + splittingMiddlePoints.size();
+					splittingMiddlePoints.add(middlePoints.get(m));
+				}
+			}
+
+			// 4 - Assemble the top left quadrant. The middle block is blocked, so it is empty.
+			final int nRows = n + splittingMiddlePoints.size();
+			final int nCols = n + mergingMiddlePoints.size();
+			final SparseCostMatrix gapClosingScores = gapClosing.build();
+			final int nEntries = gapClosingScores.getNEntries() + mergingPairs.size() + splittingPairs.size();
+			final SparseCostMatrix.Builder topLeftBuilder = new SparseCostMatrix.Builder(nRows, nCols, nEntries);
+			final double[] scores = new double[nEntries];
+			int s = 0;
+			final int[] rowStart = gapClosingScores.getRowStart();
+			final int[] columns = gapClosingScores.getColumns();
+			final double[] gcCosts = gapClosingScores.getCosts();
+			for (int i = 0; i < n; i++) {
+				for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+					topLeftBuilder.add(i, columns[k], gcCosts[k]);
+					scores[s++] = gcCosts[k];
+				}
+			}
+			for (int p = 0; p < mergingPairs.size(); p++) {
+				final int[] pair = mergingPairs.get(p);
+				topLeftBuilder.add(pair[0], mergingColumn[pair[1]], mergingCosts.get(p));
+				scores[s++] = mergingCosts.get(p);
+			}
+			for (int p = 0; p < splittingPairs.size(); p++) {
+				final int[] pair = splittingPairs.get(p);
+				topLeftBuilder.add(splittingRow[pair[0]], pair[1], splittingCosts.get(p));
+				scores[s++] = splittingCosts.get(p);
+			}
+
+			// 5 - Complete the cost matrix by quadrant
+			logger.setStatus("Completing cost matrix...");
+			logger.setProgress(0.7f);
+			double cutoff = TMUtils.getPercentile(scores, cutoffPercentile);
+			if (!(cutoff < blockingValue)) {
+				cutoff = 10.0d; // No costs in the matrix, same default as for the dense matrix
+			}
+			costs = getLAPMatrix(topLeftBuilder.build(), alternativeLinkingCostFactor * cutoff);
+
+			long end = System.currentTimeMillis();
+			processingTime = end - start;
+			return true;
+
+		} catch (OutOfMemoryError ome) {
+			errorMessage = "Not enough memory.";
+			costs = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Splits the given spots by frame, and indexes each frame with a grid.
+	 */
+	private static Map<Integer, FrameIndex> indexByFrame(final List<Spot> spots, final double maxDist) {
+		final Map<Integer, List<Integer>> idsByFrame = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < spots.size(); i++) {
+			final int frame = spots.get(i).getFeature(Spot.FRAME).intValue();
+			List<Integer> ids = idsByFrame.get(frame);
+			if (null == ids) {
+				ids = new ArrayList<Integer>();
+				idsByFrame.put(frame, ids);
+			}
+			ids.add(i);
+		}
+		final Map<Integer, FrameIndex> index = new HashMap<Integer, FrameIndex>(idsByFrame.size());
+		for (final Integer frame : idsByFrame.keySet()) {
+			final List<Integer> ids = idsByFrame.get(frame);
+			final List<Spot> frameSpots = new ArrayList<Spot>(ids.size());
+			final int[] idArray = new int[ids.size()];
+			for (int k = 0; k < idArray.length; k++) {
+				idArray[k] = ids.get(k);
+				frameSpots.add(spots.get(idArray[k]));
+			}
+			index.put(frame, new FrameIndex(new SpotCellIndex(frameSpots, maxDist), idArray));
+		}
+		return index;
+	}
+
+	/**
+	 * The grid of the spots of one frame, with the index of each spot in the complete list.
+	 */
+	private static final class FrameIndex {
+
+		private final SpotCellIndex index;
+		private final int[] ids;
+
+		private FrameIndex(final SpotCellIndex index, final int[] ids) {
+			this.index = index;
+			this.ids = ids;
+		}
+	}
+}
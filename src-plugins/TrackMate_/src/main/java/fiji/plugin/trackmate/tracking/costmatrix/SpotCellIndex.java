@@ -0,0 +1,126 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import java.util.Arrays;
+import java.util.List;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A uniform grid over a list of spots, with a cell size equal to a max linking distance,
+ * used by the sparse cost matrix creators to only visit the pairs of spots that can be
+ * closer than this distance.
+ * <p>
+ * Spots are sorted by cell, so that the content of a cell is a contiguous range found by
+ * binary search, and the candidates for a query spot are the content of the 3x3x3 cells
+ * around it. Candidates still have to be tested against the max distance.
+ */
+class SpotCellIndex {
+
+	private static final int MASK = (1 << 21) - 1;
+
+	private final double cellSize;
+	/** Sorted cell keys, one per indexed spot. */
+	private final long[] keys;
+	/** Index in the source list of the spot for each key. */
+	private final int[] order;
+	/** If true, all spots are put in a single cell. */
+	private final boolean singleCell;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * @param spots  the spots to index. Their position must not change while this index is used.
+	 * @param cellSize  the grid cell size, which must be the max distance that will be queried.
+	 */
+	SpotCellIndex(final List<Spot> spots, final double cellSize) {
+		this.cellSize = cellSize;
+		this.singleCell = !(cellSize > 0) || Double.isInfinite(cellSize);
+		final int n = spots.size();
+		final long[] packed = new long[n];
+		final long[] cellKeys = new long[n];
+		for (int i = 0; i < n; i++) {
+			cellKeys[i] = cellKey(spots.get(i), 0, 0, 0);
+		}
+
+		// Sort the spot indices by key. Keys are renumbered first so that each fits with its index in a long.
+		final long[] distinct = cellKeys.clone();
+		Arrays.sort(distinct);
+		for (int i = 0; i < n; i++) {
+			final long rank = Arrays.binarySearch(distinct, cellKeys[i]);
+			packed[i] = (rank << 32) | i;
+		}
+		Arrays.sort(packed);
+		this.keys = new long[n];
+		this.order = new int[n];
+		for (int k = 0; k < n; k++) {
+			order[k] = (int) (packed[k] & 0xffffffffL);
+			keys[k] = cellKeys[order[k]];
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the indices, in the indexed list, of the spots found in the cells around
+	 * the given spot.
+	 */
+	int[] getCandidates(final Spot spot) {
+		if (singleCell) {
+			return order.clone();
+		}
+		int[] candidates = new int[16];
+		int nCandidates = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					final long key = cellKey(spot, dx, dy, dz);
+					int k = firstIndexOf(key);
+					while (k < keys.length && keys[k] == key) {
+						if (nCandidates == candidates.length) {
+							candidates = Arrays.copyOf(candidates, 2 * nCandidates);
+						}
+						candidates[nCandidates++] = order[k];
+						k++;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(candidates, nCandidates);
+	}
+
+	private int firstIndexOf(final long key) {
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (keys[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long cellKey(final Spot spot, final int dx, final int dy, final int dz) {
+		if (singleCell) {
+			return 0;
+		}
+		final long cx = (cellCoordinate(spot, Spot.POSITION_X) + dx) & MASK;
+		final long cy = (cellCoordinate(spot, Spot.POSITION_Y) + dy) & MASK;
+		final long cz = (cellCoordinate(spot, Spot.POSITION_Z) + dz) & MASK;
+		return (cx << 42) | (cy << 21) | cz;
+	}
+
+	private int cellCoordinate(final Spot spot, final String feature) {
+		final Double val = spot.getFeature(feature);
+		if (null == val) {
+			return 0;
+		}
+		return (int) Math.floor(val.doubleValue() / cellSize);
+	}
+}
@@ -0,0 +1,331 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.tracking.costmatrix.SparseCostMatrix;
+
+/**
+ * Solves assignment problems given as a {@link SparseCostMatrix}, after the
+ * shortest augmenting path algorithm of Jonker and Volgenant, in its sparse
+ * variant:
+ * <p>
+ * R. Jonker, A. Volgenant, "A shortest augmenting path algorithm for dense and
+ * sparse linear assignment problems", Computing 38 (1987), 325-340.
+ * <p>
+ * Only the allowed assignments are stored and visited. Column reduction
+ * provides a first partial assignment, then each row left free is assigned by
+ * a Dijkstra search over reduced costs, which only touches the columns that
+ * are closer than the nearest free column, and only resets these afterwards.
+ * For the cost matrices of TrackMate, where each spot has a handful of
+ * neighbors within the max distance, this takes close to linear time and
+ * memory in the number of spots, whereas dense solvers are in O(n^3) time and
+ * O(n^2) memory.
+ * <p>
+ * Every row must be assignable: the number of rows must not exceed the number
+ * of columns, and a complete assignment must exist among the allowed pairs.
+ * This is always the case for the matrices built by the LAP trackers, thanks
+ * to their alternative costs.
+ */
+public class JonkerVolgenantAlgorithm implements AssignmentAlgorithm {
+
+	private final double blockingValue;
+
+	/**
+	 * Creates a solver for which only infinite costs are blocked, when solving a dense matrix.
+	 */
+	public JonkerVolgenantAlgorithm() {
+		this(Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param blockingValue  the cost at or above which an assignment is considered blocked,
+	 * when solving a dense matrix.
+	 */
+	public JonkerVolgenantAlgorithm(final double blockingValue) {
+		this.blockingValue = blockingValue;
+	}
+
+	/**
+	 * Converts the dense matrix to a {@link SparseCostMatrix}, dropping blocked assignments,
+	 * and solves it. The matrix is not modified.
+	 */
+	@Override
+	public int[][] computeAssignments(final double[][] costMatrix) {
+		return computeAssignments(SparseCostMatrix.fromDense(costMatrix, blockingValue));
+	}
+
+	/**
+	 * Solves the assignment problem for the given sparse cost matrix.
+	 *
+	 * @return one <code>{row, column}</code> pair for each row.
+	 * @throws IllegalArgumentException if no complete assignment exists.
+	 */
+	public int[][] computeAssignments(final SparseCostMatrix cm) {
+		final int nRows = cm.getNRows();
+		final int nCols = cm.getNCols();
+		if (nRows > nCols) {
+			throw new IllegalArgumentException("Cannot assign " + nRows + " rows to " + nCols + " columns.");
+		}
+
+		final int[] rowStart = cm.getRowStart();
+		final int[] columns = cm.getColumns();
+		final double[] costs = cm.getCosts();
+
+		// Column assigned to each row, row assigned to each column
+		final int[] x = new int[nRows];
+		final int[] y = new int[nCols];
+		Arrays.fill(x, -1);
+		Arrays.fill(y, -1);
+		// Cost of the current assignment of each row
+		final double[] assignedCost = new double[nRows];
+		// Column potentials
+		final double[] v = new double[nCols];
+
+		/*
+		 * 1 - Column reduction: each column gets the smallest cost in it as potential, and is
+		 * assigned to the corresponding row if this one is still free. All reduced costs
+		 * c(i,j) - v(j) are then non-negative, and zero for the assigned pairs.
+		 *
+		 * This is only valid for square matrices: when there are more columns than rows, the
+		 * columns left free at the end must share the same, largest potential. They then all
+		 * start from the smallest cost, and the augmentation only ever lowers the potentials
+		 * of the columns it assigns.
+		 */
+
+		if (nRows == nCols) {
+			final int[] minRow = new int[nCols];
+			Arrays.fill(v, Double.POSITIVE_INFINITY);
+			Arrays.fill(minRow, -1);
+			for (int i = 0; i < nRows; i++) {
+				for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+					final int j = columns[k];
+					if (costs[k] < v[j]) {
+						v[j] = costs[k];
+						minRow[j] = i;
+					}
+				}
+			}
+			for (int j = nCols - 1; j >= 0; j--) {
+				if (minRow[j] < 0) {
+					// Empty column: no complete assignment exists, this will be reported below
+					v[j] = 0;
+					continue;
+				}
+				final int i = minRow[j];
+				if (x[i] < 0) {
+					x[i] = j;
+					y[j] = i;
+					assignedCost[i] = v[j];
+				}
+			}
+		} else {
+			double minCost = 0;
+			for (int k = 0; k < rowStart[nRows]; k++) {
+				minCost = Math.min(minCost, costs[k]);
+			}
+			Arrays.fill(v, minCost);
+		}
+
+		/*
+		 * 2 - Augmentation: each free row is assigned along the shortest alternating path to a
+		 * free column.
+		 */
+
+		final double[] d = new double[nCols];
+		final int[] pred = new int[nCols];
+		final double[] predCost = new double[nCols];
+		final boolean[] scanned = new boolean[nCols];
+		final boolean[] touched = new boolean[nCols];
+		final int[] touchedList = new int[nCols];
+		final int[] scannedList = new int[nCols];
+		final ColumnHeap heap = new ColumnHeap(nCols, d);
+
+		for (int f = 0; f < nRows; f++) {
+			if (x[f] >= 0) {
+				continue;
+			}
+
+			int nTouched = 0;
+			int nScanned = 0;
+			int endColumn = -1;
+			double mu = 0;
+
+			// Reduced costs from the free row
+			for (int k = rowStart[f]; k < rowStart[f + 1]; k++) {
+				final int j = columns[k];
+				d[j] = costs[k] - v[j];
+				pred[j] = f;
+				predCost[j] = costs[k];
+				touched[j] = true;
+				touchedList[nTouched++] = j;
+				heap.push(j);
+			}
+
+			while (!heap.isEmpty()) {
+				final int j = heap.pop();
+				scanned[j] = true;
+				scannedList[nScanned++] = j;
+
+				if (y[j] < 0) {
+					// Found a free column: this is the end of the shortest path
+					endColumn = j;
+					mu = d[j];
+					break;
+				}
+
+				// Continue the path through the row assigned to this column
+				final int i = y[j];
+				final double ui = assignedCost[i] - v[j];
+				for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+					final int l = columns[k];
+					if (scanned[l]) {
+						continue;
+					}
+					final double dl = d[j] + costs[k] - v[l] - ui;
+					if (!touched[l]) {
+						touched[l] = true;
+						touchedList[nTouched++] = l;
+						d[l] = dl;
+						pred[l] = i;
+						predCost[l] = costs[k];
+						heap.push(l);
+					} else if (dl < d[l]) {
+						d[l] = dl;
+						pred[l] = i;
+						predCost[l] = costs[k];
+						heap.decrease(l);
+					}
+				}
+			}
+
+			if (endColumn < 0) {
+				throw new IllegalArgumentException("No complete assignment exists: row " + f + " cannot be assigned.");
+			}
+
+			// Update the potentials of the columns closer than the free column
+			for (int s = 0; s < nScanned; s++) {
+				final int j = scannedList[s];
+				v[j] += d[j] - mu;
+			}
+
+			// Augment along the path
+			int j = endColumn;
+			while (true) {
+				final int i = pred[j];
+				y[j] = i;
+				final int previous = x[i];
+				x[i] = j;
+				assignedCost[i] = predCost[j];
+				if (i == f) {
+					break;
+				}
+				j = previous;
+			}
+
+			// Reset what was touched
+			for (int t = 0; t < nTouched; t++) {
+				final int l = touchedList[t];
+				touched[l] = false;
+				scanned[l] = false;
+			}
+			heap.clear();
+		}
+
+		final int[][] assignments = new int[nRows][];
+		for (int i = 0; i < nRows; i++) {
+			assignments[i] = new int[] { i, x[i] };
+		}
+		return assignments;
+	}
+
+	/**
+	 * A binary min-heap of column indices, ordered by their distance, that supports decreasing
+	 * the distance of a column already in the heap.
+	 */
+	private static final class ColumnHeap {
+
+		private final int[] heap;
+		private final int[] position;
+		private final double[] keys;
+		private int size = 0;
+
+		private ColumnHeap(final int nCols, final double[] keys) {
+			this.heap = new int[nCols];
+			this.position = new int[nCols];
+			this.keys = keys;
+			Arrays.fill(position, -1);
+		}
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private void push(final int j) {
+			heap[size] = j;
+			position[j] = size;
+			size++;
+			up(size - 1);
+		}
+
+		private void decrease(final int j) {
+			up(position[j]);
+		}
+
+		private int pop() {
+			final int top = heap[0];
+			position[top] = -1;
+			size--;
+			if (size > 0) {
+				heap[0] = heap[size];
+				position[heap[0]] = 0;
+				down(0);
+			}
+			return top;
+		}
+
+		private void clear() {
+			for (int k = 0; k < size; k++) {
+				position[heap[k]] = -1;
+			}
+			size = 0;
+		}
+
+		private void up(int k) {
+			final int j = heap[k];
+			final double key = keys[j];
+			while (k > 0) {
+				final int parent = (k - 1) >> 1;
+				if (keys[heap[parent]] <= key) {
+					break;
+				}
+				heap[k] = heap[parent];
+				position[heap[k]] = k;
+				k = parent;
+			}
+			heap[k] = j;
+			position[j] = k;
+		}
+
+		private void down(int k) {
+			final int j = heap[k];
+			final double key = keys[j];
+			while (true) {
+				int child = 2 * k + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+					child++;
+				}
+				if (keys[heap[child]] >= key) {
+					break;
+				}
+				heap[k] = heap[child];
+				position[heap[k]] = k;
+				k = child;
+			}
+			heap[k] = j;
+			position[j] = k;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A pool of persistent worker threads shared by the TrackMate feature
+ * calculations, so that small, frequent calculations such as the ones
+ * triggered by manual edits do not pay for creating and joining new threads
+ * every time.
+ * <p>
+ * Callers of {@link #invokeAll(List, int)} are themselves often running on this
+ * pool, e.g. an analyzer that convolves an image with the tiled
+ * {@link fiji.plugin.trackmate.detection.util.FFTConvolver}. So the caller is
+ * one of the workers of its own call: it picks tasks until none is left, and
+ * only borrows pool threads as extra hands. A pool thread that got to its
+ * turn too late finds nothing to do, and one that has not started yet is
+ * withdrawn by the caller. A call never depends on a pool thread being free,
+ * even when the pool is busy running the caller.
+ */
+public class SharedThreadPool {
+
+	private static SharedThreadPool instance;
+
+	private final ExecutorService executor;
+	private final int poolSize;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	private SharedThreadPool(final int poolSize) {
+		this.poolSize = Math.max(1, poolSize);
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(this.poolSize, this.poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "TrackMate shared pool thread " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the shared pool, with one thread per available processor.
+	 */
+	public static synchronized SharedThreadPool getInstance() {
+		if (null == instance) {
+			instance = new SharedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the number of worker threads of this pool.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Runs each of the specified tasks exactly once, and returns when they are
+	 * all done. If a task throws an exception, the remaining tasks are not
+	 * started and the exception is rethrown, wrapped in a
+	 * {@link RuntimeException} if it is not one already.
+	 *
+	 * @param tasks
+	 *            the tasks to run.
+	 * @param parallelism
+	 *            the maximal number of tasks running at the same time,
+	 *            including the calling thread.
+	 */
+	public void invokeAll(final List<? extends Runnable> tasks, final int parallelism) {
+		final int nTasks = tasks.size();
+		if (nTasks == 0) {
+			return;
+		}
+
+		final AtomicInteger next = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = next.getAndIncrement(); i < nTasks && null == failure.get(); i = next.getAndIncrement()) {
+					try {
+						tasks.get(i).run();
+					} catch (final Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			}
+		};
+
+		final int nHelpers = Math.min(Math.min(parallelism, poolSize + 1), nTasks) - 1;
+		final List<Future<?>> helpers = new ArrayList<Future<?>>(Math.max(0, nHelpers));
+		final List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>(Math.max(0, nHelpers));
+		for (int i = 0; i < nHelpers; i++) {
+			// Whoever claims a helper first decides: it runs, or it is withdrawn
+			final AtomicBoolean claim = new AtomicBoolean(false);
+			claims.add(claim);
+			helpers.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (claim.compareAndSet(false, true)) {
+						worker.run();
+					}
+				}
+			}));
+		}
+		worker.run();
+
+		// All tasks are taken: withdraw the helpers that have not started
+		boolean interrupted = false;
+		for (int i = 0; i < nHelpers; i++) {
+			final Future<?> helper = helpers.get(i);
+			if (claims.get(i).compareAndSet(false, true)) {
+				helper.cancel(false);
+				continue;
+			}
+			/*
+			 * Started helpers must finish before we return, interrupted or not.
+			 * Future.cancel() cannot tell us, as it also succeeds on a running
+			 * task.
+			 */
+			while (true) {
+				try {
+					helper.get();
+					break;
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				} catch (final ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		final Throwable t = failure.get();
+		if (null != t) {
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new RuntimeException(t);
+		}
+	}
+}
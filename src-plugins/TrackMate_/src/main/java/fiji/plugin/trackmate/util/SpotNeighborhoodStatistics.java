@@ -0,0 +1,454 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.outofbounds.OutOfBoundsMirrorExpWindowingFactory;
+import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Computes the descriptive statistics of the pixels in a {@link SpotNeighborhood}
+ * in a single pass over the image.
+ * <p>
+ * Rather than iterating a new {@link SpotNeighborhood} for each spot, this class
+ * iterates an offset table, computed once for each neighborhood size and shared
+ * by all the instances, and stored as lines along X. When the neighborhood fits
+ * in the image, pixels are read with a plain {@link RandomAccess} moving along
+ * these lines; otherwise they are read with the same out-of-bounds strategy as
+ * {@link SpotNeighborhood}, so that results are identical in both cases.
+ * <p>
+ * The pixel values are gathered in a buffer shared by all the instances used in
+ * the same thread, and the median is found by selection rather than by sorting.
+ * <p>
+ * Instances are not thread-safe: the statistics of the last spot processed are
+ * stored in this instance, and can be queried through the getters.
+ */
+public class SpotNeighborhoodStatistics<T extends RealType<T>> {
+
+	/** The maximal number of offset tables kept in the cache. */
+	private static final int MAX_CACHED_TABLES = 256;
+
+	private static final Map<String, OffsetTable> TABLES = new LinkedHashMap<String, OffsetTable>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, OffsetTable> eldest) {
+			return size() > MAX_CACHED_TABLES;
+		}
+	};
+
+	private static final ThreadLocal<double[]> BUFFER = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[1024];
+		}
+	};
+
+	/*
+	 * FIELDS
+	 */
+
+	private final ImgPlus<T> img;
+	private final double[] calibration;
+	private final long[] center;
+	private final long[] position;
+	private final RandomAccess<T> ra;
+	/** Created only when a neighborhood crosses the image border. */
+	private RandomAccess<T> oobRa;
+
+	private int nPixels;
+	private double mean;
+	private double median;
+	private double min;
+	private double max;
+	private double total;
+	private double standardDeviation;
+	private double outerMean;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public SpotNeighborhoodStatistics(final ImgPlus<T> img) {
+		if (img.numDimensions() != 2 && img.numDimensions() != 3) {
+			throw new IllegalArgumentException("Source input must be 2D or 3D, got nDims = " + img.numDimensions());
+		}
+		this.img = img;
+		this.calibration = TMUtils.getSpatialCalibration(img);
+		this.center = new long[img.numDimensions()];
+		this.position = new long[img.numDimensions()];
+		this.ra = img.randomAccess();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Computes the statistics of the pixels of the neighborhood of the
+	 * specified spot. They can then be retrieved with the getters of this
+	 * instance.
+	 * <p>
+	 * Pixels farther from the spot center than its radius, that exist because
+	 * the neighborhood size is rounded to an integer number of pixels, are
+	 * included in the statistics, and also yield the {@link #getOuterMean()}.
+	 */
+	public void process(final Spot spot) {
+		final OffsetTable table = getTable(spot);
+		final double radius = spot.getFeature(Spot.RADIUS);
+		final double radius2 = radius * radius;
+		final RandomAccess<T> access = getAccess(table);
+
+		double[] values = BUFFER.get();
+		if (values.length < table.size) {
+			values = new double[table.size];
+			BUFFER.set(values);
+		}
+
+		// One pass over the image
+		double sum = 0;
+		double lmin = Double.POSITIVE_INFINITY;
+		double lmax = Double.NEGATIVE_INFINITY;
+		double sumOut = 0;
+		int nOut = 0;
+		int index = 0;
+		final double[] dist2 = table.dist2;
+		for (int run = 0; run < table.nRuns; run++) {
+			setRunStart(access, table, run);
+			final int length = table.runLengths[run];
+			for (int k = 0; k < length; k++) {
+				final double val = access.get().getRealDouble();
+				values[index] = val;
+				sum += val;
+				if (val < lmin) {
+					lmin = val;
+				}
+				if (val > lmax) {
+					lmax = val;
+				}
+				if (dist2[index] > radius2) {
+					sumOut += val;
+					nOut++;
+				}
+				index++;
+				access.fwd(0);
+			}
+		}
+
+		// Variance from the buffer
+		final int n = table.size;
+		final double lmean = sum / n;
+		double M2 = 0;
+		for (int i = 0; i < n; i++) {
+			final double dx = values[i] - lmean;
+			M2 += dx * dx;
+		}
+
+		nPixels = n;
+		total = sum;
+		mean = lmean;
+		min = lmin;
+		max = lmax;
+		standardDeviation = Math.sqrt(M2 / (n - 1));
+		// No background sample: NaN, so that contrast and SNR are not made up
+		outerMean = nOut > 0 ? sumOut / nOut : Double.NaN;
+		median = select(values, n, n / 2);
+	}
+
+	/**
+	 * Returns the mean value of the pixels of the neighborhood of the specified
+	 * spot whose squared distance to the spot center, in calibrated units, is
+	 * strictly larger than <code>minDist2</code> and smaller than or equal to
+	 * <code>maxDist2</code>. Only these pixels are read from the image. This
+	 * does not modify the statistics stored in this instance.
+	 * <p>
+	 * Returns {@link Double#NaN} if there is no such pixel.
+	 */
+	public double getShellMean(final Spot spot, final double minDist2, final double maxDist2) {
+		final OffsetTable table = getTable(spot);
+		final RandomAccess<T> access = getAccess(table);
+		final double[] dist2 = table.dist2;
+		double sum = 0;
+		int n = 0;
+		int index = 0;
+		for (int run = 0; run < table.nRuns; run++) {
+			final int length = table.runLengths[run];
+			boolean positioned = false;
+			for (int k = 0; k < length; k++, index++) {
+				if (dist2[index] <= minDist2 || dist2[index] > maxDist2) {
+					continue;
+				}
+				if (!positioned) {
+					setRunStart(access, table, run);
+					positioned = true;
+				}
+				access.setPosition(center[0] + table.runStarts[run * table.nDims] + k, 0);
+				sum += access.get().getRealDouble();
+				n++;
+			}
+		}
+		return n > 0 ? sum / n : Double.NaN;
+	}
+
+	/**
+	 * Returns the number of pixels in the last neighborhood processed.
+	 */
+	public int getNPixels() {
+		return nPixels;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getMedian() {
+		return median;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getTotal() {
+		return total;
+	}
+
+	public double getStandardDeviation() {
+		return standardDeviation;
+	}
+
+	/**
+	 * Returns the mean value of the pixels of the last neighborhood processed
+	 * that are farther from the spot center than its radius, or
+	 * {@link Double#NaN} if there is no such pixel.
+	 */
+	public double getOuterMean() {
+		return outerMean;
+	}
+
+	/**
+	 * Returns the <code>k</code>th smallest value of the first <code>n</code>
+	 * elements of the specified array, that is the value that would be at index
+	 * <code>k</code> if they were sorted. The elements are reordered in the
+	 * process.
+	 */
+	public static final double select(final double[] values, final int n, final int k) {
+		int left = 0;
+		int right = n - 1;
+		while (right > left) {
+			// Median of three as pivot
+			final int mid = (left + right) >>> 1;
+			if (values[mid] < values[left]) {
+				swap(values, mid, left);
+			}
+			if (values[right] < values[left]) {
+				swap(values, right, left);
+			}
+			if (values[right] < values[mid]) {
+				swap(values, right, mid);
+			}
+			final double pivot = values[mid];
+
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(values, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				break;
+			}
+		}
+		return values[k];
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static final void swap(final double[] values, final int i, final int j) {
+		final double tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
+	}
+
+	private final void setRunStart(final RandomAccess<T> access, final OffsetTable table, final int run) {
+		final int offset = run * table.nDims;
+		for (int d = 0; d < table.nDims; d++) {
+			position[d] = center[d] + table.runStarts[offset + d];
+		}
+		access.setPosition(position);
+	}
+
+	/**
+	 * Returns a random access that can read the whole neighborhood around the
+	 * current center.
+	 */
+	private final RandomAccess<T> getAccess(final OffsetTable table) {
+		for (int d = 0; d < center.length; d++) {
+			if (center[d] + table.min[d] < img.min(d) || center[d] + table.max[d] > img.max(d)) {
+				if (null == oobRa) {
+					final OutOfBoundsMirrorExpWindowingFactory<T, RandomAccessibleInterval<T>> oob = new OutOfBoundsMirrorExpWindowingFactory<T, RandomAccessibleInterval<T>>();
+					oobRa = oob.create(img);
+				}
+				return oobRa;
+			}
+		}
+		return ra;
+	}
+
+	/**
+	 * Sets the center of this instance to the specified spot, and returns the
+	 * offset table of its neighborhood.
+	 */
+	private final OffsetTable getTable(final Spot spot) {
+		final double radius = spot.getFeature(Spot.RADIUS);
+		final long[] span = new long[center.length];
+		for (int d = 0; d < center.length; d++) {
+			center[d] = Math.round(spot.getFeature(Spot.POSITION_FEATURES[d]).doubleValue() / calibration[d]);
+			span[d] = Math.round(radius / calibration[d]);
+		}
+
+		final StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder.append(Arrays.toString(span)).append(Arrays.toString(calibration));
+		final String key = keyBuilder.toString();
+
+		OffsetTable table;
+		synchronized (TABLES) {
+			table = TABLES.get(key);
+		}
+		if (null == table) {
+			table = new OffsetTable(new SpotNeighborhood<T>(spot, img), calibration);
+			synchronized (TABLES) {
+				TABLES.put(key, table);
+			}
+		}
+		return table;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The pixels of a {@link SpotNeighborhood}, as offsets to its center,
+	 * grouped in lines along X.
+	 */
+	private static final class OffsetTable {
+
+		private final int nDims;
+		private final int size;
+		private final int nRuns;
+		/** The offset of the first pixel of each line, <code>nDims</code> values per line. */
+		private final long[] runStarts;
+		private final int[] runLengths;
+		/** The calibrated squared distance to the center of each pixel, in iteration order. */
+		private final double[] dist2;
+		private final long[] min;
+		private final long[] max;
+
+		private OffsetTable(final SpotNeighborhood<?> neighborhood, final double[] calibration) {
+			nDims = neighborhood.numDimensions();
+			final List<long[]> offsets = new ArrayList<long[]>((int) neighborhood.size());
+			final SpotNeighborhoodCursor<?> cursor = neighborhood.cursor();
+			while (cursor.hasNext()) {
+				cursor.fwd();
+				final long[] offset = new long[nDims];
+				cursor.localize(offset);
+				for (int d = 0; d < nDims; d++) {
+					offset[d] -= neighborhood.center[d];
+				}
+				offsets.add(offset);
+			}
+
+			// Sort along Z, then Y, then X, so that lines along X are contiguous
+			Collections.sort(offsets, new Comparator<long[]>() {
+				@Override
+				public int compare(final long[] o1, final long[] o2) {
+					for (int d = o1.length - 1; d >= 0; d--) {
+						if (o1[d] != o2[d]) {
+							return o1[d] < o2[d] ? -1 : 1;
+						}
+					}
+					return 0;
+				}
+			});
+
+			size = offsets.size();
+			dist2 = new double[size];
+			min = new long[nDims];
+			max = new long[nDims];
+			Arrays.fill(min, Long.MAX_VALUE);
+			Arrays.fill(max, Long.MIN_VALUE);
+			final long[] starts = new long[size * nDims];
+			final int[] lengths = new int[size];
+			int runs = 0;
+			long[] previous = null;
+			for (int i = 0; i < size; i++) {
+				final long[] offset = offsets.get(i);
+				double d2 = 0;
+				for (int d = 0; d < nDims; d++) {
+					final double dx = calibration[d] * offset[d];
+					d2 += dx * dx;
+					min[d] = Math.min(min[d], offset[d]);
+					max[d] = Math.max(max[d], offset[d]);
+				}
+				dist2[i] = d2;
+
+				if (null != previous && continues(previous, offset)) {
+					lengths[runs - 1]++;
+				} else {
+					System.arraycopy(offset, 0, starts, runs * nDims, nDims);
+					lengths[runs] = 1;
+					runs++;
+				}
+				previous = offset;
+			}
+			nRuns = runs;
+			runStarts = Arrays.copyOf(starts, runs * nDims);
+			runLengths = Arrays.copyOf(lengths, runs);
+		}
+
+		/**
+		 * Returns <code>true</code> if the second offset is the next pixel
+		 * along X after the first one.
+		 */
+		private static final boolean continues(final long[] previous, final long[] offset) {
+			if (offset[0] != previous[0] + 1) {
+				return false;
+			}
+			for (int d = 1; d < offset.length; d++) {
+				if (offset[d] != previous[d]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
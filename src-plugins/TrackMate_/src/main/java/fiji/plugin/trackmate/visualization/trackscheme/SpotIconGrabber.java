@@ -41,6 +41,15 @@ public SpotIconGrabber(ImgPlus<T> img) {
 	 * are transformed in pixel coordinates thanks to the calibration stored in the {@link ImgPlus}.
 	 */
 	public String getImageString(Spot spot) {
+		return toImageString(getImage(spot));
+	}
+
+	/**
+	 * @return the image of the specified spot, cropped from the image given at construction
+	 * and scaled between its min and max.
+	 * @see #getImageString(Spot)
+	 */
+	public BufferedImage getImage(Spot spot) {
 		// Get crop coordinates
 		final double[] calibration = TMUtils.getSpatialCalibration(img);
 		final double radius = spot.getFeature(Spot.RADIUS); // physical units, REQUIRED!
@@ -67,12 +76,16 @@ public String getImageString(Spot spot) {
 		ImagePlus imp = ImageJFunctions.wrap(crop, crop.toString());
 		ImageProcessor ip = imp.getProcessor();
 		ip.resetMinAndMax();
+		return ip.getBufferedImage();
+	}
 
-		// Convert to base64
+	/**
+	 * @return the base64 string of the specified image, encoded as png.
+	 */
+	static String toImageString(BufferedImage image) {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		BufferedImage img = ip.getBufferedImage();
 		try {
-			ImageIO.write(img, "png", bos);
+			ImageIO.write(image, "png", bos);
 			return mxBase64.encodeToString(bos.toByteArray(), false);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -2,6 +2,8 @@
 
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import net.imglib2.meta.ImgPlus;
@@ -10,15 +12,41 @@
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 
+/**
+ * Generates the thumbnails of spots, and keeps the most recently used ones in
+ * a cache, so that they are not regenerated every time a view needs them.
+ * A cached thumbnail is regenerated if the spot moved or changed radius since
+ * it was taken.
+ */
 public class SpotImageUpdater {
-	
+
+	/** The default number of thumbnails kept in the cache. */
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+
 	private Integer previousFrame;
 	private SpotIconGrabber<?> grabber;
 	private final Settings settings;
+	private final Map<Spot, Thumbnail> cache;
 
 	public SpotImageUpdater(final Settings settings) {
+		this(settings, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates an updater that caches at most the specified number of
+	 * thumbnails.
+	 */
+	public SpotImageUpdater(final Settings settings, final int cacheSize) {
 		this.settings = settings;
 		this.previousFrame = -1;
+		this.cache = new LinkedHashMap<Spot, Thumbnail>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Spot, Thumbnail> eldest) {
+				return size() > cacheSize;
+			}
+		};
 	}
 
 	/**
@@ -27,13 +55,59 @@ public SpotImageUpdater(final Settings settings) {
 	 * So it is a good idea to group calls to this method for spots that belong to the
 	 * same frame.
 	 */
+	public synchronized String getImageString(final Spot spot) {
+		final Thumbnail thumbnail = getThumbnail(spot);
+		if (null == thumbnail) {
+			return "";
+		}
+		if (null == thumbnail.imageString) {
+			thumbnail.imageString = SpotIconGrabber.toImageString(thumbnail.image);
+		}
+		return thumbnail.imageString;
+	}
+
+	/**
+	 * @return the thumbnail image of the given spot, or <code>null</code> if it cannot be
+	 * generated.
+	 * @see #getImageString(Spot)
+	 */
+	public synchronized BufferedImage getImage(final Spot spot) {
+		final Thumbnail thumbnail = getThumbnail(spot);
+		return null == thumbnail ? null : thumbnail.image;
+	}
+
+	/**
+	 * Empties the thumbnail cache.
+	 */
+	public synchronized void clearCache() {
+		cache.clear();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private Thumbnail getThumbnail(final Spot spot) {
+		Thumbnail thumbnail = cache.get(spot);
+		if (null != thumbnail && thumbnail.isValidFor(spot)) {
+			return thumbnail;
+		}
+		final BufferedImage image = grabImage(spot);
+		if (null == image) {
+			return null;
+		}
+		thumbnail = new Thumbnail(spot, image);
+		cache.put(spot, thumbnail);
+		return thumbnail;
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public String getImageString(final Spot spot) {
+	private BufferedImage grabImage(final Spot spot) {
 
 		Integer frame = spot.getFeature(Spot.FRAME).intValue();
 		if (null == frame)
-			return "";
-		if (frame == previousFrame) {
+			return null;
+		if (frame.equals(previousFrame)) {
 			// Keep the same image than in memory
 		} else {
 			ImgPlus img = TMUtils.rawWraps(settings.imp);
@@ -52,6 +126,38 @@ public String getImageString(final Spot spot) {
 			grabber = new SpotIconGrabber(imgCT);
 			previousFrame = frame;
 		}
-		return grabber.getImageString(spot);			
+		return grabber.getImage(spot);
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A cached thumbnail, with the spot coordinates it was taken at.
+	 */
+	private static final class Thumbnail {
+
+		private final double x, y, z, radius, frame;
+		private final BufferedImage image;
+		/** The base64 version of the image, generated lazily. */
+		private String imageString;
+
+		private Thumbnail(final Spot spot, final BufferedImage image) {
+			this.x = spot.getFeature(Spot.POSITION_X);
+			this.y = spot.getFeature(Spot.POSITION_Y);
+			this.z = spot.getFeature(Spot.POSITION_Z);
+			this.radius = spot.getFeature(Spot.RADIUS);
+			this.frame = spot.getFeature(Spot.FRAME);
+			this.image = image;
+		}
+
+		private boolean isValidFor(final Spot spot) {
+			return x == spot.getFeature(Spot.POSITION_X) 
+					&& y == spot.getFeature(Spot.POSITION_Y) 
+					&& z == spot.getFeature(Spot.POSITION_Z) 
+					&& radius == spot.getFeature(Spot.RADIUS)
+					&& frame == spot.getFeature(Spot.FRAME);
+		}
 	}
 }
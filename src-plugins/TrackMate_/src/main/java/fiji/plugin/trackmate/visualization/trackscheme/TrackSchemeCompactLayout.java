@@ -0,0 +1,534 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.imglib2.algorithm.Benchmark;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.traverse.GraphIterator;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.GraphUtils;
+import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+
+/**
+ * A compact layout of the visible tracks of a {@link Model}, as TrackScheme
+ * arranges them: one row per frame, and one lane of columns per track.
+ * <p>
+ * The layout does not depend on JGraphX. The row and column of each spot are
+ * stored in primitive arrays, along with per-row indices of the spots (sorted
+ * by column), of the edges and of the track strips, so that a view can fetch
+ * what lies in a given rectangle without iterating over the whole model.
+ * <p>
+ * Instances are snapshots of the model at construction time, and are not
+ * modified afterwards.
+ *
+ * @see TrackSchemeGraphLayout
+ * @see TrackSchemeOverview
+ */
+public class TrackSchemeCompactLayout implements Benchmark {
+
+	/** The first column of the first track lane. */
+	static final int START_COLUMN = 2;
+
+	private static final int[] EMPTY = new int[0];
+
+	/*
+	 * FIELDS
+	 */
+
+	private final Map<Spot, Integer> index;
+	private final Spot[] spots;
+	private final int[] frames;
+	private final int[] columns;
+	private final int[] trackIndices;
+	private int nSpots = 0;
+
+	private final Integer[] columnTrackIDs;
+	private final int[] columnWidths;
+	/** The first free column of each row, after all the track lanes. */
+	private final int[] freeColumns;
+
+	/** For each row, the spot indices sorted by column. */
+	private final int[][] rowSpots;
+	/**
+	 * For each row, the strips made by the spots of one track, as
+	 * <code>{ first column, last column, track index }</code> triplets, sorted
+	 * by column.
+	 */
+	private final int[][] rowStrips;
+
+	private final DefaultWeightedEdge[] edges;
+	private final int[] edgeSources;
+	private final int[] edgeTargets;
+	/**
+	 * For each row, the indices of the edges whose earliest spot is in this
+	 * row, sorted by leftmost column.
+	 */
+	private final int[][] rowEdges;
+	/** For each row, the largest number of columns spanned by one of its edges. */
+	private final int[] rowEdgeWidths;
+	private int maxEdgeSpan = 0;
+
+	private final long processingTime;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Lays out the visible tracks of the specified model.
+	 */
+	public TrackSchemeCompactLayout(final Model model) {
+		final long start = System.currentTimeMillis();
+		final TrackModel trackModel = model.getTrackModel();
+		final Set<Integer> trackIDs = trackModel.trackIDs(true); // will be sorted by track name
+
+		int nTrackSpots = 0;
+		int nTrackEdges = 0;
+		for (final Integer trackID : trackIDs) {
+			nTrackSpots += trackModel.trackSpots(trackID).size();
+			nTrackEdges += trackModel.trackEdges(trackID).size();
+		}
+		index = new HashMap<Spot, Integer>(Math.max(16, 2 * nTrackSpots));
+		spots = new Spot[nTrackSpots];
+		frames = new int[nTrackSpots];
+		columns = new int[nTrackSpots];
+		trackIndices = new int[nTrackSpots];
+
+		final int nRows = model.getSpots().keySet().isEmpty() ? 0 : model.getSpots().lastKey() + 1;
+		final int ntracks = trackIDs.size();
+		columnTrackIDs = new Integer[ntracks];
+		columnWidths = new int[ntracks];
+
+		/*
+		 * Lay out spots
+		 */
+
+		final TimeDirectedNeighborIndex neighborCache = trackModel.getDirectedNeighborIndex();
+		final Map<Spot, Integer> cumulativeBranchWidth = GraphUtils.cumulativeBranchWidth(trackModel);
+
+		// Column occupancy for each row
+		final int[] occupancy = new int[nRows];
+		Arrays.fill(occupancy, START_COLUMN);
+
+		int trackIndex = 0;
+		int sumWidth = START_COLUMN - 1;
+		for (final Integer trackID : trackIDs) {
+
+			columnTrackIDs[trackIndex] = trackID;
+			final Set<Spot> track = trackModel.trackSpots(trackID);
+
+			// Get first spot
+			Spot first = null;
+			for (final Spot spot : track) {
+				if (null == first || Spot.frameComparator.compare(spot, first) < 0) {
+					first = spot;
+				}
+			}
+
+			/*
+			 * Our quick layout fails for graphs that are not trees, that is
+			 * if a track has at least a spot with more than one predecessor.
+			 * For these we revert to the old, slow scheme.
+			 */
+
+			if (GraphUtils.isTree(track, neighborCache)) {
+
+				final SortedDepthFirstIterator<Spot, DefaultWeightedEdge> iterator = trackModel.getSortedDepthFirstIterator(first, Spot.nameComparator, false);
+				while (iterator.hasNext()) {
+					final Spot spot = iterator.next();
+					final int frame = spot.getFeature(Spot.FRAME).intValue();
+					final int branchWidth = cumulativeBranchWidth.get(spot);
+
+					add(spot, frame, occupancy[frame] + branchWidth / 2, trackIndex);
+					occupancy[frame] += branchWidth;
+
+					// If it is a leaf, we fill the remaining row below and above
+					if (neighborCache.successorsOf(spot).size() == 0) {
+						Arrays.fill(occupancy, occupancy[frame]);
+					}
+				}
+
+			} else {
+
+				Spot previousSpot = null;
+				int currentColumn = nRows > 0 ? occupancy[0] : START_COLUMN;
+				boolean previousDirectionDescending = true;
+
+				final GraphIterator<Spot, DefaultWeightedEdge> iterator = trackModel.getDepthFirstIterator(first, false);
+				while (iterator.hasNext()) {
+					final Spot spot = iterator.next();
+					final int frame = spot.getFeature(Spot.FRAME).intValue();
+					final int freeColumn = occupancy[frame] + 1;
+
+					int targetColumn;
+					boolean currentDirectionDescending = previousDirectionDescending;
+					if (previousSpot != null) {
+						currentDirectionDescending = Spot.frameComparator.compare(spot, previousSpot) > 0;
+					}
+
+					if (previousSpot != null && !(trackModel.containsEdge(previousSpot, spot) || trackModel.containsEdge(spot, previousSpot))) {
+						// No direct edge with the previous spot: we move to the next column
+						currentColumn = currentColumn + 1;
+						targetColumn = Math.max(freeColumn, currentColumn);
+						currentColumn = targetColumn;
+
+					} else if (previousSpot != null && previousDirectionDescending != currentDirectionDescending) {
+						// We changed direction
+						currentColumn = currentColumn + 1;
+						targetColumn = Math.max(freeColumn, currentColumn);
+						currentColumn = targetColumn;
+
+					} else {
+						targetColumn = currentColumn;
+					}
+
+					previousDirectionDescending = currentDirectionDescending;
+					previousSpot = spot;
+
+					occupancy[frame] = targetColumn;
+					add(spot, frame, targetColumn, trackIndex);
+				}
+
+				for (int j = 0; j < occupancy.length; j++) {
+					occupancy[j]++;
+				}
+			}
+
+			// When done with a track, move all rows to the next free column
+			int maxCol = 0;
+			for (int j = 0; j < occupancy.length; j++) {
+				if (occupancy[j] > maxCol) {
+					maxCol = occupancy[j];
+				}
+			}
+			Arrays.fill(occupancy, maxCol + 1);
+
+			columnWidths[trackIndex] = maxCol - sumWidth;
+			sumWidth += columnWidths[trackIndex];
+			trackIndex++;
+		}
+
+		// Ensure we do not start at 0 for the first column of lonely cells
+		for (int i = 0; i < occupancy.length; i++) {
+			if (occupancy[i] < 1) {
+				occupancy[i] = 1;
+			}
+		}
+		freeColumns = occupancy;
+
+		/*
+		 * Index spots and strips per row
+		 */
+
+		final int[] rowCounts = new int[nRows];
+		for (int i = 0; i < nSpots; i++) {
+			rowCounts[frames[i]]++;
+		}
+		rowSpots = new int[nRows][];
+		rowStrips = new int[nRows][];
+		final long[][] keys = new long[nRows][];
+		for (int row = 0; row < nRows; row++) {
+			keys[row] = new long[rowCounts[row]];
+			rowCounts[row] = 0;
+		}
+		for (int i = 0; i < nSpots; i++) {
+			// Sort on column first, spot index second
+			keys[frames[i]][rowCounts[frames[i]]++] = ((long) columns[i] << 32) | i;
+		}
+		for (int row = 0; row < nRows; row++) {
+			final long[] rowKeys = keys[row];
+			Arrays.sort(rowKeys);
+			final int[] sorted = new int[rowKeys.length];
+			int nStrips = 0;
+			for (int j = 0; j < sorted.length; j++) {
+				sorted[j] = (int) rowKeys[j];
+				if (j == 0 || trackIndices[sorted[j]] != trackIndices[sorted[j - 1]]) {
+					nStrips++;
+				}
+			}
+			final int[] strips = new int[3 * nStrips];
+			int s = -3;
+			for (int j = 0; j < sorted.length; j++) {
+				final int i = sorted[j];
+				if (j == 0 || trackIndices[i] != trackIndices[sorted[j - 1]]) {
+					s += 3;
+					strips[s] = columns[i];
+					strips[s + 2] = trackIndices[i];
+				}
+				strips[s + 1] = columns[i];
+			}
+			rowSpots[row] = sorted;
+			rowStrips[row] = strips;
+			keys[row] = null;
+		}
+
+		/*
+		 * Index edges per row
+		 */
+
+		edges = new DefaultWeightedEdge[nTrackEdges];
+		edgeSources = new int[nTrackEdges];
+		edgeTargets = new int[nTrackEdges];
+		final int[] edgeRows = new int[nTrackEdges];
+		int nEdges = 0;
+		for (int row = 0; row < nRows; row++) {
+			rowCounts[row] = 0;
+		}
+		for (final Integer trackID : trackIDs) {
+			for (final DefaultWeightedEdge edge : trackModel.trackEdges(trackID)) {
+				final int source = index.get(trackModel.getEdgeSource(edge));
+				final int target = index.get(trackModel.getEdgeTarget(edge));
+				edges[nEdges] = edge;
+				edgeSources[nEdges] = source;
+				edgeTargets[nEdges] = target;
+				edgeRows[nEdges] = Math.min(frames[source], frames[target]);
+				maxEdgeSpan = Math.max(maxEdgeSpan, Math.abs(frames[source] - frames[target]));
+				rowCounts[edgeRows[nEdges]]++;
+				nEdges++;
+			}
+		}
+		rowEdges = new int[nRows][];
+		rowEdgeWidths = new int[nRows];
+		for (int row = 0; row < nRows; row++) {
+			keys[row] = new long[rowCounts[row]];
+			rowCounts[row] = 0;
+		}
+		for (int e = 0; e < nEdges; e++) {
+			// Sort on leftmost column first, edge index second
+			final int row = edgeRows[e];
+			final int c0 = columns[edgeSources[e]];
+			final int c1 = columns[edgeTargets[e]];
+			keys[row][rowCounts[row]++] = ((long) Math.min(c0, c1) << 32) | e;
+			rowEdgeWidths[row] = Math.max(rowEdgeWidths[row], Math.abs(c0 - c1));
+		}
+		for (int row = 0; row < nRows; row++) {
+			final long[] rowKeys = keys[row];
+			Arrays.sort(rowKeys);
+			final int[] sorted = rowKeys.length == 0 ? EMPTY : new int[rowKeys.length];
+			for (int j = 0; j < sorted.length; j++) {
+				sorted[j] = (int) rowKeys[j];
+			}
+			rowEdges[row] = sorted;
+			keys[row] = null;
+		}
+
+		processingTime = System.currentTimeMillis() - start;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the index of the specified spot in this layout, or
+	 * <code>-1</code> if it does not belong to a visible track.
+	 */
+	public int indexOf(final Spot spot) {
+		final Integer i = index.get(spot);
+		return null == i ? -1 : i.intValue();
+	}
+
+	/**
+	 * Returns the number of spots laid out.
+	 */
+	public int getNSpots() {
+		return nSpots;
+	}
+
+	public Spot getSpot(final int i) {
+		return spots[i];
+	}
+
+	/**
+	 * Returns the row of the i-th spot, which is its frame.
+	 */
+	public int getRow(final int i) {
+		return frames[i];
+	}
+
+	public int getColumn(final int i) {
+		return columns[i];
+	}
+
+	/**
+	 * Returns the index of the track lane the i-th spot belongs to.
+	 */
+	public int getTrackIndex(final int i) {
+		return trackIndices[i];
+	}
+
+	/**
+	 * Returns the number of rows, that is the number of frames of the model.
+	 */
+	public int getNRows() {
+		return rowSpots.length;
+	}
+
+	/**
+	 * Returns the number of track lanes.
+	 */
+	public int getNTracks() {
+		return columnTrackIDs.length;
+	}
+
+	/**
+	 * Returns the trackID for each track lane, from left to right.
+	 */
+	public Integer[] getColumnTrackIDs() {
+		return columnTrackIDs.clone();
+	}
+
+	/**
+	 * Returns the width, in columns, of each track lane, from left to right.
+	 */
+	public int[] getColumnWidths() {
+		return columnWidths.clone();
+	}
+
+	/**
+	 * Returns the first free column of each row, after all the track lanes.
+	 * The returned array can be modified.
+	 */
+	public int[] getFreeColumns() {
+		return freeColumns.clone();
+	}
+
+	/**
+	 * Returns the number of columns needed to display all the track lanes.
+	 */
+	public int getNColumns() {
+		int n = START_COLUMN;
+		for (int i = 0; i < freeColumns.length; i++) {
+			n = Math.max(n, freeColumns[i]);
+		}
+		return n;
+	}
+
+	public int getNEdges() {
+		return edges.length;
+	}
+
+	public DefaultWeightedEdge getEdge(final int e) {
+		return edges[e];
+	}
+
+	/**
+	 * Returns the index of the source spot of the e-th edge.
+	 */
+	public int getEdgeSource(final int e) {
+		return edgeSources[e];
+	}
+
+	/**
+	 * Returns the index of the target spot of the e-th edge.
+	 */
+	public int getEdgeTarget(final int e) {
+		return edgeTargets[e];
+	}
+
+	/**
+	 * Returns the maximal number of rows an edge spans.
+	 */
+	public int getMaxEdgeSpan() {
+		return maxEdgeSpan;
+	}
+
+	@Override
+	public long getProcessingTime() {
+		return processingTime;
+	}
+
+	/*
+	 * ROW INDICES
+	 * They return the internal arrays, which must not be modified.
+	 */
+
+	/**
+	 * Returns the indices of the spots in the specified row, sorted by column.
+	 */
+	int[] getRowSpots(final int row) {
+		return rowSpots[row];
+	}
+
+	/**
+	 * Returns the position, in {@link #getRowSpots(int)}, of the first spot of
+	 * the specified row whose column is not smaller than the specified column.
+	 */
+	int firstInRow(final int row, final int column) {
+		final int[] sorted = rowSpots[row];
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (columns[sorted[mid]] < column) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the track strips of the specified row, as
+	 * <code>{ first column, last column, track index }</code> triplets sorted
+	 * by column.
+	 */
+	int[] getRowStrips(final int row) {
+		return rowStrips[row];
+	}
+
+	/**
+	 * Returns the indices of the edges whose earliest spot lies in the
+	 * specified row, sorted by leftmost column.
+	 */
+	int[] getRowEdges(final int row) {
+		return rowEdges[row];
+	}
+
+	/**
+	 * Returns the position, in {@link #getRowEdges(int)}, from which the
+	 * edges of the specified row may reach the specified column or the columns
+	 * on its right.
+	 */
+	int firstEdgeInRow(final int row, final int column) {
+		final int[] sorted = rowEdges[row];
+		final int leftmost = column - rowEdgeWidths[row];
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int e = sorted[mid];
+			if (Math.min(columns[edgeSources[e]], columns[edgeTargets[e]]) < leftmost) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void add(final Spot spot, final int frame, final int column, final int trackIndex) {
+		if (index.containsKey(spot)) {
+			return;
+		}
+		index.put(spot, nSpots);
+		spots[nSpots] = spot;
+		frames[nSpots] = frame;
+		columns[nSpots] = column;
+		trackIndices[nSpots] = trackIndex;
+		nSpots++;
+	}
+}
@@ -8,37 +8,29 @@
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 
 import net.imglib2.algorithm.Benchmark;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.traverse.GraphIterator;
-
 import com.mxgraph.layout.mxGraphLayout;
-import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxICell;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.graph.GraphUtils;
-import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
-import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 
 /**
  * This {@link mxGraphLayout} arranges cells on a graph in lanes corresponding to tracks. 
  * It also sets the style of each cell so that they have a coloring depending on the lane
  * they belong to.
  * Each lane's width and color is available to other classes for further exploitation.
+ * <p>
+ * The columns are computed by a {@link TrackSchemeCompactLayout}, which this class
+ * only applies to the JGraphX cells.
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Mar 2011 - 2012
  *
  */
 public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark {
 
-	private static final int START_COLUMN = 2;
-
 	/** The target model to draw spot from. */
 	private final Model model;
 	private final JGraphXAdapter graph;
@@ -75,29 +67,9 @@ public void execute(Object parent) {
 		long start = System.currentTimeMillis();
 
 		/*
-		 * To be able to deal with lonely cells later (i.e. cells that are not part of a track),
-		 * we retrieve the list of all cells.
-		 */
-		Object[] objs = graph.getChildVertices(graph.getDefaultParent());
-		final ArrayList<mxCell> lonelyCells = new ArrayList<mxCell>(objs.length);
-		for (Object obj : objs) {
-			lonelyCells.add((mxCell) obj);
-		}
-
-		/*
-		 *  Get a neighbor cache
-		 */
-		TimeDirectedNeighborIndex neighborCache = model.getTrackModel().getDirectedNeighborIndex();
-
-		/*
-		 * Compute column width from recursive cumsum
-		 */
-		Map<Spot, Integer> cumulativeBranchWidth = GraphUtils.cumulativeBranchWidth(model.getTrackModel());
-
-		/* 
-		 * How many rows do we have to parse?
+		 * Compute the column of each spot in the visible tracks
 		 */
-		int maxFrame = model.getSpots().lastKey();
+		final TrackSchemeCompactLayout layout = new TrackSchemeCompactLayout(model);
 
 		graph.getModel().beginUpdate();
 		try {
@@ -105,179 +77,27 @@ public void execute(Object parent) {
 			/*
 			 * Pass n tracks info on component
 			 */
-			final int ntracks = model.getTrackModel().nTracks(true);
-			component.columnWidths = new int[ntracks];
-			component.columnTrackIDs = new Integer[ntracks];
+			component.columnWidths = layout.getColumnWidths();
+			component.columnTrackIDs = layout.getColumnTrackIDs();
 
 			/*
-			 * Initialize the column occupancy array
+			 * Position the cells of the tracks. We deal with lonely cells later (i.e. 
+			 * cells that are not part of a track).
 			 */
-			final int[] columns = new int[maxFrame+1];
-			for (int i = 0; i < columns.length; i++) {
-				columns[i] = START_COLUMN;
-			}
-
-			int trackIndex = 0;
-			for (Integer trackID : model.getTrackModel().trackIDs(true)) { // will be sorted by track name
-
-				// Get Tracks
-				final Set<Spot> track = model.getTrackModel().trackSpots(trackID);
-
-				// Pass name & trackID to component
-				component.columnTrackIDs[trackIndex] = trackID;
-
-				// Get first spot
-				TreeSet<Spot> sortedTrack = new TreeSet<Spot>(Spot.frameComparator);
-				sortedTrack.addAll(track);
-				Spot first = sortedTrack.first();
-
-				/*
-				 * A special case: our quick layout below fails for graph that are not trees. That
-				 * is: if a track has at least a spot that has more than one predecessor. If we have 
-				 * to deal with such a case, we revert to the old, slow scheme.
-				 */
-
-				boolean isTree = GraphUtils.isTree(track, neighborCache);
-
-				if (isTree) {
-
-					/*
-					 * Quick layout for a tree-like track 
-					 */
-
-
-					// First loop: Loop over spots in good order
-					SortedDepthFirstIterator<Spot,DefaultWeightedEdge> iterator = model.getTrackModel().getSortedDepthFirstIterator(first, Spot.nameComparator, false);
-
-					while(iterator.hasNext()) {
-
-						Spot spot = iterator.next();
-
-						// Get corresponding JGraphX cell, add it if it does not exist in the JGraphX yet
-						mxICell cell = graph.getCellFor(spot);
-
-						// This is cell is in a track, remove it from the list of lonely cells
-						lonelyCells.remove(cell);
-
-						// Determine in what row to put the spot
-						int frame = spot.getFeature(Spot.FRAME).intValue();
-
-						// Cell size, position and style
-						int cellPos = columns[frame] + cumulativeBranchWidth.get(spot)/2;
-						setCellGeometry(cell, frame, cellPos);
-						columns[frame] += cumulativeBranchWidth.get(spot);
-
-						// If it is a leaf, we fill the remaining row below and above
-						if (neighborCache.successorsOf(spot).size() == 0) {
-							int target = columns[frame];
-							for (int i = 0; i <= maxFrame; i++) {
-								columns[i] = target;
-							}
-						}
-
-					}
-
-
-
+			final int[] columns = layout.getFreeColumns();
+			final ArrayList<mxICell> lonelyCells = new ArrayList<mxICell>();
+			for (Object obj : graph.getChildVertices(graph.getDefaultParent())) {
+				mxICell cell = (mxICell) obj;
+				int index = layout.indexOf(graph.getSpotFor(cell));
+				if (index < 0) {
+					lonelyCells.add(cell);
 				} else {
-
-					/*
-					 * Old layout for merging tracks
-					 */
-
-					// Init track variables
-					Spot previousSpot = null;
-					int currentColumn = columns[0];
-					boolean previousDirectionDescending = true;
-
-					// First loop: Loop over spots 
-					GraphIterator<Spot, DefaultWeightedEdge> iterator = model.getTrackModel().getDepthFirstIterator(first, false);
-					while(iterator.hasNext()) {
-
-						Spot spot = iterator.next();
-
-						// Get corresponding JGraphX cell, add it if it does not exist in the JGraphX yet
-						mxICell cell = graph.getCellFor(spot);
-
-						// This is cell is in a track, remove it from the list of lonely cells
-						lonelyCells.remove(cell);
-
-						// Determine in what column to put the spot
-						int frame = spot.getFeature(Spot.FRAME).intValue();
-
-						int freeColumn = columns[frame] + 1;
-
-						int targetColumn;
-						boolean currentDirectionDescending = previousDirectionDescending;
-						if (previousSpot != null) currentDirectionDescending = Spot.frameComparator.compare(spot, previousSpot) > 0;
-
-						if (previousSpot != null && ! (model.getTrackModel().containsEdge(previousSpot, spot) 
-								|| model.getTrackModel().containsEdge(spot, previousSpot) ) ) { // direction does not matter
-							// If we have no direct edge with the previous spot, we add 1 to the current column
-							currentColumn = currentColumn + 1;
-							targetColumn = Math.max(freeColumn, currentColumn);
-							currentColumn = targetColumn;
-
-						} else if (previousSpot != null && previousDirectionDescending != currentDirectionDescending) {
-							// If we changed direction...
-							currentColumn = currentColumn + 1;
-							targetColumn = Math.max(freeColumn, currentColumn);
-							currentColumn = targetColumn;
-
-						} else {
-							// Nothing special
-							targetColumn = currentColumn;
-						}
-
-						previousDirectionDescending = currentDirectionDescending;
-						previousSpot = spot;
-
-
-						// Keep track of column filling
-						columns[frame] = targetColumn;
-
-						// Cell position
-						setCellGeometry(cell, frame, targetColumn);
-
-					}
-
-					for (int j = 0; j < columns.length; j++) {
-						columns[j]++;
-					}
-				}
-
-				// When done with a track, move all columns to the next free column
-				int maxCol = 0;
-				for (int j = 0; j < columns.length; j++) {
-					if (columns[j] > maxCol) {
-						maxCol = columns[j];
-					}
-				}
-				for (int i = 0; i < columns.length; i++) {
-					columns[i] = maxCol + 1;
-				}
-
-				// Store column widths for the panel background
-				int sumWidth = START_COLUMN - 1;
-				for (int i = 0; i < trackIndex; i++) {
-					sumWidth += component.columnWidths[i];
-				}
-				component.columnWidths[trackIndex] = maxCol - sumWidth;
-
-
-				trackIndex++;
-			}  // loop over tracks
-
-
-			// Ensure we do not start at 0 for the first column of lonely cells
-			for (int i = 0; i < columns.length; i++) {
-				if (columns[i] < 1) {
-					columns[i] = 1;
+					setCellGeometry(cell, layout.getRow(index), layout.getColumn(index));
 				}
 			}
 
 			// Deal with lonely cells
-			for (mxCell cell : lonelyCells) {
+			for (mxICell cell : lonelyCells) {
 				Spot spot = graph.getSpotFor(cell);
 				int frame = spot.getFeature(Spot.FRAME).intValue();
 				setCellGeometry(cell, frame, ++columns[frame]);
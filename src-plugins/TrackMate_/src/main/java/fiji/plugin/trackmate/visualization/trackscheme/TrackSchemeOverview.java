@@ -0,0 +1,260 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.SelectionChangeEvent;
+import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.visualization.AbstractTrackMateModelView;
+import fiji.plugin.trackmate.visualization.TrackColorGenerator;
+
+/**
+ * A read-only, lightweight version of {@link TrackScheme}, meant for lineages
+ * too large for the JGraphX-based TrackScheme.
+ * <p>
+ * Tracks are laid out like in TrackScheme, but in a
+ * {@link TrackSchemeCompactLayout} rather than in JGraphX cells, and are
+ * painted by a {@link TrackSchemeOverviewPanel}, that only paints what is
+ * visible and aggregates tracks into strips when zoomed out. Spots can be
+ * selected, but tracks cannot be edited from this view.
+ */
+public class TrackSchemeOverview extends AbstractTrackMateModelView {
+
+	public static final String NAME = "TrackScheme overview";
+	public static final String INFO_TEXT = "<html>" +
+			"The TrackScheme overview displays the tracks as lanes, <br>" +
+			"like TrackScheme, but only paints what is visible. It is <br>" +
+			"meant to browse very large lineages. " +
+			"<p>" +
+			"Tracks cannot be edited from this view. Use Ctrl + mouse <br>" +
+			"wheel to zoom; when zoomed out, tracks are drawn as strips." +
+			"</html>";
+	private static final Dimension DEFAULT_SIZE = new Dimension(800, 600);
+
+	/*
+	 * FIELDS
+	 */
+
+	/**
+	 * The instance in charge of generating the thumbnails of spots. If
+	 * <code>null</code>, thumbnails are not displayed.
+	 */
+	private SpotImageUpdater spotImageUpdater;
+	private JFrame frame;
+	private TrackSchemeOverviewPanel panel;
+	/** Set to <code>false</code> to avoid moving the view when the user clicks on a spot. */
+	private boolean doCenterOnSelection = true;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public TrackSchemeOverview(final Model model, final SelectionModel selectionModel) {
+		super(model, selectionModel);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the instance that generates the spot thumbnails. Thumbnails can
+	 * be toggled from the frame toolbar once it is set.
+	 */
+	public void setSpotImageUpdater(final SpotImageUpdater spotImageUpdater) {
+		this.spotImageUpdater = spotImageUpdater;
+	}
+
+	/**
+	 * Returns the frame this view is displayed in, or <code>null</code> if
+	 * {@link #render()} was not called yet.
+	 */
+	public JFrame getGUI() {
+		return frame;
+	}
+
+	@Override
+	public void render() {
+		final TrackSchemeCompactLayout layout = new TrackSchemeCompactLayout(model);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (null == frame) {
+					initGUI();
+				}
+				panel.setColorGenerator((TrackColorGenerator) displaySettings.get(KEY_TRACK_COLORING));
+				panel.setTrackLayout(layout);
+				frame.setVisible(true);
+			}
+		});
+	}
+
+	/**
+	 * Lays out the model again, in the calling thread, and paints the new
+	 * layout.
+	 */
+	@Override
+	public void refresh() {
+		if (null == panel) {
+			return;
+		}
+		final TrackSchemeCompactLayout layout = new TrackSchemeCompactLayout(model);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				panel.setTrackLayout(layout);
+			}
+		});
+	}
+
+	@Override
+	public void clear() {
+		// Nothing is painted on top of other displays.
+	}
+
+	@Override
+	public void centerViewOn(final Spot spot) {
+		if (null == panel) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				panel.centerViewOn(spot);
+			}
+		});
+	}
+
+	@Override
+	public void setDisplaySettings(final String key, final Object value) {
+		super.setDisplaySettings(key, value);
+		if (key == KEY_TRACK_COLORING && null != panel) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					panel.setColorGenerator((TrackColorGenerator) value);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void modelChanged(final ModelChangeEvent event) {
+		if (event.getEventID() == ModelChangeEvent.MODEL_MODIFIED) {
+			refresh();
+		}
+	}
+
+	@Override
+	public void selectionChanged(final SelectionChangeEvent event) {
+		if (null == panel) {
+			return;
+		}
+		if (doCenterOnSelection) {
+			super.selectionChanged(event);
+		}
+		panel.repaint();
+	}
+
+	@Override
+	public String getInfoText() {
+		return INFO_TEXT;
+	}
+
+	@Override
+	public String getKey() {
+		return NAME;
+	}
+
+	/*
+	 * PACKAGE METHODS
+	 */
+
+	/**
+	 * Called by the panel when the user clicks on a spot, or elsewhere if the
+	 * spot is <code>null</code>.
+	 */
+	void spotClicked(final Spot spot, final boolean toggle) {
+		doCenterOnSelection = false;
+		try {
+			if (!toggle) {
+				selectionModel.clearSelection();
+				if (null != spot) {
+					selectionModel.addSpotToSelection(spot);
+				}
+			} else if (null != spot) {
+				if (selectionModel.getSpotSelection().contains(spot)) {
+					selectionModel.removeSpotFromSelection(spot);
+				} else {
+					selectionModel.addSpotToSelection(spot);
+				}
+			}
+		} finally {
+			doCenterOnSelection = true;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void initGUI() {
+		panel = new TrackSchemeOverviewPanel(this, selectionModel);
+		final JScrollPane scrollPane = new JScrollPane(panel);
+
+		final JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		final JButton zoomInButton = new JButton("Zoom in");
+		zoomInButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(final ActionEvent e) {
+				panel.zoomIn();
+			}
+		});
+		toolbar.add(zoomInButton);
+		final JButton zoomOutButton = new JButton("Zoom out");
+		zoomOutButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(final ActionEvent e) {
+				panel.zoomOut();
+			}
+		});
+		toolbar.add(zoomOutButton);
+		final JButton resetZoomButton = new JButton("Reset zoom");
+		resetZoomButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(final ActionEvent e) {
+				panel.zoomTo(1, null);
+			}
+		});
+		toolbar.add(resetZoomButton);
+		final JToggleButton thumbnailButton = new JToggleButton("Thumbnails");
+		thumbnailButton.setEnabled(null != spotImageUpdater);
+		thumbnailButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(final ActionEvent e) {
+				panel.setSpotImageUpdater(thumbnailButton.isSelected() ? spotImageUpdater : null);
+			}
+		});
+		toolbar.add(thumbnailButton);
+
+		frame = new JFrame(NAME);
+		frame.setIconImage(TrackScheme.TRACK_SCHEME_ICON.getImage());
+		frame.getContentPane().setLayout(new BorderLayout());
+		frame.getContentPane().add(toolbar, BorderLayout.NORTH);
+		frame.getContentPane().add(scrollPane, BorderLayout.CENTER);
+		frame.setSize(DEFAULT_SIZE);
+	}
+}
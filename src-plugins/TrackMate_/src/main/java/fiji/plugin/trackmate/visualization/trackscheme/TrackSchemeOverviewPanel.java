@@ -0,0 +1,560 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static fiji.plugin.trackmate.gui.TrackMateWizard.FONT;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_HEIGHT;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_WIDTH;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.X_COLUMN_SIZE;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.Y_COLUMN_SIZE;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.Set;
+
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.visualization.TrackColorGenerator;
+
+/**
+ * The component that paints a {@link TrackSchemeCompactLayout} for the
+ * {@link TrackSchemeOverview}.
+ * <p>
+ * Only the cells and edges that intersect the clip bounds are painted, so the
+ * painting time does not depend on the size of the model. When zoomed out so
+ * much that a cell would be a few pixels wide, each track is painted as one
+ * strip per row instead of individual cells. Spot names and thumbnails are
+ * only painted when the cells are large enough to show them.
+ */
+public class TrackSchemeOverviewPanel extends JComponent implements Scrollable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Color BACKGROUND_COLOR_1 	= Color.GRAY;
+	private static final Color BACKGROUND_COLOR_2 	= Color.LIGHT_GRAY;
+	private static final Color LINE_COLOR 			= Color.BLACK;
+	private static final Color SELECTION_COLOR		= new Color(0, 1f, 0);
+	/** Below this column width on screen, in pixels, tracks are painted as strips. */
+	private static final double MIN_COLUMN_SIZE = 12;
+	/** Below this cell height on screen, in pixels, spot names are not painted. */
+	private static final double MIN_LABEL_HEIGHT = 12;
+	/** Below this cell height on screen, in pixels, thumbnails are not painted. */
+	private static final double MIN_THUMBNAIL_HEIGHT = 24;
+	private static final double MIN_SCALE = 1d / 256;
+	private static final double MAX_SCALE = 8;
+	private static final double ZOOM_FACTOR = 1.2;
+
+	private final TrackSchemeOverview overview;
+	private final SelectionModel selectionModel;
+	private TrackSchemeCompactLayout layout;
+	private TrackColorGenerator colorGenerator;
+	private Color[] spotColors = new Color[0];
+	private Color[] edgeColors = new Color[0];
+	private Color[] trackColors = new Color[0];
+	/** If not <code>null</code>, spot thumbnails will be painted when zoomed in enough. */
+	private SpotImageUpdater spotImageUpdater;
+	private double scale = 1;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public TrackSchemeOverviewPanel(final TrackSchemeOverview overview, final SelectionModel selectionModel) {
+		this.overview = overview;
+		this.selectionModel = selectionModel;
+		setOpaque(true);
+		final MouseAdapter mouseHandler = new MouseAdapter() {
+			@Override
+			public void mouseClicked(final MouseEvent e) {
+				if (e.getButton() == MouseEvent.BUTTON1) {
+					TrackSchemeOverviewPanel.this.overview.spotClicked(getSpotAt(e.getX(), e.getY()), e.isShiftDown());
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(final MouseWheelEvent e) {
+				if (e.isControlDown()) {
+					final double factor = e.getWheelRotation() < 0 ? ZOOM_FACTOR : 1 / ZOOM_FACTOR;
+					zoomTo(scale * factor, e.getPoint());
+				} else {
+					// Let the scroll pane scroll
+					final Component scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, TrackSchemeOverviewPanel.this);
+					if (null != scrollPane) {
+						scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(TrackSchemeOverviewPanel.this, e, scrollPane));
+					}
+				}
+			}
+		};
+		addMouseListener(mouseHandler);
+		addMouseWheelListener(mouseHandler);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the layout to paint, and recomputes the cell colors from the
+	 * current color generator. Must be called on the event dispatch thread.
+	 */
+	public void setTrackLayout(final TrackSchemeCompactLayout layout) {
+		this.layout = layout;
+		updateColors();
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * Sets the color generator used to paint tracks. Must be called on the
+	 * event dispatch thread.
+	 */
+	public void setColorGenerator(final TrackColorGenerator colorGenerator) {
+		this.colorGenerator = colorGenerator;
+		updateColors();
+		repaint();
+	}
+
+	/**
+	 * Sets the thumbnail generator. Thumbnails are not painted if it is
+	 * <code>null</code>.
+	 */
+	public void setSpotImageUpdater(final SpotImageUpdater spotImageUpdater) {
+		this.spotImageUpdater = spotImageUpdater;
+		repaint();
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	public void zoomIn() {
+		zoomTo(scale * ZOOM_FACTOR, null);
+	}
+
+	public void zoomOut() {
+		zoomTo(scale / ZOOM_FACTOR, null);
+	}
+
+	/**
+	 * Sets the zoom level, keeping the specified point, in component
+	 * coordinates, at the same position on screen. If the point is
+	 * <code>null</code>, the center of the visible area is used.
+	 */
+	public void zoomTo(final double newScale, Point anchor) {
+		final double target = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+		if (target == scale) {
+			return;
+		}
+		final Rectangle visible = getVisibleRect();
+		if (null == anchor) {
+			anchor = new Point(visible.x + visible.width / 2, visible.y + visible.height / 2);
+		}
+		final double ratio = target / scale;
+		scale = target;
+		revalidate();
+		if (getParent() instanceof JViewport) {
+			final JViewport viewport = (JViewport) getParent();
+			final int x = (int) Math.round(anchor.x * ratio - (anchor.x - visible.x));
+			final int y = (int) Math.round(anchor.y * ratio - (anchor.y - visible.y));
+			viewport.setViewSize(getPreferredSize());
+			viewport.setViewPosition(new Point(Math.max(0, x), Math.max(0, y)));
+		}
+		repaint();
+	}
+
+	/**
+	 * Scrolls so that the specified spot is at the center of the view, if it
+	 * is laid out.
+	 */
+	public void centerViewOn(final Spot spot) {
+		if (null == layout) {
+			return;
+		}
+		final int i = layout.indexOf(spot);
+		if (i < 0) {
+			return;
+		}
+		final Rectangle visible = getVisibleRect();
+		final int x = (int) Math.round(columnToX(layout.getColumn(i))) - visible.width / 2;
+		final int y = (int) Math.round(rowToY(layout.getRow(i))) - visible.height / 2;
+		scrollRectToVisible(new Rectangle(x, y, visible.width, visible.height));
+	}
+
+	/**
+	 * Returns the spot whose cell contains the specified point, or
+	 * <code>null</code> if there is none.
+	 */
+	public Spot getSpotAt(final int x, final int y) {
+		if (null == layout || isStripMode()) {
+			return null;
+		}
+		final int row = (int) Math.round(y / (Y_COLUMN_SIZE * scale) - 1.5);
+		final int column = (int) Math.round(x / (X_COLUMN_SIZE * scale));
+		if (row < 0 || row >= layout.getNRows()) {
+			return null;
+		}
+		final int[] rowSpots = layout.getRowSpots(row);
+		final int j = layout.firstInRow(row, column);
+		if (j >= rowSpots.length || layout.getColumn(rowSpots[j]) != column) {
+			return null;
+		}
+		if (Math.abs(x - columnToX(column)) > DEFAULT_CELL_WIDTH * scale / 2 || Math.abs(y - rowToY(row)) > DEFAULT_CELL_HEIGHT * scale / 2) {
+			return null;
+		}
+		return layout.getSpot(rowSpots[j]);
+	}
+
+	/*
+	 * PAINTING
+	 */
+
+	@Override
+	protected void paintComponent(final Graphics g) {
+		final Graphics2D g2d = (Graphics2D) g;
+		final Rectangle clip = g.getClipBounds();
+
+		g.setColor(BACKGROUND_COLOR_1);
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		if (null == layout) {
+			return;
+		}
+
+		// Visible rows and columns, with a margin for the cells that overlap the clip
+		final int rowMin = Math.max(0, (int) Math.floor(clip.y / (Y_COLUMN_SIZE * scale) - 2));
+		final int rowMax = Math.min(layout.getNRows() - 1, (int) Math.ceil((clip.y + clip.height) / (Y_COLUMN_SIZE * scale)));
+		final int colMin = (int) Math.floor(clip.x / (X_COLUMN_SIZE * scale)) - 1;
+		final int colMax = (int) Math.ceil((clip.x + clip.width) / (X_COLUMN_SIZE * scale)) + 1;
+
+		paintBackground(g2d, clip, rowMin, rowMax);
+		if (isStripMode()) {
+			paintStrips(g2d, rowMin, rowMax, colMin, colMax);
+		} else {
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			paintEdges(g2d, rowMin, rowMax, colMin, colMax);
+			paintCells(g2d, rowMin, rowMax, colMin, colMax);
+		}
+	}
+
+	private void paintBackground(final Graphics2D g, final Rectangle clip, final int rowMin, final int rowMax) {
+		final double ycs = Y_COLUMN_SIZE * scale;
+		final double xcs = X_COLUMN_SIZE * scale;
+
+		// Alternating row color; the first row is the header
+		g.setColor(BACKGROUND_COLOR_2);
+		if (ycs >= 2) {
+			for (int row = rowMin; row <= rowMax; row++) {
+				if ((row & 1) == 0) {
+					final int y0 = (int) Math.round((row + 1) * ycs);
+					final int y1 = (int) Math.round((row + 2) * ycs);
+					g.fillRect(clip.x, y0, clip.width, y1 - y0);
+				}
+			}
+		}
+
+		// Lane separators
+		g.setColor(LINE_COLOR);
+		final int[] columnWidths = layout.getColumnWidths();
+		double x = (TrackSchemeCompactLayout.START_COLUMN - 1) * xcs;
+		for (int i = 0; i < columnWidths.length && x <= clip.x + clip.width; i++) {
+			x += columnWidths[i] * xcs;
+			if (x >= clip.x) {
+				g.drawLine((int) Math.round(x), clip.y, (int) Math.round(x), clip.y + clip.height);
+			}
+		}
+
+		// Lane and row headers
+		if (ycs < MIN_LABEL_HEIGHT * 2) {
+			return;
+		}
+		g.setFont(FONT.deriveFont((float) (12 * scale)).deriveFont(Font.BOLD));
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		if (clip.y < ycs) {
+			final Integer[] trackIDs = layout.getColumnTrackIDs();
+			x = (TrackSchemeCompactLayout.START_COLUMN - 1) * xcs;
+			for (int i = 0; i < columnWidths.length && x <= clip.x + clip.width; i++) {
+				final double next = x + columnWidths[i] * xcs;
+				if (next >= clip.x) {
+					String name = overview.getModel().getTrackModel().name(trackIDs[i]);
+					if (null == name) {
+						name = "Name not set";
+					}
+					g.drawString(name, (int) Math.round(x + 20 * scale), (int) Math.round(ycs / 2));
+				}
+				x = next;
+			}
+		}
+		if (clip.x < xcs) {
+			for (int row = rowMin; row <= rowMax; row++) {
+				g.drawString(String.format("frame %d", row), (int) Math.round(xcs / 4), (int) Math.round((row + 1.5) * ycs));
+			}
+		}
+	}
+
+	/**
+	 * Paints each track as one strip per row, spanning from its first to its
+	 * last cell in the row.
+	 */
+	private void paintStrips(final Graphics2D g, final int rowMin, final int rowMax, final int colMin, final int colMax) {
+		final double xcs = X_COLUMN_SIZE * scale;
+		final double ycs = Y_COLUMN_SIZE * scale;
+		final int height = Math.max(1, (int) Math.round(DEFAULT_CELL_HEIGHT * scale));
+		final double halfWidth = DEFAULT_CELL_WIDTH * scale / 2;
+		// Skip the rows that would be painted on the same pixel row
+		final int rowStep = Math.max(1, (int) Math.floor(1 / ycs));
+		for (int row = rowMin - rowMin % rowStep; row <= rowMax; row += rowStep) {
+			final int[] strips = layout.getRowStrips(row);
+			final int y = (int) Math.round((row + 1.5) * ycs - height / 2d);
+			// Strips of the same color that touch on screen are merged
+			Color runColor = null;
+			int runStart = 0;
+			int runEnd = 0;
+			for (int s = firstStrip(strips, colMin); s < strips.length && strips[s] <= colMax; s += 3) {
+				final int x0 = (int) Math.floor(strips[s] * xcs - halfWidth);
+				final int x1 = Math.max(x0 + 1, (int) Math.ceil(strips[s + 1] * xcs + halfWidth));
+				final Color color = trackColors[strips[s + 2]];
+				if (color.equals(runColor) && x0 <= runEnd) {
+					runEnd = Math.max(runEnd, x1);
+					continue;
+				}
+				if (null != runColor) {
+					g.setColor(runColor);
+					g.fillRect(runStart, y, runEnd - runStart, height);
+				}
+				runColor = color;
+				runStart = x0;
+				runEnd = x1;
+			}
+			if (null != runColor) {
+				g.setColor(runColor);
+				g.fillRect(runStart, y, runEnd - runStart, height);
+			}
+		}
+	}
+
+	private void paintEdges(final Graphics2D g, final int rowMin, final int rowMax, final int colMin, final int colMax) {
+		final Set<DefaultWeightedEdge> selectedEdges = selectionModel.getEdgeSelection();
+		g.setStroke(new BasicStroke((float) Math.max(1, 2 * scale)));
+		for (int row = Math.max(0, rowMin - layout.getMaxEdgeSpan()); row <= rowMax; row++) {
+			final int[] rowEdges = layout.getRowEdges(row);
+			for (int j = layout.firstEdgeInRow(row, colMin); j < rowEdges.length; j++) {
+				final int e = rowEdges[j];
+				final int source = layout.getEdgeSource(e);
+				final int target = layout.getEdgeTarget(e);
+				final int c0 = layout.getColumn(source);
+				final int c1 = layout.getColumn(target);
+				if (Math.min(c0, c1) > colMax) {
+					break;
+				}
+				if (Math.max(c0, c1) < colMin || Math.max(layout.getRow(source), layout.getRow(target)) < rowMin) {
+					continue;
+				}
+				g.setColor(selectedEdges.contains(layout.getEdge(e)) ? SELECTION_COLOR : edgeColors[e]);
+				g.drawLine((int) Math.round(columnToX(c0)), (int) Math.round(rowToY(layout.getRow(source))),
+						(int) Math.round(columnToX(c1)), (int) Math.round(rowToY(layout.getRow(target))));
+			}
+		}
+	}
+
+	private void paintCells(final Graphics2D g, final int rowMin, final int rowMax, final int colMin, final int colMax) {
+		final Set<Spot> selectedSpots = selectionModel.getSpotSelection();
+		final int width = (int) Math.round(DEFAULT_CELL_WIDTH * scale);
+		final int height = (int) Math.round(DEFAULT_CELL_HEIGHT * scale);
+		final int arc = height / 2;
+		final boolean doPaintLabels = height >= MIN_LABEL_HEIGHT;
+		final boolean doPaintThumbnails = null != spotImageUpdater && height >= MIN_THUMBNAIL_HEIGHT;
+		final BasicStroke stroke = new BasicStroke((float) Math.max(1, 2 * scale));
+		final BasicStroke selectionStroke = new BasicStroke((float) Math.max(2, 4 * scale));
+		if (doPaintLabels) {
+			g.setFont(FONT.deriveFont((float) (12 * scale)));
+		}
+
+		for (int row = rowMin; row <= rowMax; row++) {
+			final int[] rowSpots = layout.getRowSpots(row);
+			final int y = (int) Math.round(rowToY(row)) - height / 2;
+			for (int j = layout.firstInRow(row, colMin); j < rowSpots.length; j++) {
+				final int i = rowSpots[j];
+				final int column = layout.getColumn(i);
+				if (column > colMax) {
+					break;
+				}
+				final Spot spot = layout.getSpot(i);
+				final int x = (int) Math.round(columnToX(column)) - width / 2;
+
+				g.setColor(Color.WHITE);
+				g.fillRoundRect(x, y, width, height, arc, arc);
+
+				int textX = x + arc / 2;
+				if (doPaintThumbnails) {
+					final BufferedImage thumbnail = spotImageUpdater.getImage(spot);
+					if (null != thumbnail) {
+						final int size = height - 4;
+						g.drawImage(thumbnail, x + arc / 2, y + 2, size, size, null);
+						textX += size + 2;
+					}
+				}
+				if (doPaintLabels && null != spot.getName()) {
+					g.setColor(LINE_COLOR);
+					final Rectangle oldClip = g.getClipBounds();
+					g.clipRect(x, y, width, height);
+					g.drawString(spot.getName(), textX, y + height / 2 + g.getFontMetrics().getAscent() / 2);
+					g.setClip(oldClip);
+				}
+
+				if (selectedSpots.contains(spot)) {
+					g.setColor(SELECTION_COLOR);
+					g.setStroke(selectionStroke);
+				} else {
+					g.setColor(spotColors[i]);
+					g.setStroke(stroke);
+				}
+				g.drawRoundRect(x, y, width, height, arc, arc);
+			}
+		}
+	}
+
+	/*
+	 * SCROLLABLE
+	 */
+
+	@Override
+	public Dimension getPreferredSize() {
+		if (null == layout) {
+			return new Dimension(0, 0);
+		}
+		return new Dimension(
+				(int) Math.ceil((layout.getNColumns() + 2) * X_COLUMN_SIZE * scale),
+				(int) Math.ceil((layout.getNRows() + 2) * Y_COLUMN_SIZE * scale));
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(final Rectangle visibleRect, final int orientation, final int direction) {
+		final double size = orientation == SwingConstants.VERTICAL ? Y_COLUMN_SIZE : X_COLUMN_SIZE;
+		return Math.max(1, (int) Math.round(size * scale / 4));
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(final Rectangle visibleRect, final int orientation, final int direction) {
+		return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return false;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private boolean isStripMode() {
+		return X_COLUMN_SIZE * scale < MIN_COLUMN_SIZE;
+	}
+
+	private double columnToX(final int column) {
+		return column * X_COLUMN_SIZE * scale;
+	}
+
+	private double rowToY(final int row) {
+		return (row + 1.5) * Y_COLUMN_SIZE * scale;
+	}
+
+	/**
+	 * Returns the position of the first strip that ends at or after the
+	 * specified column.
+	 */
+	private static int firstStrip(final int[] strips, final int column) {
+		int low = 0;
+		int high = strips.length / 3;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (strips[3 * mid + 1] < column) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return 3 * low;
+	}
+
+	/**
+	 * Computes the color of each edge, spot and track of the layout once, so
+	 * that painting does not have to call the color generator.
+	 */
+	private void updateColors() {
+		if (null == layout) {
+			return;
+		}
+		final Color defaultColor = Color.decode(TrackScheme.DEFAULT_COLOR);
+		final Integer[] trackIDs = layout.getColumnTrackIDs();
+		trackColors = new Color[trackIDs.length];
+		edgeColors = new Color[layout.getNEdges()];
+		spotColors = new Color[layout.getNSpots()];
+
+		// Edges are grouped by track in the layout
+		int currentTrack = -1;
+		for (int e = 0; e < edgeColors.length; e++) {
+			final int source = layout.getEdgeSource(e);
+			final int trackIndex = layout.getTrackIndex(source);
+			Color color = null;
+			if (null != colorGenerator) {
+				if (trackIndex != currentTrack) {
+					colorGenerator.setCurrentTrackID(trackIDs[trackIndex]);
+					currentTrack = trackIndex;
+				}
+				color = colorGenerator.color(layout.getEdge(e));
+			}
+			if (null == color) {
+				color = defaultColor;
+			}
+			edgeColors[e] = color;
+			if (null == trackColors[trackIndex]) {
+				trackColors[trackIndex] = color;
+			}
+			// Spots take the color of their incoming edge, or of any edge otherwise
+			final int target = layout.getEdgeTarget(e);
+			spotColors[target] = color;
+			if (null == spotColors[source]) {
+				spotColors[source] = color;
+			}
+		}
+		for (int i = 0; i < spotColors.length; i++) {
+			if (null == spotColors[i]) {
+				spotColors[i] = defaultColor;
+			}
+		}
+		for (int t = 0; t < trackColors.length; t++) {
+			if (null == trackColors[t]) {
+				trackColors[t] = defaultColor;
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.SpotFeatureStore.Column;
+
+public class SpotFeatureStoreTest {
+
+	private static final String FEATURE = "SPOT_FEATURE_STORE_TEST";
+
+	@Test
+	public void testMissingFeature() {
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		assertNull(spot.getFeature("NOT_A_FEATURE"));
+		assertTrue(SpotFeatureStore.isMissing(spot.getFeatureValue("NOT_A_FEATURE")));
+		assertNull(spot.getFeature(FEATURE));
+		assertFalse(spot.getFeatures().containsKey(FEATURE));
+	}
+
+	@Test
+	public void testPutGetFeature() {
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		spot.putFeature(FEATURE, Double.valueOf(5d));
+		assertEquals(5d, spot.getFeature(FEATURE), 0d);
+		assertEquals(5d, spot.getFeatureValue(FEATURE), 0d);
+		assertEquals(2d, spot.getDoublePosition(1), 0d);
+
+		// A NaN value is not a missing value
+		spot.putFeature(FEATURE, Double.NaN);
+		assertTrue(Double.isNaN(spot.getFeature(FEATURE)));
+		assertFalse(SpotFeatureStore.isMissing(spot.getFeatureValue(FEATURE)));
+	}
+
+	@Test
+	public void testFeatureMap() {
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		final Map<String, Double> features = spot.getFeatures();
+		assertEquals(3, features.size());
+		assertEquals(1d, features.get(Spot.POSITION_X), 0d);
+
+		features.put(FEATURE, 7d);
+		assertEquals(7d, spot.getFeature(FEATURE), 0d);
+		assertEquals(4, features.size());
+		assertTrue(features.keySet().contains(FEATURE));
+
+		assertEquals(7d, features.remove(FEATURE), 0d);
+		assertNull(spot.getFeature(FEATURE));
+		assertEquals(3, features.size());
+	}
+
+	@Test
+	public void testSpotsDoNotShareValues() {
+		final int nSpots = 10000;
+		final List<Spot> spots = new ArrayList<Spot>(nSpots);
+		final Set<Integer> indices = new HashSet<Integer>(nSpots);
+		for (int i = 0; i < nSpots; i++) {
+			final Spot spot = new Spot(new double[] { i, 0, 0 });
+			spot.putFeature(FEATURE, Double.valueOf(-i));
+			spots.add(spot);
+			indices.add(spot.getStoreIndex());
+		}
+		assertEquals(nSpots, indices.size());
+
+		final Column column = SpotFeatureStore.getInstance().getColumn(FEATURE);
+		final int[] storeIndices = new int[nSpots];
+		for (int i = 0; i < nSpots; i++) {
+			storeIndices[i] = spots.get(i).getStoreIndex();
+		}
+		final double[] values = new double[nSpots];
+		column.get(storeIndices, values);
+		for (int i = 0; i < nSpots; i++) {
+			assertEquals(-i, values[i], 0d);
+			assertEquals(i, spots.get(i).getFeature(Spot.POSITION_X), 0d);
+		}
+	}
+
+	@Test
+	public void testConcurrentWrites() throws InterruptedException {
+		final int nThreads = 4;
+		final int nSpotsPerThread = 20000;
+		final List<List<Spot>> spots = new ArrayList<List<Spot>>(nThreads);
+		final Thread[] threads = new Thread[nThreads];
+		for (int t = 0; t < nThreads; t++) {
+			final List<Spot> threadSpots = new ArrayList<Spot>(nSpotsPerThread);
+			spots.add(threadSpots);
+			final int offset = t * nSpotsPerThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < nSpotsPerThread; i++) {
+						final Spot spot = new Spot(new double[] { 0, 0, 0 });
+						spot.putFeature(FEATURE, Double.valueOf(offset + i));
+						threadSpots.add(spot);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int t = 0; t < nThreads; t++) {
+			for (int i = 0; i < nSpotsPerThread; i++) {
+				assertEquals(t * nSpotsPerThread + i, spots.get(t).get(i).getFeature(FEATURE), 0d);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpotSpatialIndexTest {
+
+	private static final int N_SPOTS = 2000;
+	private static final int N_QUERIES = 50;
+	private static final int FRAME = 3;
+	private static final double SIZE = 100;
+
+	private SpotCollection sc;
+	private List<Spot> spots;
+	private Random ran;
+
+	@Before
+	public void setUp() {
+		ran = new Random(1l);
+		spots = new ArrayList<Spot>(N_SPOTS);
+		for (int i = 0; i < N_SPOTS; i++) {
+			spots.add(createSpot());
+		}
+		sc = new SpotCollection();
+		sc.put(FRAME, spots);
+		// Make one spot out of two visible
+		for (int i = 0; i < N_SPOTS; i++) {
+			sc.add(spots.get(i), FRAME);
+			if (i % 2 == 0) {
+				spots.get(i).putFeature(SpotCollection.VISIBLITY, SpotCollection.ZERO);
+			}
+		}
+	}
+
+	@Test
+	public void testQueries() {
+		checkQueries();
+	}
+
+	@Test
+	public void testAddRemove() {
+		// Build the index
+		checkQueries();
+
+		for (int i = 0; i < N_SPOTS / 2; i++) {
+			final Spot spot = createSpot();
+			sc.add(spot, FRAME);
+			spots.add(spot);
+			final Spot removed = spots.remove(ran.nextInt(spots.size()));
+			sc.remove(removed, FRAME);
+			if (i % 100 == 0) {
+				checkQueries();
+			}
+		}
+		checkQueries();
+
+		// Remove and add back the same spot
+		final Spot spot = spots.get(0);
+		sc.remove(spot, FRAME);
+		sc.add(spot, FRAME);
+		checkQueries();
+	}
+
+	@Test
+	public void testMovedSpots() {
+		checkQueries();
+		for (final Spot spot : spots) {
+			spot.putFeature(Spot.POSITION_X, SIZE * ran.nextDouble());
+		}
+		spots.get(0).putFeature(Spot.RADIUS, 2 * SIZE);
+		checkQueries();
+	}
+
+	@Test
+	public void testMovedSpotsAreReinserted() {
+		checkQueries();
+		final SpotSpatialIndex index = sc.getSpatialIndex(FRAME);
+		final int numRebuilds = index.getNumRebuilds();
+
+		// A frame that is never queried
+		final Spot other = createSpot();
+		sc.add(other, FRAME + 1);
+		sc.getSpatialIndex(FRAME + 1).getNearest(new double[] { 0, 0, 0 }, false);
+		final int otherRebuilds = sc.getSpatialIndex(FRAME + 1).getNumRebuilds();
+
+		for (int i = 0; i < N_SPOTS / 10; i++) {
+			final Spot spot = spots.get(ran.nextInt(spots.size()));
+			spot.putFeature(Spot.POSITION_Y, SIZE * ran.nextDouble());
+			spot.putFeature(Spot.RADIUS, 1 + 4 * ran.nextDouble());
+			if (i % 50 == 0) {
+				checkQueries();
+			}
+		}
+		other.putFeature(Spot.POSITION_X, SIZE * ran.nextDouble());
+		checkQueries();
+
+		// Only the moved spots were reinserted
+		assertEquals(numRebuilds, index.getNumRebuilds());
+		assertEquals(otherRebuilds, sc.getSpatialIndex(FRAME + 1).getNumRebuilds());
+		assertEquals(other, sc.getClosestSpot(other, FRAME + 1, false));
+	}
+
+	@Test
+	public void testReplacedIndexIsNotNotified() {
+		checkQueries();
+		final SpotSpatialIndex old = sc.getSpatialIndex(FRAME);
+
+		// Same spots, new frame content
+		sc.put(FRAME, spots);
+		final Spot spot = spots.get(0);
+		final int numNotifications = old.getNumNotifications();
+		spot.putFeature(Spot.POSITION_X, SIZE * ran.nextDouble());
+		assertEquals(numNotifications, old.getNumNotifications());
+		assertEquals(spot, sc.getClosestSpot(spot, FRAME, false));
+
+		// Spots kept in a new collection
+		final SpotSpatialIndex index = sc.getSpatialIndex(FRAME);
+		final SpotCollection other = new SpotCollection();
+		other.put(FRAME, spots);
+		sc.disposeSpatialIndices();
+		final int indexNotifications = index.getNumNotifications();
+		spot.putFeature(Spot.POSITION_X, SIZE * ran.nextDouble());
+		assertEquals(indexNotifications, index.getNumNotifications());
+	}
+
+	@Test
+	public void testMissingFrame() {
+		final Spot location = new Spot(new double[] { 0, 0, 0 });
+		assertNull(sc.getClosestSpot(location, FRAME + 1, false));
+		assertNull(sc.getSpotAt(location, FRAME + 1, false));
+		assertEquals(0, sc.getNClosestSpots(location, FRAME + 1, 5, false).size());
+		assertEquals(0, sc.getSpotsWithin(location, FRAME + 1, SIZE, false).size());
+	}
+
+	/*
+	 * HELPERS
+	 */
+
+	private Spot createSpot() {
+		final Spot spot = new Spot(new double[] { SIZE * ran.nextDouble(), SIZE * ran.nextDouble(), SIZE * ran.nextDouble() });
+		spot.putFeature(Spot.RADIUS, 1 + 4 * ran.nextDouble());
+		return spot;
+	}
+
+	/**
+	 * Compares the results of all the queries with an exhaustive search.
+	 */
+	private void checkQueries() {
+		for (int q = 0; q < N_QUERIES; q++) {
+			final Spot location = new Spot(new double[] { SIZE * ran.nextDouble(), SIZE * ran.nextDouble(), SIZE * ran.nextDouble() });
+			for (final boolean visibleOnly : new boolean[] { false, true }) {
+
+				final List<Spot> sorted = sortByDistance(location, visibleOnly);
+				assertEquals(sorted.get(0), sc.getClosestSpot(location, FRAME, visibleOnly));
+
+				final List<Spot> nClosest = sc.getNClosestSpots(location, FRAME, 10, visibleOnly);
+				assertEquals(sorted.subList(0, 10), nClosest);
+
+				final double radius = 5 + 10 * ran.nextDouble();
+				final List<Spot> within = sc.getSpotsWithin(location, FRAME, radius, visibleOnly);
+				int nWithin = 0;
+				while (nWithin < sorted.size() && sorted.get(nWithin).squareDistanceTo(location) <= radius * radius) {
+					nWithin++;
+				}
+				assertEquals(sorted.subList(0, nWithin), within);
+
+				Spot at = null;
+				for (final Spot spot : sorted) {
+					final double r = spot.getFeature(Spot.RADIUS);
+					if (spot.squareDistanceTo(location) < r * r) {
+						at = spot;
+						break;
+					}
+				}
+				assertEquals(at, sc.getSpotAt(location, FRAME, visibleOnly));
+			}
+		}
+	}
+
+	private List<Spot> sortByDistance(final Spot location, final boolean visibleOnly) {
+		final List<Spot> sorted = new ArrayList<Spot>();
+		for (final Spot spot : sc.iterable(FRAME, visibleOnly)) {
+			sorted.add(spot);
+		}
+		Collections.sort(sorted, new Comparator<Spot>() {
+			@Override
+			public int compare(final Spot o1, final Spot o2) {
+				return Double.compare(o1.squareDistanceTo(location), o2.squareDistanceTo(location));
+			}
+		});
+		return sorted;
+	}
+}
@@ -212,4 +212,134 @@ public void testVisibilityMerge() {
 		assertTrue(model.isVisible(id));
 	}
 
+	@Test
+	public void testOnlyEditedTracksAreUpdated() {
+		TrackModel model = new TrackModel();
+		List<List<Spot>> tracks = new ArrayList<List<Spot>>();
+		for (int i = 0; i < N_TRACKS; i++) {
+			List<Spot> track = new ArrayList<Spot>();
+			Spot previous = null;
+			for (int j = 0; j < DEPTH; j++) {
+				Spot spot = new Spot(new double[3]);
+				model.addSpot(spot);
+				if (null != previous) {
+					model.addEdge(previous, spot, 1);
+				}
+				previous = spot;
+				track.add(spot);
+			}
+			tracks.add(track);
+		}
+		model.tracksUpdated.clear();
+
+		// Remove the last edge of the first track: it only shrinks.
+		List<Spot> first = tracks.get(0);
+		Integer firstID = model.trackIDOf(first.get(0));
+		model.removeEdge(first.get(DEPTH - 2), first.get(DEPTH - 1));
+		assertEquals(1, model.tracksUpdated.size());
+		assertTrue(model.tracksUpdated.contains(firstID));
+		assertEquals(N_TRACKS, model.nTracks(false));
+		assertEquals(DEPTH - 1, model.trackSpots(firstID).size());
+		assertEquals(null, model.trackIDOf(first.get(DEPTH - 1)));
+		model.tracksUpdated.clear();
+
+		// Merge the two last tracks: only the merged track is updated.
+		Spot source = tracks.get(1).get(DEPTH - 1);
+		Spot target = tracks.get(2).get(0);
+		model.addEdge(source, target, 1);
+		assertEquals(1, model.tracksUpdated.size());
+		Integer mergedID = model.trackIDOf(source);
+		assertEquals(mergedID, model.trackIDOf(target));
+		assertTrue(model.tracksUpdated.contains(mergedID));
+		assertEquals(2 * DEPTH, model.trackSpots(mergedID).size());
+		assertEquals(2 * DEPTH - 1, model.trackEdges(mergedID).size());
+	}
+
+	/**
+	 * Checks the track bookkeeping against the connected components of the
+	 * graph, over random edits.
+	 */
+	@Test
+	public void testRandomEdits() {
+		final int nSpots = 200;
+		final int nEdits = 2000;
+		final Random ran = new Random(3l);
+		TrackModel model = new TrackModel();
+		List<Spot> spots = new ArrayList<Spot>(nSpots);
+		for (int i = 0; i < nSpots; i++) {
+			Spot spot = new Spot(new double[3]);
+			model.addSpot(spot);
+			spots.add(spot);
+		}
+
+		for (int i = 0; i < nEdits; i++) {
+			int edit = ran.nextInt(10);
+			if (edit < 6) {
+				Spot source = spots.get(ran.nextInt(spots.size()));
+				Spot target = spots.get(ran.nextInt(spots.size()));
+				if (source != target && !model.containsEdge(source, target)) {
+					model.addEdge(source, target, 1);
+				}
+			} else if (edit < 9) {
+				Set<DefaultWeightedEdge> edges = model.edgeSet();
+				if (!edges.isEmpty()) {
+					List<DefaultWeightedEdge> list = new ArrayList<DefaultWeightedEdge>(edges);
+					model.removeEdge(list.get(ran.nextInt(list.size())));
+				}
+			} else {
+				Spot spot = spots.remove(ran.nextInt(spots.size()));
+				model.removeSpot(spot);
+				Spot newSpot = new Spot(new double[3]);
+				model.addSpot(newSpot);
+				spots.add(newSpot);
+			}
+			checkTracks(model);
+		}
+	}
+
+	private static void checkTracks(TrackModel model) {
+		Set<Spot> visited = new HashSet<Spot>();
+		int nTracks = 0;
+		for (Spot spot : model.vertexSet()) {
+			if (!visited.add(spot)) {
+				continue;
+			}
+			// Exhaustive search of the connected component
+			Set<Spot> component = new HashSet<Spot>();
+			Set<DefaultWeightedEdge> edges = new HashSet<DefaultWeightedEdge>();
+			List<Spot> queue = new ArrayList<Spot>();
+			queue.add(spot);
+			component.add(spot);
+			while (!queue.isEmpty()) {
+				Spot current = queue.remove(queue.size() - 1);
+				for (DefaultWeightedEdge edge : model.edgesOf(current)) {
+					edges.add(edge);
+					Spot other = model.getEdgeSource(edge).equals(current) ? model.getEdgeTarget(edge) : model.getEdgeSource(edge);
+					if (component.add(other)) {
+						queue.add(other);
+					}
+				}
+			}
+			visited.addAll(component);
+
+			Integer id = model.trackIDOf(spot);
+			if (edges.isEmpty()) {
+				assertEquals(null, id);
+				continue;
+			}
+			nTracks++;
+			assertTrue(null != id);
+			assertEquals(component, model.trackSpots(id));
+			assertEquals(edges, model.trackEdges(id));
+			for (Spot s : component) {
+				assertEquals(id, model.trackIDOf(s));
+			}
+			for (DefaultWeightedEdge e : edges) {
+				assertEquals(id, model.trackIDOf(e));
+			}
+			assertTrue(null != model.name(id));
+		}
+		assertEquals(nTracks, model.nTracks(false));
+	}
+
 }
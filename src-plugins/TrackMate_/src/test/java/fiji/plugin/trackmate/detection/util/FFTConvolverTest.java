@@ -0,0 +1,131 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+public class FFTConvolverTest {
+
+	private static final float TOLERANCE = 1e-4f;
+
+	private final Random ran = new Random(1l);
+
+	@Test
+	public void testSingleBlock() {
+		final Img<FloatType> img = createImage(23, 17, 9);
+		final Img<FloatType> kernel = createImage(5, 3, 7);
+		final FFTConvolver convolver = new FFTConvolver(kernel, img);
+		assertEquals(1, convolver.getNTiles());
+		checkResult(img, kernel, convolver.convolve(img, 1));
+	}
+
+	@Test
+	public void testTiles() {
+		final Img<FloatType> img = createImage(23, 17, 9);
+		final Img<FloatType> kernel = createImage(5, 3, 7);
+		final FFTConvolver convolver = new FFTConvolver(kernel, img, 200);
+		assertEquals(true, convolver.getNTiles() > 1);
+		checkResult(img, kernel, convolver.convolve(img, 1));
+		checkResult(img, kernel, convolver.convolve(img, 3));
+
+		// The same convolver serves images of the same size
+		final Img<FloatType> other = createImage(23, 17, 9);
+		checkResult(other, kernel, convolver.convolve(other, 2));
+	}
+
+	@Test
+	public void test2D() {
+		final Img<FloatType> img = createImage(40, 31);
+		final Img<FloatType> kernel = createImage(9, 4);
+		checkResult(img, kernel, new FFTConvolver(kernel, img).convolve(img, 1));
+		checkResult(img, kernel, new FFTConvolver(kernel, img, 40).convolve(img, 2));
+	}
+
+	@Test
+	public void testCompose() {
+		final Img<FloatType> k1 = createImage(3, 5);
+		final Img<FloatType> k2 = createImage(3, 3);
+		final Img<FloatType> composed = FFTConvolver.compose(k1, k2);
+		assertEquals(5, composed.dimension(0));
+		assertEquals(7, composed.dimension(1));
+
+		// Away from the borders, convolving with the composed kernel is the same as convolving twice
+		final Img<FloatType> img = createImage(30, 20);
+		final float[] twice = toArray(new FFTConvolver(k2, img).convolve(new FFTConvolver(k1, img).convolve(img, 1), 1));
+		final float[] once = toArray(new FFTConvolver(composed, img).convolve(img, 1));
+		for (int y = 4; y < 16; y++) {
+			for (int x = 4; x < 26; x++) {
+				assertEquals(twice[x + 30 * y], once[x + 30 * y], TOLERANCE);
+			}
+		}
+	}
+
+	/*
+	 * HELPERS
+	 */
+
+	private Img<FloatType> createImage(final long... dims) {
+		final Img<FloatType> img = ArrayImgs.floats(dims);
+		for (final FloatType pixel : img) {
+			pixel.set(ran.nextFloat() - 0.3f);
+		}
+		return img;
+	}
+
+	private static float[] toArray(final Img<FloatType> img) {
+		int size = 1;
+		for (int d = 0; d < img.numDimensions(); d++) {
+			size *= img.dimension(d);
+		}
+		final float[] values = new float[size];
+		int index = 0;
+		for (final FloatType pixel : img) {
+			values[index++] = pixel.get();
+		}
+		return values;
+	}
+
+	/**
+	 * Compares with a direct convolution, mirroring the image at its borders.
+	 */
+	private static void checkResult(final Img<FloatType> img, final Img<FloatType> kernel, final Img<FloatType> result) {
+		final int n = img.numDimensions();
+		final float[] source = toArray(img);
+		final float[] kernelValues = toArray(kernel);
+		final float[] actual = toArray(result);
+		final int[] position = new int[n];
+		for (int i = 0; i < source.length; i++) {
+			double expected = 0;
+			final int[] offset = new int[n];
+			for (int j = 0; j < kernelValues.length; j++) {
+				int index = 0;
+				for (int d = n - 1; d >= 0; d--) {
+					final int center = (int) kernel.dimension(d) / 2;
+					index = index * (int) img.dimension(d) + mirror(position[d] - offset[d] + center, (int) img.dimension(d));
+				}
+				expected += source[index] * kernelValues[j];
+				increment(offset, kernel);
+			}
+			assertEquals((float) expected, actual[i], TOLERANCE);
+			increment(position, img);
+		}
+	}
+
+	private static int mirror(final int x, final int size) {
+		final int period = 2 * size - 2;
+		final int p = ((x % period) + period) % period;
+		return p < size ? p : period - p;
+	}
+
+	private static void increment(final int[] position, final Img<FloatType> img) {
+		for (int d = 0; d < position.length && ++position[d] == img.dimension(d); d++) {
+			position[d] = 0;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+
+public class ModelFeatureUpdaterTest {
+
+	private static final int N_TRACKS = 5;
+	private static final int DEPTH = 9;
+	private Model model;
+	private RecordingTrackAnalyzer trackAnalyzer;
+	private RecordingEdgeAnalyzer edgeAnalyzer;
+	private Spot movedSpot;
+
+	@Before
+	public void setUp() {
+		model = new Model();
+		model.beginUpdate();
+		try {
+			for (int i = 0; i < N_TRACKS; i++) {
+				Spot previous = null;
+				for (int j = 0; j < DEPTH; j++) {
+					Spot spot = new Spot(new double[] { i, j, 0 });
+					model.addSpotTo(spot, j);
+					if (null != previous) {
+						model.addEdge(previous, spot, 1);
+					}
+					previous = spot;
+					if (i == N_TRACKS / 2 && j == DEPTH / 2) {
+						movedSpot = spot;
+					}
+				}
+			}
+		} finally {
+			model.endUpdate();
+		}
+
+		trackAnalyzer = new RecordingTrackAnalyzer();
+		edgeAnalyzer = new RecordingEdgeAnalyzer();
+		Settings settings = new Settings(); // no image, so no spot feature
+		settings.addTrackAnalyzer(trackAnalyzer);
+		settings.addEdgeAnalyzer(edgeAnalyzer);
+		new ModelFeatureUpdater(model, settings);
+	}
+
+	@Test
+	public final void testOnlyChangedTrackIsRecomputed() {
+		assertTrue(trackAnalyzer.processed.isEmpty());
+		assertTrue(edgeAnalyzer.processed.isEmpty());
+
+		// Move one spot in the middle of one track
+		model.beginUpdate();
+		try {
+			movedSpot.putFeature(Spot.POSITION_X, 100d);
+			model.updateFeatures(movedSpot);
+		} finally {
+			model.endUpdate();
+		}
+
+		// Only the track of that spot was recomputed
+		Integer trackID = model.getTrackModel().trackIDOf(movedSpot);
+		assertEquals(Collections.singleton(trackID), trackAnalyzer.processed);
+		assertEquals(N_TRACKS, model.getTrackModel().nTracks(false));
+
+		// Only the edges touching that spot were recomputed
+		Set<DefaultWeightedEdge> expected = model.getTrackModel().edgesOf(movedSpot);
+		assertEquals(2, expected.size());
+		assertEquals(expected, edgeAnalyzer.processed);
+	}
+
+	@Test
+	public final void testNothingRecomputedOnEmptyUpdate() {
+		model.beginUpdate();
+		model.endUpdate();
+
+		assertTrue(trackAnalyzer.processed.isEmpty());
+		assertTrue(edgeAnalyzer.processed.isEmpty());
+	}
+
+	/*
+	 * ANALYZERS
+	 */
+
+	/**
+	 * A local analyzer that declares no feature, and records what it was asked
+	 * to process.
+	 */
+	private static abstract class RecordingAnalyzer<T> implements FeatureAnalyzer {
+
+		protected final Set<T> processed = Collections.synchronizedSet(new HashSet<T>());
+
+		public void process(final Collection<T> targets) {
+			processed.addAll(targets);
+		}
+
+		public boolean isLocal() {
+			return true;
+		}
+
+		@Override
+		public List<String> getFeatures() {
+			return new ArrayList<String>();
+		}
+
+		@Override
+		public Map<String, String> getFeatureShortNames() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Map<String, String> getFeatureNames() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Map<String, Dimension> getFeatureDimensions() {
+			return Collections.emptyMap();
+		}
+
+		public long getProcessingTime() {
+			return 0;
+		}
+
+		public void setNumThreads() {}
+
+		public void setNumThreads(final int numThreads) {}
+
+		public int getNumThreads() {
+			return 1;
+		}
+	}
+
+	private static class RecordingTrackAnalyzer extends RecordingAnalyzer<Integer> implements TrackAnalyzer {
+
+		@Override
+		public String getKey() {
+			return "RECORDING_TRACK_ANALYZER";
+		}
+	}
+
+	private static class RecordingEdgeAnalyzer extends RecordingAnalyzer<DefaultWeightedEdge> implements EdgeAnalyzer {
+
+		@Override
+		public String getKey() {
+			return "RECORDING_EDGE_ANALYZER";
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+public class TmBinaryIOTest {
+
+	private static final int N_TRACKS = 5;
+	private static final int N_FRAMES = 10;
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final Model model = createModel();
+		final File file = write(model);
+
+		final TmBinaryReader reader = new TmBinaryReader(file);
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertEquals(N_TRACKS * N_FRAMES, reader.getNSpots());
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 }, reader.getFrames());
+		final Model read = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		checkModel(model, read);
+	}
+
+	@Test
+	public void testTimeWindow() throws IOException {
+		final Model model = createModel();
+		final File file = write(model);
+
+		final TmBinaryReader reader = new TmBinaryReader(file);
+		final Model read = reader.getModel(3, 6);
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertNotNull(read);
+
+		assertEquals(N_TRACKS * 4, read.getSpots().getNSpots(false));
+		assertEquals(3, read.getSpots().firstKey().intValue());
+		assertEquals(6, read.getSpots().lastKey().intValue());
+		assertEquals(N_TRACKS * 3, read.getTrackModel().edgeSet().size());
+
+		// Tracks keep their IDs, names, visibility and stored features
+		assertEquals(model.getTrackModel().trackIDs(false), read.getTrackModel().trackIDs(false));
+		assertEquals(model.getTrackModel().trackIDs(true), read.getTrackModel().trackIDs(true));
+		for (final Integer trackID : read.getTrackModel().trackIDs(false)) {
+			assertEquals(model.getTrackModel().name(trackID), read.getTrackModel().name(trackID));
+			assertEquals(model.getFeatureModel().getTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX),
+					read.getFeatureModel().getTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX));
+			for (final Spot spot : read.getTrackModel().trackSpots(trackID)) {
+				final int frame = spot.getFeature(Spot.FRAME).intValue();
+				assertTrue(frame >= 3 && frame <= 6);
+			}
+		}
+	}
+
+	@Test
+	public void testNotABinaryFile() throws IOException {
+		final File file = File.createTempFile("TrackMate", ".xml");
+		file.deleteOnExit();
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(file);
+		writer.appendModel(createModel());
+		writer.writeToFile();
+
+		final TmBinaryReader reader = new TmBinaryReader(file);
+		assertFalse(reader.isReadingOk());
+		assertNull(reader.getModel());
+	}
+
+	/*
+	 * HELPERS
+	 */
+
+	private static File write(final Model model) throws IOException {
+		final File file = File.createTempFile("TrackMate", TmBinaryWriter.EXTENSION);
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter(file);
+		writer.appendModel(model);
+		writer.writeToFile();
+		return file;
+	}
+
+	private static Model createModel() {
+		final Model model = new Model();
+		model.setPhysicalUnits("µm", "s");
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareEdgeFeatures(EdgeTargetAnalyzer.FEATURES, EdgeTargetAnalyzer.FEATURE_NAMES, EdgeTargetAnalyzer.FEATURE_SHORT_NAMES, EdgeTargetAnalyzer.FEATURE_DIMENSIONS);
+		fm.declareTrackFeatures(TrackIndexAnalyzer.FEATURES, TrackIndexAnalyzer.FEATURE_NAMES, TrackIndexAnalyzer.FEATURE_SHORT_NAMES, TrackIndexAnalyzer.FEATURE_DIMENSIONS);
+
+		model.beginUpdate();
+		try {
+			for (int i = 0; i < N_TRACKS; i++) {
+				Spot previous = null;
+				for (int t = 0; t < N_FRAMES; t++) {
+					final Spot spot = new Spot(new double[] { i, t, 0 }, "S" + i + "_" + t);
+					spot.putFeature(Spot.QUALITY, Double.valueOf(i + 0.5 * t));
+					spot.putFeature(Spot.RADIUS, Double.valueOf(1));
+					if (i == 0) {
+						// A feature only some spots have
+						spot.putFeature("SOME_FEATURE", Double.valueOf(t));
+					}
+					model.addSpotTo(spot, t);
+					if (null != previous) {
+						final DefaultWeightedEdge edge = model.addEdge(previous, spot, t);
+						fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, Double.valueOf(previous.ID()));
+						fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, Double.valueOf(spot.ID()));
+						fm.putEdgeFeature(edge, EdgeTargetAnalyzer.EDGE_COST, Double.valueOf(t));
+					}
+					previous = spot;
+				}
+			}
+		} finally {
+			model.endUpdate();
+		}
+
+		int index = 0;
+		for (final Integer trackID : model.getTrackModel().trackIDs(false)) {
+			fm.putTrackFeature(trackID, TrackIndexAnalyzer.TRACK_ID, Double.valueOf(trackID));
+			fm.putTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX, Double.valueOf(index++));
+		}
+		// Hide the first track
+		model.setTrackVisibility(model.getTrackModel().trackIDs(false).iterator().next(), false);
+		return model;
+	}
+
+	private static void checkModel(final Model expected, final Model actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getSpaceUnits(), actual.getSpaceUnits());
+		assertEquals(expected.getTimeUnits(), actual.getTimeUnits());
+		assertEquals(expected.getFeatureModel().getEdgeFeatures(), actual.getFeatureModel().getEdgeFeatures());
+		assertEquals(expected.getFeatureModel().getTrackFeatures(), actual.getFeatureModel().getTrackFeatures());
+
+		// Spots
+		assertEquals(expected.getSpots().getNSpots(false), actual.getSpots().getNSpots(false));
+		final Map<Integer, Spot> spots = new HashMap<Integer, Spot>();
+		for (final Spot spot : actual.getSpots().iterable(false)) {
+			spots.put(spot.ID(), spot);
+		}
+		for (final Spot spot : expected.getSpots().iterable(false)) {
+			final Spot read = spots.get(spot.ID());
+			assertNotNull(read);
+			assertEquals(spot.getName(), read.getName());
+			assertEquals(spot.getFeatures(), read.getFeatures());
+		}
+
+		// Tracks
+		assertEquals(expected.getTrackModel().trackIDs(false), actual.getTrackModel().trackIDs(false));
+		assertEquals(expected.getTrackModel().trackIDs(true), actual.getTrackModel().trackIDs(true));
+		assertEquals(expected.getTrackModel().edgeSet().size(), actual.getTrackModel().edgeSet().size());
+		for (final Integer trackID : expected.getTrackModel().trackIDs(false)) {
+			assertEquals(expected.getTrackModel().name(trackID), actual.getTrackModel().name(trackID));
+			assertEquals(expected.getFeatureModel().getTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX),
+					actual.getFeatureModel().getTrackFeature(trackID, TrackIndexAnalyzer.TRACK_INDEX));
+		}
+		for (final DefaultWeightedEdge edge : actual.getTrackModel().edgeSet()) {
+			final Spot source = actual.getTrackModel().getEdgeSource(edge);
+			final Spot target = actual.getTrackModel().getEdgeTarget(edge);
+			final DefaultWeightedEdge original = expected.getTrackModel().getEdge(spotWithID(expected, source.ID()), spotWithID(expected, target.ID()));
+			assertNotNull(original);
+			assertEquals(expected.getTrackModel().getEdgeWeight(original), actual.getTrackModel().getEdgeWeight(edge), 0d);
+			assertEquals(expected.getFeatureModel().getEdgeFeature(original, EdgeTargetAnalyzer.EDGE_COST),
+					actual.getFeatureModel().getEdgeFeature(edge, EdgeTargetAnalyzer.EDGE_COST));
+		}
+	}
+
+	private static Spot spotWithID(final Model model, final int ID) {
+		for (final Spot spot : model.getSpots().iterable(false)) {
+			if (spot.ID() == ID) {
+				return spot;
+			}
+		}
+		return null;
+	}
+}
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.tracking;
 
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
 import static org.junit.Assert.assertEquals;
@@ -151,6 +152,66 @@ public void  testTrackingWithFeature() {
 	}
 
 
+	/**
+	 * Standard tracking with the sparse solver, on the fast LAP tracker.
+	 */
+	@Test
+	public void  testSparseTracking() {
+
+		final int nFrames = 100;
+
+		// Create 2 "lines" of spots, with one spot missing in each line, to test gap closing
+		final List<Spot> group1 = new ArrayList<Spot>(nFrames);
+		final List<Spot> group2 = new ArrayList<Spot>(nFrames);
+		final SpotCollection spotCollection = new SpotCollection();
+		for (int i = 0; i < nFrames; i++) {
+			final List<Spot> spots = new ArrayList<Spot>(2);
+			if (i != 30) {
+				final Spot spot1 = new Spot(new double[] { 1d, 1d * i, 0 });
+				spot1.putFeature(Spot.POSITION_T, Double.valueOf(i));
+				spot1.setName("G1T"+i);
+				group1.add(spot1);
+				spots.add(spot1);
+			}
+			if (i != 60) {
+				final Spot spot2 = new Spot(new double[] { 10d, 1d * i, 0 });
+				spot2.putFeature(Spot.POSITION_T, Double.valueOf(i));
+				spot2.setName("G2T"+i);
+				group2.add(spot2);
+				spots.add(spot2);
+			}
+			spotCollection.put(i, spots);
+		}
+
+		// Make them all visible
+		spotCollection.setVisible(true);
+
+		final List<List<Spot>> groups = new ArrayList<List<Spot>>(2);
+		groups.add(group1);
+		groups.add(group2);
+
+		// Set the tracking settings
+		final Map<String, Object> trackerSettings = LAPUtils.getDefaultLAPSettingsMap();
+		trackerSettings.put(KEY_LINKING_MAX_DISTANCE, 2d);
+		trackerSettings.put(KEY_ALLOW_GAP_CLOSING, true);
+		trackerSettings.put(KEY_GAP_CLOSING_MAX_DISTANCE, 3d);
+
+		// Instantiate tracker
+		final LAPTracker tracker = new FastLAPTracker();
+		tracker.setUseSparseSolver(true);
+		tracker.setTarget(spotCollection, trackerSettings);
+
+		// Check process
+		if (!tracker.checkInput() || !tracker.process()) {
+			fail(tracker.getErrorMessage());
+		}
+
+		// Check results
+		final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = tracker.getResult();
+		verifyTracks(graph, groups, nFrames - 1);
+	}
+
+
 
 	private static void verifyTracks(final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph, final List<List<Spot>> groups, final int nFrames) {
 
@@ -0,0 +1,88 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.costmatrix.SparseCostMatrix;
+
+public class JonkerVolgenantAlgorithmTest {
+
+	private static final double BLOCKED = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Compares the total cost of the assignments with the one found by the Munkres-Kuhn
+	 * algorithm, on random square and rectangular matrices with blocked entries.
+	 */
+	@Test
+	public void testOptimalCost() {
+		final Random ran = new Random(1l);
+		for (int t = 0; t < 200; t++) {
+			final int nRows = 2 + ran.nextInt(40);
+			final int nCols = nRows + (t % 2 == 0 ? 0 : ran.nextInt(5));
+			final double density = 0.1 + 0.9 * ran.nextDouble();
+
+			final double[][] costs = new double[nRows][nCols];
+			final double[][] finiteCosts = new double[nRows][nCols];
+			for (int i = 0; i < nRows; i++) {
+				for (int j = 0; j < nCols; j++) {
+					costs[i][j] = ran.nextDouble() < density ? 100 * ran.nextDouble() : BLOCKED;
+				}
+				// Ensure a complete assignment exists
+				costs[i][i] = 1000 * ran.nextDouble();
+				for (int j = 0; j < nCols; j++) {
+					finiteCosts[i][j] = costs[i][j] == BLOCKED ? 1e9 : costs[i][j];
+				}
+			}
+
+			final int[][] expected = new MunkresKuhnAlgorithm().computeAssignments(finiteCosts);
+			final int[][] assignments = new JonkerVolgenantAlgorithm().computeAssignments(costs);
+
+			assertEquals(nRows, assignments.length);
+			final boolean[] assigned = new boolean[nCols];
+			for (final int[] assignment : assignments) {
+				assertTrue("Column " + assignment[1] + " is assigned twice.", !assigned[assignment[1]]);
+				assigned[assignment[1]] = true;
+				assertTrue("Blocked assignment used.", costs[assignment[0]][assignment[1]] < BLOCKED);
+			}
+			assertEquals(totalCost(finiteCosts, expected), totalCost(finiteCosts, assignments), 1e-6);
+		}
+	}
+
+	@Test
+	public void testSparseMatrix() {
+		final SparseCostMatrix.Builder builder = new SparseCostMatrix.Builder(3, 3);
+		builder.add(2, 0, 1);
+		builder.add(0, 0, 1);
+		builder.add(0, 1, 2);
+		builder.add(1, 0, 1);
+		builder.add(2, 2, 5);
+		builder.add(1, 2, 3);
+		final SparseCostMatrix cm = builder.build();
+		assertEquals(6, cm.getNEntries());
+		assertEquals(2d, cm.get(0, 1, BLOCKED), 0);
+		assertEquals(BLOCKED, cm.get(1, 1, BLOCKED), 0);
+
+		final int[][] assignments = new JonkerVolgenantAlgorithm().computeAssignments(cm);
+		assertEquals(1, assignments[0][1]);
+		assertEquals(2, assignments[1][1]);
+		assertEquals(0, assignments[2][1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoCompleteAssignment() {
+		final double[][] costs = new double[][] { { 1, BLOCKED }, { 2, BLOCKED } };
+		new JonkerVolgenantAlgorithm().computeAssignments(costs);
+	}
+
+	private static double totalCost(final double[][] costs, final int[][] assignments) {
+		double total = 0;
+		for (final int[] assignment : assignments) {
+			total += costs[assignment[0]][assignment[1]];
+		}
+		return total;
+	}
+}
@@ -0,0 +1,89 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SharedThreadPoolTest {
+
+	@Test
+	public void testNestedCalls() {
+		final SharedThreadPool pool = SharedThreadPool.getInstance();
+		final AtomicInteger count = new AtomicInteger(0);
+		final int parallelism = pool.getPoolSize() + 1;
+
+		// Nested calls saturate the pool: they must not deadlock
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int i = 0; i < 50; i++) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					final List<Runnable> subtasks = new ArrayList<Runnable>();
+					for (int j = 0; j < 20; j++) {
+						subtasks.add(new Runnable() {
+							@Override
+							public void run() {
+								count.incrementAndGet();
+							}
+						});
+					}
+					pool.invokeAll(subtasks, parallelism);
+				}
+			});
+		}
+		pool.invokeAll(tasks, parallelism);
+		assertEquals(1000, count.get());
+	}
+
+	@Test
+	public void testAllTasksDoneOnReturn() {
+		final SharedThreadPool pool = SharedThreadPool.getInstance();
+		for (int round = 0; round < 20; round++) {
+			final AtomicInteger count = new AtomicInteger(0);
+			final List<Runnable> tasks = new ArrayList<Runnable>();
+			for (int i = 0; i < 8; i++) {
+				tasks.add(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Thread.sleep(5);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						count.incrementAndGet();
+					}
+				});
+			}
+			// Helpers still running their last task must be waited for
+			pool.invokeAll(tasks, 4);
+			assertEquals(8, count.get());
+		}
+	}
+
+	@Test
+	public void testException() {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int i = 0; i < 10; i++) {
+			final int index = i;
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					if (index == 5) {
+						throw new IllegalStateException();
+					}
+				}
+			});
+		}
+		try {
+			SharedThreadPool.getInstance().invokeAll(tasks, 4);
+			fail("The exception of the failing task was not rethrown.");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+}
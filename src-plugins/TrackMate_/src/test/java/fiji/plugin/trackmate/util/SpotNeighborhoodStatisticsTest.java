@@ -0,0 +1,118 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class SpotNeighborhoodStatisticsTest {
+
+	private static final double[] CALIBRATION = new double[] { 0.2, 0.25, 1 };
+	private static final long[] DIMS = new long[] { 40, 35, 20 };
+	private static final int N_SPOTS = 200;
+	private ImgPlus<UnsignedShortType> img;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		random = new Random(1l);
+		Img<UnsignedShortType> source = new ArrayImgFactory<UnsignedShortType>().create(DIMS, new UnsignedShortType());
+		for (Cursor<UnsignedShortType> cursor = source.cursor(); cursor.hasNext();) {
+			cursor.fwd();
+			// Many identical values, to exercise the median selection
+			cursor.get().set(random.nextInt(4) == 0 ? 7 : random.nextInt(1000));
+		}
+		img = new ImgPlus<UnsignedShortType>(source, "3D", new AxisType[] { Axes.X, Axes.Y, Axes.Z }, CALIBRATION);
+	}
+
+	/**
+	 * Compares the statistics to the ones computed by iterating a
+	 * {@link SpotNeighborhood}, for spots inside the image and across its
+	 * borders.
+	 */
+	@Test
+	public void testProcess() {
+		final SpotNeighborhoodStatistics<UnsignedShortType> statistics = new SpotNeighborhoodStatistics<UnsignedShortType>(img);
+		for (int i = 0; i < N_SPOTS; i++) {
+			final double[] pos = new double[3];
+			for (int d = 0; d < pos.length; d++) {
+				pos[d] = random.nextDouble() * DIMS[d] * CALIBRATION[d];
+			}
+			final Spot spot = new Spot(pos);
+			final double radius = 0.1 + 3 * random.nextDouble();
+			spot.putFeature(Spot.RADIUS, radius);
+			final double radius2 = radius * radius;
+
+			final SpotNeighborhood<UnsignedShortType> neighborhood = new SpotNeighborhood<UnsignedShortType>(spot, img);
+			final int n = (int) neighborhood.size();
+			final double[] values = new double[n];
+			int index = 0;
+			double sum = 0;
+			double sumOut = 0;
+			int nOut = 0;
+			final SpotNeighborhoodCursor<UnsignedShortType> cursor = neighborhood.cursor();
+			while (cursor.hasNext()) {
+				cursor.fwd();
+				final double val = cursor.get().getRealDouble();
+				values[index++] = val;
+				sum += val;
+				if (cursor.getDistanceSquared() > radius2) {
+					sumOut += val;
+					nOut++;
+				}
+			}
+			final double mean = sum / n;
+			double M2 = 0;
+			for (int j = 0; j < n; j++) {
+				M2 += (values[j] - mean) * (values[j] - mean);
+			}
+			Arrays.sort(values);
+
+			statistics.process(spot);
+			assertEquals(n, statistics.getNPixels());
+			assertEquals(sum, statistics.getTotal(), 1e-9);
+			assertEquals(mean, statistics.getMean(), 1e-9);
+			assertEquals(values[0], statistics.getMin(), 1e-9);
+			assertEquals(values[n - 1], statistics.getMax(), 1e-9);
+			assertEquals(values[n / 2], statistics.getMedian(), 1e-9);
+			assertEquals(Math.sqrt(M2 / (n - 1)), statistics.getStandardDeviation(), 1e-6);
+			if (nOut > 0) {
+				assertEquals(sumOut / nOut, statistics.getOuterMean(), 1e-9);
+				assertEquals(sumOut / nOut, statistics.getShellMean(spot, radius2, Double.POSITIVE_INFINITY), 1e-9);
+			} else {
+				// No background sample
+				assertTrue(Double.isNaN(statistics.getOuterMean()));
+				assertTrue(Double.isNaN(statistics.getShellMean(spot, radius2, Double.POSITIVE_INFINITY)));
+			}
+		}
+	}
+
+	@Test
+	public void testSelect() {
+		for (int i = 0; i < 1000; i++) {
+			final int n = 1 + random.nextInt(50);
+			final double[] values = new double[n + 5];
+			for (int j = 0; j < n; j++) {
+				values[j] = random.nextBoolean() ? random.nextInt(5) : random.nextGaussian();
+			}
+			final double[] sorted = Arrays.copyOf(values, n);
+			Arrays.sort(sorted);
+			final int k = random.nextInt(n);
+			assertEquals(sorted[k], SpotNeighborhoodStatistics.select(values, n, k), 0);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class TrackSchemeCompactLayoutTest {
+
+	private static final int N_TRACKS = 4;
+	private static final int N_FRAMES = 6;
+
+	@Test
+	public void testLayout() {
+		final Model model = new Model();
+		final Spot lonely = new Spot(new double[] { 0, 0, 0 }, "Lonely");
+		model.beginUpdate();
+		try {
+			for (int i = 0; i < N_TRACKS; i++) {
+				Spot previous = null;
+				for (int t = 0; t < N_FRAMES; t++) {
+					final Spot spot = new Spot(new double[] { i, t, 0 }, "S" + i + "_" + t);
+					model.addSpotTo(spot, t);
+					if (null != previous) {
+						model.addEdge(previous, spot, 1);
+					}
+					previous = spot;
+				}
+			}
+			model.addSpotTo(lonely, 0);
+		} finally {
+			model.endUpdate();
+		}
+
+		final TrackSchemeCompactLayout layout = new TrackSchemeCompactLayout(model);
+		assertEquals(N_TRACKS, layout.getNTracks());
+		assertEquals(N_TRACKS * N_FRAMES, layout.getNSpots());
+		assertEquals(N_TRACKS * (N_FRAMES - 1), layout.getNEdges());
+		assertEquals(N_FRAMES, layout.getNRows());
+		assertEquals(-1, layout.indexOf(lonely));
+
+		// Each spot is in the row of its frame, in the lane of its track
+		final int[] widths = layout.getColumnWidths();
+		final int[] laneStarts = new int[N_TRACKS + 1];
+		laneStarts[0] = TrackSchemeCompactLayout.START_COLUMN - 1;
+		for (int t = 0; t < N_TRACKS; t++) {
+			laneStarts[t + 1] = laneStarts[t] + widths[t];
+		}
+		for (int i = 0; i < layout.getNSpots(); i++) {
+			final Spot spot = layout.getSpot(i);
+			assertEquals(i, layout.indexOf(spot));
+			assertEquals(spot.getFeature(Spot.FRAME).intValue(), layout.getRow(i));
+			final int trackIndex = layout.getTrackIndex(i);
+			assertEquals(model.getTrackModel().trackIDOf(spot), layout.getColumnTrackIDs()[trackIndex]);
+			assertTrue(layout.getColumn(i) > laneStarts[trackIndex]);
+			assertTrue(layout.getColumn(i) <= laneStarts[trackIndex + 1]);
+		}
+
+		// Rows are sorted by column, with one strip per track
+		for (int row = 0; row < layout.getNRows(); row++) {
+			final int[] rowSpots = layout.getRowSpots(row);
+			assertEquals(N_TRACKS, rowSpots.length);
+			for (int j = 1; j < rowSpots.length; j++) {
+				assertTrue(layout.getColumn(rowSpots[j - 1]) < layout.getColumn(rowSpots[j]));
+			}
+			assertEquals(3 * N_TRACKS, layout.getRowStrips(row).length);
+			final int column = layout.getColumn(rowSpots[2]);
+			assertEquals(2, layout.firstInRow(row, column));
+			assertEquals(rowSpots.length, layout.firstInRow(row, layout.getNColumns() + 1));
+		}
+
+		// Edges are indexed in the row of their earliest spot
+		int nEdges = 0;
+		for (int row = 0; row < layout.getNRows(); row++) {
+			for (final int e : layout.getRowEdges(row)) {
+				final DefaultWeightedEdge edge = layout.getEdge(e);
+				assertEquals(layout.indexOf(model.getTrackModel().getEdgeSource(edge)), layout.getEdgeSource(e));
+				assertEquals(row, Math.min(layout.getRow(layout.getEdgeSource(e)), layout.getRow(layout.getEdgeTarget(e))));
+				nEdges++;
+			}
+		}
+		assertEquals(layout.getNEdges(), nEdges);
+		assertEquals(1, layout.getMaxEdgeSpan());
+
+		// Lonely spots go after the track lanes
+		assertTrue(layout.getFreeColumns()[0] > laneStarts[N_TRACKS]);
+	}
+}
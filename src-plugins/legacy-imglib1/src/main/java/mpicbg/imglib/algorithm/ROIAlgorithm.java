@@ -177,6 +177,23 @@ public int[] getPatchSize()
 		return patchSize.clone();
 	}
 
+	/**
+	 * @return the {@link Image} over which this algorithm iterates.
+	 */
+	protected Image<T> getInputImage()
+	{
+		return inputImage;
+	}
+	
+	/**
+	 * @return the {@link OutOfBoundsStrategyFactory} used for patches that extend past the
+	 * borders of the input image.
+	 */
+	protected OutOfBoundsStrategyFactory<T> getOutOfBoundsFactory()
+	{
+		return outsideFactory;
+	}
+
 	/**
 	 * Returns the {@link Image} that will eventually become the result of this
 	 * {@link OutputAlgorithm}, and creates it if it has not yet been created.
@@ -220,6 +237,11 @@ protected void setErrorMessage(String message)
 	{
 		errorMsg = message;
 	}
+	
+	protected void setProcessingTime(final long time)
+	{
+		pTime = time;
+	}
 
 	/**
 	 * Offsets the given position to reflect the origin of the patch being in its center, rather
@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.fft;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mpicbg.imglib.algorithm.fft.FourierTransform.PreProcessing;
+import mpicbg.imglib.algorithm.fft.FourierTransform.Rearrangement;
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.exception.ImgLibException;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.complex.ComplexFloatType;
+
+/**
+ * Shares the state that repeated Fourier transforms of the same size can reuse:
+ * the 1d FFT objects of the Mines JTK (which only depend on the length and are
+ * safe to use from several threads), float[] work buffers for the lines, and
+ * the transformed kernels of {@link FourierConvolution}.
+ * 
+ * Transformed kernels are only cached for a {@link FourierConvolution} that
+ * asks for it, as they are as large as the padded image. A cached kernel FFT is
+ * found again for the same kernel {@link Image} with unchanged content, the
+ * same transform size and the same kind of container. It is shared and must
+ * not be modified or closed by the caller. Once its kernel is garbage collected,
+ * it is dropped from the cache on the next use of the cache.
+ */
+public class FFTService
+{
+	private static FFTService instance = null;
+
+	/**
+	 * @return the service shared by all Fourier transforms
+	 */
+	public static synchronized FFTService getInstance()
+	{
+		if ( instance == null )
+			instance = new FFTService();
+		
+		return instance;
+	}
+	
+	final ConcurrentHashMap< Integer, FftReal > realFFTs = new ConcurrentHashMap< Integer, FftReal >();
+	final ConcurrentHashMap< Integer, FftComplex > complexFFTs = new ConcurrentHashMap< Integer, FftComplex >();
+
+	final HashMap< Integer, ArrayList< float[] > > buffers = new HashMap< Integer, ArrayList< float[] > >();
+	long pooledFloats = 0;
+	long maxPooledFloats = 1 << 22;
+
+	final LinkedHashMap< KernelKey, Image< ComplexFloatType > > kernelFFTs = new LinkedHashMap< KernelKey, Image< ComplexFloatType > >( 16, 0.75f, true );
+	final ReferenceQueue< Image< ? > > collectedKernels = new ReferenceQueue< Image< ? > >();
+	long cachedKernelPixels = 0;
+	long maxCachedKernelPixels = 1 << 24;
+	long kernelHits = 0, kernelMisses = 0;
+
+	/**
+	 * @param n - the length of the real input, must be valid for {@link FftReal}
+	 * @return the real to complex FFT of that length
+	 */
+	public FftReal getFftReal( final int n )
+	{
+		final Integer key = n;
+		FftReal fft = realFFTs.get( key );
+		
+		if ( fft == null )
+		{
+			final FftReal newFFT = new FftReal( n );
+			fft = realFFTs.putIfAbsent( key, newFFT );
+			
+			if ( fft == null )
+				fft = newFFT;
+		}
+		
+		return fft;
+	}
+
+	/**
+	 * @param n - the number of complex numbers, must be valid for {@link FftComplex}
+	 * @return the complex to complex FFT of that length
+	 */
+	public FftComplex getFftComplex( final int n )
+	{
+		final Integer key = n;
+		FftComplex fft = complexFFTs.get( key );
+		
+		if ( fft == null )
+		{
+			final FftComplex newFFT = new FftComplex( n );
+			fft = complexFFTs.putIfAbsent( key, newFFT );
+			
+			if ( fft == null )
+				fft = newFFT;
+		}
+		
+		return fft;
+	}
+	
+	/**
+	 * Returns a work buffer from the pool, or a new one if there is none of that length.
+	 * Its content is undefined.
+	 * 
+	 * @param length - the length of the buffer
+	 * @return a buffer of exactly that length
+	 */
+	public synchronized float[] getBuffer( final int length )
+	{
+		final ArrayList< float[] > list = buffers.get( length );
+		
+		if ( list == null || list.isEmpty() )
+			return new float[ length ];
+		
+		pooledFloats -= length;
+		
+		return list.remove( list.size() - 1 );
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #getBuffer(int)} to the pool. The caller must not use it anymore.
+	 * 
+	 * @param buffer - the buffer
+	 */
+	public synchronized void releaseBuffer( final float[] buffer )
+	{
+		if ( pooledFloats + buffer.length > maxPooledFloats )
+			return;
+		
+		ArrayList< float[] > list = buffers.get( buffer.length );
+		
+		if ( list == null )
+		{
+			list = new ArrayList< float[] >();
+			buffers.put( buffer.length, list );
+		}
+		
+		list.add( buffer );
+		pooledFloats += buffer.length;
+	}
+
+	/**
+	 * @param maxPooledFloats - the maximal number of floats kept in the buffer pool, 4M by default
+	 */
+	public synchronized void setMaxPooledFloats( final long maxPooledFloats )
+	{
+		this.maxPooledFloats = maxPooledFloats;
+		
+		if ( pooledFloats > maxPooledFloats )
+		{
+			buffers.clear();
+			pooledFloats = 0;
+		}
+	}
+	public synchronized long getMaxPooledFloats() { return maxPooledFloats; }
+
+	/**
+	 * Returns the FFT of the kernel, padded to the size of the transform, from the cache or
+	 * computes and caches it.
+	 * 
+	 * @param kernel - the kernel, of odd size in all dimensions
+	 * @param realSize - the size of the real image that is transformed
+	 * @param factory - the container factory of the image
+	 * @param numThreads - the number of threads for computing the FFT
+	 * @return the shared kernel FFT
+	 * @throws ImgLibException if the kernel FFT could not be computed
+	 */
+	public < S extends RealType< S > > Image< ComplexFloatType > getKernelFFT( final Image< S > kernel, final int[] realSize,
+			final ContainerFactory factory, final int numThreads ) throws ImgLibException
+	{
+		final KernelKey key = new KernelKey( kernel, realSize, factory, collectedKernels );
+		
+		synchronized ( this )
+		{
+			removeCollectedKernels();
+			
+			final Image< ComplexFloatType > kernelFFT = kernelFFTs.get( key );
+			
+			if ( kernelFFT != null )
+			{
+				++kernelHits;
+				return kernelFFT;
+			}
+			
+			++kernelMisses;
+		}
+		
+		final Image< ComplexFloatType > kernelFFT = computeKernelFFT( kernel, realSize, factory, numThreads );
+		final long numPixels = kernelFFT.getNumPixels();
+		
+		synchronized ( this )
+		{
+			removeCollectedKernels();
+			
+			// the least recently used kernels come first, cached images are never closed as they might still be in use
+			final Iterator< Map.Entry< KernelKey, Image< ComplexFloatType > > > i = kernelFFTs.entrySet().iterator();
+			
+			while ( i.hasNext() && cachedKernelPixels + numPixels > maxCachedKernelPixels )
+			{
+				cachedKernelPixels -= i.next().getValue().getNumPixels();
+				i.remove();
+			}
+			
+			if ( cachedKernelPixels + numPixels <= maxCachedKernelPixels && !kernelFFTs.containsKey( key ) )
+			{
+				kernelFFTs.put( key, kernelFFT );
+				cachedKernelPixels += numPixels;
+			}
+		}
+		
+		return kernelFFT;
+	}
+	
+	/**
+	 * Computes the FFT of the kernel, padded to the size of the transform so that its center
+	 * pixel is located at the origin.
+	 * 
+	 * @param kernel - the kernel, of odd size in all dimensions
+	 * @param realSize - the size of the real image that is transformed
+	 * @param factory - the container factory of the image
+	 * @param numThreads - the number of threads for computing the FFT
+	 * @return the kernel FFT, owned by the caller
+	 * @throws ImgLibException if the kernel FFT could not be computed, with the reason as message
+	 */
+	public static < S extends RealType< S > > Image< ComplexFloatType > computeKernelFFT( final Image< S > kernel, final int[] realSize,
+			final ContainerFactory factory, final int numThreads ) throws ImgLibException
+	{
+		final int numDimensions = kernel.getNumDimensions();
+		final int[] kernelDim = kernel.getDimensions();
+		
+		// instaniate real valued kernel template
+		// which is of the same container type as the image
+		// so that the computation is easy
+		final ImageFactory< S > kernelTemplateFactory = new ImageFactory< S >( kernel.createType(), factory );
+		final Image< S > kernelTemplate = kernelTemplateFactory.createImage( realSize );
+		
+		if ( kernelTemplate == null )
+			throw new ImgLibException( "Cannot create the kernel template of size " + Arrays.toString( realSize ) );
+		
+		// copy the kernel into the kernelTemplate,
+		// the key here is that the center pixel of the kernel (e.g. 13,13,13)
+		// is located at (0,0,0)
+		final LocalizableCursor< S > kernelCursor = kernel.createLocalizableCursor();
+		final LocalizableByDimCursor< S > kernelTemplateCursor = kernelTemplate.createLocalizableByDimCursor();
+		
+		final int[] position = new int[ numDimensions ];
+		while ( kernelCursor.hasNext() )
+		{
+			kernelCursor.next();
+			kernelCursor.getPosition( position );
+			
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] = ( position[ d ] - kernelDim[ d ]/2 + realSize[ d ] ) % realSize[ d ];
+			
+			kernelTemplateCursor.setPosition( position );
+			kernelTemplateCursor.getType().set( kernelCursor.getType() );
+		}
+		
+		kernelCursor.close();
+		kernelTemplateCursor.close();
+		
+		// 
+		// compute FFT of kernel
+		//
+		final FourierTransform< S, ComplexFloatType > fftKernel = new FourierTransform< S, ComplexFloatType >( kernelTemplate, new ComplexFloatType() );
+		fftKernel.setNumThreads( numThreads );
+		
+		fftKernel.setPreProcessing( PreProcessing.NONE );		
+		fftKernel.setRearrangement( Rearrangement.UNCHANGED );
+		
+		final boolean success = fftKernel.checkInput() && fftKernel.process();
+		
+		kernelTemplate.close();
+		
+		if ( !success )
+			throw new ImgLibException( fftKernel.getErrorMessage() );
+		
+		return fftKernel.getResult();
+	}
+
+	/**
+	 * Removes all kernel FFTs from the cache, without closing them.
+	 */
+	public synchronized void clearKernelCache()
+	{
+		kernelFFTs.clear();
+		cachedKernelPixels = 0;
+		
+		while ( collectedKernels.poll() != null );
+	}
+
+	/**
+	 * Removes the kernel FFTs whose kernel was garbage collected, they cannot be found anymore.
+	 */
+	protected synchronized void removeCollectedKernels()
+	{
+		if ( collectedKernels.poll() == null )
+			return;
+		
+		while ( collectedKernels.poll() != null );
+		
+		final Iterator< Map.Entry< KernelKey, Image< ComplexFloatType > > > i = kernelFFTs.entrySet().iterator();
+		
+		while ( i.hasNext() )
+		{
+			final Map.Entry< KernelKey, Image< ComplexFloatType > > entry = i.next();
+			
+			if ( entry.getKey().kernel.get() == null )
+			{
+				cachedKernelPixels -= entry.getValue().getNumPixels();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of kernel FFTs in the cache
+	 */
+	public synchronized int getNumCachedKernels()
+	{
+		removeCollectedKernels();
+		
+		return kernelFFTs.size();
+	}
+
+	/**
+	 * @param maxCachedKernelPixels - the maximal number of complex pixels of all cached kernel FFTs, 16M by default
+	 */
+	public synchronized void setMaxCachedKernelPixels( final long maxCachedKernelPixels )
+	{
+		this.maxCachedKernelPixels = maxCachedKernelPixels;
+		
+		if ( cachedKernelPixels > maxCachedKernelPixels )
+			clearKernelCache();
+	}
+	public synchronized long getMaxCachedKernelPixels() { return maxCachedKernelPixels; }
+	
+	public synchronized long getKernelCacheHits() { return kernelHits; }
+	public synchronized long getKernelCacheMisses() { return kernelMisses; }
+
+	/**
+	 * Divides the lines of a transform into contiguous blocks, one per thread, so that each
+	 * thread works on neighboring lines instead of every numThreads'th line.
+	 * 
+	 * @param numLines - the number of lines
+	 * @param numThreads - the number of threads
+	 * @return at most numThreads blocks, none of them empty
+	 */
+	public static Vector< Chunk > divideIntoLineBlocks( final long numLines, final int numThreads )
+	{
+		return SimpleMultiThreading.divideIntoChunks( numLines, (int)Math.max( 1, Math.min( numThreads, numLines ) ) );
+	}
+
+	/**
+	 * @return the number of lines along dimension dim of an image of that size
+	 */
+	public static long getNumLines( final int[] dimensions, final int dim )
+	{
+		long numLines = 1;
+		
+		for ( int d = 0; d < dimensions.length; ++d )
+			if ( d != dim )
+				numLines *= dimensions[ d ];
+		
+		return numLines;
+	}
+
+	/**
+	 * Identifies a kernel by its {@link Image} and a checksum of its content, so that a kernel
+	 * that was changed after its FFT had been cached is not mistaken for the old one. The kernel
+	 * is only weakly referenced, and queued once it is collected.
+	 */
+	protected static class KernelKey
+	{
+		final WeakReference< Image< ? > > kernel;
+		final int identity;
+		final long checksum;
+		final int[] realSize;
+		final Class< ? > factoryClass;
+		
+		public < S extends RealType< S > > KernelKey( final Image< S > kernel, final int[] realSize, final ContainerFactory factory,
+				final ReferenceQueue< Image< ? > > queue )
+		{
+			this.kernel = new WeakReference< Image< ? > >( kernel, queue );
+			this.identity = System.identityHashCode( kernel );
+			this.realSize = realSize.clone();
+			this.factoryClass = factory.getClass();
+			
+			long checksum = 17;
+			final Cursor< S > cursor = kernel.createCursor();
+			
+			while ( cursor.hasNext() )
+				checksum = checksum * 31 + Float.floatToIntBits( cursor.next().getRealFloat() );
+			
+			cursor.close();
+			
+			this.checksum = checksum;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return ( identity * 31 + (int)( checksum ^ ( checksum >>> 32 ) ) ) * 31 + Arrays.hashCode( realSize );
+		}
+		
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof KernelKey ) )
+				return false;
+			
+			final KernelKey other = (KernelKey)o;
+			final Image< ? > k = kernel.get();
+			
+			return k != null && k == other.kernel.get() && checksum == other.checksum &&
+				factoryClass == other.factoryClass && Arrays.equals( realSize, other.realSize );
+		}
+	}
+}
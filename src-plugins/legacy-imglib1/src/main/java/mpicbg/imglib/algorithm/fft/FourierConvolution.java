@@ -26,8 +26,11 @@
 
 package mpicbg.imglib.algorithm.fft;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import mpicbg.imglib.algorithm.Benchmark;
 import mpicbg.imglib.algorithm.MultiThreaded;
@@ -39,9 +42,12 @@
 import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.exception.ImgLibException;
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.image.ImageFactory;
 import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategy;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
@@ -66,6 +72,8 @@
 	FourierTransform<T, ComplexFloatType> fftImage;
 	boolean keepImgFFT = true;
 	boolean extendImgByKernelSize = true;
+	boolean useKernelFFTCache = false;
+	boolean sharedKernelFFT = false;
 	
 	OutOfBoundsStrategyFactory<T> strategy = new OutOfBoundsStrategyMirrorFactory<T>();
 	
@@ -126,6 +134,17 @@ public boolean replaceImage( final Image<T> img )
 	public void setKeepImgFFT( final boolean keepImgFFT ) { this.keepImgFFT = keepImgFFT; }
 	public boolean getKeepImgFFT() { return this.keepImgFFT; } 
 
+	/**
+	 * Defines if the fft of the kernel is taken from the cache of the {@link FFTService}, so that
+	 * it is computed only once for repeated convolutions of images of the same size with the
+	 * same kernel, also by different instances. Off by default, as the cached kernel fft is as
+	 * large as the image fft.
+	 * 
+	 * @param useKernelFFTCache
+	 */
+	public void setUseKernelFFTCache( final boolean useKernelFFTCache ) { this.useKernelFFTCache = useKernelFFTCache; }
+	public boolean getUseKernelFFTCache() { return useKernelFFTCache; }
+
 	public boolean replaceKernel( final Image<S> knl )
 	{
 		if ( !knl.getContainer().compareStorageContainerCompatibility( this.kernel.getContainer() ))
@@ -138,6 +157,7 @@ public boolean replaceKernel( final Image<S> knl )
 			this.kernel = knl;
 			// the fft has to be recomputed
 			this.kernelFFT = null;
+			this.sharedKernelFFT = false;
 			return true;
 		}
 	}
@@ -267,6 +287,104 @@ final public static <T extends RealType<T>> Image<T> getGaussianKernel( final Im
 		return gauss.getResult();		
 	}
 	
+	/**
+	 * Convolves several images of the same size with the same kernel, the fft of the kernel is
+	 * computed only once. If there are at least as many images as threads, the images are
+	 * convolved in parallel with one thread each, otherwise one after the other with all threads.
+	 * 
+	 * @param images - the images, all of the same size and container type
+	 * @param kernel - the kernel, of odd size in all dimensions
+	 * @param strategy - how to extend the images beyond their boundaries
+	 * @param numThreads - the number of threads to use
+	 * @return the convolved images in the same order
+	 * @throws ImgLibException if a convolution failed, with its error message; all images computed so far are closed
+	 */
+	public static < T extends RealType< T >, S extends RealType< S > > ArrayList< Image< T > > convolve( final List< Image< T > > images, final Image< S > kernel,
+			final OutOfBoundsStrategyFactory< T > strategy, final int numThreads ) throws ImgLibException
+	{
+		final ArrayList< Image< T > > convolved = new ArrayList< Image< T > >();
+		
+		if ( images.isEmpty() )
+			return convolved;
+		
+		final Image< T > first = images.get( 0 );
+		
+		for ( final Image< T > image : images )
+		{
+			convolved.add( null );
+			
+			if ( !Arrays.equals( image.getDimensions(), first.getDimensions() ) || !image.getContainer().compareStorageContainerCompatibility( first.getContainer() ) )
+				throw new RuntimeException( "FourierConvolution.convolve(): all images must have the same size and container type" );
+		}
+		
+		// the first convolution computes the kernel fft which all others share
+		final FourierConvolution< T, S > firstConvolution = new FourierConvolution< T, S >( first, kernel );
+		firstConvolution.setNumThreads( numThreads );
+		firstConvolution.setImageOutOfBoundsStrategy( strategy );
+		firstConvolution.setKeepImgFFT( false );
+		
+		final AtomicReference< String > failure = new AtomicReference< String >();
+		boolean success = false;
+		
+		try
+		{
+			if ( !firstConvolution.checkInput() || !firstConvolution.process() )
+				throw new ImgLibException( "FourierConvolution.convolve(): image 0: " + firstConvolution.getErrorMessage() );
+			
+			convolved.set( 0, firstConvolution.getResult() );
+			
+			final Image< ComplexFloatType > kernelFFT = firstConvolution.kernelFFT;
+			
+			final int numParallel = images.size() - 1 >= numThreads ? numThreads : 1;
+			final int threadsPerImage = Math.max( 1, numThreads / numParallel );
+			
+			final Vector< Chunk > imageChunks = SimpleMultiThreading.divideIntoChunks( images.size() - 1, numParallel );
+			
+			SharedThreadPool.getInstance().invoke( imageChunks, new ChunkTask()
+			{
+				@Override
+				public void run( final Chunk chunk, final int chunkIndex )
+				{
+					for ( long i = chunk.getStartPosition(); i < chunk.getStartPosition() + chunk.getLoopSize() && failure.get() == null; ++i )
+					{
+						final int index = (int)i + 1;
+						
+						final FourierConvolution< T, S > convolution = new FourierConvolution< T, S >( images.get( index ), kernel );
+						convolution.setNumThreads( threadsPerImage );
+						convolution.setImageOutOfBoundsStrategy( strategy );
+						convolution.setKeepImgFFT( false );
+						convolution.kernelFFT = kernelFFT;
+						convolution.sharedKernelFFT = true;
+						
+						if ( convolution.checkInput() && convolution.process() )
+							convolved.set( index, convolution.getResult() );
+						else
+							failure.compareAndSet( null, "FourierConvolution.convolve(): image " + index + ": " + convolution.getErrorMessage() );
+						
+						convolution.close();
+					}
+				}
+			}, numParallel );
+			
+			if ( failure.get() != null )
+				throw new ImgLibException( failure.get() );
+			
+			success = true;
+		}
+		finally
+		{
+			// closes the kernel fft unless it is cached
+			firstConvolution.close();
+			
+			if ( !success )
+				for ( final Image< T > image : convolved )
+					if ( image != null )
+						image.close();
+		}
+		
+		return convolved;
+	}
+	
 	@Override
 	public boolean process() 
 	{		
@@ -320,55 +438,34 @@ public boolean process()
 			final int kernelTemplateDim[] = imgFFT.getDimensions();
 			kernelTemplateDim[ 0 ] = ( imgFFT.getDimension( 0 ) - 1 ) * 2;
 			
-			// instaniate real valued kernel template
-			// which is of the same container type as the image
+			// the kernel template is of the same container type as the image
 			// so that the computation is easy
-			final ImageFactory<S> kernelTemplateFactory = new ImageFactory<S>( kernel.createType(), image.getContainer().getFactory() );
-			final Image<S> kernelTemplate = kernelTemplateFactory.createImage( kernelTemplateDim );
-			
-			// copy the kernel into the kernelTemplate,
-			// the key here is that the center pixel of the kernel (e.g. 13,13,13)
-			// is located at (0,0,0)
-			final LocalizableCursor<S> kernelCursor = kernel.createLocalizableCursor();
-			final LocalizableByDimCursor<S> kernelTemplateCursor = kernelTemplate.createLocalizableByDimCursor();
+			final ContainerFactory factory = image.getContainer().getFactory();
 			
-			final int[] position = new int[ numDimensions ];
-			while ( kernelCursor.hasNext() )
+			try
 			{
-				kernelCursor.next();
-				kernelCursor.getPosition( position );
-				
-				for ( int d = 0; d < numDimensions; ++d )
+				if ( useKernelFFTCache )
 				{
-					position[ d ] = ( position[ d ] - kernelDim[ d ]/2 + kernelTemplateDim[ d ] ) % kernelTemplateDim[ d ];
-					/*final int tmp = ( position[ d ] - kernelDim[ d ]/2 );
+					kernelFFT = FFTService.getInstance().getKernelFFT( kernel, kernelTemplateDim, factory, getNumThreads() );
+					sharedKernelFFT = true;
 					
-					if ( tmp < 0 )
-						position[ d ] = kernelTemplateDim[ d ] + tmp;
-					else
-						position[ d ] = tmp;*/
-				}			
+					// the multiplication requires both to be iterated in the same order
+					if ( !kernelFFT.getContainer().compareStorageContainerCompatibility( imgFFT.getContainer() ) )
+						kernelFFT = null;
+				}
 				
-				kernelTemplateCursor.setPosition( position );
-				kernelTemplateCursor.getType().set( kernelCursor.getType() );
+				if ( kernelFFT == null )
+				{
+					kernelFFT = FFTService.computeKernelFFT( kernel, kernelTemplateDim, factory, getNumThreads() );
+					sharedKernelFFT = false;
+				}
 			}
-			
-			// 
-			// compute FFT of kernel
-			//
-			final FourierTransform<S, ComplexFloatType> fftKernel = new FourierTransform<S, ComplexFloatType>( kernelTemplate, new ComplexFloatType() );
-			fftKernel.setNumThreads( this.getNumThreads() );
-			
-			fftKernel.setPreProcessing( PreProcessing.NONE );		
-			fftKernel.setRearrangement( fftImage.getRearrangement() );
-			
-			if ( !fftKernel.checkInput() || !fftKernel.process() )
+			catch ( final ImgLibException e )
 			{
-				errorMessage = "FFT of kernel failed: " + fftKernel.getErrorMessage();
-				return false;			
-			}		
-			kernelTemplate.close();		
-			kernelFFT = fftKernel.getResult();
+				kernelFFT = null;
+				errorMessage = "FFT of kernel failed: " + e.getMessage();
+				return false;
+			}
 		}
 		
 		//
@@ -387,21 +484,14 @@ public boolean process()
 		
 		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( numPixels, getNumThreads() );
 		
-		final AtomicInteger ai = new AtomicInteger(0);					
-        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-        for ( int ithread = 0; ithread < threads.length; ++ithread )
-            threads[ithread] = new Thread(new Runnable()
-            {
-                public void run()
-                {
-                	// get chunk of pixels to process
-                	final Chunk myChunk = threadChunks.get( ai.getAndIncrement() );
-                	
-            		multiply( myChunk.getStartPosition(), myChunk.getLoopSize(), copy, kernelFFT );
-                }
-            });
-        
-        SimpleMultiThreading.startAndJoin( threads );
+		SharedThreadPool.getInstance().invoke( threadChunks, new ChunkTask()
+		{
+			@Override
+			public void run( final Chunk myChunk, final int chunkIndex )
+			{
+				multiply( myChunk.getStartPosition(), myChunk.getLoopSize(), copy, kernelFFT );
+			}
+		}, getNumThreads() );
 
 		//multiply( copy, kernelFFT );
 		
@@ -522,7 +612,9 @@ public boolean checkInput()
 	
 	public void close()
 	{
-		kernelFFT.close(); 
+		// a cached or shared kernel fft is still in use elsewhere
+		if ( kernelFFT != null && !sharedKernelFFT )
+			kernelFFT.close(); 
 		
 		image = null;
 		convolved = null;
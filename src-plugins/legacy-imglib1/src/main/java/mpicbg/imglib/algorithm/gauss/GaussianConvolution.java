@@ -26,7 +26,7 @@
 
 package mpicbg.imglib.algorithm.gauss;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Vector;
 
 import mpicbg.imglib.container.DirectAccessContainer;
 import mpicbg.imglib.container.array.Array3D;
@@ -34,6 +34,9 @@
 import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
 import mpicbg.imglib.cursor.LocalizableByDimCursor3D;
 import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.numeric.NumericType;
@@ -99,6 +102,10 @@ protected Image<T> getConvolvedImage()
 	
 	protected boolean processWithOptimizedMethod()
 	{
+		// the line-buffered SeparableConvolution is faster for all kernel sizes
+		if ( useSeparableConvolution( image ) )
+			return false;
+
 		if ( Array3D.class.isInstance( image.getContainer() ) && FloatType.class.isInstance( image.createType() ))
 		{
  			convolved = computeGaussFloatArray3D( image, outOfBoundsFactory, kernel, getNumThreads() );
@@ -143,15 +150,16 @@ protected static <T extends NumericType<T>> Image<T> computeGaussFloatArray3D( f
 		final int height = imageFloat.getDimension( 1 );
 		final int depth = imageFloat.getDimension( 2 );
 
-		final AtomicInteger ai = new AtomicInteger(0);
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		
-		for (int ithread = 0; ithread < threads.length; ++ithread)
-			threads[ithread] = new Thread(new Runnable()
+		// contiguous slabs of z (for folding in x and y) and of x (for folding in z)
+		final Vector<Chunk> zChunks = SimpleMultiThreading.divideIntoChunks( depth, Math.min( depth, numThreads ) );
+		final Vector<Chunk> xChunks = SimpleMultiThreading.divideIntoChunks( width, Math.min( width, numThreads ) );
+
+		SharedThreadPool.getInstance().invoke( zChunks, new ChunkTask()
 			{
-				public void run()
+				public void run( final Chunk chunk, final int chunkIndex )
 				{
-					final int myNumber = ai.getAndIncrement();
+					final int start = (int)chunk.getStartPosition();
+					final int end = start + (int)chunk.getLoopSize();
 					double avg;
 
 					final float[] in = inputArray.getCurrentStorageArray();
@@ -175,8 +183,7 @@ public void run()
 					for (int x = 0; x < width; x++)
 						directlyComputable[x] = (x - filterSizeHalf >= 0 && x + filterSizeHalf < width);
 
-					for (int z = 0; z < depth; z++)
-						if (z % numThreads == myNumber)
+					for (int z = start; z < end; z++)
 						{
 							count = input.getPos(0, 0, z);
 							for (int y = 0; y < height; y++)
@@ -203,17 +210,14 @@ public void run()
 						}
 					it.close();
 				}
-			});
-		SimpleMultiThreading.startAndJoin(threads);
-
-		ai.set(0);
+			}, numThreads );
 		// fold in y
-		for (int ithread = 0; ithread < threads.length; ++ithread)
-			threads[ithread] = new Thread(new Runnable()
+		SharedThreadPool.getInstance().invoke( zChunks, new ChunkTask()
 			{
-				public void run()
+				public void run( final Chunk chunk, final int chunkIndex )
 				{
-					final int myNumber = ai.getAndIncrement();
+					final int start = (int)chunk.getStartPosition();
+					final int end = start + (int)chunk.getLoopSize();
 					double avg;
 					int kernelPos, count;
 
@@ -234,8 +238,7 @@ public void run()
 
 					final float[] tempOut = new float[height];
 
-					for (int z = 0; z < depth; z++)
-						if (z % numThreads == myNumber)
+					for (int z = start; z < end; z++)
 							for (int x = 0; x < width; x++)
 							{
 								count = output.getPos(x, 0, z);
@@ -274,17 +277,14 @@ public void run()
 					
 					it.close();
 				}
-			});
-		SimpleMultiThreading.startAndJoin(threads);
+			}, numThreads );
 
-		ai.set(0);
-
-		for (int ithread = 0; ithread < threads.length; ++ithread)
-			threads[ithread] = new Thread(new Runnable()
+		SharedThreadPool.getInstance().invoke( xChunks, new ChunkTask()
 			{
-				public void run()
+				public void run( final Chunk chunk, final int chunkIndex )
 				{
-					final int myNumber = ai.getAndIncrement();
+					final int start = (int)chunk.getStartPosition();
+					final int end = start + (int)chunk.getLoopSize();
 					double avg;
 					int kernelPos, count;
 					final double[] kernel1 = kernel[ 2 ].clone();
@@ -306,8 +306,7 @@ public void run()
 					final float[] tempOut = new float[depth];
 
 					// fold in z
-					for (int x = 0; x < width; x++)
-						if (x % numThreads == myNumber)
+					for (int x = start; x < end; x++)
 							for (int y = 0; y < height; y++)
 							{
 								count = output.getPos(x, y, 0);
@@ -344,8 +343,7 @@ public void run()
 							}					
 					it.close();
 				}
-			});
-		SimpleMultiThreading.startAndJoin(threads);
+			}, numThreads );
 		
 		return (Image) convolved;
 	}		
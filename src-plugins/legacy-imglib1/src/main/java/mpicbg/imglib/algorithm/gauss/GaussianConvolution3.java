@@ -42,6 +42,7 @@
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.Type;
+import mpicbg.imglib.type.numeric.IntegerType;
 import mpicbg.imglib.type.numeric.NumericType;
 import mpicbg.imglib.util.Util;
 
@@ -76,6 +77,8 @@
 	int numThreads;
 	String errorMessage = "";
 
+	double recursiveMinSigma = Double.MAX_VALUE;
+
 	public GaussianConvolution3( final Image<A> image, final ImageFactory<B> factoryProcess, final ImageFactory<C> factoryOut, final OutOfBoundsStrategyFactory<B> outOfBoundsFactory, 
 									   final Converter<A, B> converterIn, final Converter<B, C> converterOut, final double[] sigma )
 	{
@@ -130,6 +133,17 @@ public void setSigma( final double sigma[] )
 	}
 	public double[] getSigma() { return sigma.clone(); }
 	
+	/**
+	 * Dimensions with a sigma of at least this value are convolved with a
+	 * recursive approximation of the Gaussian whose cost does not depend on
+	 * sigma, if the image can be processed by {@link SeparableConvolution}.
+	 * By default, all dimensions are convolved with the Gaussian kernel.
+	 * 
+	 * @param recursiveMinSigma - the smallest sigma to approximate, at least 0.5 
+	 */
+	public void setRecursiveMinSigma( final double recursiveMinSigma ) { this.recursiveMinSigma = Math.max( 0.5, recursiveMinSigma ); }
+	public double getRecursiveMinSigma() { return recursiveMinSigma; }
+	
 	public void setImage( final Image<A> image ) 
 	{ 
 		this.image = image;
@@ -306,6 +320,12 @@ public boolean process()
     		
     		final Image<B> temp2 = getTempImage2( currentDim );
     		if ( temp2 == null ) return false;
+    		
+    		if ( useSeparableConvolution( temp1 ) )
+    		{
+    			convolveSeparable( temp1, temp2, currentDim );
+    			continue;
+    		}
         	
 			final AtomicInteger ai = new AtomicInteger(0);					
 	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
@@ -342,6 +362,33 @@ public void run()
         return true;
 	}
 	
+	/**
+	 * Whether to convolve with the line-buffered {@link SeparableConvolution}
+	 * instead of {@link #convolveDim}, subclasses with their own kernels
+	 * should return false. Not for {@link IntegerType IntegerTypes}, which
+	 * {@link #convolve} rounds after each multiplication while
+	 * {@link SeparableConvolution} rounds once per dimension.
+	 */
+	protected boolean useSeparableConvolution( final Image<B> temp ) { return SeparableConvolution.isSupported( temp ) && !IntegerType.class.isInstance( temp.createType() ); }
+
+	/**
+	 * Convolves in the current dimension from temp1 into temp2 or back,
+	 * like {@link #getInputIterator} and {@link #getOutputIterator}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected void convolveSeparable( final Image<B> temp1, final Image<B> temp2, final int currentDim )
+	{
+		/* B is known to be a RealType here, which cannot be expressed in its bounds */
+		final Image source = currentDim % 2 == 0 ? temp1 : temp2;
+		final Image target = currentDim % 2 == 0 ? temp2 : temp1;
+		final OutOfBoundsStrategyFactory outOfBounds = outOfBoundsFactory;
+
+		if ( sigma[ currentDim ] >= recursiveMinSigma )
+			SeparableConvolution.convolveRecursive( source, target, currentDim, sigma[ currentDim ], outOfBounds, numThreads );
+		else
+			SeparableConvolution.convolve( source, target, currentDim, kernel[ currentDim ], outOfBounds, numThreads );
+	}
+	
 	protected void convolveDim( final LocalizableByDimCursor<B> inputIterator, final LocalizableCursor<B> outputIterator, final int currentDim, final long startPos, final long loopSize )
 	{
 		convolve( inputIterator, outputIterator, currentDim, kernel[ currentDim ], startPos, loopSize );
@@ -70,6 +70,9 @@ public GaussianConvolution4( final Image<A> image, final ImageFactory<B> factory
 		this ( image, factoryProcess, factoryOut, outOfBoundsFactory, converterIn, converterOut, createArray( image, sigma ) );
 	}
 
+	@Override
+	protected boolean useSeparableConvolution( final Image<B> temp ) { return false; }
+
 	protected void convolveDim( final LocalizableByDimCursor<B> inputIterator, final LocalizableCursor<B> outputIterator, final int currentDim, final long startPos, final long loopSize )
 	{
 		convolve( inputIterator, outputIterator, currentDim, kernel[ currentDim ], startPos, loopSize );
@@ -49,6 +49,12 @@ public GaussianConvolutionReal( final Image<T> image, final OutOfBoundsStrategyF
 		this( image, outOfBoundsFactory, createArray(image, sigma) );		
 	}
 
+	/**
+	 * Like {@link SeparableConvolution}, {@link #convolve} rounds once per dimension, also for integer types
+	 */
+	@Override
+	protected boolean useSeparableConvolution( final Image<T> temp ) { return SeparableConvolution.isSupported( temp ); }
+
 	protected void convolve( final LocalizableByDimCursor<T> inputIterator, final LocalizableCursor<T> outputIterator, final int dim, final double[] kernel, final long startPos, final long loopSize )
 	{		
 		// move to the starting position of the current thread
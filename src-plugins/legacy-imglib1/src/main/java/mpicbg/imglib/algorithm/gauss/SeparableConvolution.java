@@ -0,0 +1,380 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.gauss;
+
+import java.util.Vector;
+
+import mpicbg.imglib.container.Container;
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.planar.PlanarContainer;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * Convolves {@link Array} and {@link PlanarContainer} images of any
+ * {@link RealType} with a 1d kernel along one dimension.
+ * 
+ * Each task copies a block of adjacent lines into double[] line buffers,
+ * filling the borders from the {@link OutOfBoundsStrategyFactory} once per
+ * line, convolves the buffers and writes them back. For any dimension but the
+ * first, the lines of a block are neighbors in the first dimension, so the
+ * image is read and written in runs of contiguous pixels. Symmetric kernels
+ * are folded, which halves the number of multiplications.
+ * 
+ * Instead of a kernel, a recursive (IIR) approximation of the Gaussian after
+ * Young and van Vliet can be applied, whose cost does not depend on sigma:
+ * I.T. Young, L.J. van Vliet, "Recursive implementation of the Gaussian
+ * filter", Signal Processing 44 (1995), 139-151.
+ * 
+ * Source and target may be the same image, every line is read completely
+ * before it is written.
+ */
+public class SeparableConvolution
+{
+	/**
+	 * The number of lines, adjacent in the first dimension, that a task
+	 * reads and writes together when convolving along another dimension. 
+	 */
+	final public static int BLOCK_SIZE = 16;
+
+	/**
+	 * @return whether the image can be convolved by this class
+	 */
+	public static boolean isSupported( final Image<?> image )
+	{
+		final Container<?> container = image.getContainer();
+		
+		return ( Array.class.isInstance( container ) || PlanarContainer.class.isInstance( container ) ) && RealType.class.isInstance( image.createType() );
+	}
+
+	/**
+	 * Convolves the source along one dimension with a kernel of odd length,
+	 * centered on the middle entry.
+	 * 
+	 * @param source - the image to convolve
+	 * @param target - the image to write to, same size as the source
+	 * @param dim - the dimension to convolve along
+	 * @param kernel - the kernel
+	 * @param outOfBoundsFactory - how to fill the lines beyond the image
+	 * @param numThreads - the number of threads to use
+	 */
+	public static < T extends RealType< T > > void convolve( final Image< T > source, final Image< T > target, final int dim, final double[] kernel,
+			final OutOfBoundsStrategyFactory< T > outOfBoundsFactory, final int numThreads )
+	{
+		process( source, target, dim, kernel.length / 2, new LineFilter()
+		{
+			final boolean symmetric = isSymmetric( kernel );
+
+			@Override
+			public void filter( final double[] in, final double[] out, final int length )
+			{
+				if ( symmetric )
+					convolveSymmetric( in, out, length, kernel );
+				else
+					convolve( in, out, length, kernel );
+			}
+		}, outOfBoundsFactory, numThreads );
+	}
+
+	/**
+	 * Applies the recursive approximation of a Gaussian along one dimension.
+	 * The lines are padded by as many pixels as the Gaussian kernel for the
+	 * same sigma would need, to initialize the recursion.
+	 * 
+	 * @param source - the image to convolve
+	 * @param target - the image to write to, same size as the source
+	 * @param dim - the dimension to convolve along
+	 * @param sigma - the sigma of the Gaussian, at least 0.5
+	 * @param outOfBoundsFactory - how to fill the lines beyond the image
+	 * @param numThreads - the number of threads to use
+	 */
+	public static < T extends RealType< T > > void convolveRecursive( final Image< T > source, final Image< T > target, final int dim, final double sigma,
+			final OutOfBoundsStrategyFactory< T > outOfBoundsFactory, final int numThreads )
+	{
+		final double[] c = getRecursiveCoefficients( sigma );
+		final int border = Math.max( 3, ( int )Math.ceil( 3 * sigma ) + 1 );
+
+		process( source, target, dim, border, new LineFilter()
+		{
+			@Override
+			public void filter( final double[] in, final double[] out, final int length )
+			{
+				recursiveGauss( in, out, length, border, c );
+			}
+		}, outOfBoundsFactory, numThreads );
+	}
+
+	/**
+	 * Computes the coefficients of the recursive Gaussian of Young and van Vliet.
+	 * 
+	 * @param sigma - the sigma, at least 0.5
+	 * @return { B, b1/b0, b2/b0, b3/b0 }
+	 */
+	public static double[] getRecursiveCoefficients( final double sigma )
+	{
+		final double q;
+		
+		if ( sigma >= 2.5 )
+			q = 0.98711 * sigma - 0.96330;
+		else
+			q = 3.97156 - 4.14554 * Math.sqrt( 1 - 0.26891 * Math.max( 0.5, sigma ) );
+
+		final double q2 = q * q;
+		final double q3 = q2 * q;
+
+		final double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+		final double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+		final double b2 = -( 1.4281 * q2 + 1.26661 * q3 );
+		final double b3 = 0.422205 * q3;
+
+		return new double[] { 1 - ( b1 + b2 + b3 ) / b0, b1 / b0, b2 / b0, b3 / b0 };
+	}
+
+	protected static interface LineFilter
+	{
+		/**
+		 * Filters one line.
+		 * 
+		 * @param in - the line, padded on both sides by the border
+		 * @param out - the filtered pixels inside the image
+		 * @param length - the number of pixels inside the image
+		 */
+		public void filter( double[] in, double[] out, int length );
+	}
+	
+	protected static < T extends RealType< T > > void process( final Image< T > source, final Image< T > target, final int dim, final int border, final LineFilter filter,
+			final OutOfBoundsStrategyFactory< T > outOfBoundsFactory, final int numThreads )
+	{
+		final int numDimensions = source.getNumDimensions();
+		final int[] dimensions = source.getDimensions();
+		final int length = dimensions[ dim ];
+
+		// the number of lines per block and blocks per row along the first dimension
+		final int linesPerBlock = dim == 0 ? 1 : Math.min( BLOCK_SIZE, dimensions[ 0 ] );
+		final int blocksPerRow = dim == 0 ? 1 : ( dimensions[ 0 ] + linesPerBlock - 1 ) / linesPerBlock;
+
+		long numBlocks = blocksPerRow;
+		for ( int d = 1; d < numDimensions; ++d )
+			if ( d != dim )
+				numBlocks *= dimensions[ d ];
+
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( numBlocks, numThreads );
+
+		SharedThreadPool.getInstance().invoke( chunks, new ChunkTask()
+		{
+			@Override
+			public void run( final Chunk chunk, final int chunkIndex )
+			{
+				final LocalizableByDimCursor< T > in = source.createLocalizableByDimCursor();
+				final LocalizableByDimCursor< T > outOfBounds = source.createLocalizableByDimCursor( outOfBoundsFactory );
+				final LocalizableByDimCursor< T > out = target.createLocalizableByDimCursor();
+
+				final double[][] lines = new double[ linesPerBlock ][ length + 2 * border ];
+				final double[] result = new double[ length ];
+				final double[][] results = new double[ linesPerBlock ][];
+				for ( int b = 0; b < linesPerBlock; ++b )
+					results[ b ] = new double[ length ];
+
+				final int[] position = new int[ numDimensions ];
+				final long end = chunk.getStartPosition() + chunk.getLoopSize();
+
+				for ( long block = chunk.getStartPosition(); block < end; ++block )
+				{
+					// the position of the first pixel of the block
+					long remainder = block;
+					if ( dim != 0 )
+					{
+						position[ 0 ] = ( int )( remainder % blocksPerRow ) * linesPerBlock;
+						remainder /= blocksPerRow;
+					}
+					for ( int d = 1; d < numDimensions; ++d )
+					{
+						if ( d == dim )
+							continue;
+						position[ d ] = ( int )( remainder % dimensions[ d ] );
+						remainder /= dimensions[ d ];
+					}
+					position[ dim ] = 0;
+
+					final int numLines = dim == 0 ? 1 : Math.min( linesPerBlock, dimensions[ 0 ] - position[ 0 ] );
+
+					// read the lines
+					in.setPosition( position );
+					for ( int i = 0; i < length; ++i )
+					{
+						if ( dim == 0 )
+						{
+							lines[ 0 ][ border + i ] = in.getType().getRealDouble();
+						}
+						else
+						{
+							for ( int b = 0; b < numLines; ++b )
+							{
+								if ( b > 0 )
+									in.fwd( 0 );
+								lines[ b ][ border + i ] = in.getType().getRealDouble();
+							}
+							in.move( 1 - numLines, 0 );
+						}
+						if ( i < length - 1 )
+							in.fwd( dim );
+					}
+
+					// fill the borders
+					for ( int i = 0; i < border; ++i )
+					{
+						readOutOfBounds( outOfBounds, position, dim, -1 - i, numLines, lines, border - 1 - i );
+						readOutOfBounds( outOfBounds, position, dim, length + i, numLines, lines, border + length + i );
+					}
+
+					// convolve
+					for ( int b = 0; b < numLines; ++b )
+						filter.filter( lines[ b ], dim == 0 ? result : results[ b ], length );
+
+					// write the lines
+					out.setPosition( position );
+					for ( int i = 0; i < length; ++i )
+					{
+						if ( dim == 0 )
+						{
+							out.getType().setReal( result[ i ] );
+						}
+						else
+						{
+							for ( int b = 0; b < numLines; ++b )
+							{
+								if ( b > 0 )
+									out.fwd( 0 );
+								out.getType().setReal( results[ b ][ i ] );
+							}
+							out.move( 1 - numLines, 0 );
+						}
+						if ( i < length - 1 )
+							out.fwd( dim );
+					}
+				}
+
+				in.close();
+				outOfBounds.close();
+				out.close();
+			}
+		}, numThreads );
+	}
+
+	protected static < T extends RealType< T > > void readOutOfBounds( final LocalizableByDimCursor< T > cursor, final int[] position, final int dim, final int location,
+			final int numLines, final double[][] lines, final int index )
+	{
+		final int p = position[ dim ];
+		position[ dim ] = location;
+		cursor.setPosition( position );
+		position[ dim ] = p;
+
+		for ( int b = 0; b < numLines; ++b )
+		{
+			if ( b > 0 )
+				cursor.fwd( 0 );
+			lines[ b ][ index ] = cursor.getType().getRealDouble();
+		}
+	}
+
+	protected static boolean isSymmetric( final double[] kernel )
+	{
+		for ( int i = 0, j = kernel.length - 1; i < j; ++i, --j )
+			if ( kernel[ i ] != kernel[ j ] )
+				return false;
+
+		return ( kernel.length & 1 ) == 1;
+	}
+
+	protected static void convolve( final double[] in, final double[] out, final int length, final double[] kernel )
+	{
+		final int filterSize = kernel.length;
+
+		for ( int i = 0; i < length; ++i )
+		{
+			double sum = 0;
+			for ( int f = 0; f < filterSize; ++f )
+				sum += in[ i + f ] * kernel[ f ];
+			out[ i ] = sum;
+		}
+	}
+
+	protected static void convolveSymmetric( final double[] in, final double[] out, final int length, final double[] kernel )
+	{
+		final int filterSizeHalf = kernel.length / 2;
+		final double center = kernel[ filterSizeHalf ];
+
+		for ( int i = 0; i < length; ++i )
+		{
+			final int c = i + filterSizeHalf;
+			double sum = in[ c ] * center;
+			for ( int f = 1; f <= filterSizeHalf; ++f )
+				sum += ( in[ c - f ] + in[ c + f ] ) * kernel[ filterSizeHalf + f ];
+			out[ i ] = sum;
+		}
+	}
+
+	/*
+	 * Causal and anti-causal recursive pass over the padded line, in place,
+	 * both starting in the steady state of a constant signal.
+	 */
+	protected static void recursiveGauss( final double[] in, final double[] out, final int length, final int border, final double[] c )
+	{
+		final double b = c[ 0 ], b1 = c[ 1 ], b2 = c[ 2 ], b3 = c[ 3 ];
+		final int size = length + 2 * border;
+
+		double w1 = in[ 0 ], w2 = w1, w3 = w1;
+		for ( int i = 0; i < size; ++i )
+		{
+			final double w = b * in[ i ] + b1 * w1 + b2 * w2 + b3 * w3;
+			in[ i ] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+
+		w1 = in[ size - 1 ];
+		w2 = w1;
+		w3 = w1;
+		for ( int i = size - 1; i >= 0; --i )
+		{
+			final double w = b * in[ i ] + b1 * w1 + b2 * w2 + b3 * w3;
+			in[ i ] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+
+		System.arraycopy( in, border, out, 0, length );
+	}
+}
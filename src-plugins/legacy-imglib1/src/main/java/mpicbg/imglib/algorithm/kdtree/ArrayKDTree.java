@@ -0,0 +1,319 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.kdtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mpicbg.imglib.algorithm.kdtree.node.Leaf;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
+
+/**
+ * A KDTree that is stored implicitly in flat arrays instead of node objects.
+ *
+ * The leaves are reordered so that the node of every range [from, to) is
+ * its middle element (from + to) / 2, the left subtree is [from, middle)
+ * and the right subtree is [middle + 1, to). The coordinates of all leaves
+ * are kept in one float[] in that order, so a query only touches primitive
+ * arrays. The tree is built by in-place quickselect on the dimension of
+ * largest spread; the subtrees can be built in parallel on the
+ * {@link SharedThreadPool}. Duplicate points are kept in the tree.
+ *
+ * The tree is immutable once built and can be queried from many threads,
+ * using one {@link ArrayNearestNeighborSearch},
+ * {@link ArrayNNearestNeighborSearch} or {@link ArrayRadiusNeighborSearch}
+ * per thread.
+ *
+ * @param <T> the type of the leaves
+ */
+public class ArrayKDTree<T extends Leaf<T>>
+{
+	/*
+	 * Ranges smaller than this are not split into parallel tasks.
+	 */
+	final protected static int MIN_PARALLEL_SIZE = 4096;
+
+	final protected int numDimensions;
+	final protected int size;
+
+	/* coordinates of the leaf at tree index i start at i * numDimensions */
+	final protected float[] coordinates;
+
+	/* the dimension that the node at tree index i splits */
+	final protected int[] splitDimensions;
+
+	/* the leaves in tree order and their indices in the original list */
+	final protected T[] leaves;
+	final protected int[] originalIndices;
+
+	/**
+	 * Construct an ArrayKDTree from the elements in the given list using
+	 * all available processors.
+	 */
+	public ArrayKDTree( final List<T> leaves )
+	{
+		this( leaves, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Construct an ArrayKDTree from the elements in the given list.
+	 *
+	 * @param leaves - the points; the list is not modified
+	 * @param numThreads - the number of subtrees to build in parallel
+	 */
+	public ArrayKDTree( final List<T> leaves, final int numThreads )
+	{
+		this.size = leaves.size();
+		if ( size == 0 )
+			throw new RuntimeException( "ArrayKDTree(): cannot build a tree without leaves" );
+
+		final T first = leaves.get( 0 );
+		this.numDimensions = first.getNumDimensions();
+		this.coordinates = new float[ size * numDimensions ];
+		this.splitDimensions = new int[ size ];
+		this.leaves = first.createArray( size );
+		this.originalIndices = new int[ size ];
+
+		int i = 0;
+		for ( final T leaf : leaves )
+		{
+			if ( leaf.getNumDimensions() != numDimensions )
+				throw new RuntimeException( "Dimensionality of nodes is not preserved, first entry has dimensionality " + numDimensions + " entry " + i + " has dimensionality " + leaf.getNumDimensions() );
+
+			for ( int d = 0; d < numDimensions; ++d )
+				coordinates[ i * numDimensions + d ] = leaf.get( d );
+			originalIndices[ i ] = i;
+			++i;
+		}
+
+		build( Math.max( 1, numThreads ) );
+
+		for ( i = 0; i < size; ++i )
+			this.leaves[ i ] = leaves.get( originalIndices[ i ] );
+	}
+
+	protected void build( final int numThreads )
+	{
+		if ( numThreads == 1 || size < 2 * MIN_PARALLEL_SIZE )
+		{
+			buildSubtree( 0, size );
+			return;
+		}
+
+		/*
+		 * Split the top levels serially until there are enough independent
+		 * subtrees for all threads, then build those in parallel.
+		 */
+		List<Chunk> ranges = new ArrayList<Chunk>();
+		ranges.add( new Chunk( 0, size ) );
+		while ( ranges.size() < 2 * numThreads )
+		{
+			final List<Chunk> next = new ArrayList<Chunk>();
+			boolean split = false;
+			for ( final Chunk range : ranges )
+			{
+				final int from = ( int )range.getStartPosition();
+				final int to = from + ( int )range.getLoopSize();
+				if ( to - from < MIN_PARALLEL_SIZE )
+				{
+					next.add( range );
+					continue;
+				}
+				final int middle = splitNode( from, to );
+				next.add( new Chunk( from, middle - from ) );
+				next.add( new Chunk( middle + 1, to - middle - 1 ) );
+				split = true;
+			}
+			ranges = next;
+			if ( !split )
+				break;
+		}
+
+		SharedThreadPool.getInstance().invoke( ranges, new ChunkTask()
+		{
+			@Override
+			public void run( final Chunk chunk, final int chunkIndex )
+			{
+				final int from = ( int )chunk.getStartPosition();
+				buildSubtree( from, from + ( int )chunk.getLoopSize() );
+			}
+		}, numThreads );
+	}
+
+	protected void buildSubtree( final int from, final int to )
+	{
+		if ( to - from < 1 )
+			return;
+
+		final int middle = splitNode( from, to );
+		buildSubtree( from, middle );
+		buildSubtree( middle + 1, to );
+	}
+
+	/**
+	 * Choose the split dimension of the range [from, to) and move its
+	 * median to the middle of the range.
+	 *
+	 * @return the tree index of the node
+	 */
+	protected int splitNode( final int from, final int to )
+	{
+		final int middle = ( from + to ) >>> 1;
+		if ( to - from == 1 )
+			return middle;
+
+		int dimension = 0;
+		float maxSpread = -1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			for ( int i = from * numDimensions + d; i < to * numDimensions; i += numDimensions )
+			{
+				final float c = coordinates[ i ];
+				if ( c < min ) min = c;
+				if ( c > max ) max = c;
+			}
+			if ( max - min > maxSpread )
+			{
+				maxSpread = max - min;
+				dimension = d;
+			}
+		}
+
+		select( from, to - 1, middle, dimension );
+		splitDimensions[ middle ] = dimension;
+		return middle;
+	}
+
+	/*
+	 * Quickselect: reorder [left, right] such that the element at k is in
+	 * sorted position along dimension d, everything before it is not larger
+	 * and everything after it is not smaller.
+	 */
+	protected void select( int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			// median of three as pivot, moved to the right end
+			final int mid = ( left + right ) >>> 1;
+			if ( get( mid, d ) < get( left, d ) ) swap( mid, left );
+			if ( get( right, d ) < get( left, d ) ) swap( right, left );
+			if ( get( mid, d ) < get( right, d ) ) swap( mid, right );
+			final float pivot = get( right, d );
+
+			int store = left;
+			for ( int i = left; i < right; ++i )
+				if ( get( i, d ) < pivot )
+					swap( i, store++ );
+			swap( store, right );
+
+			/*
+			 * Skip over elements equal to the pivot so that many duplicates
+			 * do not degrade the selection to quadratic time.
+			 */
+			int equalEnd = store;
+			for ( int i = store + 1; i <= right; ++i )
+				if ( get( i, d ) == pivot )
+					swap( i, ++equalEnd );
+
+			if ( k < store )
+				right = store - 1;
+			else if ( k > equalEnd )
+				left = equalEnd + 1;
+			else
+				return;
+		}
+	}
+
+	final protected float get( final int i, final int d )
+	{
+		return coordinates[ i * numDimensions + d ];
+	}
+
+	final protected void swap( final int i, final int j )
+	{
+		if ( i == j )
+			return;
+
+		final int oi = originalIndices[ i ];
+		originalIndices[ i ] = originalIndices[ j ];
+		originalIndices[ j ] = oi;
+
+		for ( int a = i * numDimensions, b = j * numDimensions, d = 0; d < numDimensions; ++d, ++a, ++b )
+		{
+			final float c = coordinates[ a ];
+			coordinates[ a ] = coordinates[ b ];
+			coordinates[ b ] = c;
+		}
+	}
+
+	/**
+	 * @return the squared distance between the leaf at the given tree index
+	 * and the point
+	 */
+	final public float squareDistance( final int index, final float[] point )
+	{
+		float sum = 0;
+		for ( int i = index * numDimensions, d = 0; d < numDimensions; ++d, ++i )
+		{
+			final float v = coordinates[ i ] - point[ d ];
+			sum += v * v;
+		}
+		return sum;
+	}
+
+	public int getDimension() { return numDimensions; }
+
+	public int size() { return size; }
+
+	/**
+	 * @return the leaf at the given tree index
+	 */
+	public T get( final int index ) { return leaves[ index ]; }
+
+	/**
+	 * @return the index in the list the tree was built from of the leaf at
+	 * the given tree index
+	 */
+	public int getOriginalIndex( final int index ) { return originalIndices[ index ]; }
+
+	/**
+	 * Copy the coordinates of the leaf at the given tree index.
+	 */
+	public void getCoordinates( final int index, final float[] point )
+	{
+		System.arraycopy( coordinates, index * numDimensions, point, 0, numDimensions );
+	}
+
+	/**
+	 * @return the dimension in which the node at the given tree index
+	 * splits its subtree
+	 */
+	public int getSplitDimension( final int index ) { return splitDimensions[ index ]; }
+}
@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.kdtree;
+
+import mpicbg.imglib.algorithm.kdtree.node.Leaf;
+
+/**
+ * Search for the n nearest neighbors in an {@link ArrayKDTree}.
+ *
+ * The neighbors are kept sorted by distance in preallocated arrays, so no
+ * objects are allocated per query. It is not thread-safe; use one search
+ * object per thread.
+ *
+ * @param <T> the type of the leaves
+ */
+public class ArrayNNearestNeighborSearch<T extends Leaf<T>>
+{
+	final protected ArrayKDTree<T> kdTree;
+	final protected float[] point;
+
+	final protected int n;
+	final protected int[] indices;
+	final protected float[] squareDistances;
+	protected int count;
+
+	/**
+	 * @param kdTree - the tree to search
+	 * @param n - the number of neighbors to find
+	 */
+	public ArrayNNearestNeighborSearch( final ArrayKDTree<T> kdTree, final int n )
+	{
+		this.kdTree = kdTree;
+		this.point = new float[ kdTree.getDimension() ];
+		this.n = n;
+		this.indices = new int[ n ];
+		this.squareDistances = new float[ n ];
+	}
+
+	public ArrayKDTree<T> getKDTree() { return kdTree; }
+
+	/**
+	 * Find the n leaves nearest to the given point.
+	 *
+	 * @return the number of neighbors found, which is n unless the tree has
+	 * fewer leaves
+	 */
+	public int search( final float[] query )
+	{
+		System.arraycopy( query, 0, point, 0, point.length );
+		return search();
+	}
+
+	/**
+	 * Find the n leaves nearest to the given point.
+	 *
+	 * @return the number of neighbors found, which is n unless the tree has
+	 * fewer leaves
+	 */
+	public int search( final T query )
+	{
+		for ( int d = 0; d < point.length; ++d )
+			point[ d ] = query.get( d );
+		return search();
+	}
+
+	protected int search()
+	{
+		count = 0;
+		if ( n > 0 )
+			search( 0, kdTree.size );
+		return count;
+	}
+
+	/*
+	 * The distance a candidate has to beat to be inserted.
+	 */
+	final protected float getMaxSquareDistance()
+	{
+		return count < n ? Float.MAX_VALUE : squareDistances[ n - 1 ];
+	}
+
+	protected void search( int from, int to )
+	{
+		final float[] coordinates = kdTree.coordinates;
+		final int numDimensions = kdTree.numDimensions;
+
+		while ( to > from )
+		{
+			final int middle = ( from + to ) >>> 1;
+			final float squareDistance = kdTree.squareDistance( middle, point );
+			if ( squareDistance < getMaxSquareDistance() )
+				insert( middle, squareDistance );
+
+			final int d = kdTree.splitDimensions[ middle ];
+			final float projectedDistance = point[ d ] - coordinates[ middle * numDimensions + d ];
+
+			if ( projectedDistance < 0 )
+			{
+				search( from, middle );
+				if ( projectedDistance * projectedDistance >= getMaxSquareDistance() )
+					return;
+				from = middle + 1;
+			}
+			else
+			{
+				search( middle + 1, to );
+				if ( projectedDistance * projectedDistance >= getMaxSquareDistance() )
+					return;
+				to = middle;
+			}
+		}
+	}
+
+	protected void insert( final int index, final float squareDistance )
+	{
+		int i = count < n ? count++ : n - 1;
+		for ( ; i > 0 && squareDistances[ i - 1 ] > squareDistance; --i )
+		{
+			squareDistances[ i ] = squareDistances[ i - 1 ];
+			indices[ i ] = indices[ i - 1 ];
+		}
+		squareDistances[ i ] = squareDistance;
+		indices[ i ] = index;
+	}
+
+	/**
+	 * @return the number of neighbors found by the last search
+	 */
+	public int getCount() { return count; }
+
+	/**
+	 * @return the tree index of the i'th nearest neighbor
+	 */
+	public int getIndex( final int i ) { return indices[ i ]; }
+
+	/**
+	 * @return the i'th nearest neighbor
+	 */
+	public T get( final int i ) { return kdTree.get( indices[ i ] ); }
+
+	public float getSquareDistance( final int i ) { return squareDistances[ i ]; }
+
+	public float getDistance( final int i ) { return ( float )Math.sqrt( squareDistances[ i ] ); }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.kdtree;
+
+import mpicbg.imglib.algorithm.kdtree.node.Leaf;
+
+/**
+ * Nearest neighbor search in an {@link ArrayKDTree}.
+ *
+ * A search object keeps the query and the result in fields, so no objects
+ * are allocated per query. It is not thread-safe; use one search object per
+ * thread.
+ *
+ * @param <T> the type of the leaves
+ */
+public class ArrayNearestNeighborSearch<T extends Leaf<T>>
+{
+	final protected ArrayKDTree<T> kdTree;
+	final protected float[] point;
+
+	protected int bestIndex;
+	protected float bestSquareDistance;
+
+	public ArrayNearestNeighborSearch( final ArrayKDTree<T> kdTree )
+	{
+		this.kdTree = kdTree;
+		this.point = new float[ kdTree.getDimension() ];
+	}
+
+	public ArrayKDTree<T> getKDTree() { return kdTree; }
+
+	/**
+	 * Find the leaf nearest to the given point.
+	 *
+	 * @return the tree index of the nearest leaf
+	 */
+	public int search( final float[] query )
+	{
+		System.arraycopy( query, 0, point, 0, point.length );
+		return search();
+	}
+
+	/**
+	 * Find the leaf nearest to the given point.
+	 *
+	 * @return the tree index of the nearest leaf
+	 */
+	public int search( final T query )
+	{
+		for ( int d = 0; d < point.length; ++d )
+			point[ d ] = query.get( d );
+		return search();
+	}
+
+	public T findNearestNeighbor( final T query )
+	{
+		return kdTree.get( search( query ) );
+	}
+
+	protected int search()
+	{
+		bestIndex = -1;
+		bestSquareDistance = Float.MAX_VALUE;
+		search( 0, kdTree.size );
+		return bestIndex;
+	}
+
+	protected void search( int from, int to )
+	{
+		final float[] coordinates = kdTree.coordinates;
+		final int numDimensions = kdTree.numDimensions;
+
+		while ( to > from )
+		{
+			final int middle = ( from + to ) >>> 1;
+			final float squareDistance = kdTree.squareDistance( middle, point );
+			if ( squareDistance < bestSquareDistance )
+			{
+				bestSquareDistance = squareDistance;
+				bestIndex = middle;
+			}
+
+			final int d = kdTree.splitDimensions[ middle ];
+			final float projectedDistance = point[ d ] - coordinates[ middle * numDimensions + d ];
+
+			// look on the side of the point first, then on the other side if it may be closer
+			if ( projectedDistance < 0 )
+			{
+				search( from, middle );
+				if ( projectedDistance * projectedDistance >= bestSquareDistance )
+					return;
+				from = middle + 1;
+			}
+			else
+			{
+				search( middle + 1, to );
+				if ( projectedDistance * projectedDistance >= bestSquareDistance )
+					return;
+				to = middle;
+			}
+		}
+	}
+
+	/**
+	 * @return the tree index of the nearest leaf found by the last search
+	 */
+	public int getIndex() { return bestIndex; }
+
+	/**
+	 * @return the nearest leaf found by the last search
+	 */
+	public T get() { return kdTree.get( bestIndex ); }
+
+	public float getSquareDistance() { return bestSquareDistance; }
+
+	public float getDistance() { return ( float )Math.sqrt( bestSquareDistance ); }
+}
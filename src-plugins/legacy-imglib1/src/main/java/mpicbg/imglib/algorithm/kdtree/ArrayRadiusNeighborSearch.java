@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.kdtree;
+
+import mpicbg.imglib.algorithm.kdtree.node.Leaf;
+
+/**
+ * Search for all neighbors within a radius in an {@link ArrayKDTree}.
+ *
+ * The neighbors are collected in arrays that are reused between queries and
+ * only grow when a query finds more neighbors than any before. It is not
+ * thread-safe; use one search object per thread.
+ *
+ * @param <T> the type of the leaves
+ */
+public class ArrayRadiusNeighborSearch<T extends Leaf<T>>
+{
+	final protected ArrayKDTree<T> kdTree;
+	final protected float[] point;
+
+	protected float squareRadius;
+	protected int[] indices = new int[ 16 ];
+	protected float[] squareDistances = new float[ 16 ];
+	protected int count;
+
+	public ArrayRadiusNeighborSearch( final ArrayKDTree<T> kdTree )
+	{
+		this.kdTree = kdTree;
+		this.point = new float[ kdTree.getDimension() ];
+	}
+
+	public ArrayKDTree<T> getKDTree() { return kdTree; }
+
+	/**
+	 * Find all leaves within the given distance of the point.
+	 *
+	 * @param sorted - whether to sort the neighbors by distance
+	 * @return the number of neighbors found
+	 */
+	public int search( final float[] query, final double radius, final boolean sorted )
+	{
+		System.arraycopy( query, 0, point, 0, point.length );
+		return search( radius, sorted );
+	}
+
+	/**
+	 * Find all leaves within the given distance of the point.
+	 *
+	 * @param sorted - whether to sort the neighbors by distance
+	 * @return the number of neighbors found
+	 */
+	public int search( final T query, final double radius, final boolean sorted )
+	{
+		for ( int d = 0; d < point.length; ++d )
+			point[ d ] = query.get( d );
+		return search( radius, sorted );
+	}
+
+	protected int search( final double radius, final boolean sorted )
+	{
+		count = 0;
+		squareRadius = ( float )( radius * radius );
+		search( 0, kdTree.size );
+		if ( sorted )
+			sort( 0, count - 1 );
+		return count;
+	}
+
+	protected void search( int from, int to )
+	{
+		final float[] coordinates = kdTree.coordinates;
+		final int numDimensions = kdTree.numDimensions;
+
+		while ( to > from )
+		{
+			final int middle = ( from + to ) >>> 1;
+			final float squareDistance = kdTree.squareDistance( middle, point );
+			if ( squareDistance <= squareRadius )
+				add( middle, squareDistance );
+
+			final int d = kdTree.splitDimensions[ middle ];
+			final float projectedDistance = point[ d ] - coordinates[ middle * numDimensions + d ];
+			final boolean otherSide = projectedDistance * projectedDistance <= squareRadius;
+
+			if ( projectedDistance < 0 )
+			{
+				search( from, middle );
+				if ( !otherSide )
+					return;
+				from = middle + 1;
+			}
+			else
+			{
+				search( middle + 1, to );
+				if ( !otherSide )
+					return;
+				to = middle;
+			}
+		}
+	}
+
+	protected void add( final int index, final float squareDistance )
+	{
+		if ( count == indices.length )
+		{
+			final int[] newIndices = new int[ count * 2 ];
+			final float[] newSquareDistances = new float[ count * 2 ];
+			System.arraycopy( indices, 0, newIndices, 0, count );
+			System.arraycopy( squareDistances, 0, newSquareDistances, 0, count );
+			indices = newIndices;
+			squareDistances = newSquareDistances;
+		}
+		indices[ count ] = index;
+		squareDistances[ count++ ] = squareDistance;
+	}
+
+	/*
+	 * Quicksort of the neighbors in [left, right] by distance.
+	 */
+	protected void sort( int left, int right )
+	{
+		while ( right - left > 16 )
+		{
+			final float pivot = squareDistances[ ( left + right ) >>> 1 ];
+			int i = left, j = right;
+			while ( i <= j )
+			{
+				while ( squareDistances[ i ] < pivot ) ++i;
+				while ( squareDistances[ j ] > pivot ) --j;
+				if ( i <= j )
+					swap( i++, j-- );
+			}
+			// recurse into the smaller part
+			if ( j - left < right - i )
+			{
+				sort( left, j );
+				left = i;
+			}
+			else
+			{
+				sort( i, right );
+				right = j;
+			}
+		}
+		for ( int i = left + 1; i <= right; ++i )
+			for ( int j = i; j > left && squareDistances[ j - 1 ] > squareDistances[ j ]; --j )
+				swap( j - 1, j );
+	}
+
+	final protected void swap( final int i, final int j )
+	{
+		final int index = indices[ i ];
+		indices[ i ] = indices[ j ];
+		indices[ j ] = index;
+		final float squareDistance = squareDistances[ i ];
+		squareDistances[ i ] = squareDistances[ j ];
+		squareDistances[ j ] = squareDistance;
+	}
+
+	/**
+	 * @return the number of neighbors found by the last search
+	 */
+	public int getCount() { return count; }
+
+	/**
+	 * @return the tree index of the i'th neighbor
+	 */
+	public int getIndex( final int i ) { return indices[ i ]; }
+
+	/**
+	 * @return the i'th neighbor
+	 */
+	public T get( final int i ) { return kdTree.get( indices[ i ] ); }
+
+	public float getSquareDistance( final int i ) { return squareDistances[ i ]; }
+
+	public float getDistance( final int i ) { return ( float )Math.sqrt( squareDistances[ i ] ); }
+}
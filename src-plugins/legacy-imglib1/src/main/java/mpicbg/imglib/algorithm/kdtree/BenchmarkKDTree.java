@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.kdtree;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import mpicbg.imglib.algorithm.kdtree.node.SimpleNode;
+
+/**
+ * Compares the {@link ArrayKDTree} with the {@link KDTree}: build time and
+ * nearest, n-nearest and radius query throughput. Each measurement is
+ * repeated after a warm-up round and the results of both trees are checked
+ * against each other.
+ */
+public class BenchmarkKDTree
+{
+	protected static ArrayList<SimpleNode> randomPoints( final Random rnd, final int numPoints, final int numDimensions )
+	{
+		final ArrayList<SimpleNode> points = new ArrayList<SimpleNode>();
+		final float[] p = new float[ numDimensions ];
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				p[ d ] = rnd.nextFloat() * 100;
+			points.add( new SimpleNode( p ) );
+		}
+		return points;
+	}
+
+	protected static boolean same( final float a, final float b )
+	{
+		return Math.abs( a - b ) <= 1e-4f * Math.max( 1, Math.abs( a ) );
+	}
+
+	public static boolean benchmark( final int numDimensions, final int numPoints, final int numQueries, final int neighbors, final double radius, final int numThreads )
+	{
+		final Random rnd = new Random( 435435435 );
+		final ArrayList<SimpleNode> points = randomPoints( rnd, numPoints, numDimensions );
+		final ArrayList<SimpleNode> queries = randomPoints( rnd, numQueries, numDimensions );
+
+		System.out.println( numPoints + " points, " + numQueries + " queries, " + numDimensions + " dimensions" );
+
+		for ( int round = 0; round < 2; ++round )
+		{
+			final boolean report = round == 1;
+
+			long start = System.nanoTime();
+			final KDTree<SimpleNode> kdTree = new KDTree<SimpleNode>( points );
+			final long kdBuild = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			ArrayKDTree<SimpleNode> arrayTree = new ArrayKDTree<SimpleNode>( points, 1 );
+			final long arrayBuild = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			arrayTree = new ArrayKDTree<SimpleNode>( points, numThreads );
+			final long arrayParallelBuild = System.nanoTime() - start;
+
+			final NearestNeighborSearch<SimpleNode> kdNearest = new NearestNeighborSearch<SimpleNode>( kdTree );
+			final NNearestNeighborSearch<SimpleNode> kdNNearest = new NNearestNeighborSearch<SimpleNode>( kdTree );
+			final RadiusNeighborSearch<SimpleNode> kdRadius = new RadiusNeighborSearch<SimpleNode>( kdTree );
+			final ArrayNearestNeighborSearch<SimpleNode> arrayNearest = new ArrayNearestNeighborSearch<SimpleNode>( arrayTree );
+			final ArrayNNearestNeighborSearch<SimpleNode> arrayNNearest = new ArrayNNearestNeighborSearch<SimpleNode>( arrayTree, neighbors );
+			final ArrayRadiusNeighborSearch<SimpleNode> arrayRadius = new ArrayRadiusNeighborSearch<SimpleNode>( arrayTree );
+
+			// check the results
+			for ( final SimpleNode q : queries )
+			{
+				arrayNearest.search( q );
+				if ( !same( kdNearest.findNearestNeighbor( q ).distanceTo( q ), arrayNearest.getDistance() ) )
+				{
+					System.out.println( "Nearest neighbor to " + q + " differs: " + kdNearest.findNearestNeighbor( q ) + " <-> " + arrayNearest.get() );
+					return false;
+				}
+
+				final SimpleNode[] nn = kdNNearest.findNNearestNeighbors( q, neighbors );
+				arrayNNearest.search( q );
+				for ( int j = 0; j < neighbors; ++j )
+					if ( !same( nn[ j ].distanceTo( q ), arrayNNearest.getDistance( j ) ) )
+					{
+						System.out.println( ( j + 1 ) + " - nearest neighbor to " + q + " differs: " + nn[ j ] + " <-> " + arrayNNearest.get( j ) );
+						return false;
+					}
+
+				final ArrayList<SimpleNode> withinRadius = kdRadius.findNeighborsSorted( q, radius );
+				arrayRadius.search( q, radius, true );
+				if ( withinRadius.size() != arrayRadius.getCount() )
+				{
+					System.out.println( "Neighbors within " + radius + " of " + q + " differ: " + withinRadius.size() + " <-> " + arrayRadius.getCount() );
+					return false;
+				}
+			}
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				kdNearest.findNearestNeighbor( q );
+			final long kdNearestTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				arrayNearest.search( q );
+			final long arrayNearestTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				kdNNearest.findNNearestNeighbors( q, neighbors );
+			final long kdNNearestTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				arrayNNearest.search( q );
+			final long arrayNNearestTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				kdRadius.findNeighborsSorted( q, radius );
+			final long kdRadiusTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( final SimpleNode q : queries )
+				arrayRadius.search( q, radius, true );
+			final long arrayRadiusTime = System.nanoTime() - start;
+
+			if ( report )
+			{
+				System.out.println( "build:        KDTree " + kdBuild / 1000000 + " ms, ArrayKDTree " + arrayBuild / 1000000 + " ms, with " + numThreads + " threads " + arrayParallelBuild / 1000000 + " ms" );
+				System.out.println( "nearest:      KDTree " + kdNearestTime / 1000000 + " ms, ArrayKDTree " + arrayNearestTime / 1000000 + " ms" );
+				System.out.println( neighbors + "-nearest:    KDTree " + kdNNearestTime / 1000000 + " ms, ArrayKDTree " + arrayNNearestTime / 1000000 + " ms" );
+				System.out.println( "radius " + radius + ": KDTree " + kdRadiusTime / 1000000 + " ms, ArrayKDTree " + arrayRadiusTime / 1000000 + " ms" );
+			}
+		}
+		return true;
+	}
+
+	public static void main( final String[] args )
+	{
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+
+		if ( benchmark( 3, 1000000, 200000, 5, 2, numThreads ) )
+			System.out.println( "3D benchmark successful\n" );
+
+		if ( benchmark( 8, 100000, 10000, 5, 25, numThreads ) )
+			System.out.println( "8D benchmark successful\n" );
+	}
+}
@@ -26,16 +26,27 @@
 
 package mpicbg.imglib.algorithm.labeling;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Vector;
 
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.cursor.LocalizableCursor;
 import mpicbg.imglib.image.Image;
+import mpicbg.imglib.labeling.DefaultLabelingCursorStrategy;
+import mpicbg.imglib.labeling.LabelStatistics;
 import mpicbg.imglib.labeling.Labeling;
+import mpicbg.imglib.labeling.LabelingCursorStrategy;
 import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.type.logic.BitType;
 
 /**
@@ -54,7 +65,7 @@ public PositionStack(int dimensions) {
 		}
 		public void push(int [] position) {
 			int insertPoint = this.position * dimensions;
-			if (storage.length == insertPoint) {
+			if (storage.length < insertPoint + dimensions) {
 				int [] newStorage = new int [storage.length * 3 / 2];
 				System.arraycopy(storage, 0, newStorage, 0, storage.length);
 				storage = newStorage;
@@ -165,6 +176,300 @@ public static <T extends Comparable<T>> void labelAllConnectedComponents(
 		bc.close();
 		destCursor.close();
 	}
+	/**
+	 * Label all 8-connected (or N-d equivalent) components using two-pass
+	 * union-find labeling on all available processors.
+	 * See {@link #labelAllConnectedComponentsUnionFind(Labeling, Image, Iterator, int[][], int)}.
+	 */
+	public static <T extends Comparable<T>> Map<T, LabelStatistics> labelAllConnectedComponentsUnionFind(
+			Labeling<T> labeling, Image<BitType> img, Iterator<T> names)
+	throws NoSuchElementException
+	{
+		return labelAllConnectedComponentsUnionFind(labeling, img, names,
+				getStructuringElement(img.getNumDimensions()),
+				Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * Label all connected components in the given image using two-pass
+	 * union-find labeling on a primitive array of pixel indices instead of
+	 * flood filling.
+	 * 
+	 * The space is split into slabs along the last dimension which are
+	 * labeled in parallel. The equivalences at the slab borders are merged
+	 * afterwards, then the labels are written in parallel while the area,
+	 * bounding box and raster start of every component are gathered.
+	 * Components are named in raster order, as with
+	 * {@link #labelAllConnectedComponents(Labeling, Image, Iterator, int[][])}.
+	 * 
+	 * The labeling should be unlabeled. If it uses the default labeling
+	 * cursor strategy, the strategy is handed the statistics, so it does not
+	 * have to scan the labeling again.
+	 * 
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space 
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @param structuringElement an array of offsets to a pixel of the
+	 * pixels which are considered connected. Connectivity is symmetric:
+	 * a pixel is connected to p if p + offset or p - offset is the pixel.
+	 * @param numThreads the number of slabs to label in parallel
+	 * @return the statistics of each component by label
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> Map<T, LabelStatistics> labelAllConnectedComponentsUnionFind(
+			final Labeling<T> labeling, final Image<BitType> img,
+			Iterator<T> names, int [][] structuringElement, int numThreads)
+	throws NoSuchElementException
+	{
+		final int [] dimensions = labeling.getDimensions();
+		final int numDimensions = dimensions.length;
+		final int slabDimension = numDimensions - 1;
+		final int [] steps = new int [numDimensions];
+		steps[0] = 1;
+		for (int i=1; i<numDimensions; i++)
+			steps[i] = steps[i-1] * dimensions[i-1];
+		final int numPixels = steps[slabDimension] * dimensions[slabDimension];
+		/*
+		 * Only look back at pixels that come earlier in the raster scan.
+		 * The structuring element offsets that look forward are turned around
+		 * so that the pixel that they point to links back to this one.
+		 */
+		final List<int []> backOffsetList = new ArrayList<int []>();
+		for (int [] offset:structuringElement) {
+			int linear = 0;
+			for (int i=0; i<numDimensions; i++)
+				linear += offset[i] * steps[i];
+			if (linear == 0) continue;
+			int [] back = offset.clone();
+			if (linear > 0)
+				for (int i=0; i<numDimensions; i++) back[i] = -back[i];
+			boolean duplicate = false;
+			for (int [] other:backOffsetList)
+				if (Arrays.equals(other, back)) duplicate = true;
+			if (! duplicate) backOffsetList.add(back);
+		}
+		final int [][] backOffsets = backOffsetList.toArray(new int [backOffsetList.size()][]);
+		final int [] backSteps = new int [backOffsets.length];
+		int reach = 0;
+		for (int j=0; j<backOffsets.length; j++) {
+			for (int i=0; i<numDimensions; i++)
+				backSteps[j] += backOffsets[j][i] * steps[i];
+			reach = Math.max(reach, -backOffsets[j][slabDimension]);
+		}
+		/*
+		 * labels[i] is -1 for background. For foreground pixels, it is the
+		 * index of the pixel's parent in the union-find forest; roots are
+		 * their own parents and have the smallest index of their tree.
+		 */
+		final int [] labels = new int [numPixels];
+		final Vector<Chunk> slabs = SimpleMultiThreading.divideIntoChunks(
+				dimensions[slabDimension], Math.max(1, Math.min(dimensions[slabDimension], numThreads)));
+		final SharedThreadPool pool = SharedThreadPool.getInstance();
+		/*
+		 * First pass: link each pixel with its earlier neighbors in the slab.
+		 */
+		pool.invoke(slabs, new ChunkTask() {
+			@Override
+			public void run(Chunk chunk, int chunkIndex) {
+				final int slabStart = (int)chunk.getStartPosition();
+				final int slabEnd = slabStart + (int)chunk.getLoopSize();
+				final LocalizableByDimCursor<BitType> c = img.createLocalizableByDimCursor();
+				final int [] position = new int [numDimensions];
+				position[slabDimension] = slabStart;
+				int index = slabStart * steps[slabDimension];
+				do {
+					final int rowStart = position[0];
+					final int rowEnd = (numDimensions == 1) ? slabEnd : dimensions[0];
+					c.setPosition(position);
+					for (int x = rowStart; x < rowEnd; x++, index++) {
+						if (x > rowStart) c.fwd(0);
+						if (! c.getType().get()) {
+							labels[index] = -1;
+							continue;
+						}
+						labels[index] = index;
+						position[0] = x;
+						for (int j=0; j<backOffsets.length; j++) {
+							if (! isInside(position, backOffsets[j], dimensions, slabStart)) continue;
+							final int neighbor = index + backSteps[j];
+							if (labels[neighbor] >= 0) union(labels, index, neighbor);
+						}
+					}
+					position[0] = rowStart;
+				} while (nextRow(position, dimensions, slabEnd));
+				c.close();
+			}
+		}, numThreads);
+		/*
+		 * Merge the equivalences across slab borders.
+		 */
+		final int [] position = new int [numDimensions];
+		for (int s=1; s<slabs.size(); s++) {
+			final int slabStart = (int)slabs.get(s).getStartPosition();
+			final int borderEnd = Math.min(slabStart + reach, slabStart + (int)slabs.get(s).getLoopSize());
+			for (int index = slabStart * steps[slabDimension]; index < borderEnd * steps[slabDimension]; index++) {
+				if (labels[index] < 0) continue;
+				int remainder = index;
+				for (int i=0; i<numDimensions; i++) {
+					position[i] = remainder % dimensions[i];
+					remainder /= dimensions[i];
+				}
+				for (int j=0; j<backOffsets.length; j++) {
+					if (position[slabDimension] + backOffsets[j][slabDimension] >= slabStart) continue;
+					if (! isInside(position, backOffsets[j], dimensions, 0)) continue;
+					final int neighbor = index + backSteps[j];
+					if (labels[neighbor] >= 0) union(labels, index, neighbor);
+				}
+			}
+		}
+		/*
+		 * Second pass: point every pixel at its root and count the roots,
+		 * then number the roots in raster order.
+		 */
+		final int [] rootsPerSlab = new int [slabs.size()];
+		pool.invoke(slabs, new ChunkTask() {
+			@Override
+			public void run(Chunk chunk, int chunkIndex) {
+				final int start = (int)chunk.getStartPosition() * steps[slabDimension];
+				final int end = start + (int)chunk.getLoopSize() * steps[slabDimension];
+				int roots = 0;
+				for (int index = start; index < end; index++) {
+					if (labels[index] < 0) continue;
+					final int root = find(labels, index);
+					labels[index] = root;
+					if (root == index) roots++;
+				}
+				rootsPerSlab[chunkIndex] = roots;
+			}
+		}, numThreads);
+		final int [] firstComponent = new int [slabs.size()];
+		int numComponents = 0;
+		for (int s=0; s<slabs.size(); s++) {
+			firstComponent[s] = numComponents;
+			numComponents += rootsPerSlab[s];
+		}
+		/*
+		 * Roots are marked by storing -2 - component number.
+		 */
+		pool.invoke(slabs, new ChunkTask() {
+			@Override
+			public void run(Chunk chunk, int chunkIndex) {
+				final int start = (int)chunk.getStartPosition() * steps[slabDimension];
+				final int end = start + (int)chunk.getLoopSize() * steps[slabDimension];
+				int component = firstComponent[chunkIndex];
+				for (int index = start; index < end; index++)
+					if (labels[index] == index) labels[index] = -2 - component++;
+			}
+		}, numThreads);
+		/*
+		 * Name the components and write the labeling while gathering
+		 * the statistics per slab.
+		 */
+		final List<T> componentNames = new ArrayList<T>(numComponents);
+		final List<List<T>> componentLabelings = new ArrayList<List<T>>(numComponents);
+		LocalizableCursor<LabelingType<T>> lc = labeling.createLocalizableCursor();
+		for (int i=0; i<numComponents; i++) {
+			T name = names.next();
+			componentNames.add(name);
+			componentLabelings.add(lc.getType().intern(name));
+		}
+		lc.close();
+		final LabelStatistics [][] slabStatistics = new LabelStatistics [slabs.size()][];
+		pool.invoke(slabs, new ChunkTask() {
+			@Override
+			public void run(Chunk chunk, int chunkIndex) {
+				final int slabStart = (int)chunk.getStartPosition();
+				final int slabEnd = slabStart + (int)chunk.getLoopSize();
+				final LocalizableByDimCursor<LabelingType<T>> c = labeling.createLocalizableByDimCursor();
+				final LabelStatistics [] statistics = new LabelStatistics [componentLabelings.size()];
+				final int [] position = new int [numDimensions];
+				position[slabDimension] = slabStart;
+				int index = slabStart * steps[slabDimension];
+				do {
+					final int rowStart = position[0];
+					final int rowEnd = (numDimensions == 1) ? slabEnd : dimensions[0];
+					boolean positioned = false;
+					for (int x = rowStart; x < rowEnd; x++, index++) {
+						final int label = labels[index];
+						if (label == -1) continue;
+						final int component = (label < -1) ? -2 - label : -2 - labels[label];
+						position[0] = x;
+						if (! positioned) {
+							c.setPosition(position);
+							positioned = true;
+						} else {
+							c.setPosition(x, 0);
+						}
+						c.getType().setLabeling(componentLabelings.get(component));
+						if (statistics[component] == null)
+							statistics[component] = new LabelStatistics(numDimensions);
+						statistics[component].update(position);
+					}
+					position[0] = rowStart;
+				} while (nextRow(position, dimensions, slabEnd));
+				c.close();
+				slabStatistics[chunkIndex] = statistics;
+			}
+		}, numThreads);
+		final Map<T, LabelStatistics> result = new HashMap<T, LabelStatistics>();
+		for (int i=0; i<numComponents; i++) {
+			final LabelStatistics statistics = new LabelStatistics(numDimensions);
+			for (LabelStatistics [] s:slabStatistics)
+				if (s[i] != null) statistics.merge(s[i]);
+			result.put(componentNames.get(i), statistics);
+		}
+		final LabelingCursorStrategy<T, Labeling<T>> strategy = labeling.getLabelingCursorStrategy();
+		if (strategy instanceof DefaultLabelingCursorStrategy)
+			((DefaultLabelingCursorStrategy<T, Labeling<T>>)strategy).setStatistics(result);
+		return result;
+	}
+	
+	/*
+	 * Is position + offset inside the space, no lower than minLast in the last dimension?
+	 */
+	static private boolean isInside(int [] position, int [] offset, int [] dimensions, int minLast) {
+		for (int i=0; i<dimensions.length; i++) {
+			final int p = position[i] + offset[i];
+			if ((p < 0) || (p >= dimensions[i])) return false;
+		}
+		return position[dimensions.length - 1] + offset[dimensions.length - 1] >= minLast;
+	}
+	
+	/*
+	 * Advance to the start of the next row, stopping at slabEnd in the
+	 * last dimension. A 1-d slab is a single row.
+	 */
+	static private boolean nextRow(int [] position, int [] dimensions, int slabEnd) {
+		if (dimensions.length == 1) return false;
+		for (int i=1; i<dimensions.length; i++) {
+			position[i]++;
+			if (i == dimensions.length - 1) return position[i] < slabEnd;
+			if (position[i] < dimensions[i]) return true;
+			position[i] = 0;
+		}
+		return false;
+	}
+	
+	static private int find(int [] parents, int index) {
+		while (parents[index] != index) {
+			/*
+			 * Path halving
+			 */
+			parents[index] = parents[parents[index]];
+			index = parents[index];
+		}
+		return index;
+	}
+	
+	static private void union(int [] parents, int a, int b) {
+		final int rootA = find(parents, a);
+		final int rootB = find(parents, b);
+		if (rootA < rootB)
+			parents[rootB] = rootA;
+		else if (rootB < rootA)
+			parents[rootA] = rootB;
+	}
+	
 	/**
 	 * Return an array of offsets to the 8-connected (or N-d equivalent)
 	 * structuring element for the dimension space. The structuring element
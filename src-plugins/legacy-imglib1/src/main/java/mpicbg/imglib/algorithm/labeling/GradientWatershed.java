@@ -45,6 +45,7 @@
 import mpicbg.imglib.labeling.Labeling;
 import mpicbg.imglib.labeling.LabelingType;
 import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
 import mpicbg.imglib.type.numeric.real.FloatType;
 import mpicbg.imglib.util.Util;
 
@@ -448,9 +449,23 @@ public void convert(FloatType input, FloatType output) {
 		Image<FloatType> gradientImage = getGradientImage();
 		if (gradientImage == null) return false;
 		/*
-		 * Run the seeded watershed on the image.
+		 * Run the seeded watershed on the image. The quantized gradient
+		 * only has a few integral levels, so convert it to an integer image
+		 * which the watershed floods with a hierarchical queue.
 		 */
-		Watershed.seededWatershed(gradientImage, seeds, structuringElement, output);
+		if (wantsToQuantize) {
+			ImageConverter<FloatType, UnsignedShortType> toLevels =
+				new ImageConverter<FloatType, UnsignedShortType>(
+						gradientImage,
+						new ImageFactory<UnsignedShortType>(
+								new UnsignedShortType(), input.getContainerFactory()),
+						new RealTypeConverter<FloatType, UnsignedShortType>());
+			if (! toLevels.process()) return false;
+			gradientImage = null;
+			Watershed.seededWatershed(toLevels.getResult(), seeds, structuringElement, output);
+		} else {
+			Watershed.seededWatershed(gradientImage, seeds, structuringElement, output);
+		}
 		return true;
 	}
 	
@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.labeling;
+
+/**
+ * A hierarchical queue of pixel indices: one FIFO per grey level, backed by
+ * primitive ring buffers. Pixels are removed from the lowest non-empty level
+ * first and, within a level, in the order they were added, which is the same
+ * ordering as a priority queue keyed by (intensity, age) but without
+ * allocating an object per pixel or paying for heap operations.
+ * 
+ * Indices are stored as ints when the queue is created as compact and
+ * as longs otherwise.
+ */
+public class HierarchicalQueue {
+	protected static final int INITIAL_CAPACITY = 16;
+
+	protected final int numLevels;
+	protected final boolean compact;
+	protected final int [][] intBuffers;
+	protected final long [][] longBuffers;
+	protected final int [] heads;
+	protected final int [] sizes;
+	/*
+	 * One bit per level, set if the level's FIFO is not empty
+	 */
+	protected final long [] occupied;
+	protected int lowestLevel;
+	protected long size = 0;
+
+	/**
+	 * @param numLevels - the number of grey levels; levels run from 0 to
+	 * numLevels - 1.
+	 * @param compact - true to store indices in int buffers, which is
+	 * possible if all indices are less than Integer.MAX_VALUE
+	 */
+	public HierarchicalQueue(int numLevels, boolean compact) {
+		this.numLevels = numLevels;
+		this.compact = compact;
+		intBuffers = compact ? new int[numLevels][] : null;
+		longBuffers = compact ? null : new long[numLevels][];
+		heads = new int[numLevels];
+		sizes = new int[numLevels];
+		occupied = new long[(numLevels + 63) / 64];
+		lowestLevel = numLevels;
+	}
+
+	public int getNumLevels() {
+		return numLevels;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Add an index to the end of the FIFO for the given level.
+	 * 
+	 * @param level - the grey level, between 0 and numLevels - 1
+	 * @param index - the pixel index
+	 */
+	public void add(int level, long index) {
+		int levelSize = sizes[level];
+		int capacity = compact ?
+				(intBuffers[level] == null ? 0 : intBuffers[level].length) :
+				(longBuffers[level] == null ? 0 : longBuffers[level].length);
+		if (levelSize == capacity)
+			grow(level, capacity);
+		if (compact) {
+			int [] buffer = intBuffers[level];
+			buffer[(heads[level] + levelSize) & (buffer.length - 1)] = (int)index;
+		} else {
+			long [] buffer = longBuffers[level];
+			buffer[(heads[level] + levelSize) & (buffer.length - 1)] = index;
+		}
+		if (levelSize == 0)
+			occupied[level >>> 6] |= 1L << (level & 63);
+		sizes[level] = levelSize + 1;
+		if (level < lowestLevel)
+			lowestLevel = level;
+		size++;
+	}
+
+	/**
+	 * @return the lowest level that holds an index. Only valid if the
+	 * queue is not empty.
+	 */
+	public int getLowestLevel() {
+		int word = lowestLevel >>> 6;
+		long bits = occupied[word] & (-1L << (lowestLevel & 63));
+		while (bits == 0)
+			bits = occupied[++word];
+		lowestLevel = (word << 6) + Long.numberOfTrailingZeros(bits);
+		return lowestLevel;
+	}
+
+	/**
+	 * Remove the oldest index of the lowest non-empty level.
+	 * Only valid if the queue is not empty.
+	 * 
+	 * @return the pixel index
+	 */
+	public long remove() {
+		int level = getLowestLevel();
+		int head = heads[level];
+		long index;
+		int mask;
+		if (compact) {
+			int [] buffer = intBuffers[level];
+			index = buffer[head];
+			mask = buffer.length - 1;
+		} else {
+			long [] buffer = longBuffers[level];
+			index = buffer[head];
+			mask = buffer.length - 1;
+		}
+		if (--sizes[level] == 0) {
+			heads[level] = 0;
+			occupied[level >>> 6] &= ~(1L << (level & 63));
+		} else {
+			heads[level] = (head + 1) & mask;
+		}
+		size--;
+		return index;
+	}
+
+	/*
+	 * Double the capacity of a level's ring buffer, unwrapping its
+	 * contents so that the head is at the start of the new buffer.
+	 */
+	protected void grow(int level, int capacity) {
+		int newCapacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+		int head = heads[level];
+		int first = capacity - head;
+		if (compact) {
+			int [] buffer = new int[newCapacity];
+			if (capacity > 0) {
+				System.arraycopy(intBuffers[level], head, buffer, 0, first);
+				System.arraycopy(intBuffers[level], 0, buffer, first, head);
+			}
+			intBuffers[level] = buffer;
+		} else {
+			long [] buffer = new long[newCapacity];
+			if (capacity > 0) {
+				System.arraycopy(longBuffers[level], head, buffer, 0, first);
+				System.arraycopy(longBuffers[level], 0, buffer, first, head);
+			}
+			longBuffers[level] = buffer;
+		}
+		heads[level] = 0;
+	}
+}
@@ -34,7 +34,9 @@
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.labeling.Labeling;
 import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.type.numeric.ComplexType;
+import mpicbg.imglib.type.numeric.IntegerType;
 
 /**
  * Watershed algorithms. The watershed algorithm segments and labels an image
@@ -55,6 +57,13 @@
  * @author Lee Kamentsky
  */
 public class Watershed {
+	/**
+	 * The largest number of grey levels that will be flooded using a
+	 * hierarchical queue. Integer images with a wider range of intensities
+	 * use the priority queue.
+	 */
+	public static final long MAX_HIERARCHICAL_LEVELS = 1 << 20;
+
 	protected static class PixelIntensity<T extends Comparable<T>> 
 	implements Comparable<PixelIntensity<T>> {
 		protected final long index;
@@ -106,6 +115,11 @@ List<T> getLabeling() {
 	 * This implementation breaks ties by assigning the pixel to the
 	 * label that occupied an adjacent pixel first.
 	 * 
+	 * Integer images are flooded using a {@link HierarchicalQueue} with
+	 * one FIFO per grey level, which takes linear time and does not
+	 * allocate per pixel. Other images use a priority queue. Both give
+	 * the same labeling.
+	 * 
 	 * @param <T> - the image type, typically real or integer. Technically
 	 * complex is supported but only the real part is used.
 	 * 
@@ -141,6 +155,9 @@ void seededWatershed(Image<T> image,
 		for (int i=0; i< structuringElement.length; i++) {
 			assert(structuringElement[i].length == seeds.getNumDimensions());
 		}
+		if ((image.createType() instanceof IntegerType) &&
+			hierarchicalWatershed(image, seeds, structuringElement, output))
+			return;
 		/*
 		 * Start by loading up a priority queue with the seeded pixels
 		 */
@@ -207,4 +224,115 @@ void seededWatershed(Image<T> image,
 		outputCursor.close();
 		ic.close();
 	}
+
+	/**
+	 * Perform the seeded watershed on an integer image using a
+	 * hierarchical queue. The pixel's label is written to the output
+	 * when it is queued, so the queue only needs to hold the pixel index.
+	 * 
+	 * @return false if the image has too many grey levels, in which case
+	 * the output is untouched.
+	 */
+	static protected <T extends ComplexType<T>, L extends Comparable<L>>
+	boolean hierarchicalWatershed(Image<T> image, 
+			                      Labeling<L> seeds,
+			                      int [][] structuringElement,
+			                      Labeling<L> output) {
+		/*
+		 * Find the range of grey levels
+		 */
+		Cursor<T> minMaxCursor = image.createCursor();
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (T t:minMaxCursor) {
+			long value = ((IntegerType<?>)t).getIntegerLong();
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		minMaxCursor.close();
+		if ((max < min) || (max - min >= MAX_HIERARCHICAL_LEVELS)) return false;
+		
+		int [] dimensions = output.getDimensions();
+		int [] imageDimensions = image.getDimensions();
+		long numPixels = 1;
+		for (int d:dimensions) numPixels *= d;
+		HierarchicalQueue queue = new HierarchicalQueue(
+				(int)(max - min + 1), numPixels <= Integer.MAX_VALUE);
+		
+		LocalizableCursor<LabelingType<L>> c = seeds.createLocalizableCursor();
+		LocalizableByDimCursor<LabelingType<L>> outputCursor =
+			output.createLocalizableByDimCursor();
+		LocalizableByDimCursor<T> ic = image.createLocalizableByDimCursor();
+		int [] position = seeds.createPositionArray();
+		int [] destPosition = seeds.createPositionArray();
+		
+		for (LabelingType<L> t:c) {
+			List<L> l = t.getLabeling();
+			if (l.isEmpty()) continue;
+			
+			c.getPosition(position);
+			boolean outofbounds = false;
+			for (int i=0; i<position.length; i++)
+				if ((position[i] >= dimensions[i]) || 
+					(position[i] >= imageDimensions[i])) {
+					outofbounds = true;
+					break;
+				}
+			if (outofbounds) continue;
+			outputCursor.setPosition(position);
+			l = outputCursor.getType().intern(l);
+			outputCursor.getType().setLabeling(l);
+			ic.setPosition(position);
+			long level = ((IntegerType<?>)ic.getType()).getIntegerLong() - min;
+			queue.add((int)level, getIndex(position, dimensions));
+		}
+		while (! queue.isEmpty()) {
+			getPosition(queue.remove(), position, dimensions);
+			outputCursor.setPosition(position);
+			List<L> l = outputCursor.getType().getLabeling();
+			/*
+			 * Neighbors are queued at the level of the pixel they were
+			 * reached from, like in the priority queue path above.
+			 */
+			ic.setPosition(position);
+			long level = ((IntegerType<?>)ic.getType()).getIntegerLong() - min;
+			for (int [] offset:structuringElement) {
+				boolean outofbounds = false;
+				for (int i=0; i<position.length; i++) {
+					destPosition[i] = position[i] + offset[i];
+					if ((destPosition[i] >= dimensions[i]) ||
+						(destPosition[i] >= imageDimensions[i]) ||
+						(destPosition[i] < 0)) {
+						outofbounds = true;
+					}
+				}
+				if (outofbounds) continue;
+				outputCursor.setPosition(destPosition);
+				if (! outputCursor.getType().getLabeling().isEmpty()) continue;
+				outputCursor.getType().setLabeling(l);
+				queue.add((int)level, getIndex(destPosition, dimensions));
+			}
+		}
+		c.close();
+		outputCursor.close();
+		ic.close();
+		return true;
+	}
+	
+	static protected long getIndex(int [] position, int [] dimensions) {
+		long index = position[0];
+		long multiplier = dimensions[0];
+		for (int i=1; i<dimensions.length; i++) {
+			index += position[i] * multiplier;
+			multiplier *= dimensions[i];
+		}
+		return index;
+	}
+	
+	static protected void getPosition(long index, int [] position, int [] dimensions) {
+		for (int i=0; i<dimensions.length; i++) {
+			position[i] = (int)(index % dimensions[i]);
+			index /= dimensions[i];
+		}
+	}
 }
@@ -56,4 +56,9 @@ protected void statsOp(LocalizableByDimCursor<T> cursor) {
 		cursor.getType().set(super.getList().get(n / 2));
 	}
 
+	@Override
+	protected int getRank(final int n) {
+		return n / 2;
+	}
+
 }
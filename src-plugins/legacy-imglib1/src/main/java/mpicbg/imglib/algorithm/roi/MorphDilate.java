@@ -58,4 +58,9 @@ protected void statsOp(final LocalizableByDimCursor<T> cursor) {
 		cursor.getType().set(super.getList().getLast());
 	}
 
+	@Override
+	protected int getRank(final int n) {
+		return n - 1;
+	}
+
 }
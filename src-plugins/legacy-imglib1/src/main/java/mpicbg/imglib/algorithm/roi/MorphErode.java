@@ -56,4 +56,9 @@ protected void statsOp(final LocalizableByDimCursor<T> cursor) {
 		cursor.getType().set(super.getList().getFirst());
 	}
 
+	@Override
+	protected int getRank(final int n) {
+		return 0;
+	}
+
 }
@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.roi;
+
+import java.util.Arrays;
+
+/**
+ * {@link OrderStatistics} backed by a two-level histogram over a bounded integer range.  Adding
+ * and removing a value is O(1); finding a value by rank walks at most 2 * sqrt(range) bins, i.e.
+ * 512 bins for 16-bit data.
+ */
+public class OrderStatisticHistogram extends OrderStatistics
+{
+	private static final int BLOCK_BITS = 8;
+	
+	private final int min;
+	private final int[] bins;
+	private final int[] blocks;
+	private int count;
+	
+	/**
+	 * @param min the smallest value that will be stored.
+	 * @param max the largest value that will be stored.
+	 */
+	public OrderStatisticHistogram(final int min, final int max)
+	{
+		if (max < min)
+		{
+			throw new IllegalArgumentException("Invalid histogram range [" + min + ", " + max + "]");
+		}
+		
+		this.min = min;
+		bins = new int[max - min + 1];
+		blocks = new int[(bins.length >> BLOCK_BITS) + 1];
+		count = 0;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill(bins, 0);
+		Arrays.fill(blocks, 0);
+		count = 0;
+	}
+
+	@Override
+	public void add(final double value)
+	{
+		final int bin = (int)value - min;
+		++bins[bin];
+		++blocks[bin >> BLOCK_BITS];
+		++count;
+	}
+
+	@Override
+	public void remove(final double value)
+	{
+		final int bin = (int)value - min;
+		--bins[bin];
+		--blocks[bin >> BLOCK_BITS];
+		--count;
+	}
+
+	@Override
+	public int size()
+	{
+		return count;
+	}
+
+	@Override
+	public double get(final int rank)
+	{
+		if (rank < 0 || rank >= count)
+		{
+			throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds, size is " + count);
+		}
+		
+		int r = rank;
+		int block = 0;
+		
+		while (r >= blocks[block])
+		{
+			r -= blocks[block];
+			++block;
+		}
+		
+		int bin = block << BLOCK_BITS;
+		
+		while (r >= bins[bin])
+		{
+			r -= bins[bin];
+			++bin;
+		}
+		
+		return min + bin;
+	}
+}
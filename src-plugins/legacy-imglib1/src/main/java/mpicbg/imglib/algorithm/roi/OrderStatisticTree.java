@@ -0,0 +1,318 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.roi;
+
+/**
+ * {@link OrderStatistics} backed by a size-augmented treap, for value types that are too wide
+ * for an {@link OrderStatisticHistogram} (float, double, int, long).  Insertion, removal and
+ * access by rank are O(log n) in the number of distinct values.
+ * 
+ * Nodes live in primitive arrays and are recycled through a free list, so that once the tree
+ * has grown to the size of the window no more objects are created.
+ */
+public class OrderStatisticTree extends OrderStatistics
+{
+	private static final int NIL = -1;
+	
+	private double[] key;
+	private int[] multiplicity;
+	private int[] size;
+	private int[] left;
+	private int[] right;
+	private int[] priority;
+	
+	private int root;
+	private int freeList;
+	private int used;
+	private int seed;
+
+	public OrderStatisticTree()
+	{
+		this(64);
+	}
+	
+	/**
+	 * @param capacity the initial number of distinct values that can be stored without growing
+	 * the node arrays.
+	 */
+	public OrderStatisticTree(final int capacity)
+	{
+		allocate(Math.max(1, capacity));
+		seed = 0x2545F491;
+		clear();
+	}
+	
+	@Override
+	public void clear()
+	{
+		root = NIL;
+		freeList = NIL;
+		used = 0;
+	}
+
+	@Override
+	public void add(final double value)
+	{
+		root = insert(root, value);
+	}
+
+	@Override
+	public void remove(final double value)
+	{
+		root = delete(root, value);
+	}
+
+	@Override
+	public int size()
+	{
+		return root == NIL ? 0 : size[root];
+	}
+
+	@Override
+	public double get(final int rank)
+	{
+		if (rank < 0 || rank >= size())
+		{
+			throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds, size is " + size());
+		}
+		
+		int r = rank;
+		int node = root;
+		
+		while (true)
+		{
+			final int leftSize = sizeOf(left[node]);
+			
+			if (r < leftSize)
+			{
+				node = left[node];
+			}
+			else if (r < leftSize + multiplicity[node])
+			{
+				return key[node];
+			}
+			else
+			{
+				r -= leftSize + multiplicity[node];
+				node = right[node];
+			}
+		}
+	}
+	
+	private int insert(int node, final double value)
+	{
+		if (node == NIL)
+		{
+			return newNode(value);
+		}
+		
+		final int c = Double.compare(value, key[node]);
+		
+		if (c == 0)
+		{
+			++multiplicity[node];
+			++size[node];
+		}
+		else if (c < 0)
+		{
+			// insert() may grow the arrays, so only dereference them after it returns
+			final int child = insert(left[node], value);
+			left[node] = child;
+			update(node);
+			if (priority[left[node]] > priority[node])
+			{
+				node = rotateRight(node);
+			}
+		}
+		else
+		{
+			final int child = insert(right[node], value);
+			right[node] = child;
+			update(node);
+			if (priority[right[node]] > priority[node])
+			{
+				node = rotateLeft(node);
+			}
+		}
+		
+		return node;
+	}
+	
+	private int delete(final int node, final double value)
+	{
+		if (node == NIL)
+		{
+			throw new IllegalStateException("Value " + value + " is not in the tree.");
+		}
+		
+		final int c = Double.compare(value, key[node]);
+		
+		if (c < 0)
+		{
+			left[node] = delete(left[node], value);
+		}
+		else if (c > 0)
+		{
+			right[node] = delete(right[node], value);
+		}
+		else if (multiplicity[node] > 1)
+		{
+			--multiplicity[node];
+		}
+		else
+		{
+			final int merged = merge(left[node], right[node]);
+			freeNode(node);
+			return merged;
+		}
+		
+		update(node);
+		return node;
+	}
+	
+	private int merge(final int a, final int b)
+	{
+		if (a == NIL)
+		{
+			return b;
+		}
+		else if (b == NIL)
+		{
+			return a;
+		}
+		else if (priority[a] > priority[b])
+		{
+			right[a] = merge(right[a], b);
+			update(a);
+			return a;
+		}
+		else
+		{
+			left[b] = merge(a, left[b]);
+			update(b);
+			return b;
+		}
+	}
+	
+	private int rotateRight(final int node)
+	{
+		final int l = left[node];
+		left[node] = right[l];
+		right[l] = node;
+		update(node);
+		update(l);
+		return l;
+	}
+	
+	private int rotateLeft(final int node)
+	{
+		final int r = right[node];
+		right[node] = left[r];
+		left[r] = node;
+		update(node);
+		update(r);
+		return r;
+	}
+	
+	private void update(final int node)
+	{
+		size[node] = sizeOf(left[node]) + sizeOf(right[node]) + multiplicity[node];
+	}
+	
+	private int sizeOf(final int node)
+	{
+		return node == NIL ? 0 : size[node];
+	}
+	
+	private int newNode(final double value)
+	{
+		final int node;
+		
+		if (freeList != NIL)
+		{
+			node = freeList;
+			freeList = left[node];
+		}
+		else
+		{
+			if (used == key.length)
+			{
+				allocate(key.length * 2);
+			}
+			node = used++;
+		}
+		
+		// xorshift, good enough to keep the treap balanced
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		
+		key[node] = value;
+		multiplicity[node] = 1;
+		size[node] = 1;
+		left[node] = NIL;
+		right[node] = NIL;
+		priority[node] = seed;
+		
+		return node;
+	}
+	
+	private void freeNode(final int node)
+	{
+		left[node] = freeList;
+		freeList = node;
+	}
+	
+	private void allocate(final int capacity)
+	{
+		key = copyOf(key, new double[capacity]);
+		multiplicity = copyOf(multiplicity, new int[capacity]);
+		size = copyOf(size, new int[capacity]);
+		left = copyOf(left, new int[capacity]);
+		right = copyOf(right, new int[capacity]);
+		priority = copyOf(priority, new int[capacity]);
+	}
+	
+	private static double[] copyOf(final double[] from, final double[] to)
+	{
+		if (from != null)
+		{
+			System.arraycopy(from, 0, to, 0, from.length);
+		}
+		return to;
+	}
+	
+	private static int[] copyOf(final int[] from, final int[] to)
+	{
+		if (from != null)
+		{
+			System.arraycopy(from, 0, to, 0, from.length);
+		}
+		return to;
+	}
+}
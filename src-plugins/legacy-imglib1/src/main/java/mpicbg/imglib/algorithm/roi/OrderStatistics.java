@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.roi;
+
+import mpicbg.imglib.type.numeric.IntegerType;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * A multiset of real values that supports insertion, removal and access by rank.  Used by
+ * {@link SlidingWindowStatistics} to maintain the contents of a {@link StructuringElement}
+ * window while it slides over an {@link mpicbg.imglib.image.Image}, without re-sorting the whole
+ * window at every position.
+ */
+public abstract class OrderStatistics
+{
+	/**
+	 * The largest value range for which a histogram is used for integer types.  Wider integer
+	 * types (int, long) fall back to an {@link OrderStatisticTree}.
+	 */
+	public static final int MAX_HISTOGRAM_RANGE = 1 << 16;
+	
+	/**
+	 * Removes all values.
+	 */
+	public abstract void clear();
+	
+	/**
+	 * Adds one occurrence of the given value.
+	 * @param value the value to add.
+	 */
+	public abstract void add(double value);
+	
+	/**
+	 * Removes one occurrence of the given value, which must have been added before.
+	 * @param value the value to remove.
+	 */
+	public abstract void remove(double value);
+	
+	/**
+	 * @return the number of values currently stored, counting duplicates.
+	 */
+	public abstract int size();
+	
+	/**
+	 * Returns the value with the given rank, that is, the value that would be at index rank if
+	 * all values were sorted in ascending order.
+	 * @param rank the rank, between 0 and size() - 1.
+	 * @return the value with the given rank.
+	 */
+	public abstract double get(int rank);
+	
+	/**
+	 * Creates the most appropriate OrderStatistics for the given type: an
+	 * {@link OrderStatisticHistogram} for {@link IntegerType}s with a value range of at most
+	 * {@link #MAX_HISTOGRAM_RANGE}, an {@link OrderStatisticTree} otherwise.
+	 * 
+	 * @param type a representative of the values that will be stored.
+	 * @return a new, empty OrderStatistics.
+	 */
+	public static <R extends RealType<R>> OrderStatistics create(final R type)
+	{
+		if (type instanceof IntegerType)
+		{
+			final double min = type.getMinValue();
+			final double max = type.getMaxValue();
+			
+			if (max - min < MAX_HISTOGRAM_RANGE)
+			{
+				return new OrderStatisticHistogram((int)min, (int)max);
+			}
+		}
+		return new OrderStatisticTree();
+	}
+}
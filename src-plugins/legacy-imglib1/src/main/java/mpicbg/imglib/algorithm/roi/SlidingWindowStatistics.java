@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.roi;
+
+import java.util.ArrayList;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.type.logic.BitType;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * Maintains the {@link OrderStatistics} of the pixels covered by a {@link StructuringElement}
+ * as it slides over an {@link Image}.
+ * 
+ * When the window moves by exactly one pixel along one dimension, only the pixels on its
+ * trailing edge are removed and those on its leading edge are added.  The edges are computed
+ * once from the StructuringElement, so for a d-dimensional ball or cube of width n each step
+ * costs O(n^(d-1)) updates instead of the O(n^d log n) of re-sorting the whole window.  Any
+ * other move refills the window from scratch.
+ * 
+ * Each instance owns its own cursor into the input, so one instance per thread can be used
+ * to process disjoint parts of the same image concurrently.
+ *
+ * @param <T> the input {@link Image} type.
+ */
+public class SlidingWindowStatistics<T extends RealType<T>>
+{
+	private final LocalizableByDimCursor<T> inputCursor;
+	private final OrderStatistics stats;
+	private final int numDimensions;
+	private final int[] strelOffset;
+	
+	/* positions of all set pixels of the strel, relative to its corner */
+	private final int[][] members;
+	/* per dimension, the set pixels that enter the window when it moves forward by one */
+	private final int[][][] leading;
+	/* per dimension, the set pixels that leave the window when it moves forward by one */
+	private final int[][][] trailing;
+	
+	private final int[] origin;
+	private final int[] newOrigin;
+	private final int[] position;
+	private boolean valid;
+	
+	public SlidingWindowStatistics(final Image<T> image, final StructuringElement strel,
+			final OutOfBoundsStrategyFactory<T> outsideFactory)
+	{
+		final int[] dims = strel.getDimensions();
+		
+		numDimensions = dims.length;
+		strelOffset = strel.getOffset().clone();
+		inputCursor = image.createLocalizableByDimCursor(outsideFactory);
+		stats = OrderStatistics.create(image.createType());
+		origin = new int[numDimensions];
+		newOrigin = new int[numDimensions];
+		position = new int[numDimensions];
+		valid = false;
+		
+		// flatten the strel into a mask so that neighbors can be looked up by index
+		final int[] steps = new int[numDimensions];
+		int numPixels = 1;
+		for (int d = 0; d < numDimensions; ++d)
+		{
+			steps[d] = numPixels;
+			numPixels *= dims[d];
+		}
+		
+		final boolean[] mask = new boolean[numPixels];
+		final ArrayList<int[]> set = new ArrayList<int[]>();
+		final LocalizableCursor<BitType> strelCursor = strel.createLocalizableCursor();
+		
+		while (strelCursor.hasNext())
+		{
+			strelCursor.fwd();
+			if (strelCursor.getType().get())
+			{
+				final int[] pos = strelCursor.getPosition();
+				mask[index(pos, steps)] = true;
+				set.add(pos);
+			}
+		}
+		strelCursor.close();
+		
+		members = set.toArray(new int[set.size()][]);
+		leading = new int[numDimensions][][];
+		trailing = new int[numDimensions][][];
+		
+		for (int d = 0; d < numDimensions; ++d)
+		{
+			final ArrayList<int[]> lead = new ArrayList<int[]>();
+			final ArrayList<int[]> trail = new ArrayList<int[]>();
+			
+			for (final int[] pos : members)
+			{
+				final int i = index(pos, steps);
+				
+				if (pos[d] == dims[d] - 1 || !mask[i + steps[d]])
+				{
+					lead.add(pos);
+				}
+				if (pos[d] == 0 || !mask[i - steps[d]])
+				{
+					trail.add(pos);
+				}
+			}
+			
+			leading[d] = lead.toArray(new int[lead.size()][]);
+			trailing[d] = trail.toArray(new int[trail.size()][]);
+		}
+	}
+	
+	/**
+	 * Moves the center of the window to the given position, updating the statistics
+	 * incrementally if possible.
+	 * 
+	 * @param center the new center position of the window in the input image.
+	 */
+	public void moveTo(final int[] center)
+	{
+		int movedDim = -1;
+		int distance = 0;
+		
+		for (int d = 0; d < numDimensions; ++d)
+		{
+			newOrigin[d] = center[d] - strelOffset[d];
+			
+			final int delta = newOrigin[d] - origin[d];
+			
+			if (delta != 0)
+			{
+				distance += Math.abs(delta);
+				movedDim = d;
+			}
+		}
+		
+		if (!valid || distance > 1)
+		{
+			stats.clear();
+			addAll(newOrigin, members);
+			valid = true;
+		}
+		else if (distance == 1)
+		{
+			if (newOrigin[movedDim] > origin[movedDim])
+			{
+				removeAll(origin, trailing[movedDim]);
+				addAll(newOrigin, leading[movedDim]);
+			}
+			else
+			{
+				removeAll(origin, leading[movedDim]);
+				addAll(newOrigin, trailing[movedDim]);
+			}
+		}
+		
+		System.arraycopy(newOrigin, 0, origin, 0, numDimensions);
+	}
+	
+	/**
+	 * Forces the next call to {@link #moveTo(int[])} to refill the window.
+	 */
+	public void reset()
+	{
+		valid = false;
+	}
+	
+	/**
+	 * @return the number of pixels in the window, which is the number of set pixels in the
+	 * {@link StructuringElement}.
+	 */
+	public int size()
+	{
+		return stats.size();
+	}
+	
+	/**
+	 * Writes the value of the given rank within the current window into the given type.
+	 * 
+	 * @param rank the rank, 0 for the minimum, size() - 1 for the maximum.
+	 * @param type the type to set.
+	 */
+	public void get(final int rank, final T type)
+	{
+		type.setReal(stats.get(rank));
+	}
+	
+	public OrderStatistics getOrderStatistics()
+	{
+		return stats;
+	}
+	
+	public void close()
+	{
+		inputCursor.close();
+	}
+	
+	private void addAll(final int[] corner, final int[][] offsets)
+	{
+		for (final int[] offset : offsets)
+		{
+			stats.add(valueAt(corner, offset));
+		}
+	}
+	
+	private void removeAll(final int[] corner, final int[][] offsets)
+	{
+		for (final int[] offset : offsets)
+		{
+			stats.remove(valueAt(corner, offset));
+		}
+	}
+	
+	private double valueAt(final int[] corner, final int[] offset)
+	{
+		for (int d = 0; d < numDimensions; ++d)
+		{
+			position[d] = corner[d] + offset[d];
+		}
+		inputCursor.setPosition(position);
+		return inputCursor.getType().getRealDouble();
+	}
+	
+	private static int index(final int[] pos, final int[] steps)
+	{
+		int i = 0;
+		for (int d = 0; d < pos.length; ++d)
+		{
+			i += pos[d] * steps[d];
+		}
+		return i;
+	}
+}
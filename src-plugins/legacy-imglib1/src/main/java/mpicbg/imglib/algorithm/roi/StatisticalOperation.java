@@ -27,11 +27,16 @@
 package mpicbg.imglib.algorithm.roi;
 
 import java.util.LinkedList;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import mpicbg.imglib.algorithm.MultiThreaded;
 import mpicbg.imglib.algorithm.ROIAlgorithm;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.cursor.special.RegionOfInterestCursor;
 import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.logic.BitType;
 import mpicbg.imglib.type.numeric.RealType;
@@ -42,10 +47,17 @@
  * a {@link StructuringElement}.  This list is made available to children classes, which are
  * responsible for setting the pixel value at the current position in the output Image.
  * 
+ * Operations that only need a single order statistic, such as the minimum, median or maximum,
+ * should also override {@link #getRank(int)}.  They are then computed by a
+ * {@link SlidingWindowStatistics} that updates only the edges of the StructuringElement from one
+ * pixel to the next, and the image is split into slabs along its last dimension that are
+ * processed in parallel.
+ * 
  * @param <T> The input- and output-{@link Image} type.
  * @author Larry Lindsey
  */
-public abstract class StatisticalOperation<T extends RealType<T>> extends ROIAlgorithm<T, T> {
+public abstract class StatisticalOperation<T extends RealType<T>> extends ROIAlgorithm<T, T>
+	implements MultiThreaded {
 	//Member classes
 	
 	/**
@@ -106,7 +118,9 @@ public void collectStats(LinkedList<R> list, RegionOfInterestCursor<R> cursor, i
 	}
 	
 	/*
-	 * As of this writing, there are no other collection strategy classes written, as you can tell.
+	 * The edge-update strategy described below is implemented by SlidingWindowStatistics, and is
+	 * used by process() for every operation that overrides getRank().  statsOp() and the
+	 * collection strategies are only used for operations that need the whole sorted list.
 	 * 
 	 * To be clear, here we're concerned with strel operations, ie, operations of a shaped element
 	 * with respect to an input image.
@@ -140,6 +154,8 @@ public void collectStats(LinkedList<R> list, RegionOfInterestCursor<R> cursor, i
 	private final LocalizableByDimCursor<T> outputCursor;
 	private boolean init = false;
 	private StatisticsCollectionStrategy<T> statsStrategy;
+	private boolean useSlidingWindow = true;
+	private int numThreads;
 
 	
 	//Member functions
@@ -156,6 +172,7 @@ public StatisticalOperation(final Image<T> imageIn, final StructuringElement inS
 		lastPosition = new int[strel.getNumDimensions()];
 		outputCursor = getOutputImage().createLocalizableByDimCursor();
 		statsStrategy = new SimpleCollectionStrategy<T>();		
+		setNumThreads();
 	}
 
 	public void reset()
@@ -183,6 +200,40 @@ public int[] getLastPosition()
 		return lastPosition;
 	}
 	
+	/**
+	 * Sets whether operations that override {@link #getRank(int)} should be computed with a
+	 * {@link SlidingWindowStatistics}.  If false, the sorted list is rebuilt for every pixel and
+	 * handed to {@link #statsOp(LocalizableByDimCursor)}, as for any other operation.
+	 * @param slide true to use the sliding window, which is the default.
+	 */
+	public void setUseSlidingWindow(final boolean slide)
+	{
+		useSlidingWindow = slide;
+	}
+	
+	public boolean getUseSlidingWindow()
+	{
+		return useSlidingWindow;
+	}
+	
+	@Override
+	public void setNumThreads()
+	{
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
 	public void close()
 	{
 		super.close();
@@ -195,6 +246,142 @@ public boolean checkInput()
 		return super.checkInput() && outputCursor.isActive();
 	}
 	
+	@Override
+	public boolean process()
+	{
+		if (!useSlidingWindow)
+		{
+			return super.process();
+		}
+		
+		final long sTime = System.currentTimeMillis();
+		final Image<T> image = getInputImage();
+		final int nd = image.getNumDimensions();
+		final int[] dims = image.getDimensions();
+		final int lastDim = nd - 1;
+		final int numSlabs = Math.max(1, Math.min(numThreads, dims[lastDim]));
+		final Vector<Chunk> slabs = SimpleMultiThreading.divideIntoChunks(dims[lastDim], numSlabs);
+		final Vector<SlidingWindowStatistics<T>> windows = new Vector<SlidingWindowStatistics<T>>();
+		final Vector<LocalizableByDimCursor<T>> outputs = new Vector<LocalizableByDimCursor<T>>();
+		
+		for (int i = 0; i < numSlabs; ++i)
+		{
+			windows.add(new SlidingWindowStatistics<T>(image, strel, getOutOfBoundsFactory()));
+		}
+		
+		/* 
+		 * With an out-of-bounds strategy, every window holds exactly as many values as the strel
+		 * has set pixels, so the rank is the same everywhere.
+		 */
+		final int[] center = new int[nd];
+		windows.get(0).moveTo(center);
+		final int rank = getRank(windows.get(0).size());
+		
+		if (rank < 0)
+		{
+			for (final SlidingWindowStatistics<T> window : windows)
+			{
+				window.close();
+			}
+			return super.process();
+		}
+		
+		for (int i = 0; i < numSlabs; ++i)
+		{
+			outputs.add(getOutputImage().createLocalizableByDimCursor());
+		}
+		
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(numSlabs);
+		
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+		{
+			threads[ithread] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					final int myNumber = ai.getAndIncrement();
+					final Chunk slab = slabs.get(myNumber);
+					
+					processSlab(windows.get(myNumber), outputs.get(myNumber), dims,
+							(int)slab.getStartPosition(), (int)slab.getLoopSize(), rank);
+				}
+			});
+		}
+		
+		SimpleMultiThreading.startAndJoin(threads);
+		
+		for (int i = 0; i < numSlabs; ++i)
+		{
+			windows.get(i).close();
+			outputs.get(i).close();
+		}
+		
+		init = true;
+		setProcessingTime(System.currentTimeMillis() - sTime);
+		return true;
+	}
+	
+	/**
+	 * Visits every pixel of a slab along a boustrophedon path, so that each step moves by
+	 * exactly one pixel along one dimension and the window never has to be refilled.
+	 */
+	private void processSlab(final SlidingWindowStatistics<T> window,
+			final LocalizableByDimCursor<T> output, final int[] dims,
+			final int start, final int length, final int rank)
+	{
+		final int nd = dims.length;
+		final int[] min = new int[nd];
+		final int[] max = new int[nd];
+		final int[] dir = new int[nd];
+		final int[] pos = new int[nd];
+		
+		if (length <= 0)
+		{
+			return;
+		}
+		
+		for (int d = 0; d < nd; ++d)
+		{
+			min[d] = 0;
+			max[d] = dims[d] - 1;
+			dir[d] = 1;
+		}
+		min[nd - 1] = start;
+		max[nd - 1] = start + length - 1;
+		pos[nd - 1] = start;
+		
+		window.reset();
+		output.setPosition(pos);
+		
+		while (true)
+		{
+			window.moveTo(pos);
+			window.get(rank, output.getType());
+			
+			int d = 0;
+			while (d < nd)
+			{
+				final int next = pos[d] + dir[d];
+				
+				if (next >= min[d] && next <= max[d])
+				{
+					pos[d] = next;
+					output.move(dir[d], d);
+					break;
+				}
+				
+				dir[d] = -dir[d];
+				++d;
+			}
+			
+			if (d == nd)
+			{
+				return;
+			}
+		}
+	}
+	
 	@Override
 	protected boolean patchOperation(final int[] position,
 			final RegionOfInterestCursor<T> cursor) {
@@ -222,4 +409,19 @@ protected boolean patchOperation(final int[] position,
 	 */
 	protected abstract void statsOp(LocalizableByDimCursor<T> cursor);
 	
+	/**
+	 * Returns the rank, within the sorted neighborhood, of the single value that this operation
+	 * writes to the output, for example 0 for an erosion or n / 2 for a median.  Operations that
+	 * return a non-negative rank are computed by {@link #process()} with a
+	 * {@link SlidingWindowStatistics} instead of {@link #statsOp(LocalizableByDimCursor)}.
+	 * 
+	 * @param n the number of values in the neighborhood.
+	 * @return the rank of the order statistic, or -1 if statsOp() needs the whole sorted list,
+	 * which is the default.
+	 */
+	protected int getRank(final int n)
+	{
+		return -1;
+	}
+	
 }
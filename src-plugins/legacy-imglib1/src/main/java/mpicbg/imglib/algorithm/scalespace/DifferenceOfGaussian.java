@@ -37,6 +37,7 @@
 import mpicbg.imglib.algorithm.function.SubtractNorm;
 import mpicbg.imglib.algorithm.gauss.GaussianConvolution;
 import mpicbg.imglib.algorithm.gauss.GaussianConvolution2;
+import mpicbg.imglib.algorithm.gauss.GaussianConvolution3;
 import mpicbg.imglib.algorithm.math.ImageCalculatorInPlace;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.cursor.special.LocalNeighborhoodCursor;
@@ -71,6 +72,7 @@ public static enum SpecialPoint { INVALID, MIN, MAX };
 	protected final Converter<A, B> converter;
 	
 	boolean computeConvolutionsParalell, keepDoGImage;
+	double recursiveMinSigma = Double.MAX_VALUE;
 	long processingTime;
 	int numThreads;
 	String errorMessage = "";
@@ -154,6 +156,12 @@ public DifferenceOfGaussian( final Image<A> img, final ImageFactory<B> factory,
 	public ArrayList<DifferenceOfGaussianPeak<B>> getPeaks() { return peaks; }
 	public void setComputeConvolutionsParalell( final boolean paralell ) { this.computeConvolutionsParalell = paralell; }
 	public boolean getComputeConvolutionsParalell() { return computeConvolutionsParalell; }
+	/**
+	 * Sigmas of at least this value are convolved with a recursive approximation of the Gaussian,
+	 * see {@link GaussianConvolution3#setRecursiveMinSigma(double)}
+	 */
+	public void setRecursiveMinSigma( final double recursiveMinSigma ) { this.recursiveMinSigma = recursiveMinSigma; }
+	public double getRecursiveMinSigma() { return recursiveMinSigma; }
 	
 	/**
 	 * This method returns the {@link OutputAlgorithm} that will compute the Gaussian Convolutions, more efficient versions can override this method
@@ -165,6 +173,8 @@ public DifferenceOfGaussian( final Image<A> img, final ImageFactory<B> factory,
 	protected OutputAlgorithm<B> getGaussianConvolution( final double[] sigma, final int nThreads )
 	{
 		final GaussianConvolution2<A, B> gauss = new GaussianConvolution2<A, B>( image, factory, outOfBoundsFactory, converter, sigma );
+		gauss.setNumThreads( nThreads );
+		gauss.setRecursiveMinSigma( recursiveMinSigma );
 		
 		return gauss;
 	}
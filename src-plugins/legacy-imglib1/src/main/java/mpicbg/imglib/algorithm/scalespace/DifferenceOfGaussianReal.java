@@ -89,6 +89,8 @@ protected static <T extends RealType<T> > T createVariable( final ImageFactory<T
 	protected OutputAlgorithm<B> getGaussianConvolution( final double[] sigma, final int numThreads )
 	{
 		final GaussianConvolution2<A,B> gauss = new GaussianConvolution2<A,B>( image, factory, outOfBoundsFactory, new RealTypeConverter<A, B>(), sigma );
+		gauss.setNumThreads( numThreads );
+		gauss.setRecursiveMinSigma( recursiveMinSigma );
 		
 		return gauss;
 	}
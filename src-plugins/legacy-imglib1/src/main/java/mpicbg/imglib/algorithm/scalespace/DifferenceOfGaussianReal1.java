@@ -62,6 +62,8 @@ public DifferenceOfGaussianReal1( final Image<A> img, OutOfBoundsStrategyFactory
 	protected OutputAlgorithm<A> getGaussianConvolution( final double[] sigma, final int numThreads )
 	{
 		final GaussianConvolutionReal<A> gauss = new GaussianConvolutionReal<A>( image, outOfBoundsFactory, sigma );
+		gauss.setNumThreads( numThreads );
+		gauss.setRecursiveMinSigma( recursiveMinSigma );
 		
 		return gauss;
 	}
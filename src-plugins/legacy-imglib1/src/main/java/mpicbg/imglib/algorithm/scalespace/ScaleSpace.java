@@ -65,6 +65,7 @@
 	Image<B> scaleSpace;
 	
 	double initialSigma, scale, imageSigma;
+	double recursiveMinSigma = Double.MAX_VALUE;
 	int minImageSize, stepsPerOctave;
 	
 	long processingTime;
@@ -93,6 +94,12 @@ public ScaleSpace( final Image<A> image, final ImageFactory<B> processFactory, f
 	public ArrayList<DifferenceOfGaussianPeak<B>> getPeaks() { return peaks; }
 	
 	public void setMinImageSize( final int minImageSize ) { this.minImageSize = minImageSize; }
+	/**
+	 * Sigmas of at least this value are convolved with a recursive approximation of the Gaussian,
+	 * see {@link GaussianConvolutionReal#setRecursiveMinSigma(double)}
+	 */
+	public void setRecursiveMinSigma( final double recursiveMinSigma ) { this.recursiveMinSigma = recursiveMinSigma; }
+	public double getRecursiveMinSigma() { return recursiveMinSigma; }
 	public int getMinImageSize() { return minImageSize; }
 	
 	@Override
@@ -220,6 +227,7 @@ protected Image<B> computeScaleSpace( final Image<B> image, final double[] sigma
 		
 		final GaussianConvolutionReal<B> gauss = new GaussianConvolutionReal<B>( image, new OutOfBoundsStrategyMirrorFactory<B>(), sigma[ 0 ] );
 		gauss.setNumThreads( getNumThreads() );
+		gauss.setRecursiveMinSigma( recursiveMinSigma );
 		
 		if ( !gauss.checkInput() || !gauss.process() )
 		{
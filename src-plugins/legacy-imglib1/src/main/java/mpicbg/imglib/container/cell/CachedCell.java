@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.type.Type;
+
+/**
+ * A {@link Cell} of a {@link CachedCellContainer}. The data is only
+ * held in memory while the cell is in the container's cache, otherwise
+ * it lives in the container's backing file at {@link #getFileOffset()}.
+ */
+public class CachedCell< T extends Type<T>, A extends ArrayDataAccess<A>> extends Cell<T, A>
+{
+	final protected CachedCellContainer<T, A> container;
+	final protected A creator;
+	final protected long numBytes;
+	protected long fileOffset;
+	
+	// the data while the cell is cached, null otherwise
+	protected A cachedData;
+	
+	// true if the cached data may differ from the file although it cannot tell about writes
+	protected boolean dirty = false;
+	
+	// true if the file holds the data of this cell
+	protected boolean stored = false;
+	
+	public CachedCell( final CachedCellContainer<T, A> container, final A creator, final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel )
+	{
+		super( cellId, dim, offset, entitiesPerPixel );
+		
+		this.container = container;
+		this.creator = creator;
+		this.numBytes = CachedCellContainer.getNumBytes( creator, numEntities );
+	}
+	
+	/**
+	 * Returns the data of the cell, loading it from the backing file if
+	 * it is not cached. The returned array stays valid until the cell is
+	 * evicted, so cursors should be used for anything but short-lived access.
+	 */
+	@Override
+	public A getData() { return container.getCellData( this ); }
+	
+	@Override
+	protected void close() { cachedData = null; }
+	
+	public long getNumBytes() { return numBytes; }
+	public long getFileOffset() { return fileOffset; }
+	public boolean isCached() { return cachedData != null; }
+	
+	/**
+	 * @return true if the cached data may differ from the file, i.e. it was
+	 * written to or cannot tell if it was
+	 */
+	public boolean isDirty()
+	{
+		return dirty || ( cachedData instanceof WriteTrackingArrays.WriteTracking && ( (WriteTrackingArrays.WriteTracking)cachedData ).isWritten() );
+	}
+	
+	protected void setClean()
+	{
+		dirty = false;
+		
+		if ( cachedData instanceof WriteTrackingArrays.WriteTracking )
+			( (WriteTrackingArrays.WriteTracking)cachedData ).resetWritten();
+	}
+}
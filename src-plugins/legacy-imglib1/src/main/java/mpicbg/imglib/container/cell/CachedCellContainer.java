@@ -0,0 +1,380 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.container.basictypecontainer.array.BitArray;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.type.Type;
+
+/**
+ * A {@link CellContainer} whose cells are kept in a file and only loaded
+ * into memory when they are accessed. Loaded cells are cached and the
+ * least recently used ones are evicted once the cached cells take more
+ * than a given number of bytes. Dirty cells are written back to the file
+ * before they are evicted.
+ * 
+ * Cells are laid out one after the other in the file and are read and
+ * written through memory mappings of their region. A cell that is the
+ * current cell of an active cursor is never evicted, so the budget may
+ * be exceeded by up to one cell per open cursor.
+ * 
+ * Cells are held in {@link WriteTrackingArrays}, so only cells that were
+ * written to are written back, cells that were only read are just dropped.
+ * For types without a write tracking array every loaded cell counts as
+ * dirty. If the container is read-only, changes to evicted cells are
+ * discarded.
+ */
+public class CachedCellContainer<T extends Type<T>, A extends ArrayDataAccess<A>> extends CellContainer<T, A>
+{
+	final protected File file;
+	final protected boolean deleteOnClose, readOnly;
+	final protected RandomAccessFile randomAccessFile;
+	final protected FileChannel channel;
+	final protected long maxCacheBytes;
+	
+	// creates the data of loaded cells, null if the type has no write tracking array
+	final protected A trackingCreator;
+	
+	// the cached cells in access order, eldest first
+	final protected LinkedHashMap<Integer, CachedCell<T, A>> cache = new LinkedHashMap<Integer, CachedCell<T, A>>( 16, 0.75f, true );
+	
+	// the current cell of each cursor
+	final protected WeakHashMap<Cursor<?>, CachedCell<T, A>> cursorCells = new WeakHashMap<Cursor<?>, CachedCell<T, A>>();
+	
+	protected long cachedBytes = 0;
+	protected long hits = 0, misses = 0, evictions = 0, writeBacks = 0;
+	
+	/**
+	 * @param file - the file holding the cells. If it already holds data for
+	 * a cell, the cell is loaded from it, otherwise the cell starts zeroed.
+	 * @param deleteOnClose - delete the file when the container is closed,
+	 * otherwise the dirty cells are written to it
+	 * @param readOnly - never write cells to the file
+	 * @param maxCacheBytes - the number of bytes of cell data to keep in memory
+	 */
+	public CachedCellContainer( final ContainerFactory factory, final A creator, final int[] dim, final int[] cellSize, final int entitiesPerPixel,
+			final File file, final boolean deleteOnClose, final boolean readOnly, final long maxCacheBytes ) throws IOException
+	{
+		super( factory, creator, dim, cellSize, entitiesPerPixel );
+		
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+		this.readOnly = readOnly;
+		this.maxCacheBytes = maxCacheBytes;
+		this.trackingCreator = WriteTrackingArrays.createTrackingCreator( creator );
+		
+		randomAccessFile = new RandomAccessFile( file, readOnly ? "r" : "rw" );
+		channel = randomAccessFile.getChannel();
+		
+		final long existingLength = channel.size();
+		long fileOffset = 0;
+		
+		for ( int c = 0; c < numCells; ++c )
+		{
+			final CachedCell<T, A> cell = getCell( c );
+			cell.fileOffset = fileOffset;
+			fileOffset += cell.numBytes;
+			cell.stored = fileOffset <= existingLength;
+		}
+		
+		if ( !readOnly && existingLength < fileOffset )
+			randomAccessFile.setLength( fileOffset );
+	}
+	
+	@Override
+	public CachedCell<T, A> createCellInstance( final A creator, final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel )
+	{
+		return new CachedCell<T, A>( this, creator, cellId, dim, offset, entitiesPerPixel );
+	}
+	
+	@Override
+	public CachedCell<T, A> getCell( final int cellId ) { return (CachedCell<T, A>)data.get( cellId ); }
+	
+	@Override
+	public synchronized A update( final Cursor<?> c )
+	{
+		final CachedCell<T, A> cell = getCell( c.getStorageIndex() );
+		final A cellData = loadCell( cell );
+		
+		// the cell stays in memory as long as it is the cursor's current cell
+		cursorCells.put( c, cell );
+		evict( cell );
+		
+		return cellData;
+	}
+	
+	/**
+	 * Returns the data of a cell, loading it if necessary.
+	 */
+	public synchronized A getCellData( final CachedCell<T, A> cell )
+	{
+		final A cellData = loadCell( cell );
+		evict( cell );
+		
+		return cellData;
+	}
+	
+	protected A loadCell( final CachedCell<T, A> cell )
+	{
+		A cellData = cell.cachedData;
+		
+		if ( cellData != null )
+		{
+			++hits;
+			// move the cell to the end of the access order
+			cache.get( cell.getCellId() );
+		}
+		else
+		{
+			++misses;
+			cellData = ( trackingCreator != null ? trackingCreator : cell.creator ).createArray( cell.getNumEntities() );
+			
+			if ( cell.stored )
+			{
+				try
+				{
+					read( cell, cellData );
+				}
+				catch ( IOException e )
+				{
+					throw new RuntimeException( "Cannot read cell " + cell.getCellId() + " from " + file + ": " + e.getMessage() );
+				}
+			}
+			
+			cell.cachedData = cellData;
+			cache.put( cell.getCellId(), cell );
+			cachedBytes += cell.numBytes;
+			
+			// reading the cell from the file is not a write, without write tracking every write is possible
+			if ( cellData instanceof WriteTrackingArrays.WriteTracking )
+				( (WriteTrackingArrays.WriteTracking)cellData ).resetWritten();
+			else if ( !readOnly )
+				cell.dirty = true;
+		}
+		
+		return cellData;
+	}
+	
+	/**
+	 * Evict the least recently used cells until the cache fits into the
+	 * budget, skipping the given cell and the current cells of active cursors.
+	 */
+	protected void evict( final CachedCell<T, A> keep )
+	{
+		if ( cachedBytes <= maxCacheBytes )
+			return;
+		
+		final HashSet<CachedCell<T, A>> pinned = new HashSet<CachedCell<T, A>>();
+		for ( final Map.Entry<Cursor<?>, CachedCell<T, A>> entry : cursorCells.entrySet() )
+			if ( entry.getKey().isActive() )
+				pinned.add( entry.getValue() );
+		
+		final Iterator<CachedCell<T, A>> iterator = cache.values().iterator();
+		
+		while ( cachedBytes > maxCacheBytes && iterator.hasNext() )
+		{
+			final CachedCell<T, A> cell = iterator.next();
+			
+			if ( cell == keep || pinned.contains( cell ) )
+				continue;
+			
+			writeBack( cell );
+			
+			iterator.remove();
+			cell.cachedData = null;
+			cachedBytes -= cell.numBytes;
+			++evictions;
+		}
+	}
+	
+	protected void writeBack( final CachedCell<T, A> cell )
+	{
+		if ( readOnly || !cell.isDirty() )
+			return;
+		
+		try
+		{
+			write( cell, cell.cachedData );
+		}
+		catch ( IOException e )
+		{
+			throw new RuntimeException( "Cannot write cell " + cell.getCellId() + " to " + file + ": " + e.getMessage() );
+		}
+		
+		cell.setClean();
+		cell.stored = true;
+		++writeBacks;
+	}
+	
+	/**
+	 * Write all dirty cells to the file, they stay in the cache.
+	 */
+	public synchronized void flush()
+	{
+		for ( final CachedCell<T, A> cell : cache.values() )
+			writeBack( cell );
+	}
+	
+	protected MappedByteBuffer map( final CachedCell<T, A> cell, final MapMode mode ) throws IOException
+	{
+		final MappedByteBuffer buffer = channel.map( mode, cell.fileOffset, cell.numBytes );
+		buffer.order( ByteOrder.nativeOrder() );
+		return buffer;
+	}
+	
+	protected void read( final CachedCell<T, A> cell, final A cellData ) throws IOException
+	{
+		final MappedByteBuffer buffer = map( cell, MapMode.READ_ONLY );
+		final Object array = cellData.getCurrentStorageArray();
+		
+		if ( array instanceof byte[] )
+			buffer.get( (byte[])array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().get( (short[])array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().get( (char[])array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().get( (int[])array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().get( (long[])array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().get( (float[])array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().get( (double[])array );
+	}
+	
+	protected void write( final CachedCell<T, A> cell, final A cellData ) throws IOException
+	{
+		final MappedByteBuffer buffer = map( cell, MapMode.READ_WRITE );
+		final Object array = cellData.getCurrentStorageArray();
+		
+		if ( array instanceof byte[] )
+			buffer.put( (byte[])array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().put( (short[])array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().put( (char[])array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().put( (int[])array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().put( (long[])array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().put( (float[])array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().put( (double[])array );
+	}
+	
+	/**
+	 * Returns the number of bytes a cell with the given number of entities
+	 * takes in the file.
+	 */
+	public static long getNumBytes( final ArrayDataAccess<?> creator, final int numEntities )
+	{
+		if ( creator instanceof BitArray )
+			return 4l * ( ( numEntities + Integer.SIZE - 1 ) / Integer.SIZE );
+		
+		final Class<?> elementType = creator.getCurrentStorageArray().getClass().getComponentType();
+		
+		if ( elementType == byte.class )
+			return numEntities;
+		else if ( elementType == short.class || elementType == char.class )
+			return 2l * numEntities;
+		else if ( elementType == int.class || elementType == float.class )
+			return 4l * numEntities;
+		else if ( elementType == long.class || elementType == double.class )
+			return 8l * numEntities;
+		else
+			throw new RuntimeException( creator.getClass().getCanonicalName() + " not supported." );
+	}
+	
+	public File getFile() { return file; }
+	public boolean isReadOnly() { return readOnly; }
+	public long getMaxCacheBytes() { return maxCacheBytes; }
+	public synchronized long getCachedBytes() { return cachedBytes; }
+	public synchronized int getNumCachedCells() { return cache.size(); }
+	
+	public synchronized long getHits() { return hits; }
+	public synchronized long getMisses() { return misses; }
+	public synchronized long getEvictions() { return evictions; }
+	public synchronized long getWriteBacks() { return writeBacks; }
+	
+	public synchronized void resetStatistics()
+	{
+		hits = misses = evictions = writeBacks = 0;
+	}
+	
+	@Override
+	public synchronized void close()
+	{
+		if ( !deleteOnClose && !readOnly )
+			flush();
+		
+		super.close();
+		cache.clear();
+		cursorCells.clear();
+		cachedBytes = 0;
+		
+		try
+		{
+			channel.close();
+			randomAccessFile.close();
+		}
+		catch ( IOException e )
+		{
+			System.err.println( "CachedCellContainer.close(): cannot close " + file + ": " + e.getMessage() );
+		}
+		
+		if ( deleteOnClose )
+			file.delete();
+	}
+}
@@ -74,6 +74,24 @@ public Cell( final A creator, final int cellId, final int[] dim, final int offse
 		Array.createAllocationSteps( dim, step );		
 	}
 	
+	/**
+	 * Creates a cell without data, for subclasses that manage the
+	 * storage of the cell themselves and override {@link #getData()}.
+	 */
+	protected Cell( final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel )
+	{
+		this.offset = offset;		
+		this.cellId = cellId;
+		this.numDimensions = dim.length;
+		this.dim = dim;
+		this.numPixels = ContainerImpl.getNumPixels( dim );
+		this.numEntities = PixelGridContainerImpl.getNumEntities( dim, entitiesPerPixel );
+		this.data = null;
+		
+		step = new int[ numDimensions ];
+		Array.createAllocationSteps( dim, step );		
+	}
+	
 	public A getData() { return data; }
 	protected void close() { data.close(); }
 	
@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.container.basictypecontainer.array.BitArray;
+import mpicbg.imglib.container.basictypecontainer.array.ByteArray;
+import mpicbg.imglib.container.basictypecontainer.array.CharArray;
+import mpicbg.imglib.container.basictypecontainer.array.DoubleArray;
+import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
+import mpicbg.imglib.container.basictypecontainer.array.IntArray;
+import mpicbg.imglib.container.basictypecontainer.array.LongArray;
+import mpicbg.imglib.container.basictypecontainer.array.ShortArray;
+
+/**
+ * The basic type arrays used by the {@link CachedCellContainer}, extended
+ * so that they remember if they were written to. Types write through
+ * setValue(), code that gets hold of the storage array may write into it,
+ * so both count as a write. Reading through getValue() does not, which
+ * allows the container to evict cells that were only read without writing
+ * them back to the file.
+ */
+public class WriteTrackingArrays
+{
+	public interface WriteTracking
+	{
+		/**
+		 * @return true if the array might have been changed since the last {@link #resetWritten()}
+		 */
+		public boolean isWritten();
+
+		public void resetWritten();
+	}
+
+	/**
+	 * Returns a creator of write tracking arrays of the same type as the
+	 * given creator, or null if the type is not supported.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static <A extends ArrayDataAccess<A>> A createTrackingCreator( final A creator )
+	{
+		final Class<?> c = creator.getClass();
+
+		if ( c == BitArray.class )
+			return (A)new Bit( 1 );
+		else if ( c == ByteArray.class )
+			return (A)new Byte( 1 );
+		else if ( c == CharArray.class )
+			return (A)new Char( 1 );
+		else if ( c == ShortArray.class )
+			return (A)new Short( 1 );
+		else if ( c == IntArray.class )
+			return (A)new Int( 1 );
+		else if ( c == LongArray.class )
+			return (A)new Long( 1 );
+		else if ( c == FloatArray.class )
+			return (A)new Float( 1 );
+		else if ( c == DoubleArray.class )
+			return (A)new Double( 1 );
+		else
+			return null;
+	}
+
+	public static class Bit extends BitArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Bit( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final boolean value ) { written = true; super.setValue( index, value ); }
+
+		@Override
+		public int[] getCurrentStorageArray() { written = true; return super.getCurrentStorageArray(); }
+
+		@Override
+		public Bit createArray( final int numEntities ) { return new Bit( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Byte extends ByteArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Byte( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final byte value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public byte[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Byte createArray( final int numEntities ) { return new Byte( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Char extends CharArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Char( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final char value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public char[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Char createArray( final int numEntities ) { return new Char( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Short extends ShortArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Short( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final short value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public short[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Short createArray( final int numEntities ) { return new Short( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Int extends IntArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Int( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final int value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public int[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Int createArray( final int numEntities ) { return new Int( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Long extends LongArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Long( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final long value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public long[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Long createArray( final int numEntities ) { return new Long( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Float extends FloatArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Float( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final float value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public float[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Float createArray( final int numEntities ) { return new Float( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+
+	public static class Double extends DoubleArray implements WriteTracking
+	{
+		protected boolean written = false;
+
+		public Double( final int numEntities ) { super( numEntities ); }
+
+		@Override
+		public void setValue( final int index, final double value ) { written = true; data[ index ] = value; }
+
+		@Override
+		public double[] getCurrentStorageArray() { written = true; return data; }
+
+		@Override
+		public Double createArray( final int numEntities ) { return new Double( numEntities ); }
+
+		@Override
+		public boolean isWritten() { return written; }
+
+		@Override
+		public void resetWritten() { written = false; }
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.mapped;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Base class of the data accesses over memory-mapped files. A single mapping
+ * cannot be larger than 2GB, so the data is split into segments of
+ * {@link #SEGMENT_BYTES} and an index is split into a segment and an offset
+ * into the segment by a shift and a mask.
+ * 
+ * getCurrentStorageArray() is not supported: the data is not held in a Java
+ * array, and a copy would neither see later changes nor pass changes made
+ * to it on to the buffer.
+ */
+public abstract class MappedArray
+{
+	/**
+	 * The number of bytes per segment, a power of two
+	 */
+	public static final int SEGMENT_BYTES = 1 << 30;
+
+	final protected int numEntities, shift, mask;
+	protected ByteBuffer[] segments;
+
+	protected MappedArray( final ByteBuffer[] segments, final int numEntities, final int bytesPerEntity )
+	{
+		final int entitiesPerSegment = SEGMENT_BYTES / bytesPerEntity;
+
+		this.segments = segments;
+		this.numEntities = numEntities;
+		this.shift = Integer.numberOfTrailingZeros( entitiesPerSegment );
+		this.mask = entitiesPerSegment - 1;
+	}
+
+	public int getNumEntities() { return numEntities; }
+	public ByteBuffer[] getSegments() { return segments; }
+
+	/**
+	 * Writes changes of a read-write mapping to the file.
+	 */
+	public void force()
+	{
+		for ( final ByteBuffer segment : segments )
+			if ( segment instanceof MappedByteBuffer )
+				( (MappedByteBuffer)segment ).force();
+	}
+
+	public void close() { segments = null; }
+
+	/**
+	 * Maps a region of a file as segments of at most {@link #SEGMENT_BYTES}.
+	 */
+	public static ByteBuffer[] map( final FileChannel channel, final MapMode mode, final long offset, final int numEntities, final int bytesPerEntity, final ByteOrder byteOrder ) throws IOException
+	{
+		final long numBytes = (long)numEntities * bytesPerEntity;
+		final ByteBuffer[] segments = new ByteBuffer[ (int)( ( numBytes + SEGMENT_BYTES - 1 ) / SEGMENT_BYTES ) ];
+
+		for ( int s = 0; s < segments.length; ++s )
+		{
+			final long start = (long)s * SEGMENT_BYTES;
+			segments[ s ] = channel.map( mode, offset + start, Math.min( SEGMENT_BYTES, numBytes - start ) ).order( byteOrder );
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Allocates direct segments in native byte order.
+	 */
+	public static ByteBuffer[] allocate( final int numEntities, final int bytesPerEntity )
+	{
+		final long numBytes = (long)numEntities * bytesPerEntity;
+		final ByteBuffer[] segments = new ByteBuffer[ (int)( ( numBytes + SEGMENT_BYTES - 1 ) / SEGMENT_BYTES ) ];
+
+		for ( int s = 0; s < segments.length; ++s )
+		{
+			final long start = (long)s * SEGMENT_BYTES;
+			segments[ s ] = ByteBuffer.allocateDirect( (int)Math.min( SEGMENT_BYTES, numBytes - start ) ).order( ByteOrder.nativeOrder() );
+		}
+
+		return segments;
+	}
+}
@@ -0,0 +1,651 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.mapped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import mpicbg.imglib.container.DirectAccessContainer;
+import mpicbg.imglib.container.DirectAccessContainerFactory;
+import mpicbg.imglib.container.PixelGridContainerImpl;
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.BitAccess;
+import mpicbg.imglib.container.basictypecontainer.ByteAccess;
+import mpicbg.imglib.container.basictypecontainer.CharAccess;
+import mpicbg.imglib.container.basictypecontainer.DataAccess;
+import mpicbg.imglib.container.basictypecontainer.DoubleAccess;
+import mpicbg.imglib.container.basictypecontainer.FloatAccess;
+import mpicbg.imglib.container.basictypecontainer.IntAccess;
+import mpicbg.imglib.container.basictypecontainer.LongAccess;
+import mpicbg.imglib.container.basictypecontainer.ShortAccess;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.container.planar.PlanarContainer;
+import mpicbg.imglib.container.planar.PlanarContainerFactory;
+import mpicbg.imglib.type.Type;
+
+/**
+ * Creates {@link Array} or {@link PlanarContainer} images directly over
+ * memory mappings of the pixel data in a raw or uncompressed TIFF file,
+ * so opening a stack takes constant time and the operating system's page
+ * cache decides which parts of it are in memory. Data of more than 2GB is
+ * split into several mappings (see {@link MappedArray}).
+ * 
+ * For raw files the pixel data starts at a given offset and the planes
+ * follow each other without gaps. {@link #openTiff(File)} reads the
+ * layout of an uncompressed, single-channel TIFF; its planes may be
+ * scattered through the file, in which case only planar images can be
+ * created.
+ * 
+ * Files are mapped read-only by default, writing to such an image throws
+ * a {@link java.nio.ReadOnlyBufferException}. Use {@link MapMode#PRIVATE}
+ * for changes that are not written to the file, or
+ * {@link MapMode#READ_WRITE} to change the file (which is extended if it
+ * is too short for the image).
+ * 
+ * Only the first image created by a factory maps the file. All later ones,
+ * e.g. the results of {@link mpicbg.imglib.image.Image#createNewImage()},
+ * are ordinary images in memory created by an {@link ArrayContainerFactory}
+ * (or a {@link PlanarContainerFactory} if the factory is planar), so that
+ * algorithms writing into a new image neither change the file nor fail
+ * on a read-only mapping. The mapped data cannot be accessed as a Java
+ * array, see {@link MappedArray}.
+ */
+public class MappedArrayContainerFactory extends DirectAccessContainerFactory
+{
+	final protected File file;
+	final protected long offset;
+	final protected ByteOrder byteOrder;
+	protected MapMode mapMode = MapMode.READ_ONLY;
+	protected boolean planar = false;
+
+	// the file offset of each plane, null if the planes are contiguous
+	protected long[] planeOffsets = null;
+
+	// known for TIFF files only
+	protected int[] dimensions = null;
+	protected int bitsPerSample = 0;
+	protected boolean floatingPoint = false;
+
+	// create the images after the first one
+	final protected ArrayContainerFactory arrayFactory = new ArrayContainerFactory();
+	final protected PlanarContainerFactory planarFactory = new PlanarContainerFactory();
+
+	// true once the file was mapped
+	protected boolean mapped = false;
+
+	/**
+	 * Maps a raw file in big endian byte order, starting at the beginning of the file.
+	 */
+	public MappedArrayContainerFactory( final File file )
+	{
+		this( file, 0, ByteOrder.BIG_ENDIAN );
+	}
+
+	/**
+	 * Maps a raw file.
+	 * 
+	 * @param file - the file
+	 * @param offset - the file offset of the first pixel
+	 * @param byteOrder - the byte order of the pixel data
+	 */
+	public MappedArrayContainerFactory( final File file, final long offset, final ByteOrder byteOrder )
+	{
+		this.file = file;
+		this.offset = offset;
+		this.byteOrder = byteOrder;
+	}
+
+	public File getFile() { return file; }
+	public long getOffset() { return offset; }
+	public ByteOrder getByteOrder() { return byteOrder; }
+
+	public void setMapMode( final MapMode mapMode ) { this.mapMode = mapMode; }
+	public MapMode getMapMode() { return mapMode; }
+
+	/**
+	 * Create {@link PlanarContainer PlanarContainers} with one mapping per
+	 * plane instead of {@link Array Arrays}.
+	 */
+	public void setPlanar( final boolean planar ) { this.planar = planar; }
+	public boolean isPlanar() { return planar; }
+
+	/**
+	 * @return true if an image was created over the file already, all
+	 * further images are created in memory
+	 */
+	public synchronized boolean isMapped() { return mapped; }
+
+	/**
+	 * @return the factory that creates the images after the first one
+	 */
+	public DirectAccessContainerFactory getDerivedFactory() { return planar ? planarFactory : arrayFactory; }
+
+	@Override
+	public void setOptimizedContainerUse( final boolean useOptimizedContainers )
+	{
+		super.setOptimizedContainerUse( useOptimizedContainers );
+		arrayFactory.setOptimizedContainerUse( useOptimizedContainers );
+		planarFactory.setOptimizedContainerUse( useOptimizedContainers );
+	}
+
+	/**
+	 * @return the dimensions of the TIFF file, null for raw files
+	 */
+	public int[] getDimensions() { return dimensions == null ? null : dimensions.clone(); }
+
+	/**
+	 * @return the bits per sample of the TIFF file, 0 for raw files
+	 */
+	public int getBitsPerSample() { return bitsPerSample; }
+
+	/**
+	 * @return true if the TIFF file holds floating point samples
+	 */
+	public boolean isFloatingPoint() { return floatingPoint; }
+
+	/**
+	 * Reads the layout of an uncompressed TIFF file with one sample per
+	 * pixel. Stacks written by ImageJ that are too large for an IFD per
+	 * plane are recognized by the number of images in the image description.
+	 * 
+	 * @return a factory mapping the pixel data of the file, see
+	 * {@link #getDimensions()} for the size of the image to create.
+	 */
+	public static MappedArrayContainerFactory openTiff( final File file ) throws IOException
+	{
+		final RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+
+		try
+		{
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer header = read( channel, 0, 8, ByteOrder.BIG_ENDIAN );
+			final ByteOrder byteOrder;
+
+			if ( header.get( 0 ) == 'I' && header.get( 1 ) == 'I' )
+				byteOrder = ByteOrder.LITTLE_ENDIAN;
+			else if ( header.get( 0 ) == 'M' && header.get( 1 ) == 'M' )
+				byteOrder = ByteOrder.BIG_ENDIAN;
+			else
+				throw new IOException( file + " is not a TIFF file" );
+
+			header.order( byteOrder );
+			if ( header.getShort( 2 ) != 42 )
+				throw new IOException( file + " is not a TIFF file (or a BigTIFF file, which is not supported)" );
+
+			final ArrayList<Long> offsets = new ArrayList<Long>();
+			int width = 0, height = 0, bitsPerSample = 0, sampleFormat = 1, numImages = 0;
+			long ifd = header.getInt( 4 ) & 0xffffffffl;
+
+			while ( ifd != 0 )
+			{
+				final int numEntries = read( channel, ifd, 2, byteOrder ).getShort( 0 ) & 0xffff;
+				final ByteBuffer entries = read( channel, ifd + 2, numEntries * 12 + 4, byteOrder );
+				long[] stripOffsets = null, stripByteCounts = null;
+
+				for ( int e = 0; e < numEntries; ++e )
+				{
+					final int pos = e * 12;
+					final int tag = entries.getShort( pos ) & 0xffff;
+
+					switch ( tag )
+					{
+						case 256:
+							width = (int)readValues( channel, entries, pos, byteOrder )[ 0 ];
+							break;
+						case 257:
+							height = (int)readValues( channel, entries, pos, byteOrder )[ 0 ];
+							break;
+						case 258:
+							bitsPerSample = (int)readValues( channel, entries, pos, byteOrder )[ 0 ];
+							break;
+						case 259:
+							if ( readValues( channel, entries, pos, byteOrder )[ 0 ] != 1 )
+								throw new IOException( file + " is compressed" );
+							break;
+						case 270:
+							if ( offsets.isEmpty() )
+								numImages = getNumImages( readString( channel, entries, pos, byteOrder ) );
+							break;
+						case 273:
+							stripOffsets = readValues( channel, entries, pos, byteOrder );
+							break;
+						case 277:
+							if ( readValues( channel, entries, pos, byteOrder )[ 0 ] != 1 )
+								throw new IOException( file + " has more than one sample per pixel" );
+							break;
+						case 279:
+							stripByteCounts = readValues( channel, entries, pos, byteOrder );
+							break;
+						case 339:
+							sampleFormat = (int)readValues( channel, entries, pos, byteOrder )[ 0 ];
+							break;
+					}
+				}
+
+				if ( stripOffsets == null )
+					throw new IOException( file + " has an image without strip offsets" );
+
+				// the strips of a plane must follow each other to be mapped as one
+				if ( stripByteCounts != null )
+					for ( int s = 1; s < stripOffsets.length; ++s )
+						if ( stripOffsets[ s ] != stripOffsets[ s - 1 ] + stripByteCounts[ s - 1 ] )
+							throw new IOException( file + " has an image whose strips are not contiguous" );
+
+				offsets.add( stripOffsets[ 0 ] );
+				ifd = entries.getInt( numEntries * 12 ) & 0xffffffffl;
+			}
+
+			final long planeBytes = (long)width * height * ( bitsPerSample / 8 );
+			final MappedArrayContainerFactory factory = new MappedArrayContainerFactory( file, offsets.get( 0 ), byteOrder );
+			final int numPlanes;
+
+			if ( numImages > offsets.size() )
+			{
+				// ImageJ writes the pixel data of all planes contiguously
+				numPlanes = numImages;
+			}
+			else
+			{
+				numPlanes = offsets.size();
+
+				for ( int p = 1; p < numPlanes; ++p )
+					if ( offsets.get( p ) != offsets.get( 0 ) + p * planeBytes )
+					{
+						factory.planeOffsets = new long[ numPlanes ];
+						for ( int q = 0; q < numPlanes; ++q )
+							factory.planeOffsets[ q ] = offsets.get( q );
+						break;
+					}
+			}
+
+			factory.dimensions = numPlanes == 1 ? new int[]{ width, height } : new int[]{ width, height, numPlanes };
+			factory.bitsPerSample = bitsPerSample;
+			factory.floatingPoint = sampleFormat == 3;
+			factory.planar = factory.planeOffsets != null || (long)width * height * numPlanes > Integer.MAX_VALUE;
+
+			return factory;
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	protected static ByteBuffer read( final FileChannel channel, final long position, final int numBytes, final ByteOrder byteOrder ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes ).order( byteOrder );
+
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+				throw new IOException( "Unexpected end of file" );
+
+		return buffer;
+	}
+
+	/*
+	 * Reads the SHORT or LONG values of an IFD entry, which are stored in the
+	 * entry if they fit into four bytes and at the given offset otherwise.
+	 */
+	protected static long[] readValues( final FileChannel channel, final ByteBuffer entries, final int pos, final ByteOrder byteOrder ) throws IOException
+	{
+		final int type = entries.getShort( pos + 2 );
+		final int count = entries.getInt( pos + 4 );
+		final int size = type == 3 ? 2 : 4;
+		final ByteBuffer values;
+		final int start;
+
+		if ( count * size <= 4 )
+		{
+			values = entries;
+			start = pos + 8;
+		}
+		else
+		{
+			values = read( channel, entries.getInt( pos + 8 ) & 0xffffffffl, count * size, byteOrder );
+			start = 0;
+		}
+
+		final long[] result = new long[ count ];
+		for ( int i = 0; i < count; ++i )
+			result[ i ] = size == 2 ? values.getShort( start + i * 2 ) & 0xffff : values.getInt( start + i * 4 ) & 0xffffffffl;
+
+		return result;
+	}
+
+	protected static String readString( final FileChannel channel, final ByteBuffer entries, final int pos, final ByteOrder byteOrder ) throws IOException
+	{
+		final int count = entries.getInt( pos + 4 );
+		final byte[] bytes = new byte[ count ];
+
+		if ( count <= 4 )
+		{
+			for ( int i = 0; i < count; ++i )
+				bytes[ i ] = entries.get( pos + 8 + i );
+		}
+		else
+		{
+			read( channel, entries.getInt( pos + 8 ) & 0xffffffffl, count, byteOrder ).get( bytes );
+		}
+
+		return new String( bytes, "ISO-8859-1" );
+	}
+
+	protected static int getNumImages( final String description )
+	{
+		final Matcher matcher = Pattern.compile( "images=(\\d+)" ).matcher( description );
+		return matcher.find() ? Integer.parseInt( matcher.group( 1 ) ) : 0;
+	}
+
+	/**
+	 * @return true if the file was not mapped yet and the caller has to map it now
+	 */
+	protected synchronized boolean claimMapping()
+	{
+		if ( mapped )
+			return false;
+
+		mapped = true;
+		return true;
+	}
+
+	/**
+	 * Maps the pixel data of an image, one region per plane for planar
+	 * images and a single region otherwise.
+	 */
+	protected ByteBuffer[][] map( final int[] dim, final int entitiesPerPixel, final int bytesPerEntity )
+	{
+		if ( bitsPerSample != 0 && bitsPerSample != bytesPerEntity * 8 )
+			throw new IllegalStateException( "Cannot map " + bytesPerEntity * 8 + "-bit data from " + file + ", it holds " + bitsPerSample + "-bit samples" );
+
+		final int numPlanes = getNumPlanes( dim );
+		final int planeEntities = getPlaneEntities( dim, entitiesPerPixel );
+		final long planeBytes = (long)planeEntities * bytesPerEntity;
+
+		if ( planeOffsets != null && planeOffsets.length < numPlanes )
+			throw new IllegalStateException( file + " has " + planeOffsets.length + " planes, cannot map " + numPlanes );
+
+		if ( planeOffsets != null && !planar )
+			throw new IllegalStateException( "The planes of " + file + " are not contiguous, they can only be mapped as planar images" );
+
+		try
+		{
+			final RandomAccessFile randomAccessFile = new RandomAccessFile( file, mapMode == MapMode.READ_ONLY ? "r" : "rw" );
+
+			try
+			{
+				final FileChannel channel = randomAccessFile.getChannel();
+
+				long end = offset + numPlanes * planeBytes;
+				if ( planeOffsets != null )
+					for ( int p = 0; p < numPlanes; ++p )
+						end = Math.max( end, planeOffsets[ p ] + planeBytes );
+
+				if ( channel.size() < end )
+				{
+					if ( mapMode == MapMode.READ_WRITE )
+						randomAccessFile.setLength( end );
+					else
+						throw new IOException( "the file is too short" );
+				}
+
+				final ByteBuffer[][] regions;
+
+				if ( planar )
+				{
+					regions = new ByteBuffer[ numPlanes ][];
+					for ( int p = 0; p < numPlanes; ++p )
+					{
+						final long planeOffset = planeOffsets == null ? offset + p * planeBytes : planeOffsets[ p ];
+						regions[ p ] = MappedArray.map( channel, mapMode, planeOffset, planeEntities, bytesPerEntity, byteOrder );
+					}
+				}
+				else
+				{
+					final int numEntities = PixelGridContainerImpl.getNumEntities( dim, entitiesPerPixel );
+					regions = new ByteBuffer[][]{ MappedArray.map( channel, mapMode, offset, numEntities, bytesPerEntity, byteOrder ) };
+				}
+
+				// the mappings stay valid when the file is closed
+				return regions;
+			}
+			finally
+			{
+				randomAccessFile.close();
+			}
+		}
+		catch ( IOException e )
+		{
+			throw new RuntimeException( "MappedArrayContainerFactory(): cannot map " + file + ": " + e.getMessage() );
+		}
+	}
+
+	protected static int getNumPlanes( final int[] dim )
+	{
+		int numPlanes = 1;
+		for ( int d = 2; d < dim.length; ++d )
+			numPlanes *= dim[ d ];
+
+		return numPlanes;
+	}
+
+	protected static int getPlaneEntities( final int[] dim, final int entitiesPerPixel )
+	{
+		return dim[ 0 ] * ( dim.length > 1 ? dim[ 1 ] : 1 ) * entitiesPerPixel;
+	}
+
+	/*
+	 * Always an Array, code seeing an Array3D of floats expects a FloatArray.
+	 * The array factory is the factory of the container, so images created
+	 * from the container are in memory, too.
+	 */
+	protected <T extends Type<T>, A extends DataAccess> DirectAccessContainer<T, A> createArray( final A access, final int[] dimensions, final int entitiesPerPixel )
+	{
+		return new Array<T, A>( arrayFactory, access, dimensions, entitiesPerPixel );
+	}
+
+	/*
+	 * The planar container holds the mapped arrays, which implement the
+	 * access interface the type expects.
+	 */
+	@SuppressWarnings( "unchecked" )
+	protected <T extends Type<T>, A extends DataAccess, P extends ArrayDataAccess<P>> DirectAccessContainer<T, A> createPlanar( final P[] planes, final int[] dimensions, final int entitiesPerPixel )
+	{
+		final PlanarContainer<T, P> container = new PlanarContainer<T, P>( dimensions, entitiesPerPixel );
+
+		for ( int p = 0; p < planes.length; ++p )
+			container.setPlane( p, planes[ p ] );
+
+		return (DirectAccessContainer<T, A>)(DirectAccessContainer<T, ?>)container;
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends BitAccess> createBitInstance( int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( isMapped() )
+			return getDerivedFactory().createBitInstance( dimensions, entitiesPerPixel );
+
+		throw new IllegalStateException( "Cannot map bit arrays" );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends ByteAccess> createByteInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createByteInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 1 );
+
+		if ( !planar )
+			return createArray( new MappedByteArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedByteArray[] planes = new MappedByteArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedByteArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends CharAccess> createCharInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createCharInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 2 );
+
+		if ( !planar )
+			return createArray( new MappedCharArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedCharArray[] planes = new MappedCharArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedCharArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends DoubleAccess> createDoubleInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createDoubleInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 8 );
+
+		if ( !planar )
+			return createArray( new MappedDoubleArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedDoubleArray[] planes = new MappedDoubleArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedDoubleArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends FloatAccess> createFloatInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createFloatInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 4 );
+
+		if ( !planar )
+			return createArray( new MappedFloatArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedFloatArray[] planes = new MappedFloatArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedFloatArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends IntAccess> createIntInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createIntInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 4 );
+
+		if ( !planar )
+			return createArray( new MappedIntArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedIntArray[] planes = new MappedIntArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedIntArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends LongAccess> createLongInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createLongInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 8 );
+
+		if ( !planar )
+			return createArray( new MappedLongArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedLongArray[] planes = new MappedLongArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedLongArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public <T extends Type<T>> DirectAccessContainer<T, ? extends ShortAccess> createShortInstance( final int[] dimensions, final int entitiesPerPixel )
+	{
+		if ( !claimMapping() )
+			return getDerivedFactory().createShortInstance( dimensions, entitiesPerPixel );
+
+		final ByteBuffer[][] regions = map( dimensions, entitiesPerPixel, 2 );
+
+		if ( !planar )
+			return createArray( new MappedShortArray( regions[ 0 ], PixelGridContainerImpl.getNumEntities( dimensions, entitiesPerPixel ) ), dimensions, entitiesPerPixel );
+
+		final MappedShortArray[] planes = new MappedShortArray[ regions.length ];
+		for ( int p = 0; p < planes.length; ++p )
+			planes[ p ] = new MappedShortArray( regions[ p ], getPlaneEntities( dimensions, entitiesPerPixel ) );
+
+		return createPlanar( planes, dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public String getErrorMessage() { return null; }
+
+	@Override
+	public void printProperties()
+	{
+		System.out.println( "MappedArrayContainerFactory(): " + file + ", offset " + offset + ", " + byteOrder + ", " + mapMode + ( planar ? ", planar" : "" ) + ( mapped ? ", mapped" : "" ) );
+	}
+
+	@Override
+	public void setParameters( final String configuration ) {}
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.mapped;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import mpicbg.imglib.container.basictypecontainer.IntAccess;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+
+/**
+ * Array type for int[] data in memory-mapped (or direct) buffers.
+ */
+public class MappedIntArray extends MappedArray implements IntAccess, ArrayDataAccess<MappedIntArray>
+{
+	protected IntBuffer[] data;
+
+	public MappedIntArray( final ByteBuffer[] segments, final int numEntities )
+	{
+		super( segments, numEntities, 4 );
+
+		data = new IntBuffer[ segments.length ];
+		for ( int s = 0; s < segments.length; ++s )
+			data[ s ] = segments[ s ].asIntBuffer();
+	}
+
+	public MappedIntArray( final int numEntities )
+	{
+		this( allocate( numEntities, 4 ), numEntities );
+	}
+
+	@Override
+	public void close()
+	{
+		data = null;
+		super.close();
+	}
+
+	@Override
+	public int getValue( final int index )
+	{
+		return data[ index >>> shift ].get( index & mask );
+	}
+
+	@Override
+	public void setValue( final int index, final int value )
+	{
+		data[ index >>> shift ].put( index & mask, value );
+	}
+
+	/**
+	 * @throws UnsupportedOperationException as the data is not in a int[], see {@link MappedArray}
+	 */
+	@Override
+	public int[] getCurrentStorageArray()
+	{
+		throw new UnsupportedOperationException( "The data of a MappedIntArray is not stored in a int[]" );
+	}
+
+	@Override
+	public MappedIntArray createArray( final int numEntities ) { return new MappedIntArray( numEntities ); }
+}
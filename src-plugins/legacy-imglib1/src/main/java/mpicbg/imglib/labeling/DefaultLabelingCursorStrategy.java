@@ -64,40 +64,28 @@
 	protected long generation;
 	protected LabelingType<T> type = null;
 	
-	private class LabelStatistics extends BoundingBox {
-		private int [] rasterStart;
-		private long area = 0;
-		public LabelStatistics(int dimensions) {
-			super(dimensions);
-			rasterStart = new int [dimensions];
-			Arrays.fill(rasterStart, Integer.MAX_VALUE);
-		}
-		
-		public void getRasterStart(int [] dest) {
-			System.arraycopy(rasterStart, 0, dest, 0, rasterStart.length);
-		}
-		public long getArea() {
-			return area;
-		}
-		public void update(int [] coordinates) {
-			super.update(coordinates);
-			area++;
-			for (int i = 0; i<rasterStart.length; i++) {
-				if (rasterStart[i] > coordinates[i]) {
-					System.arraycopy(coordinates, 0, rasterStart, 0, rasterStart.length);
-					return;
-				} else if (rasterStart[i] < coordinates[i]) {
-					return;
-				}
-			}
-		}
-	}
 	protected Map<T, LabelStatistics> statistics;
 	public DefaultLabelingCursorStrategy(L labeling) {
 		this.labeling = labeling;
 		generation = Long.MIN_VALUE;
 	}
 
+	/**
+	 * Supply statistics on the labels that were gathered while labeling,
+	 * so they need not be computed by another pass over the labeling.
+	 * They are used until the labeling changes.
+	 * @param statistics - the statistics of every label in the labeling
+	 */
+	public void setStatistics(Map<T, LabelStatistics> statistics) {
+		if (type == null) {
+			LocalizableCursor<LabelingType<T>> c = labeling.createLocalizableCursor();
+			type = c.getType();
+			c.close();
+		}
+		this.statistics = statistics;
+		generation = type.getGeneration();
+	}
+	
 	/**
 	 * Compute all statistics on the labels if cache is dirty.
 	 */
@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.labeling;
+
+import java.util.Arrays;
+
+/**
+ * The bounding box, area and raster start of a labeled object.
+ */
+public class LabelStatistics extends BoundingBox {
+	protected final int [] rasterStart;
+	protected long area = 0;
+	public LabelStatistics(int dimensions) {
+		super(dimensions);
+		rasterStart = new int [dimensions];
+		Arrays.fill(rasterStart, Integer.MAX_VALUE);
+	}
+	
+	public void getRasterStart(int [] dest) {
+		System.arraycopy(rasterStart, 0, dest, 0, rasterStart.length);
+	}
+	public long getArea() {
+		return area;
+	}
+	/**
+	 * Add a pixel of the object at the given coordinates.
+	 * @param coordinates
+	 */
+	@Override
+	public void update(int [] coordinates) {
+		super.update(coordinates);
+		area++;
+		if (isBeforeRasterStart(coordinates)) {
+			System.arraycopy(coordinates, 0, rasterStart, 0, rasterStart.length);
+		}
+	}
+	/**
+	 * Add the statistics of another part of the same object, for instance
+	 * one gathered by a different thread.
+	 * @param other
+	 */
+	public void merge(LabelStatistics other) {
+		if (other.area == 0) return;
+		for (int i = 0; i<min.length; i++) {
+			if (other.min[i] < min[i]) min[i] = other.min[i];
+			if (other.max[i] > max[i]) max[i] = other.max[i];
+		}
+		area += other.area;
+		if (isBeforeRasterStart(other.rasterStart)) {
+			System.arraycopy(other.rasterStart, 0, rasterStart, 0, rasterStart.length);
+		}
+	}
+	protected boolean isBeforeRasterStart(int [] coordinates) {
+		for (int i = 0; i<rasterStart.length; i++) {
+			if (rasterStart[i] > coordinates[i]) {
+				return true;
+			} else if (rasterStart[i] < coordinates[i]) {
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -95,6 +95,10 @@ public void setLabelingCursorStrategy(LabelingCursorStrategy<T, Labeling<T>> str
 		this.strategy = strategy;
 	}
 	
+	public LabelingCursorStrategy<T, Labeling<T>> getLabelingCursorStrategy() {
+		return strategy;
+	}
+	
 	/* (non-Javadoc)
 	 * @see mpicbg.imglib.image.Image#createNewImage(int[], java.lang.String)
 	 */
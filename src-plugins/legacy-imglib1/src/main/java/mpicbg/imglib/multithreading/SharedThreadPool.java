@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.multithreading;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A bounded pool of persistent worker threads shared by all algorithms, as a replacement for
+ * creating and joining a new set of {@link Thread}s in every call to
+ * {@link SimpleMultiThreading#startAndJoin(Thread[])}.
+ * 
+ * <pre>
+ * final Vector&lt;Chunk&gt; chunks = SimpleMultiThreading.divideIntoChunks( size, numThreads );
+ * 
+ * SharedThreadPool.getInstance().invoke( chunks, new ChunkTask()
+ * {
+ * 	public void run( final Chunk chunk, final int chunkIndex )
+ * 	{
+ * 		// process chunk.getLoopSize() pixels starting at chunk.getStartPosition()
+ * 	}
+ * }, numThreads );
+ * </pre>
+ * 
+ * The calling thread takes part in the work: it processes tasks itself while at most
+ * parallelism - 1 helpers run on the pool, and after all tasks have been taken it withdraws
+ * the helpers that have not started yet and waits for the others.  Nested calls from within a task therefore never
+ * wait for a pool thread to become free, and cannot deadlock the pool.
+ */
+public class SharedThreadPool
+{
+	private static SharedThreadPool instance = null;
+	
+	final ExecutorService executor;
+	final int poolSize;
+	
+	final AtomicLong submittedTasks = new AtomicLong( 0 );
+	final AtomicLong executedTasks = new AtomicLong( 0 );
+	final AtomicLong queueWaitNanos = new AtomicLong( 0 );
+
+	/**
+	 * @return the pool shared by all algorithms, with one thread per available processor.
+	 */
+	public static synchronized SharedThreadPool getInstance()
+	{
+		if ( instance == null )
+			instance = new SharedThreadPool( Runtime.getRuntime().availableProcessors() );
+		
+		return instance;
+	}
+	
+	/**
+	 * Creates a separate pool, for callers that must not compete with the shared one.
+	 * 
+	 * @param poolSize - the maximal number of worker threads
+	 */
+	public SharedThreadPool( final int poolSize )
+	{
+		this.poolSize = Math.max( 1, poolSize );
+		
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( this.poolSize, this.poolSize, 60, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory() );
+		executor.allowCoreThreadTimeOut( true );
+		
+		this.executor = executor;
+	}
+	
+	/**
+	 * @return the maximal number of worker threads
+	 */
+	public int getPoolSize() { return poolSize; }
+
+	/**
+	 * Runs all given tasks and returns when they are done.
+	 * 
+	 * @param chunks - the chunks to process, one task each
+	 * @param task - the task that processes one chunk
+	 * @param parallelism - the maximal number of tasks of this call running at the same time,
+	 * including the calling thread; values below 1 mean the size of the pool
+	 */
+	public void invoke( final List<Chunk> chunks, final ChunkTask task, final int parallelism )
+	{
+		invoke( chunks, task, parallelism, new TaskGroup() );
+	}
+
+	/**
+	 * Runs all given tasks and returns when they are done or when the {@link TaskGroup} has been
+	 * stopped and all running tasks have finished.
+	 * 
+	 * @param chunks - the chunks to process, one task each
+	 * @param task - the task that processes one chunk
+	 * @param parallelism - the maximal number of tasks of this call running at the same time,
+	 * including the calling thread; values below 1 mean the size of the pool
+	 * @param group - the handle through which the call can be stopped
+	 */
+	public void invoke( final List<Chunk> chunks, final ChunkTask task, final int parallelism, final TaskGroup group )
+	{
+		execute( chunks.size(), parallelism, group, new IndexedTask()
+		{
+			@Override
+			public void run( final int i ) { task.run( chunks.get( i ), i ); }
+		});
+	}
+
+	/**
+	 * Runs each of the given {@link Runnable}s exactly once, at most parallelism of them at the
+	 * same time, and returns when they are done.  This is the drop-in replacement for
+	 * creating one {@link Thread} per {@link Runnable} and calling
+	 * {@link SimpleMultiThreading#startAndJoin(Thread[])}.
+	 * 
+	 * @param tasks - the tasks to run
+	 * @param parallelism - the maximal number of tasks running at the same time, including
+	 * the calling thread; values below 1 mean the size of the pool
+	 */
+	public void invokeAll( final Runnable[] tasks, final int parallelism )
+	{
+		invokeAll( tasks, parallelism, new TaskGroup() );
+	}
+	
+	public void invokeAll( final Runnable[] tasks ) { invokeAll( tasks, tasks.length ); }
+
+	public void invokeAll( final Runnable[] tasks, final int parallelism, final TaskGroup group )
+	{
+		execute( tasks.length, parallelism, group, new IndexedTask()
+		{
+			@Override
+			public void run( final int i ) { tasks[ i ].run(); }
+		});
+	}
+	
+	/**
+	 * @return the number of helper tasks that have been handed to the worker threads
+	 */
+	public long getSubmittedTasks() { return submittedTasks.get(); }
+
+	/**
+	 * @return the number of {@link Chunk}s or {@link Runnable}s that have been run, by the worker
+	 * threads or the calling threads
+	 */
+	public long getExecutedTasks() { return executedTasks.get(); }
+
+	/**
+	 * @return the accumulated time, in nanoseconds, that helper tasks spent in the queue before
+	 * a worker thread picked them up
+	 */
+	public long getQueueWaitNanos() { return queueWaitNanos.get(); }
+
+	public void resetStatistics()
+	{
+		submittedTasks.set( 0 );
+		executedTasks.set( 0 );
+		queueWaitNanos.set( 0 );
+	}
+	
+	protected void execute( final int numTasks, final int parallelism, final TaskGroup group, final IndexedTask work )
+	{
+		if ( numTasks == 0 )
+			return;
+		
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		final Runnable drain = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for ( int i = ai.getAndIncrement(); i < numTasks; i = ai.getAndIncrement() )
+				{
+					if ( group.isStopped() || failure.get() != null )
+						return;
+					
+					try
+					{
+						work.run( i );
+						executedTasks.incrementAndGet();
+					}
+					catch ( final Throwable t )
+					{
+						failure.compareAndSet( null, t );
+					}
+				}
+			}
+		};
+		
+		final int maxParallelism = parallelism < 1 ? poolSize : Math.min( parallelism, poolSize );
+		final Future<?>[] helpers = new Future<?>[ Math.min( maxParallelism, numTasks ) - 1 ];
+		
+		// a helper runs only if it claims itself before the caller withdraws it, a cancelled
+		// Future does not tell which of both happened as cancel() also succeeds while it runs
+		final AtomicBoolean[] claims = new AtomicBoolean[ helpers.length ];
+
+		for ( int h = 0; h < helpers.length; ++h )
+		{
+			final long submitTime = System.nanoTime();
+			final AtomicBoolean claim = claims[ h ] = new AtomicBoolean( false );
+			submittedTasks.incrementAndGet();
+			
+			helpers[ h ] = executor.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if ( !claim.compareAndSet( false, true ) )
+						return;
+					
+					queueWaitNanos.addAndGet( System.nanoTime() - submitTime );
+					drain.run();
+				}
+			});
+		}
+		
+		drain.run();
+		
+		// all tasks are taken, withdraw the helpers that did not start, wait for the others
+		boolean interrupted = false;
+		
+		for ( int h = 0; h < helpers.length; ++h )
+		{
+			if ( claims[ h ].compareAndSet( false, true ) )
+			{
+				helpers[ h ].cancel( false );
+				continue;
+			}
+			
+			while ( true )
+			{
+				try
+				{
+					helpers[ h ].get();
+					break;
+				}
+				catch ( final ExecutionException e )
+				{
+					failure.compareAndSet( null, e.getCause() );
+					break;
+				}
+				catch ( final InterruptedException e )
+				{
+					// stop the remaining work, but the running helpers still have to finish
+					group.stopThread();
+					interrupted = true;
+				}
+			}
+		}
+		
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( new InterruptedException() );
+		}
+		
+		final Throwable t = failure.get();
+		
+		if ( t instanceof RuntimeException )
+			throw (RuntimeException)t;
+		else if ( t instanceof Error )
+			throw (Error)t;
+		else if ( t != null )
+			throw new RuntimeException( t );
+	}
+	
+	protected interface IndexedTask
+	{
+		public void run( int i );
+	}
+	
+	protected static class WorkerThreadFactory implements ThreadFactory
+	{
+		final AtomicInteger threadNumber = new AtomicInteger( 0 );
+		
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread thread = new Thread( r, "imglib-worker-" + threadNumber.incrementAndGet() );
+			thread.setDaemon( true );
+			thread.setPriority( Thread.NORM_PRIORITY );
+			return thread;
+		}
+	}
+}
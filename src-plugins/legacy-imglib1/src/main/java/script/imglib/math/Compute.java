@@ -30,13 +30,14 @@
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.container.array.ArrayContainerFactory;
 import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.image.ImageFactory;
 import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategy;
 import mpicbg.imglib.type.numeric.NumericType;
@@ -44,6 +45,7 @@
 import mpicbg.imglib.type.numeric.RealType;
 import mpicbg.imglib.type.numeric.real.DoubleType;
 import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.compile.FunctionCompiler;
 import script.imglib.math.fn.IFunction;
 import script.imglib.math.fn.ImageFunction;
 
@@ -98,6 +100,21 @@ public Image<FloatType> scriptCorrectIllumination(
  */
 public class Compute {
 
+	static private volatile boolean compile = true;
+
+	/** Whether {@link #apply(IFunction, RealType, int)} first tries to evaluate the
+	 * {@link IFunction} with code generated by the {@link FunctionCompiler}, which is
+	 * much faster when all images are in {@link mpicbg.imglib.container.array.Array}
+	 * containers. Enabled by default; when disabled, or when the function cannot be
+	 * compiled, the {@link IFunction} tree is evaluated for every pixel. */
+	static public final void setCompile(final boolean b) {
+		compile = b;
+	}
+
+	static public final boolean isCompile() {
+		return compile;
+	}
+
 	/** Ensure that the {@link Container} of each {@link Image} of @param images is compatible
 	 * with all the others. */
 	static public final void checkContainers(final Collection<Image<?>> images) throws Exception {
@@ -180,8 +197,6 @@ private final Image<R> innerRun() throws Exception {
 				final ImageFactory<R> factory = new ImageFactory<R>( output, first.getContainerFactory() );
 				final Image<R> result = factory.createImage( first.getDimensions(), "result" );
 
-				final AtomicInteger ai = new AtomicInteger(0);
-
 				// Duplicate all: also sets a new cursor for each that has one, so it's unique and reset.
 				final IFunction[] functions = new IFunction[ numThreads ];
 				try
@@ -195,20 +210,12 @@ private final Image<R> innerRun() throws Exception {
 					numThreads = 1;
 				}
 
-				final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 				final Vector<Chunk> threadChunks = SimpleMultiThreading.divideIntoChunks( first.getNumPixels(), numThreads );
 
-				for (int ithread = 0; ithread < threads.length; ++ithread)
-					threads[ithread] = new Thread(new Runnable()
+				SharedThreadPool.getInstance().invoke( threadChunks, new ChunkTask()
 					{
-						public void run()
+						public void run( final Chunk myChunk, final int myNumber )
 						{
-							// Thread ID
-							final int myNumber = ai.getAndIncrement();
-
-							// get chunk of pixels to process
-							final Chunk myChunk = threadChunks.get( myNumber );
-
 							final Cursor<R> resultCursor = result.createCursor();
 							resultCursor.fwd( myChunk.getStartPosition() );
 
@@ -221,14 +228,14 @@ public void run()
 							}
 
 							// Store for cleanup later
-							Loop.this.cursors.addAll(cs);
-							Loop.this.cursors.add(resultCursor);
+							synchronized ( Loop.this.cursors ) {
+								Loop.this.cursors.addAll(cs);
+								Loop.this.cursors.add(resultCursor);
+							}
 
 							loop(resultCursor, myChunk.getLoopSize(), fn);
 						}
-					});
-
-				SimpleMultiThreading.startAndJoin( threads );
+					}, numThreads );
 
 				return result;
 			} else {
@@ -254,6 +261,16 @@ public void run()
 	 * @param numThreads The number of threads for parallel execution. */
 	static public final <R extends RealType<R>> Image<R> apply(final IFunction op, final R output, int numThreads) throws Exception
 	{
+		if (compile) {
+			final Image<R> result = FunctionCompiler.apply(op, output, Math.max(1, numThreads));
+			if (null != result) {
+				// Close the cursors of op, as the interpreted Loop does
+				final HashSet<Cursor<?>> cs = new HashSet<Cursor<?>>();
+				op.findCursors(cs);
+				for (final Cursor<?> c : cs) c.close();
+				return result;
+			}
+		}
 		final Loop<R> loop = new Loop<R>(op, output, numThreads) {
 			public final void loop(final Cursor<R> resultCursor, final long loopSize, final IFunction fn) {
 				for ( long j = loopSize; j > 0 ; --j )
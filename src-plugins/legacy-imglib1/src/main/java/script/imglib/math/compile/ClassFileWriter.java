@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Just enough of a class file writer to emit a final class with a default constructor and
+ * a single public method, as needed by {@link FunctionCompiler}.  Writes class file version
+ * 49 (Java 5), which does not require stack map frames.
+ */
+final class ClassFileWriter
+{
+	static final int ALOAD_0 = 0x2a, ALOAD = 0x19, ASTORE = 0x3a, ILOAD = 0x15, ISTORE = 0x36,
+		DLOAD = 0x18, DSTORE = 0x39,
+		AALOAD = 0x32, BALOAD = 0x33, SALOAD = 0x35, IALOAD = 0x2e, LALOAD = 0x2f,
+		FALOAD = 0x30, DALOAD = 0x31, FASTORE = 0x51, DASTORE = 0x52,
+		I2L = 0x85, I2D = 0x87, L2D = 0x8a, F2D = 0x8d, D2I = 0x8e, D2F = 0x90,
+		IAND = 0x7e, IOR = 0x80, IXOR = 0x82, LAND = 0x7f,
+		DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f,
+		SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14,
+		IF_ICMPGE = 0xa2, GOTO = 0xa7, IINC = 0x84, RETURN = 0xb1,
+		CHECKCAST = 0xc0, INVOKESTATIC = 0xb8, INVOKESPECIAL = 0xb7;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream( pool );
+	private final HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private final String className, superName;
+
+	/** The code of the method being written. */
+	private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+	private int stack = 0, maxStack = 0;
+
+	ClassFileWriter( final String className, final String superName ) {
+		this.className = className.replace( '.', '/' );
+		this.superName = superName.replace( '.', '/' );
+	}
+
+	/* Constant pool */
+
+	private int entry( final String key, final int tag, final int slots, final Object... values ) {
+		final Integer known = poolIndex.get( key );
+		if ( null != known ) return known;
+		try {
+			poolOut.writeByte( tag );
+			for ( final Object v : values ) {
+				if ( v instanceof String ) poolOut.writeUTF( ( String ) v );
+				else if ( v instanceof Short ) poolOut.writeShort( ( Short ) v );
+				else if ( v instanceof Integer ) poolOut.writeInt( ( Integer ) v );
+				else if ( v instanceof Long ) poolOut.writeLong( ( Long ) v );
+				else if ( v instanceof Double ) poolOut.writeDouble( ( Double ) v );
+			}
+		} catch ( final IOException e ) {
+			throw new RuntimeException( e );
+		}
+		final int index = poolCount;
+		poolCount += slots;
+		poolIndex.put( key, index );
+		return index;
+	}
+
+	int utf8( final String s ) { return entry( "U" + s, 1, 1, s ); }
+
+	int classRef( final String name ) {
+		final int n = utf8( name );
+		return entry( "C" + name, 7, 1, ( short ) n );
+	}
+
+	int methodRef( final String owner, final String name, final String descriptor ) {
+		final int o = classRef( owner );
+		final int n = utf8( name ), d = utf8( descriptor );
+		final int nt = entry( "N" + name + descriptor, 12, 1, ( short ) n, ( short ) d );
+		return entry( "M" + owner + "." + name + descriptor, 10, 1, ( short ) o, ( short ) nt );
+	}
+
+	int intConstant( final int v ) { return entry( "I" + v, 3, 1, v ); }
+
+	int longConstant( final long v ) { return entry( "J" + v, 5, 2, v ); }
+
+	int doubleConstant( final double v ) { return entry( "D" + Double.doubleToLongBits( v ), 6, 2, v ); }
+
+	/* Code */
+
+	/** Append an instruction that takes no operands and changes the stack depth by @param delta. */
+	void op( final int opcode, final int delta ) {
+		code.write( opcode );
+		push( delta );
+	}
+
+	/** Append a load or store of a local variable slot; slots must be below 256. */
+	void local( final int opcode, final int slot, final int delta ) {
+		if ( slot > 255 ) throw new IllegalArgumentException( "Too many local variables." );
+		code.write( opcode );
+		code.write( slot );
+		push( delta );
+	}
+
+	void u2( final int opcode, final int operand, final int delta ) {
+		code.write( opcode );
+		code.write( ( operand >> 8 ) & 0xff );
+		code.write( operand & 0xff );
+		push( delta );
+	}
+
+	void iinc( final int slot, final int increment ) {
+		code.write( IINC );
+		code.write( slot );
+		code.write( increment );
+	}
+
+	void invokeStatic( final String owner, final String name, final String descriptor, final int delta ) {
+		u2( INVOKESTATIC, methodRef( owner, name, descriptor ), delta );
+	}
+
+	/** @return the offset of the next instruction. */
+	int position() { return code.size(); }
+
+	/** Append a branch with a placeholder target; see {@link #patch(int, int)}. */
+	int branch( final int opcode, final int delta ) {
+		final int at = code.size();
+		u2( opcode, 0, delta );
+		return at;
+	}
+
+	private final ArrayList<int[]> patches = new ArrayList<int[]>();
+
+	/** Make the branch instruction at @param at jump to @param target. */
+	void patch( final int at, final int target ) {
+		patches.add( new int[]{ at, target - at } );
+	}
+
+	private void push( final int delta ) {
+		stack += delta;
+		if ( stack > maxStack ) maxStack = stack;
+	}
+
+	/** Write the class with a default constructor and the method whose code was appended,
+	 *  which uses @param maxLocals local variable slots. */
+	byte[] toByteArray( final String methodName, final String descriptor, final int maxLocals ) {
+		final byte[] body = code.toByteArray();
+		for ( final int[] p : patches ) {
+			body[ p[0] + 1 ] = ( byte ) ( ( p[1] >> 8 ) & 0xff );
+			body[ p[0] + 2 ] = ( byte ) ( p[1] & 0xff );
+		}
+
+		final int thisClass = classRef( className );
+		final int superClass = classRef( superName );
+		final int superInit = methodRef( superName, "<init>", "()V" );
+		final int initName = utf8( "<init>" ), initDesc = utf8( "()V" );
+		final int name = utf8( methodName ), desc = utf8( descriptor );
+		final int codeAttr = utf8( "Code" );
+
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream( bytes );
+			out.writeInt( 0xCAFEBABE );
+			out.writeShort( 0 );
+			out.writeShort( 49 );
+			out.writeShort( poolCount );
+			poolOut.flush();
+			pool.writeTo( out );
+			out.writeShort( 0x0031 ); // public final super
+			out.writeShort( thisClass );
+			out.writeShort( superClass );
+			out.writeShort( 0 ); // interfaces
+			out.writeShort( 0 ); // fields
+			out.writeShort( 2 ); // methods
+
+			// public <init>() { super(); }
+			out.writeShort( 0x0001 );
+			out.writeShort( initName );
+			out.writeShort( initDesc );
+			out.writeShort( 1 );
+			out.writeShort( codeAttr );
+			out.writeInt( 12 + 5 );
+			out.writeShort( 1 ); // max stack
+			out.writeShort( 1 ); // max locals
+			out.writeInt( 5 );
+			out.writeByte( ALOAD_0 );
+			out.writeByte( INVOKESPECIAL );
+			out.writeShort( superInit );
+			out.writeByte( RETURN );
+			out.writeShort( 0 ); // exception table
+			out.writeShort( 0 ); // attributes
+
+			// the method
+			out.writeShort( 0x0001 );
+			out.writeShort( name );
+			out.writeShort( desc );
+			out.writeShort( 1 );
+			out.writeShort( codeAttr );
+			out.writeInt( 12 + body.length );
+			out.writeShort( maxStack );
+			out.writeShort( maxLocals );
+			out.writeInt( body.length );
+			out.write( body );
+			out.writeShort( 0 );
+			out.writeShort( 0 );
+
+			out.writeShort( 0 ); // class attributes
+			out.flush();
+			return bytes.toByteArray();
+		} catch ( final IOException e ) {
+			throw new RuntimeException( e );
+		}
+	}
+}
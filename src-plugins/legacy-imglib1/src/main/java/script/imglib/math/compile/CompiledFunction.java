@@ -0,0 +1,49 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+/**
+ * Superclass of the classes generated by {@link FunctionCompiler}.  Each generated class
+ * evaluates one shape of {@link script.imglib.math.fn.IFunction} tree, with the pixel arrays
+ * of its images and its numeric constants given as arguments, so that the same class is reused
+ * for all trees of the same shape.
+ */
+public abstract class CompiledFunction
+{
+	/**
+	 * Evaluate the function for the pixels at indices start (inclusive) to end (exclusive).
+	 * 
+	 * @param inputs The storage arrays (byte[], short[], int[], long[], float[] or double[])
+	 *               of the images, in the order defined by the {@link FunctionCompiler}.
+	 * @param constants The values of the numeric constants of the function.
+	 * @param output The storage array (float[] or double[]) of the result image.
+	 * @param start The first pixel index.
+	 * @param end One past the last pixel index.
+	 */
+	public abstract void compute( Object[] inputs, double[] constants, Object output, int start, int end );
+}
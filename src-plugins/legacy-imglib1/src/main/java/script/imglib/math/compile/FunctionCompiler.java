@@ -0,0 +1,566 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+import mpicbg.imglib.container.Container;
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.ChunkTask;
+import mpicbg.imglib.multithreading.SharedThreadPool;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.ByteType;
+import mpicbg.imglib.type.numeric.integer.IntType;
+import mpicbg.imglib.type.numeric.integer.LongType;
+import mpicbg.imglib.type.numeric.integer.ShortType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.integer.UnsignedIntType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.DoubleType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.ACos;
+import script.imglib.math.ASin;
+import script.imglib.math.ATan;
+import script.imglib.math.ATan2;
+import script.imglib.math.Abs;
+import script.imglib.math.Add;
+import script.imglib.math.And;
+import script.imglib.math.Average;
+import script.imglib.math.Cbrt;
+import script.imglib.math.Ceil;
+import script.imglib.math.Cos;
+import script.imglib.math.Cosh;
+import script.imglib.math.Difference;
+import script.imglib.math.Divide;
+import script.imglib.math.Exp;
+import script.imglib.math.Expm1;
+import script.imglib.math.Floor;
+import script.imglib.math.Hypot;
+import script.imglib.math.IEEEremainder;
+import script.imglib.math.Log;
+import script.imglib.math.Log10;
+import script.imglib.math.Log1p;
+import script.imglib.math.Max;
+import script.imglib.math.Min;
+import script.imglib.math.Multiply;
+import script.imglib.math.Or;
+import script.imglib.math.Pow;
+import script.imglib.math.Rint;
+import script.imglib.math.Round;
+import script.imglib.math.Signum;
+import script.imglib.math.Sin;
+import script.imglib.math.Sinh;
+import script.imglib.math.Sqrt;
+import script.imglib.math.Subtract;
+import script.imglib.math.Tan;
+import script.imglib.math.Tanh;
+import script.imglib.math.ToDegrees;
+import script.imglib.math.ToRadians;
+import script.imglib.math.Xor;
+import script.imglib.math.fn.BinaryOperation;
+import script.imglib.math.fn.IFunction;
+import script.imglib.math.fn.ImageFunction;
+import script.imglib.math.fn.NumberFunction;
+import script.imglib.math.fn.UnaryOperation;
+
+/** Turns an {@link IFunction} tree into a single generated {@link CompiledFunction} class,
+ * whose method is one tight loop over the primitive arrays of all the images involved.
+ * Instead of one virtual call per node and pixel, as in {@link IFunction#eval()}, every
+ * pixel is computed with inlined arithmetic and static calls to {@link Math}.
+ * <p>
+ * Only trees made exclusively of the functions in the {@link script.imglib.math} package
+ * (but not {@link script.imglib.math.Random}, nor subclasses of them), {@link ImageFunction}
+ * and {@link NumberFunction} can be compiled, and only when all images use an
+ * {@link Array} container with the same dimensions and a primitive {@link RealType}
+ * (byte, short, int, long, float or double, signed or unsigned), and when the result
+ * is a {@link FloatType} or {@link DoubleType}. Otherwise {@link #apply(IFunction, RealType, int)}
+ * returns null, and {@link Compute} falls back to evaluating the tree.
+ * <p>
+ * Generated classes are cached by the shape of the tree, so that computing the same
+ * expression again with different images or constants does not generate another class.
+ */
+public final class FunctionCompiler
+{
+	static private final int IMAGE = 0, CONSTANT = 1, ARITHMETIC = 2, MATH1 = 3, MATH2 = 4,
+		ROUND = 5, BITWISE = 6, AVERAGE = 7, DIFFERENCE = 8;
+
+	/** The functions that map to a static method of {@link Math} with a single argument. */
+	static private final HashMap<Class<?>, String> MATH1_METHODS = new HashMap<Class<?>, String>();
+	/** The functions that map to a static method of {@link Math} with two arguments. */
+	static private final HashMap<Class<?>, String> MATH2_METHODS = new HashMap<Class<?>, String>();
+	/** The functions that map to a single opcode. */
+	static private final HashMap<Class<?>, Integer> OPCODES = new HashMap<Class<?>, Integer>();
+
+	static {
+		MATH1_METHODS.put( ACos.class, "acos" );
+		MATH1_METHODS.put( ASin.class, "asin" );
+		MATH1_METHODS.put( ATan.class, "atan" );
+		MATH1_METHODS.put( Abs.class, "abs" );
+		MATH1_METHODS.put( Cbrt.class, "cbrt" );
+		MATH1_METHODS.put( Ceil.class, "ceil" );
+		MATH1_METHODS.put( Cos.class, "cos" );
+		MATH1_METHODS.put( Cosh.class, "cosh" );
+		MATH1_METHODS.put( Exp.class, "exp" );
+		MATH1_METHODS.put( Expm1.class, "expm1" );
+		MATH1_METHODS.put( Floor.class, "floor" );
+		MATH1_METHODS.put( Log.class, "log" );
+		MATH1_METHODS.put( Log10.class, "log10" );
+		MATH1_METHODS.put( Log1p.class, "log1p" );
+		MATH1_METHODS.put( Rint.class, "rint" );
+		MATH1_METHODS.put( Signum.class, "signum" );
+		MATH1_METHODS.put( Sin.class, "sin" );
+		MATH1_METHODS.put( Sinh.class, "sinh" );
+		MATH1_METHODS.put( Sqrt.class, "sqrt" );
+		MATH1_METHODS.put( Tan.class, "tan" );
+		MATH1_METHODS.put( Tanh.class, "tanh" );
+		MATH1_METHODS.put( ToDegrees.class, "toDegrees" );
+		MATH1_METHODS.put( ToRadians.class, "toRadians" );
+
+		MATH2_METHODS.put( ATan2.class, "atan2" );
+		MATH2_METHODS.put( Hypot.class, "hypot" );
+		MATH2_METHODS.put( IEEEremainder.class, "IEEEremainder" );
+		MATH2_METHODS.put( Max.class, "max" );
+		MATH2_METHODS.put( Min.class, "min" );
+		MATH2_METHODS.put( Pow.class, "pow" );
+
+		OPCODES.put( Add.class, ClassFileWriter.DADD );
+		OPCODES.put( Subtract.class, ClassFileWriter.DSUB );
+		OPCODES.put( Multiply.class, ClassFileWriter.DMUL );
+		OPCODES.put( Divide.class, ClassFileWriter.DDIV );
+		OPCODES.put( And.class, ClassFileWriter.IAND );
+		OPCODES.put( Or.class, ClassFileWriter.IOR );
+		OPCODES.put( Xor.class, ClassFileWriter.IXOR );
+	}
+
+	/** One node of the analyzed tree. */
+	static private final class Node
+	{
+		int kind, index, opcode;
+		String method;
+		Node a, b;
+	}
+
+	/** The analyzed tree, with its images and constants. */
+	static private final class Program
+	{
+		final IdentityHashMap<Image<?>, Integer> slots = new IdentityHashMap<Image<?>, Integer>();
+		final ArrayList<Image<?>> images = new ArrayList<Image<?>>();
+		final ArrayList<Character> inputTypes = new ArrayList<Character>();
+		final ArrayList<Double> constants = new ArrayList<Double>();
+		final StringBuilder signature = new StringBuilder();
+		int numTemporaries = 0;
+	}
+
+	static private final HashMap<String, Class<? extends CompiledFunction>> cache =
+		new HashMap<String, Class<? extends CompiledFunction>>();
+
+	static private final Loader loader = new Loader( CompiledFunction.class.getClassLoader() );
+
+	static private int classCount = 0;
+
+	static private volatile String errorMessage = null;
+
+	private FunctionCompiler() {}
+
+	/** @return why the last attempt to generate code failed, or null if it never failed.
+	 *  A failure is not fatal: {@link #apply(IFunction, RealType, int)} returns null and
+	 *  the caller evaluates the {@link IFunction} tree instead. */
+	static public final String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/** Compute @param op into a new {@link Image} of type @param output, using generated code.
+	 * 
+	 * @return the result, or null if the tree, its images or the output type are not suitable
+	 *         for compilation, in which case nothing has been computed. */
+	static public final <R extends RealType<R>> Image<R> apply(final IFunction op, final R output, final int numThreads) throws Exception
+	{
+		final char outputType;
+		if ( output.getClass() == FloatType.class ) outputType = 'F';
+		else if ( output.getClass() == DoubleType.class ) outputType = 'D';
+		else return null;
+
+		final Program program = new Program();
+		final Node root = analyze( op, program );
+		if ( null == root || program.images.isEmpty() ) return null;
+
+		// All images must share the same kind of container and dimensions
+		final Image<?> first = program.images.get( 0 );
+		if ( ! ( first.getContainerFactory() instanceof ArrayContainerFactory ) ) return null;
+
+		final Object[] inputs = new Object[ program.images.size() ];
+		for ( int k = 0; k < inputs.length; ++k ) {
+			final Image<?> img = program.images.get( k );
+			if ( !img.getContainer().compareStorageContainerDimensions( first.getContainer() ) ) return null;
+			inputs[ k ] = storageArray( img.getContainer() );
+			if ( null == inputs[ k ] || !matches( inputs[ k ], program.inputTypes.get( k ) ) ) return null;
+		}
+
+		final CompiledFunction fn = getCompiledFunction( root, program, outputType );
+		if ( null == fn ) return null;
+
+		final double[] constants = new double[ program.constants.size() ];
+		for ( int c = 0; c < constants.length; ++c )
+			constants[ c ] = program.constants.get( c );
+
+		final ImageFactory<R> factory = new ImageFactory<R>( output, first.getContainerFactory() );
+		final Image<R> result = factory.createImage( first.getDimensions(), "result" );
+		final Object out = storageArray( result.getContainer() );
+		if ( null == out || !matches( out, outputType ) ) {
+			result.close();
+			return null;
+		}
+
+		final int size = first.getNumPixels();
+		final int n = Math.max( 1, Math.min( numThreads, size ) );
+		final Vector<Chunk> chunks = SimpleMultiThreading.divideIntoChunks( size, n );
+
+		SharedThreadPool.getInstance().invoke( chunks, new ChunkTask() {
+			public void run( final Chunk chunk, final int chunkIndex ) {
+				final int start = ( int ) chunk.getStartPosition();
+				fn.compute( inputs, constants, out, start, start + ( int ) chunk.getLoopSize() );
+			}
+		}, n );
+
+		return result;
+	}
+
+	/** @return whether @param op can be compiled, regardless of its images. */
+	static public final boolean isCompilable( final IFunction op ) {
+		return null != analyze( op, new Program() );
+	}
+
+	static private final Object storageArray( final Container<?> container ) {
+		if ( ! ( container instanceof Array ) ) return null;
+		final Object access = ( ( Array<?,?> ) container ).update( null );
+		if ( ! ( access instanceof ArrayDataAccess ) ) return null;
+		return ( ( ArrayDataAccess<?> ) access ).getCurrentStorageArray();
+	}
+
+	static private final boolean matches( final Object array, final char type ) {
+		switch ( type ) {
+			case 'B': case 'b': return array instanceof byte[];
+			case 'S': case 's': return array instanceof short[];
+			case 'I': case 'i': return array instanceof int[];
+			case 'J': return array instanceof long[];
+			case 'F': return array instanceof float[];
+			case 'D': return array instanceof double[];
+			default: return false;
+		}
+	}
+
+	/** @return the code for the element type of the storage array of images of
+	 *  type @param t, or 0 if not supported. Lower case is for unsigned types. */
+	static private final char typeCode( final Object t ) {
+		final Class<?> c = t.getClass();
+		if ( c == FloatType.class ) return 'F';
+		if ( c == DoubleType.class ) return 'D';
+		if ( c == UnsignedByteType.class ) return 'b';
+		if ( c == ByteType.class ) return 'B';
+		if ( c == UnsignedShortType.class ) return 's';
+		if ( c == ShortType.class ) return 'S';
+		if ( c == UnsignedIntType.class ) return 'i';
+		if ( c == IntType.class ) return 'I';
+		if ( c == LongType.class ) return 'J';
+		return 0;
+	}
+
+	/** @return the analyzed node, or null if @param fn cannot be compiled. */
+	static private final Node analyze( final IFunction fn, final Program p ) {
+		final Node node = new Node();
+		final Class<?> c = fn.getClass();
+		final StringBuilder sig = p.signature;
+
+		if ( c == ImageFunction.class ) {
+			final Image<?> img = ( ( ImageFunction ) fn ).getImage();
+			Integer slot = p.slots.get( img );
+			if ( null == slot ) {
+				final char type = typeCode( img.createType() );
+				if ( 0 == type ) return null;
+				slot = p.images.size();
+				p.slots.put( img, slot );
+				p.images.add( img );
+				p.inputTypes.add( type );
+			}
+			node.kind = IMAGE;
+			node.index = slot;
+			sig.append( 'I' ).append( slot ).append( p.inputTypes.get( slot ) );
+			return node;
+		}
+		if ( c == NumberFunction.class ) {
+			node.kind = CONSTANT;
+			node.index = p.constants.size();
+			p.constants.add( fn.eval() );
+			sig.append( 'C' ).append( node.index );
+			return node;
+		}
+
+		if ( MATH1_METHODS.containsKey( c ) ) {
+			node.kind = MATH1;
+			node.method = MATH1_METHODS.get( c );
+		} else if ( c == Round.class ) {
+			node.kind = ROUND;
+		} else if ( MATH2_METHODS.containsKey( c ) ) {
+			node.kind = MATH2;
+			node.method = MATH2_METHODS.get( c );
+		} else if ( c == And.class || c == Or.class || c == Xor.class ) {
+			node.kind = BITWISE;
+			node.opcode = OPCODES.get( c );
+		} else if ( OPCODES.containsKey( c ) ) {
+			node.kind = ARITHMETIC;
+			node.opcode = OPCODES.get( c );
+		} else if ( c == Average.class ) {
+			node.kind = AVERAGE;
+		} else if ( c == Difference.class ) {
+			node.kind = DIFFERENCE;
+			node.index = p.numTemporaries++;
+		} else {
+			return null;
+		}
+
+		sig.append( c.getSimpleName() ).append( '(' );
+		if ( fn instanceof UnaryOperation ) {
+			node.a = analyze( ( ( UnaryOperation ) fn ).a(), p );
+			if ( null == node.a ) return null;
+		} else if ( fn instanceof BinaryOperation ) {
+			node.a = analyze( ( ( BinaryOperation ) fn ).a(), p );
+			if ( null == node.a ) return null;
+			sig.append( ',' );
+			node.b = analyze( ( ( BinaryOperation ) fn ).b(), p );
+			if ( null == node.b ) return null;
+		} else {
+			return null;
+		}
+		sig.append( ')' );
+		return node;
+	}
+
+	static private final synchronized CompiledFunction getCompiledFunction( final Node root, final Program p, final char outputType ) {
+		final String key = p.signature.toString() + "->" + outputType;
+		Class<? extends CompiledFunction> c = cache.get( key );
+		try {
+			if ( null == c ) {
+				final String name = FunctionCompiler.class.getPackage().getName() + ".Generated" + ( classCount++ );
+				c = loader.define( name, generate( name, root, p, outputType ) ).asSubclass( CompiledFunction.class );
+				cache.put( key, c );
+			}
+			return c.getDeclaredConstructor().newInstance();
+		} catch ( final Throwable t ) {
+			// Never fail because of code generation: the caller falls back to the interpreter
+			errorMessage = "Could not compile " + key + ": " + t;
+			return null;
+		}
+	}
+
+	/* Local variable slots of the generated method. */
+	static private final int INPUTS = 1, CONSTANTS = 2, OUTPUT = 3, START = 4, END = 5, FIRST_ARRAY = 6;
+
+	static private final byte[] generate( final String name, final Node root, final Program p, final char outputType ) {
+		final ClassFileWriter w = new ClassFileWriter( name, CompiledFunction.class.getName() );
+		final int numInputs = p.images.size();
+		final int outLocal = FIRST_ARRAY + numInputs;
+		final int iLocal = outLocal + 1;
+		final int firstConstant = iLocal + 1;
+		final int firstTemporary = firstConstant + 2 * p.constants.size();
+		final int maxLocals = firstTemporary + 4 * p.numTemporaries;
+
+		// Local copies of the arrays and constants
+		for ( int k = 0; k < numInputs; ++k ) {
+			w.local( ClassFileWriter.ALOAD, INPUTS, 1 );
+			w.u2( ClassFileWriter.SIPUSH, k, 1 );
+			w.op( ClassFileWriter.AALOAD, -1 );
+			w.u2( ClassFileWriter.CHECKCAST, w.classRef( arrayDescriptor( p.inputTypes.get( k ) ) ), 0 );
+			w.local( ClassFileWriter.ASTORE, FIRST_ARRAY + k, -1 );
+		}
+		w.local( ClassFileWriter.ALOAD, OUTPUT, 1 );
+		w.u2( ClassFileWriter.CHECKCAST, w.classRef( arrayDescriptor( outputType ) ), 0 );
+		w.local( ClassFileWriter.ASTORE, outLocal, -1 );
+		for ( int c = 0; c < p.constants.size(); ++c ) {
+			w.local( ClassFileWriter.ALOAD, CONSTANTS, 1 );
+			w.u2( ClassFileWriter.SIPUSH, c, 1 );
+			w.op( ClassFileWriter.DALOAD, 0 );
+			w.local( ClassFileWriter.DSTORE, firstConstant + 2 * c, -2 );
+		}
+
+		// for ( int i = start; i < end; ++i ) out[ i ] = expression;
+		w.local( ClassFileWriter.ILOAD, START, 1 );
+		w.local( ClassFileWriter.ISTORE, iLocal, -1 );
+		final int loop = w.position();
+		w.local( ClassFileWriter.ILOAD, iLocal, 1 );
+		w.local( ClassFileWriter.ILOAD, END, 1 );
+		final int exit = w.branch( ClassFileWriter.IF_ICMPGE, -2 );
+		w.local( ClassFileWriter.ALOAD, outLocal, 1 );
+		w.local( ClassFileWriter.ILOAD, iLocal, 1 );
+		emit( w, root, p, iLocal, firstConstant, firstTemporary );
+		if ( 'F' == outputType ) {
+			w.op( ClassFileWriter.D2F, -1 );
+			w.op( ClassFileWriter.FASTORE, -3 );
+		} else {
+			w.op( ClassFileWriter.DASTORE, -4 );
+		}
+		w.iinc( iLocal, 1 );
+		w.patch( w.branch( ClassFileWriter.GOTO, 0 ), loop );
+		w.patch( exit, w.position() );
+		w.op( ClassFileWriter.RETURN, 0 );
+
+		return w.toByteArray( "compute", "([Ljava/lang/Object;[DLjava/lang/Object;II)V", maxLocals );
+	}
+
+	static private final String arrayDescriptor( final char type ) {
+		return "[" + Character.toUpperCase( type );
+	}
+
+	/** Append the code that leaves the value of @param node as a double on the stack. */
+	static private final void emit( final ClassFileWriter w, final Node node, final Program p,
+			final int iLocal, final int firstConstant, final int firstTemporary ) {
+		switch ( node.kind ) {
+			case IMAGE:
+				w.local( ClassFileWriter.ALOAD, FIRST_ARRAY + node.index, 1 );
+				w.local( ClassFileWriter.ILOAD, iLocal, 1 );
+				switch ( p.inputTypes.get( node.index ) ) {
+					case 'b':
+						w.op( ClassFileWriter.BALOAD, -1 );
+						w.u2( ClassFileWriter.SIPUSH, 0xff, 1 );
+						w.op( ClassFileWriter.IAND, -1 );
+						w.op( ClassFileWriter.I2D, 1 );
+						break;
+					case 'B':
+						w.op( ClassFileWriter.BALOAD, -1 );
+						w.op( ClassFileWriter.I2D, 1 );
+						break;
+					case 's':
+						w.op( ClassFileWriter.SALOAD, -1 );
+						w.u2( ClassFileWriter.LDC_W, w.intConstant( 0xffff ), 1 );
+						w.op( ClassFileWriter.IAND, -1 );
+						w.op( ClassFileWriter.I2D, 1 );
+						break;
+					case 'S':
+						w.op( ClassFileWriter.SALOAD, -1 );
+						w.op( ClassFileWriter.I2D, 1 );
+						break;
+					case 'i':
+						w.op( ClassFileWriter.IALOAD, -1 );
+						w.op( ClassFileWriter.I2L, 1 );
+						w.u2( ClassFileWriter.LDC2_W, w.longConstant( 0xffffffffL ), 2 );
+						w.op( ClassFileWriter.LAND, -2 );
+						w.op( ClassFileWriter.L2D, 0 );
+						break;
+					case 'I':
+						w.op( ClassFileWriter.IALOAD, -1 );
+						w.op( ClassFileWriter.I2D, 1 );
+						break;
+					case 'J':
+						w.op( ClassFileWriter.LALOAD, 0 );
+						w.op( ClassFileWriter.L2D, 0 );
+						break;
+					case 'F':
+						w.op( ClassFileWriter.FALOAD, -1 );
+						w.op( ClassFileWriter.F2D, 1 );
+						break;
+					case 'D':
+						w.op( ClassFileWriter.DALOAD, 0 );
+						break;
+				}
+				break;
+			case CONSTANT:
+				w.local( ClassFileWriter.DLOAD, firstConstant + 2 * node.index, 2 );
+				break;
+			case ARITHMETIC:
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				emit( w, node.b, p, iLocal, firstConstant, firstTemporary );
+				w.op( node.opcode, -2 );
+				break;
+			case MATH1:
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				w.invokeStatic( "java/lang/Math", node.method, "(D)D", 0 );
+				break;
+			case ROUND:
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				w.invokeStatic( "java/lang/Math", "round", "(D)J", 0 );
+				w.op( ClassFileWriter.L2D, 0 );
+				break;
+			case MATH2:
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				emit( w, node.b, p, iLocal, firstConstant, firstTemporary );
+				w.invokeStatic( "java/lang/Math", node.method, "(DD)D", -2 );
+				break;
+			case BITWISE:
+				// Cast to int, as in And, Or and Xor
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				w.op( ClassFileWriter.D2I, -1 );
+				emit( w, node.b, p, iLocal, firstConstant, firstTemporary );
+				w.op( ClassFileWriter.D2I, -1 );
+				w.op( node.opcode, -1 );
+				w.op( ClassFileWriter.I2D, 1 );
+				break;
+			case AVERAGE:
+				// a * 0.5 + b * 0.5, as in Average
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				w.u2( ClassFileWriter.LDC2_W, w.doubleConstant( 0.5 ), 2 );
+				w.op( ClassFileWriter.DMUL, -2 );
+				emit( w, node.b, p, iLocal, firstConstant, firstTemporary );
+				w.u2( ClassFileWriter.LDC2_W, w.doubleConstant( 0.5 ), 2 );
+				w.op( ClassFileWriter.DMUL, -2 );
+				w.op( ClassFileWriter.DADD, -2 );
+				break;
+			case DIFFERENCE:
+				// max(a, b) - min(a, b), as in Difference
+				final int ta = firstTemporary + 4 * node.index, tb = ta + 2;
+				emit( w, node.a, p, iLocal, firstConstant, firstTemporary );
+				w.local( ClassFileWriter.DSTORE, ta, -2 );
+				emit( w, node.b, p, iLocal, firstConstant, firstTemporary );
+				w.local( ClassFileWriter.DSTORE, tb, -2 );
+				w.local( ClassFileWriter.DLOAD, ta, 2 );
+				w.local( ClassFileWriter.DLOAD, tb, 2 );
+				w.invokeStatic( "java/lang/Math", "max", "(DD)D", -2 );
+				w.local( ClassFileWriter.DLOAD, ta, 2 );
+				w.local( ClassFileWriter.DLOAD, tb, 2 );
+				w.invokeStatic( "java/lang/Math", "min", "(DD)D", -2 );
+				w.op( ClassFileWriter.DSUB, -2 );
+				break;
+		}
+	}
+
+	static private final class Loader extends ClassLoader
+	{
+		Loader( final ClassLoader parent ) { super( parent ); }
+
+		Class<?> define( final String name, final byte[] bytes ) {
+			return defineClass( name, bytes, 0, bytes.length );
+		}
+	}
+}
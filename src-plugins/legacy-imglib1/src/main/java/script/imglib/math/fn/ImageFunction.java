@@ -57,6 +57,11 @@ public final void findCursors(final Collection<Cursor<?>> cursors) {
 		cursors.add(c);
 	}
 
+	/** @return the {@link Image} whose pixels this function returns. */
+	public final Image<? extends RealType<?>> getImage() {
+		return c.getImage();
+	}
+
 	@Override
 	public IFunction duplicate()
 	{
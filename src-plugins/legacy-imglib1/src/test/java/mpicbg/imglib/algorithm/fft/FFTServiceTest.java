@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.fft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.exception.ImgLibException;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.complex.ComplexFloatType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the kernel FFT cache of {@link FFTService}.
+ */
+public class FFTServiceTest
+{
+	final static int[] realSize = new int[] { 32, 16 };
+
+	final ArrayContainerFactory containerFactory = new ArrayContainerFactory();
+	final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), containerFactory );
+
+	protected Image< FloatType > createKernel()
+	{
+		final Image< FloatType > kernel = factory.createImage( new int[] { 3, 5 } );
+		int i = 0;
+
+		for ( final FloatType t : kernel )
+			t.set( ++i );
+
+		return kernel;
+	}
+
+	@After
+	public void tearDown()
+	{
+		FFTService.getInstance().clearKernelCache();
+	}
+
+	@Test
+	public void testKernelFFTIsShared() throws ImgLibException
+	{
+		final FFTService service = FFTService.getInstance();
+		final Image< FloatType > kernel = createKernel();
+
+		final long hits = service.getKernelCacheHits();
+		final Image< ComplexFloatType > kernelFFT = service.getKernelFFT( kernel, realSize, containerFactory, 1 );
+
+		assertSame( kernelFFT, service.getKernelFFT( kernel, realSize, containerFactory, 1 ) );
+		assertEquals( hits + 1, service.getKernelCacheHits() );
+		assertEquals( 1, service.getNumCachedKernels() );
+
+		// a changed kernel is not mistaken for the old one
+		kernel.createCursor().next().set( -1 );
+		assertTrue( kernelFFT != service.getKernelFFT( kernel, realSize, containerFactory, 1 ) );
+	}
+
+	@Test
+	public void testCollectedKernelIsRemoved() throws ImgLibException, InterruptedException
+	{
+		final FFTService service = FFTService.getInstance();
+
+		service.getKernelFFT( createKernel(), realSize, containerFactory, 1 );
+		assertEquals( 1, service.getNumCachedKernels() );
+
+		// the kernel is not referenced anymore, so its kernel FFT can never be found again
+		for ( int i = 0; i < 100 && service.getNumCachedKernels() > 0; ++i )
+		{
+			System.gc();
+			Thread.sleep( 10 );
+		}
+
+		assertEquals( 0, service.getNumCachedKernels() );
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.gauss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.cell.CellContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that the Gaussian convolutions give the same result for images that
+ * are convolved by {@link SeparableConvolution} and for images that are not.
+ */
+public class GaussianConvolutionTest
+{
+	final static int[] dim = new int[] { 61, 47 };
+
+	protected static < T extends RealType< T > > Image< T > createImage( final T type, final ContainerFactory containerFactory )
+	{
+		final Image< T > img = new ImageFactory< T >( type, containerFactory ).createImage( dim );
+		final LocalizableCursor< T > cursor = img.createLocalizableCursor();
+		final int[] position = new int[ dim.length ];
+
+		// a pseudo-random value per position, the cells are iterated in another order
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+			cursor.getType().setReal( new Random( position[ 0 ] + position[ 1 ] * dim[ 0 ] ).nextInt( 4096 ) );
+		}
+
+		cursor.close();
+
+		return img;
+	}
+
+	protected static < T extends RealType< T > > void assertSameImage( final Image< T > expected, final Image< T > actual, final double tolerance )
+	{
+		final LocalizableCursor< T > e = expected.createLocalizableCursor();
+		final LocalizableByDimCursor< T > a = actual.createLocalizableByDimCursor();
+
+		while ( e.hasNext() )
+		{
+			e.fwd();
+			a.setPosition( e );
+			assertEquals( e.getType().getRealDouble(), a.getType().getRealDouble(), tolerance );
+		}
+
+		e.close();
+		a.close();
+	}
+
+	protected static < T extends RealType< T > > Image< T > gauss( final Image< T > img, final boolean real )
+	{
+		final GaussianConvolution< T > gauss;
+
+		if ( real )
+			gauss = new GaussianConvolutionReal< T >( img, new OutOfBoundsStrategyMirrorFactory< T >(), 2.3 );
+		else
+			gauss = new GaussianConvolution< T >( img, new OutOfBoundsStrategyMirrorFactory< T >(), 2.3 );
+
+		assertTrue( gauss.checkInput() && gauss.process() );
+
+		return gauss.getResult();
+	}
+
+	protected static < T extends RealType< T > > void compare( final T type, final boolean real, final double tolerance )
+	{
+		// the cell container is not supported by SeparableConvolution
+		final Image< T > array = createImage( type, new ArrayContainerFactory() );
+		final Image< T > cell = createImage( type, new CellContainerFactory( 16 ) );
+
+		assertTrue( SeparableConvolution.isSupported( array ) );
+		assertTrue( !SeparableConvolution.isSupported( cell ) );
+
+		assertSameImage( gauss( cell, real ), gauss( array, real ), tolerance );
+	}
+
+	@Test
+	public void testIntegerType()
+	{
+		// rounded after every multiplication, must not change
+		compare( new UnsignedShortType(), false, 0 );
+	}
+
+	@Test
+	public void testIntegerTypeReal()
+	{
+		// rounded once per dimension
+		compare( new UnsignedShortType(), true, 0 );
+	}
+
+	@Test
+	public void testFloatType()
+	{
+		compare( new FloatType(), false, 1e-3 );
+		compare( new FloatType(), true, 1e-3 );
+	}
+}
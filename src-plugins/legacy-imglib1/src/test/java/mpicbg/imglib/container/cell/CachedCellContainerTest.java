@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CachedCellContainer} only writes back cells that
+ * were written to.
+ */
+public class CachedCellContainerTest
+{
+	final static int[] dim = new int[] { 64, 48, 20 };
+	final static int[] cellSize = new int[] { 16, 16, 16 };
+
+	// room for four cells of floats, the image has 16
+	final static long maxCacheBytes = 16 * 16 * 16 * 4 * 4;
+
+	protected static float value( final int[] position )
+	{
+		return position[ 0 ] + position[ 1 ] * 100 + position[ 2 ] * 10000;
+	}
+
+	protected static Image<FloatType> createImage()
+	{
+		final Image<FloatType> img = new ImageFactory<FloatType>( new FloatType(), new CachedCellContainerFactory( cellSize, maxCacheBytes ) ).createImage( dim );
+
+		final LocalizableCursor<FloatType> cursor = img.createLocalizableCursor();
+		final int[] position = new int[ dim.length ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+			cursor.getType().set( value( position ) );
+		}
+
+		cursor.close();
+
+		return img;
+	}
+
+	protected static void assertValues( final Image<FloatType> img, final float offset )
+	{
+		final LocalizableCursor<FloatType> cursor = img.createLocalizableCursor();
+		final int[] position = new int[ dim.length ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+			assertEquals( value( position ) + offset, cursor.getType().get(), 0 );
+		}
+
+		cursor.close();
+	}
+
+	@Test
+	public void testReadOnlySweepDoesNotWriteBack()
+	{
+		final Image<FloatType> img = createImage();
+		final CachedCellContainer<?, ?> container = (CachedCellContainer<?, ?>)img.getContainer();
+
+		container.flush();
+		container.resetStatistics();
+
+		assertValues( img, 0 );
+		assertValues( img, 0 );
+
+		assertTrue( container.getEvictions() > 0 );
+		assertEquals( 0, container.getWriteBacks() );
+
+		img.close();
+	}
+
+	@Test
+	public void testWritesSurviveEviction()
+	{
+		final Image<FloatType> img = createImage();
+		final CachedCellContainer<?, ?> container = (CachedCellContainer<?, ?>)img.getContainer();
+
+		container.flush();
+		container.resetStatistics();
+
+		final LocalizableCursor<FloatType> cursor = img.createLocalizableCursor();
+
+		while ( cursor.hasNext() )
+			cursor.next().inc();
+
+		cursor.close();
+
+		// every cell was written to, all but the cached ones had to be written back
+		assertTrue( container.getWriteBacks() >= container.getNumCells() - container.getNumCachedCells() );
+
+		container.flush();
+		container.resetStatistics();
+		assertValues( img, 1 );
+		assertTrue( container.getEvictions() > 0 );
+		assertEquals( 0, container.getWriteBacks() );
+
+		img.close();
+	}
+}
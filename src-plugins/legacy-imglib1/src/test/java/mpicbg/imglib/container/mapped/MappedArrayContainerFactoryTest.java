@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.mapped;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel.MapMode;
+
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that images derived from a mapped image do not map the file again
+ * and that writes to a mapped image reach the file.
+ */
+public class MappedArrayContainerFactoryTest
+{
+	final static int[] dim = new int[] { 13, 11, 5 };
+	final static int numPixels = 13 * 11 * 5;
+
+	protected File file;
+
+	@Before
+	public void writeFile() throws IOException
+	{
+		file = File.createTempFile( "mapped", ".raw" );
+
+		final DataOutputStream out = new DataOutputStream( new FileOutputStream( file ) );
+		for ( int i = 0; i < numPixels; ++i )
+			out.writeFloat( i );
+		out.close();
+	}
+
+	@After
+	public void deleteFile()
+	{
+		file.delete();
+	}
+
+	protected float[] readFile() throws IOException
+	{
+		final float[] values = new float[ numPixels ];
+
+		final DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+		for ( int i = 0; i < numPixels; ++i )
+			values[ i ] = in.readFloat();
+		in.close();
+
+		return values;
+	}
+
+	protected Image<FloatType> map( final MapMode mapMode )
+	{
+		final MappedArrayContainerFactory factory = new MappedArrayContainerFactory( file );
+		factory.setMapMode( mapMode );
+
+		return new ImageFactory<FloatType>( new FloatType(), factory ).createImage( dim );
+	}
+
+	protected static void assertValues( final Image<FloatType> img, final float offset )
+	{
+		final Cursor<FloatType> cursor = img.createCursor();
+
+		for ( int i = 0; cursor.hasNext(); ++i )
+			assertEquals( i + offset, cursor.next().get(), 0 );
+
+		cursor.close();
+	}
+
+	@Test
+	public void testDerivedImagesAreInMemory() throws IOException
+	{
+		final Image<FloatType> img = map( MapMode.READ_ONLY );
+		assertTrue( img.getContainerFactory() instanceof MappedArrayContainerFactory );
+		assertTrue( ( (MappedArrayContainerFactory)img.getContainerFactory() ).isMapped() );
+
+		final Image<FloatType> derived = img.createNewImage();
+		assertTrue( derived.getContainer().getFactory() instanceof ArrayContainerFactory );
+		assertTrue( ( (Array<?, ?>)derived.getContainer() ).update( null ) instanceof FloatArray );
+
+		// writing into the derived image neither fails nor changes the file or the mapped image
+		final Cursor<FloatType> cursor = derived.createCursor();
+		while ( cursor.hasNext() )
+			cursor.next().set( -1 );
+		cursor.close();
+
+		assertValues( img, 0 );
+
+		final float[] values = readFile();
+		for ( int i = 0; i < numPixels; ++i )
+			assertEquals( i, values[ i ], 0 );
+
+		// so does the clone
+		final Image<FloatType> clone = img.clone();
+		assertFalse( ( (Array<?, ?>)clone.getContainer() ).update( null ) instanceof MappedArray );
+		assertValues( clone, 0 );
+	}
+
+	@Test
+	public void testWritesReachTheFile() throws IOException
+	{
+		final Image<FloatType> img = map( MapMode.READ_WRITE );
+
+		final Cursor<FloatType> cursor = img.createCursor();
+		while ( cursor.hasNext() )
+			cursor.next().inc();
+		cursor.close();
+
+		( (MappedFloatArray)( (Array<?, ?>)img.getContainer() ).update( null ) ).force();
+
+		final float[] values = readFile();
+		for ( int i = 0; i < numPixels; ++i )
+			assertEquals( i + 1, values[ i ], 0 );
+	}
+
+	@Test
+	public void testPrivateWritesStayInMemory() throws IOException
+	{
+		final Image<FloatType> img = map( MapMode.PRIVATE );
+
+		final Cursor<FloatType> cursor = img.createCursor();
+		while ( cursor.hasNext() )
+			cursor.next().inc();
+		cursor.close();
+
+		assertValues( img, 1 );
+
+		final float[] values = readFile();
+		for ( int i = 0; i < numPixels; ++i )
+			assertEquals( i, values[ i ], 0 );
+	}
+
+	@Test
+	public void testNoStorageArray()
+	{
+		final Image<FloatType> img = map( MapMode.READ_ONLY );
+
+		try
+		{
+			( (MappedFloatArray)( (Array<?, ?>)img.getContainer() ).update( null ) ).getCurrentStorageArray();
+			fail( "a mapped array must not hand out a copy of its data" );
+		}
+		catch ( UnsupportedOperationException e ) {}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.multithreading;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link SharedThreadPool} only returns once every task is done.
+ */
+public class SharedThreadPoolTest
+{
+	@Test
+	public void testAllTasksDoneOnReturn()
+	{
+		final SharedThreadPool pool = new SharedThreadPool( 4 );
+
+		for ( int round = 0; round < 50; ++round )
+		{
+			final AtomicInteger count = new AtomicInteger( 0 );
+			final Runnable[] tasks = new Runnable[ 21 ];
+
+			for ( int i = 0; i < tasks.length; ++i )
+				tasks[ i ] = new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							Thread.sleep( 3 );
+						}
+						catch ( final InterruptedException e )
+						{
+							Thread.currentThread().interrupt();
+						}
+
+						count.incrementAndGet();
+					}
+				};
+
+			// helpers still busy with their last task have to be waited for
+			pool.invokeAll( tasks, 4 );
+			assertEquals( tasks.length, count.get() );
+		}
+	}
+
+	@Test
+	public void testNestedCalls()
+	{
+		final SharedThreadPool pool = new SharedThreadPool( 2 );
+		final AtomicInteger count = new AtomicInteger( 0 );
+		final Runnable[] tasks = new Runnable[ 20 ];
+
+		// nested calls saturate the pool, they must neither deadlock nor return early
+		for ( int i = 0; i < tasks.length; ++i )
+			tasks[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Runnable[] subtasks = new Runnable[ 10 ];
+
+					for ( int j = 0; j < subtasks.length; ++j )
+						subtasks[ j ] = new Runnable()
+						{
+							@Override
+							public void run() { count.incrementAndGet(); }
+						};
+
+					pool.invokeAll( subtasks, 3 );
+				}
+			};
+
+		pool.invokeAll( tasks, 3 );
+		assertEquals( 200, count.get() );
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.Add;
+import script.imglib.math.Compute;
+import script.imglib.math.Difference;
+import script.imglib.math.Divide;
+import script.imglib.math.Multiply;
+import script.imglib.math.Pow;
+import script.imglib.math.Sqrt;
+import script.imglib.math.Subtract;
+import script.imglib.math.fn.IFunction;
+
+/* Compares evaluating IFunction trees by interpretation (one virtual call per node
+ * and pixel) with the code generated by the FunctionCompiler, on expressions that
+ * combine several images of different types.
+ *
+ * Each expression is computed several times in both modes to let the JIT warm up;
+ * the reported time is the best of all runs, and the results of both modes are
+ * checked to be identical.
+ */
+public class CompileBenchmark {
+
+	static public final void p(String s) {
+		System.out.println(s);
+	}
+
+	static abstract class Expression {
+		final String name;
+		Expression(final String name) { this.name = name; }
+		/** Create a new tree every time, since computing it closes its cursors. */
+		abstract IFunction create();
+	}
+
+	static public <T extends RealType<T>> Image<T> random(final T type, final int[] dims, final double max, final long seed) {
+		final Image<T> img = new ImageFactory<T>(type, new ArrayContainerFactory()).createImage(dims);
+		final Random rand = new Random(seed);
+		for (final T t : img) t.setReal(1 + rand.nextDouble() * (max - 1));
+		return img;
+	}
+
+	static public double time(final Expression e, final boolean compile, final int numThreads, final List<Image<FloatType>> result) throws Exception {
+		Compute.setCompile(compile);
+		double best = Double.MAX_VALUE;
+		for (int i=0; i<5; i++) {
+			final long t0 = System.nanoTime();
+			final Image<FloatType> img = Compute.inFloats(numThreads, e.create());
+			best = Math.min(best, (System.nanoTime() - t0) / 1000000.0);
+			result.clear();
+			result.add(img);
+		}
+		return best;
+	}
+
+	static public boolean same(final Image<FloatType> a, final Image<FloatType> b) {
+		final Cursor<FloatType> ca = a.createCursor(), cb = b.createCursor();
+		boolean same = true;
+		while (same && ca.hasNext()) {
+			ca.fwd();
+			cb.fwd();
+			same = Float.floatToIntBits(ca.getType().get()) == Float.floatToIntBits(cb.getType().get());
+		}
+		ca.close();
+		cb.close();
+		return same;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) {
+		try {
+			final int[] dims = new int[]{512, 512, 16};
+			final int numThreads = Runtime.getRuntime().availableProcessors();
+
+			final Image<UnsignedByteType> img = random(new UnsignedByteType(), dims, 255, 1);
+			final Image<UnsignedShortType> brightfield = random(new UnsignedShortType(), dims, 4095, 2);
+			final Image<UnsignedShortType> darkfield = random(new UnsignedShortType(), dims, 100, 3);
+			final Image<FloatType> a = random(new FloatType(), dims, 10, 4);
+			final Image<FloatType> b = random(new FloatType(), dims, 10, 5);
+
+			final Expression[] expressions = new Expression[] {
+				new Expression("sqrt(a^2 + b^2)") {
+					IFunction create() { return new Sqrt(new Add(new Pow(a, 2), new Pow(b, 2))); }
+				},
+				new Expression("(img - bright) / (bright - dark) * 42") {
+					IFunction create() {
+						return new Multiply(
+								new Divide(
+									new Subtract(img, brightfield),
+									new Subtract(brightfield, darkfield)),
+								42); }
+				},
+				new Expression("|a - img| + |b - dark|") {
+					IFunction create() { return new Add(new Difference(a, img), new Difference(b, darkfield)); }
+				},
+			};
+
+			final List<Image<FloatType>> interpreted = new ArrayList<Image<FloatType>>(1), compiled = new ArrayList<Image<FloatType>>(1);
+
+			for (final Expression e : expressions) {
+				final double ti = time(e, false, numThreads, interpreted);
+				final double tc = time(e, true, numThreads, compiled);
+				p(e.name + ":\n  interpreted: " + ti + " ms\n  compiled: " + tc + " ms (" + (ti / tc) + "x)"
+						+ "\n  identical results: " + same(interpreted.get(0), compiled.get(0)));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			Compute.setCompile(true);
+		}
+	}
+}